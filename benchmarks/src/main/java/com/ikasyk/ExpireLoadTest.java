@@ -0,0 +1,278 @@
+package com.ikasyk;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test of the /send and /show servlets, started in an embedded Jetty on localhost:
+ *
+ *     java -cp target/benchmarks.jar com.ikasyk.ExpireLoadTest [--name=value]...
+ *
+ *     --rate=2000        requests per second, writes and reads together
+ *     --reads=0.1        share of the requests which are reads of /show
+ *     --size=64          length of a message in characters
+ *     --ttl=10000        time of life of a message in milliseconds
+ *     --limit=100        number of messages a read asks for
+ *     --duration=30      seconds of measurement
+ *     --warmup=5         seconds of load before the measurement, not recorded
+ *     --connections=64   client threads, each keeps one connection
+ *     --threads=200      threads of the server
+ *     --hgrm=dir         also write the full percentile distributions into dir
+ *
+ * The load is open-loop: request i is due at start + i / rate whether or not the earlier
+ * ones have been answered, and its latency is counted from that moment. A stalled server
+ * therefore shows up in the percentiles with all the requests which would have been sent
+ * during the stall, not as one slow request (the coordinated omission of closed-loop tools).
+ * If the client threads cannot keep up the due requests queue and the latencies grow,
+ * so a run is valid only if the achieved rate is close to the requested one.
+ *
+ * The store is configured like in the container, with -Dexpirable.* system properties.
+ */
+public class ExpireLoadTest {
+
+    // Highest latency the histograms hold, longer ones are clamped
+    private static final long MAX_LATENCY = TimeUnit.MINUTES.toNanos(1);
+
+    // Percentiles in the report
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private static final char[] ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+    // Settings
+    private double rate = 2000;
+    private double reads = 0.1;
+    private int size = 64;
+    private long ttl = 10000;
+    private int limit = 100;
+    private int duration = 30;
+    private int warmup = 5;
+    private int connections = 64;
+    private int threads = 200;
+    private String hgrm;
+
+    private final Histogram sendLatency = new ConcurrentHistogram(MAX_LATENCY, 3);
+    private final Histogram showLatency = new ConcurrentHistogram(MAX_LATENCY, 3);
+    private final AtomicLong errors = new AtomicLong();
+
+    // Requests due before this time are not recorded
+    private volatile long recordFrom;
+
+    public static void main(String[] args) throws Exception {
+        ExpireLoadTest test = new ExpireLoadTest();
+        for (String arg : args)
+            test.set(arg);
+        test.run();
+    }
+
+    /**
+     * Applies a --name=value argument
+     *
+     * @throws IllegalArgumentException if the argument is unknown or malformed
+     */
+    private void set(String arg) {
+        int eq = arg.indexOf('=');
+        if (!arg.startsWith("--") || eq < 0)
+            throw new IllegalArgumentException("Argument: " + arg);
+        String name = arg.substring(2, eq);
+        String value = arg.substring(eq + 1);
+        if ("rate".equals(name))
+            rate = Double.parseDouble(value);
+        else if ("reads".equals(name))
+            reads = Double.parseDouble(value);
+        else if ("size".equals(name))
+            size = Integer.parseInt(value);
+        else if ("ttl".equals(name))
+            ttl = Long.parseLong(value);
+        else if ("limit".equals(name))
+            limit = Integer.parseInt(value);
+        else if ("duration".equals(name))
+            duration = Integer.parseInt(value);
+        else if ("warmup".equals(name))
+            warmup = Integer.parseInt(value);
+        else if ("connections".equals(name))
+            connections = Integer.parseInt(value);
+        else if ("threads".equals(name))
+            threads = Integer.parseInt(value);
+        else if ("hgrm".equals(name))
+            hgrm = value;
+        else
+            throw new IllegalArgumentException("Argument: " + arg);
+        if (rate <= 0 || reads < 0 || reads > 1 || size < 0 || ttl < 0 || limit <= 0
+                || duration <= 0 || warmup < 0 || connections <= 0 || threads <= 0)
+            throw new IllegalArgumentException("Argument: " + arg);
+    }
+
+    private void run() throws Exception {
+        // HttpURLConnection keeps at most this many idle connections to a host
+        System.setProperty("http.maxConnections", Integer.toString(connections));
+        Server server = start();
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        final String send = "http://localhost:" + port + "/send?ttl=" + ttl + "&";
+        final URL show = new URL("http://localhost:" + port + "/show?limit=" + limit);
+        ExecutorService clients = Executors.newFixedThreadPool(connections, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "load-client");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        System.out.println("Load: " + rate + " req/s, " + (int) (reads * 100) + "% reads, " + size + " chars, ttl "
+                + ttl + " ms, " + warmup + " s warmup, " + duration + " s measured, " + connections + " connections");
+
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        recordFrom = start + TimeUnit.SECONDS.toNanos(warmup);
+        long end = recordFrom + TimeUnit.SECONDS.toNanos(duration);
+        Random random = new Random(42);
+        long sent = 0;
+        for (long due = start; due < end; due = start + ++sent * interval) {
+            long wait = due - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+            if (random.nextDouble() < reads)
+                clients.execute(new Request(show, due, showLatency));
+            else
+                clients.execute(new Request(new URL(send + message(random)), due, sendLatency));
+        }
+        clients.shutdown();
+        if (!clients.awaitTermination(1, TimeUnit.MINUTES))
+            System.out.println("Requests still running after a minute, the report is incomplete");
+        long elapsed = System.nanoTime() - recordFrom;
+        server.stop();
+        report(elapsed);
+    }
+
+    /**
+     * Starts the servlets on a free port of localhost
+     */
+    private Server start() throws Exception {
+        QueuedThreadPool pool = new QueuedThreadPool(threads);
+        pool.setName("load-server");
+        Server server = new Server(pool);
+        ServerConnector connector = new ServerConnector(server);
+        connector.setHost("localhost");
+        connector.setPort(0);
+        server.addConnector(connector);
+        ServletContextHandler context = new ServletContextHandler();
+        context.addServlet(ExpireSendHandler.class, "/send");
+        context.addServlet(ExpireShowHandler.class, "/show");
+        context.addServlet(ExpireMetricsHandler.class, "/metrics");
+        server.setHandler(context);
+        server.start();
+        return server;
+    }
+
+    /**
+     * @return a random message of the configured length, it needs no URL encoding
+     */
+    private String message(Random random) {
+        char[] chars = new char[size];
+        for (int i = 0; i < size; i++)
+            chars[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        return new String(chars);
+    }
+
+    private void report(long elapsedNanos) throws IOException {
+        double seconds = elapsedNanos / 1e9;
+        long total = sendLatency.getTotalCount() + showLatency.getTotalCount();
+        System.out.printf("Achieved %.1f req/s of %.1f, %d errors%n", total / seconds, rate, errors.get());
+        report("send", sendLatency, seconds);
+        report("show", showLatency, seconds);
+        if (hgrm != null) {
+            new File(hgrm).mkdirs();
+            write(new File(hgrm, "send.hgrm"), sendLatency);
+            write(new File(hgrm, "show.hgrm"), showLatency);
+        }
+    }
+
+    private static void report(String name, Histogram histogram, double seconds) {
+        if (histogram.getTotalCount() == 0)
+            return;
+        StringBuilder line = new StringBuilder(String.format("%-5s %8.1f req/s  latency ms:", name, histogram.getTotalCount() / seconds));
+        for (double p : PERCENTILES)
+            line.append(String.format("  p%s %.3f", p == (long) p ? Long.toString((long) p) : Double.toString(p), millis(histogram.getValueAtPercentile(p))));
+        line.append(String.format("  max %.3f", millis(histogram.getMaxValue())));
+        System.out.println(line);
+    }
+
+    private static void write(File file, Histogram histogram) throws IOException {
+        PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8");
+        try {
+            histogram.outputPercentileDistribution(out, 1e6);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * One request, timed from the moment it was due
+     */
+    private class Request implements Runnable {
+        private final URL url;
+        private final long due;
+        private final Histogram latency;
+
+        Request(URL url, long due, Histogram latency) {
+            this.url = url;
+            this.due = due;
+            this.latency = latency;
+        }
+
+        public void run() {
+            boolean ok;
+            try {
+                ok = fetch(url);
+            } catch (IOException e) {
+                ok = false;
+            }
+            if (due < recordFrom)
+                return;
+            if (!ok)
+                errors.incrementAndGet();
+            latency.recordValue(Math.min(System.nanoTime() - due, MAX_LATENCY));
+        }
+    }
+
+    /**
+     * Reads the whole response, so the connection can be reused
+     *
+     * @return true if the status is 200
+     */
+    private static boolean fetch(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            byte[] buffer = new byte[8192];
+            try {
+                while (in.read(buffer) >= 0) ;
+            } finally {
+                in.close();
+            }
+        }
+        return status == HttpURLConnection.HTTP_OK;
+    }
+}
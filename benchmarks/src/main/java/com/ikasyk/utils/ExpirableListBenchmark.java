@@ -0,0 +1,114 @@
+package com.ikasyk.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations on a list in the steady state, shared by all benchmark threads.
+ *
+ * The list is filled with size elements and the virtual clock stands still, so reads see the
+ * same list in every run. Only trickle moves the clock: every add makes the clock step
+ * ttl / size milliseconds, so about one old element expires per add and the list keeps
+ * its size. Run with -t, or with ListBenchmarkRunner, to choose the number of threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExpirableListBenchmark {
+
+    @Param({"array", "linked", "packed", "ring", "wheel", "concurrent", "compact", "mapped"})
+    public String impl;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"1000", "60000"})
+    public long ttl;
+
+    private VirtualClock clock;
+    private ExpirableList<String> list;
+    private String[] values;
+
+    // Virtual milliseconds between two adds of trickle
+    private long step;
+
+    @Setup
+    public void setUp() {
+        clock = new VirtualClock();
+        list = ExpirableLists.create(impl, ttl, clock);
+        values = new String[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = "message " + i;
+            list.add(values[i]);
+        }
+        step = Math.max(1, ttl / size);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ExpirableLists.close(list);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = (int) (Math.random() * Integer.MAX_VALUE);
+
+        int step(int bound) {
+            next = next * 0x9E3779B9 + 1;
+            return ((next ^ (next >>> 16)) & Integer.MAX_VALUE) % bound;
+        }
+    }
+
+    @Benchmark
+    public String get(Cursor cursor) {
+        return list.get(cursor.step(size));
+    }
+
+    @Benchmark
+    public boolean contains(Cursor cursor) {
+        return list.contains(values[cursor.step(size)]);
+    }
+
+    @Benchmark
+    public int iterate() {
+        int count = 0;
+        for (ExpirableList.Iterator<String> i = list.iterator(); i.hasNext(); i.next())
+            count++;
+        return count;
+    }
+
+    /**
+     * Inserts into the middle and removes from there, so the size does not change
+     */
+    @Benchmark
+    public String addAtIndex() {
+        int index = size >> 1;
+        list.add(index, "inserted");
+        return list.remove(index);
+    }
+
+    /**
+     * Appends while the elements expire at the same rate
+     */
+    @Benchmark
+    public void trickle(Cursor cursor) {
+        clock.advance(step);
+        list.add(values[cursor.step(size)]);
+    }
+}
@@ -0,0 +1,92 @@
+package com.ikasyk.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work which changes the whole list: filling an empty list and removing all of it at once.
+ *
+ * Every thread has its own list and a fresh one for each invocation, so an invocation
+ * handles size elements and its time is reported, not the time per element. Mass expiry
+ * fills the list outside of the measurement, moves the virtual clock past the time of life
+ * and measures the add which finds all elements expired.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 50)
+@Fork(1)
+@State(Scope.Thread)
+public class ExpirableListExpiryBenchmark {
+
+    @Param({"array", "linked", "packed", "ring", "wheel", "concurrent", "compact", "mapped"})
+    public String impl;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"1000", "60000"})
+    public long ttl;
+
+    private VirtualClock clock;
+    private ExpirableList<String> list;
+    private String[] values;
+
+    @Setup(Level.Trial)
+    public void setUpValues() {
+        values = new String[size];
+        for (int i = 0; i < size; i++)
+            values[i] = "message " + i;
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        clock = new VirtualClock();
+        list = ExpirableLists.create(impl, ttl, clock);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        ExpirableLists.close(list);
+    }
+
+    @Benchmark
+    public ExpirableList<String> fill() {
+        for (String value : values)
+            list.add(value);
+        return list;
+    }
+
+    @Benchmark
+    public ExpirableList<String> massExpiry(Expired expired) {
+        list.add("trigger");
+        return list;
+    }
+
+    /**
+     * Fills the list of the thread and lets all of it expire before the measured add
+     */
+    @State(Scope.Thread)
+    public static class Expired {
+        @Setup(Level.Iteration)
+        public void expire(ExpirableListExpiryBenchmark b) {
+            for (String value : b.values)
+                b.list.add(value);
+            b.clock.advance(b.ttl + 1);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.ikasyk.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent appends to one ConcurrentExpirableList against a ShardedExpirableList with the given
+ * number of shards. Elements live ttl milliseconds of real time and every add sweeps the expired
+ * head of its list, so the lists keep a steady size. Run with -t, or with ListBenchmarkRunner,
+ * for several thread counts on a host with at least as many cores as threads. The runs in results
+ * were taken on a single CPU, where the threads share one core, so they show the cost of an add
+ * and not how the writes scale.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExpirableListWriteBenchmark {
+
+    @Param({"concurrent", "sharded"})
+    public String impl;
+
+    @Param({"10"})
+    public long ttl;
+
+    @Param({"4"})
+    public int shards;
+
+    private ExpirableList<String> list;
+
+    @Setup
+    public void setUp() {
+        if ("sharded".equals(impl))
+            list = new ShardedExpirableList<String>(ttl, shards);
+        else
+            list = new ConcurrentExpirableList<String>(ttl);
+    }
+
+    @Benchmark
+    public void add() {
+        list.add("message");
+    }
+}
@@ -0,0 +1,51 @@
+package com.ikasyk.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Creates the compared lists by the names used in the benchmark parameters.
+ * All of them expire lazily against the given clock, so nothing runs in background.
+ */
+class ExpirableLists {
+
+    private ExpirableLists() {
+    }
+
+    /**
+     * @param impl  array, linked, packed, ring, wheel, concurrent, compact or mapped
+     * @param ttl   the time of life of the list
+     * @param clock the clock of the list
+     * @return the new list
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static ExpirableList<String> create(String impl, long ttl, Clock clock) {
+        if ("array".equals(impl))
+            return new ArrayExpirableList<String>(ttl, ExpiryPolicy.lazy(), clock);
+        if ("linked".equals(impl))
+            return new LinkedExpirableList<String>(ttl, ExpiryPolicy.lazy(), clock);
+        if ("packed".equals(impl))
+            return new PackedArrayExpirableList<String>(ttl, ExpiryPolicy.lazy(), clock);
+        if ("ring".equals(impl))
+            return new RingBufferExpirableList<String>(ttl, clock);
+        if ("wheel".equals(impl))
+            return new TimingWheelExpirableList<String>(ttl, clock);
+        if ("concurrent".equals(impl))
+            return new ConcurrentExpirableList<String>(ttl, ExpiryPolicy.lazy(), clock);
+        if ("compact".equals(impl))
+            return new CompactExpirableList(ttl, ExpiryPolicy.lazy(), clock);
+        if ("mapped".equals(impl))
+            return new MappedExpirableList(ttl, ExpiryPolicy.lazy(), clock);
+        throw new IllegalArgumentException("List: " + impl);
+    }
+
+    /**
+     * Releases the file of a mapped list
+     *
+     * @param list the list
+     */
+    static void close(ExpirableList<String> list) throws IOException {
+        if (list instanceof Closeable)
+            ((Closeable) list).close();
+    }
+}
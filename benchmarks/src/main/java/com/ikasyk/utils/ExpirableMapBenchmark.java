@@ -0,0 +1,155 @@
+package com.ikasyk.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ExpirableMap against a ConcurrentHashMap of values with expiry times checked by hand.
+ *
+ * Keys are drawn from a fixed set which is written in the setup, so reads hit. The bounded
+ * variant holds half of the keys, so half of its reads miss and its writes pay for eviction.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExpirableMapBenchmark {
+
+    private static final int KEYS = 1 << 16;
+    private static final int MASK = KEYS - 1;
+
+    @Param({"expirable", "expirable-access", "expirable-bounded", "chm"})
+    public String impl;
+
+    private Cache<Integer, String> cache;
+    private Integer[] keys;
+
+    /**
+     * Common operations of the compared maps
+     */
+    interface Cache<K, V> {
+        V get(K key);
+        void put(K key, V value);
+    }
+
+    /**
+     * What the services did before ExpirableMap: a plain map of stamped values
+     */
+    static class StampedMap<K, V> implements Cache<K, V> {
+        private static class Stamped<V> {
+            final V value;
+            final long expired;
+
+            Stamped(V value, long expired) {
+                this.value = value;
+                this.expired = expired;
+            }
+        }
+
+        private final ConcurrentHashMap<K, Stamped<V>> map = new ConcurrentHashMap<K, Stamped<V>>();
+        private final long lifetime;
+
+        StampedMap(long lifetime) {
+            this.lifetime = lifetime;
+        }
+
+        public V get(K key) {
+            Stamped<V> s = map.get(key);
+            if (s == null)
+                return null;
+            if (s.expired < MonotonicClock.INSTANCE.millis()) {
+                map.remove(key, s);
+                return null;
+            }
+            return s.value;
+        }
+
+        public void put(K key, V value) {
+            map.put(key, new Stamped<V>(value, MonotonicClock.INSTANCE.millis() + lifetime));
+        }
+    }
+
+    static class ExpirableCache<K, V> implements Cache<K, V> {
+        private final ExpirableMap<K, V> map;
+
+        ExpirableCache(ExpirableMap<K, V> map) {
+            this.map = map;
+        }
+
+        public V get(K key) {
+            return map.get(key);
+        }
+
+        public void put(K key, V value) {
+            map.put(key, value);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        long lifetime = 60000;
+        if ("chm".equals(impl))
+            cache = new StampedMap<Integer, String>(lifetime);
+        else if ("expirable-access".equals(impl))
+            cache = new ExpirableCache<Integer, String>(new ExpirableMap<Integer, String>(lifetime, ExpirableMap.ExpireAfter.ACCESS));
+        else if ("expirable-bounded".equals(impl))
+            cache = new ExpirableCache<Integer, String>(new ExpirableMap<Integer, String>(lifetime, ExpirableMap.ExpireAfter.WRITE, KEYS / 2));
+        else
+            cache = new ExpirableCache<Integer, String>(new ExpirableMap<Integer, String>(lifetime));
+        keys = new Integer[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = i;
+            cache.put(keys[i], "value" + i);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = (int) (Math.random() * KEYS);
+
+        int step() {
+            next = next * 0x9E3779B9 + 1;
+            return next ^ (next >>> 16);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String get(Cursor cursor) {
+        return cache.get(keys[cursor.step() & MASK]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void put(Cursor cursor) {
+        int i = cursor.step() & MASK;
+        cache.put(keys[i], "value");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String readMostly(Cursor cursor) {
+        int r = cursor.step();
+        Integer key = keys[r & MASK];
+        if (r >>> 28 == 0) {
+            cache.put(key, "value");
+            return null;
+        }
+        return cache.get(key);
+    }
+}
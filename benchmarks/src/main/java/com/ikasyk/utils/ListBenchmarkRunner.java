@@ -0,0 +1,44 @@
+package com.ikasyk.utils;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs the list benchmarks once for every thread count and writes the results as JSON,
+ * one file per thread count, so runs can be compared over time:
+ *
+ *     java -cp target/benchmarks.jar com.ikasyk.utils.ListBenchmarkRunner [threads] [dir] [-p name=values]...
+ *
+ * threads is a comma separated list, 1,4 by default; dir is target/jmh by default.
+ * Parameters of the benchmarks may be narrowed like with the JMH command line, e.g. -p impl=array,linked.
+ */
+public class ListBenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String threads = args.length > 0 && !args[0].startsWith("-") ? args[0] : "1,4";
+        String dir = args.length > 1 && !args[1].startsWith("-") ? args[1] : "target/jmh";
+        new File(dir).mkdirs();
+        for (String t : threads.split(",")) {
+            int count = Integer.parseInt(t.trim());
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(ExpirableListBenchmark.class.getSimpleName())
+                    .include(ExpirableListExpiryBenchmark.class.getSimpleName())
+                    .include(ExpirableListWriteBenchmark.class.getSimpleName())
+                    .threads(count)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(dir, "lists-" + count + "-threads.json").getPath());
+            for (int i = 0; i < args.length - 1; i++) {
+                if ("-p".equals(args[i])) {
+                    String[] param = args[++i].split("=", 2);
+                    options.param(param[0], param[1].split(","));
+                }
+            }
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.ikasyk;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the load test for a second at a low rate, so a broken servlet or harness fails the build.
+ * The latencies of such a run mean nothing.
+ */
+public class ExpireLoadTestSmokeTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = 120000)
+    public void answersEveryRequest() throws Exception {
+        File hgrm = folder.newFolder("hgrm");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(output, true, "UTF-8"));
+        try {
+            ExpireLoadTest.main(new String[]{"--rate=200", "--reads=0.5", "--duration=1", "--warmup=0",
+                    "--connections=4", "--threads=8", "--hgrm=" + hgrm.getPath()});
+        } finally {
+            System.setOut(stdout);
+        }
+        String report = output.toString("UTF-8");
+        stdout.print(report);
+        assertTrue(report, report.contains(", 0 errors"));
+        assertTrue(report, report.contains("send "));
+        assertTrue(report, report.contains("show "));
+        assertTrue(new File(hgrm, "send.hgrm").length() > 0);
+        assertTrue(new File(hgrm, "show.hgrm").length() > 0);
+    }
+}
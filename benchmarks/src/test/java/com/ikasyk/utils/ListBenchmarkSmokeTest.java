@@ -0,0 +1,44 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs every list benchmark for one short iteration in this JVM, so a benchmark which throws or
+ * a list name which ExpirableLists does not know fails the build instead of a real run.
+ * The numbers of such a run mean nothing.
+ */
+public class ListBenchmarkSmokeTest {
+
+    // Lists known to ExpirableLists, each benchmark runs once per list
+    private static final int IMPLS = 8;
+
+    @Test
+    public void runsEveryListBenchmark() throws RunnerException {
+        Collection<RunResult> results = new Runner(new OptionsBuilder()
+                .include(ExpirableListBenchmark.class.getSimpleName())
+                .include(ExpirableListExpiryBenchmark.class.getSimpleName())
+                .forks(0)
+                .warmupIterations(0)
+                .measurementIterations(1)
+                .measurementTime(TimeValue.milliseconds(20))
+                .param("size", "1000")
+                .param("ttl", "1000")
+                .build()).run();
+        // five steady-state benchmarks and two expiry ones
+        assertEquals(7 * IMPLS, results.size());
+        for (RunResult result : results) {
+            double score = result.getPrimaryResult().getScore();
+            assertTrue(result.getParams().getBenchmark() + " " + result.getParams().getParam("impl"), score > 0);
+        }
+    }
+}
@@ -1,15 +1,414 @@
 package com.ikasyk;
 
 import com.ikasyk.utils.*;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Project ExpireHandlerServer
  * Created by igor, 27.07.16 15:00
+ *
+ * Standalone mode: serves /send, /show and /metrics, with /send/&lt;channel&gt; and /show/&lt;channel&gt;, from the HTTP server of the JDK,
+ * so the service starts in well under a second without a servlet container. /show pages by cursor and long polls with
+ * since and wait like ExpireShowHandler, but a parked poll keeps its thread; the Server-Sent Events of /stream are
+ * served by the servlets only:
+ *
+ *     java -cp ExpireHandlerServer.jar com.ikasyk.ExpireHandlerServer [--name=value]... [--config=file]
+ *
+ * Every --name=value sets the system property expirable.name, so --port=8080 (the default), --ttl=10000
+ * (the time of life of a message in milliseconds, the default) and the settings of the store such as
+ * --store, --compact, --log, --maxElements or --overflow are all given the same way; a config file holds the same
+ * names as a properties file. Each request runs on its own virtual thread where the JVM has them, otherwise
+ * on a cached pool of platform threads.
  */
 public class ExpireHandlerServer {
     public static ArrayExpirableList<String> arrayList = new ArrayExpirableList<String>(10000);
 
-    public static void main(String[] args) {
-        System.out.print("Project starts");
+    // Number of connections the socket keeps waiting to be accepted
+    private static final int BACKLOG = 1024;
+
+    // Size of the response buffer of /show, every full buffer is sent as a chunk
+    private static final int BUFFER_SIZE = 8192;
+
+    public static void main(String[] args) throws IOException {
+        long start = System.nanoTime();
+        for (String arg : args)
+            configure(arg);
+        final ExecutorService executor = executor();
+        final HttpServer server = start(new InetSocketAddress(Integer.getInteger("expirable.port", 8080)), executor);
+        Runtime.getRuntime().addShutdownHook(new Thread("expirable-shutdown") {
+            public void run() {
+                server.stop(1);
+                executor.shutdown();
+            }
+        });
+        System.out.println("Project starts on port " + server.getAddress().getPort() + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    /**
+     * Creates the store and starts the server
+     *
+     * @param address  the address to listen on, port 0 for any free port
+     * @param executor runs the requests
+     * @return the started server
+     * @throws IOException if the address cannot be bound
+     */
+    public static HttpServer start(InetSocketAddress address, ExecutorService executor) throws IOException {
+        HttpServer server = HttpServer.create(address, BACKLOG);
+        server.createContext("/send", new SendHandler());
+        server.createContext("/show", new ShowHandler());
+        server.createContext("/metrics", new MetricsHandler());
+        server.setExecutor(executor);
+        server.start();
+        return server;
+    }
+
+    /**
+     * @return an executor which starts a virtual thread per task, or a cached pool of platform threads
+     * if the JVM has no virtual threads; looked up by reflection, so the server still runs on Java 8
+     */
+    static ExecutorService executor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Applies a --name=value argument
+     *
+     * @throws IllegalArgumentException if the argument is malformed
+     * @throws IOException              if the config file cannot be read
+     */
+    private static void configure(String arg) throws IOException {
+        int eq = arg.indexOf('=');
+        if (!arg.startsWith("--") || eq < 0)
+            throw new IllegalArgumentException("Argument: " + arg);
+        String name = arg.substring(2, eq);
+        String value = arg.substring(eq + 1);
+        if (!"config".equals(name)) {
+            System.setProperty("expirable." + name, value);
+            return;
+        }
+        Properties config = new Properties();
+        InputStream in = new FileInputStream(value);
+        try {
+            config.load(in);
+        } finally {
+            in.close();
+        }
+        for (String key : config.stringPropertyNames())
+            System.setProperty("expirable." + key, config.getProperty(key));
+    }
+
+    /**
+     * Sends a whole response
+     */
+    static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (exchange.getResponseHeaders().getFirst("Content-Type") == null)
+            exchange.getResponseHeaders().set("Content-Type", "text/html;charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    /**
+     * Times every request into its histogram and closes the exchange whatever happens
+     */
+    private abstract static class Endpoint implements HttpHandler {
+        private final LatencyHistogram latency;
+
+        Endpoint(LatencyHistogram latency) {
+            this.latency = latency;
+        }
+
+        public void handle(HttpExchange exchange) throws IOException {
+            long start = System.nanoTime();
+            try {
+                if ("GET".equals(exchange.getRequestMethod()))
+                    doGet(exchange);
+                else if ("POST".equals(exchange.getRequestMethod()))
+                    doPost(exchange);
+                else
+                    respond(exchange, 405, "<h1>Method not allowed");
+            } finally {
+                exchange.close();
+                if (latency != null)
+                    latency.record(System.nanoTime() - start);
+            }
+        }
+
+        abstract void doGet(HttpExchange exchange) throws IOException;
+
+        /**
+         * @return the name of the channel after the path of the endpoint, or null for the default list
+         */
+        static String channel(HttpExchange exchange) {
+            return ExpireResponses.channel(exchange.getRequestURI().getPath().substring(exchange.getHttpContext().getPath().length()));
+        }
+
+        void doPost(HttpExchange exchange) throws IOException {
+            respond(exchange, 405, "<h1>Method not allowed");
+        }
+    }
+
+    /**
+     * Same as ExpireSendHandler
+     */
+    static class SendHandler extends Endpoint {
+
+        SendHandler() {
+            super(ListController.sendLatency);
+        }
+
+        void doGet(HttpExchange exchange) throws IOException {
+            reply(exchange, ExpireResponses.send(channel(exchange), exchange.getRequestURI().getRawQuery()));
+        }
+
+        void doPost(HttpExchange exchange) throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+            reply(exchange, ExpireResponses.sendAll(channel(exchange), in, exchange.getRequestURI().getRawQuery()));
+        }
+
+        private static void reply(HttpExchange exchange, ExpireResponses.Reply reply) throws IOException {
+            if (reply.retryAfter != null)
+                exchange.getResponseHeaders().set("Retry-After", reply.retryAfter);
+            respond(exchange, reply.status, reply.body);
+        }
+    }
+
+    /**
+     * Same as ExpireShowHandler
+     */
+    static class ShowHandler extends Endpoint {
+
+        ShowHandler() {
+            super(ListController.showLatency);
+        }
+
+        void doGet(HttpExchange exchange) throws IOException {
+            String channel = channel(exchange);
+            ListFormat format = ListFormat.negotiate(exchange.getRequestHeaders().getFirst("Accept"));
+            String query = exchange.getRequestURI().getRawQuery();
+            int limit = ExpireResponses.limit(ExpireResponses.parameter(query, "limit"));
+            if (limit < 0) {
+                respond(exchange, 400, "<h1>limit must be a positive number");
+                return;
+            }
+            if (ExpireResponses.parameter(query, "since") != null) {
+                poll(exchange, channel, format, limit, ExpireResponses.parameter(query, "since"), ExpireResponses.parameter(query, "wait"));
+                return;
+            }
+            if (format != ListFormat.HTML) {
+                stream(exchange, channel, format, limit, ExpireResponses.parameter(query, "cursor"));
+                return;
+            }
+            if (ExpireResponses.parameter(query, "cursor") == null) {
+                ListController.Page page;
+                try {
+                    page = ListController.page(channel, limit);
+                } catch (IllegalArgumentException e) {
+                    respond(exchange, 400, "<h1>" + ListFormat.escapeHtml(e.getMessage()));
+                    return;
+                }
+                if (page != null) {
+                    send(exchange, page);
+                    return;
+                }
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/html;charset=utf-8");
+            exchange.getResponseHeaders().set("Vary", "Accept");
+            Body body = new Body(exchange);
+            Writer out = new BufferedWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8), BUFFER_SIZE);
+            try {
+                ExpireResponses.show(out, channel, limit, ExpireResponses.parameter(query, "cursor"));
+                out.close();
+            } catch (IllegalArgumentException e) {
+                if (body.isOpen())
+                    throw e;
+                respond(exchange, 400, "<h1>" + ListFormat.escapeHtml(e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Answers a long poll like ExpireShowHandler does. The request has a thread of its own here,
+     * so the poll waits on that thread until a watcher of the channel is called or the wait is over.
+     */
+    static void poll(HttpExchange exchange, String channel, ListFormat format, int limit, String since, String waitParameter)
+            throws IOException {
+        long wait = ExpireResponses.wait(waitParameter);
+        if (wait < 0) {
+            respond(exchange, 400, "<h1>wait must be a number of milliseconds up to " + ExpireResponses.MAX_WAIT);
+            return;
+        }
+        try {
+            if (wait > 0 && !ListController.hasAfter(channel, since))
+                await(channel, since, wait);
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, "<h1>" + ListFormat.escapeHtml(e.getMessage()));
+            return;
+        }
+        if (format != ListFormat.HTML) {
+            stream(exchange, channel, format, limit, since);
+            return;
+        }
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", "text/html;charset=utf-8");
+        headers.set("Vary", "Accept");
+        headers.set("Cache-Control", "no-cache");
+        Writer out = new BufferedWriter(new OutputStreamWriter(new Body(exchange), StandardCharsets.UTF_8), BUFFER_SIZE);
+        ExpireResponses.showAfter(out, channel, limit, since, wait);
+        out.close();
+    }
+
+    /**
+     * Waits until a line is added to the channel after the cursor or the time is over
+     */
+    private static void await(String channel, String since, long wait) {
+        final CountDownLatch added = new CountDownLatch(1);
+        Runnable watcher = new Runnable() {
+            public void run() {
+                added.countDown();
+            }
+        };
+        ListController.watch(channel, watcher);
+        try {
+            // A line added before the watch was registered would not wake it up
+            if (!ListController.hasAfter(channel, since))
+                added.await(wait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            ListController.unwatch(watcher);
+        }
+    }
+
+    /**
+     * Streams the lines in JSON or binary like ExpireShowHandler does
+     */
+    static void stream(HttpExchange exchange, String channel, ListFormat format, int limit, String cursor) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", format.contentType());
+        headers.set("Cache-Control", "no-cache");
+        headers.set("Vary", "Accept");
+        Body body = new Body(exchange);
+        OutputStream out = new BufferedOutputStream(body, BUFFER_SIZE);
+        try {
+            ListController.write(channel, out, format, limit, cursor);
+            out.close();
+        } catch (IllegalArgumentException e) {
+            if (body.isOpen())
+                throw e;
+            headers.set("Content-Type", "text/html;charset=utf-8");
+            respond(exchange, 400, "<h1>" + e.getMessage());
+        }
+    }
+
+    /**
+     * Sends a rendered page like ExpireShowHandler does
+     */
+    static void send(HttpExchange exchange, ListController.Page page) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", page.etag());
+        headers.set("Cache-Control", ExpireResponses.cacheControl(page));
+        headers.set("Vary", "Accept, Accept-Encoding");
+        if (ExpireResponses.notModified(exchange.getRequestHeaders().getFirst("If-None-Match"), page.etag())) {
+            exchange.sendResponseHeaders(ExpireResponses.SC_NOT_MODIFIED, -1);
+            return;
+        }
+        headers.set("Content-Type", "text/html;charset=utf-8");
+        byte[] body = page.bytes();
+        if (body.length >= ExpireResponses.GZIP_MIN
+                && ExpireResponses.acceptsGzip(exchange.getRequestHeaders().getFirst("Accept-Encoding"))) {
+            body = page.gzip();
+            headers.set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Same as ExpireMetricsHandler
+     */
+    static class MetricsHandler extends Endpoint {
+
+        MetricsHandler() {
+            super(null);
+        }
+
+        void doGet(HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain;charset=utf-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+            ExpireResponses.metrics(out);
+            out.close();
+        }
+    }
+
+    /**
+     * Chunked response body which sends the status 200 with the first byte,
+     * so an error found before any output can still get its own status
+     */
+    private static class Body extends OutputStream {
+        private final HttpExchange exchange;
+        private OutputStream out;
+
+        Body(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        boolean isOpen() {
+            return out != null;
+        }
+
+        private OutputStream open() throws IOException {
+            if (out == null) {
+                exchange.sendResponseHeaders(200, 0);
+                out = exchange.getResponseBody();
+            }
+            return out;
+        }
+
+        public void write(int b) throws IOException {
+            open().write(b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            open().write(b, off, len);
+        }
+
+        public void flush() throws IOException {
+            if (out != null)
+                out.flush();
+        }
+
+        public void close() throws IOException {
+            open().close();
+        }
     }
 }
@@ -0,0 +1,23 @@
+package com.ikasyk;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Prints the counters of the store and the latencies of /send and /show as plain text,
+ * one "name value" line per metric, so a scraper or a person with curl can read them.
+ */
+public class ExpireMetricsHandler extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+
+        resp.setHeader("Content-Type", "text/plain;charset=utf-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        ExpireResponses.metrics(resp.getWriter());
+    }
+}
@@ -0,0 +1,413 @@
+package com.ikasyk;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.ikasyk.utils.CapacityExceededException;
+import com.ikasyk.utils.LatencyHistogram;
+import com.ikasyk.utils.ListController;
+import com.ikasyk.utils.ListFormat;
+import com.ikasyk.utils.ListMetrics;
+
+/**
+ * What the servlets and the standalone server answer alike. Nothing here refers to
+ * the servlet API, which the standalone server runs without.
+ */
+final class ExpireResponses {
+
+    // Most lines of a POST body added to the list at once, fewer if the list holds fewer
+    static final int BATCH_SIZE = 1024;
+
+    // Seconds a client should wait before it sends to the full list again
+    static final String RETRY_AFTER = "1";
+
+    // Smallest page sent compressed, a shorter one would not get much shorter
+    static final int GZIP_MIN = 1024;
+
+    // Longest wait of a long poll of /show in milliseconds
+    static final long MAX_WAIT = 300000;
+
+    static final int SC_OK = 200;
+
+    static final int SC_NOT_MODIFIED = 304;
+
+    static final int SC_BAD_REQUEST = 400;
+
+    static final int SC_REQUEST_ENTITY_TOO_LARGE = 413;
+
+    static final int SC_TOO_MANY_REQUESTS = 429;
+
+    static final int SC_SERVICE_UNAVAILABLE = 503;
+
+    // Percentiles printed for every histogram
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private ExpireResponses() {
+    }
+
+    /**
+     * Adds the line of a GET /send: the query string, without its ttl parameter if it has one
+     *
+     * @param channel the name of the channel, or null for the default list
+     * @param query   the raw query string, or null
+     * @return the answer
+     */
+    static Reply send(String channel, String query) {
+        String show = path("/show", channel);
+        String ttl = parameter(query, "ttl");
+        if (ttl != null) {
+            long ttlMillis;
+            try {
+                ttlMillis = Long.parseLong(ttl);
+            } catch (NumberFormatException e) {
+                ttlMillis = -1;
+            }
+            if (ttlMillis < 0)
+                return new Reply(SC_BAD_REQUEST, "<h1>Time of life must be a non-negative number of milliseconds.");
+            String line = stripTtl(query);
+            try {
+                ListController.add(channel, line, ttlMillis);
+            } catch (IllegalArgumentException e) {
+                return badRequest(e);
+            } catch (CapacityExceededException e) {
+                return refuse(e, 0);
+            }
+            return new Reply(SC_OK, "<h1>Added line for " + ttlMillis + " ms [<a href=\"" + show + "\" target=\"_blank\">see all</a>]:<br/><pre>" + ListFormat.escapeHtml(line) + "</pre>");
+        }
+        try {
+            ListController.add(channel, query);
+        } catch (IllegalArgumentException e) {
+            return badRequest(e);
+        } catch (CapacityExceededException e) {
+            return refuse(e, 0);
+        }
+        if (query != null)
+            return new Reply(SC_OK, "<h1>Added line [<a href=\"" + show + "\" target=\"_blank\">see all</a>]:<br/><pre>" + ListFormat.escapeHtml(query) + "</pre>");
+        return new Reply(SC_OK, "<h1>Please, enter your line as /show?&lt;my_line&gt;.");
+    }
+
+    /**
+     * Adds every non-empty line of a POST /send body. Lines are passed to the list in batches,
+     * so a batch costs one list pass; a batch is never larger than the list, which would refuse
+     * it whatever its room. A request without body is handled as GET.
+     *
+     * @param channel the name of the channel, or null for the default list
+     * @param in      the body
+     * @param query   the raw query string, or null
+     * @return the answer
+     * @throws IOException if the body cannot be read
+     */
+    static Reply sendAll(String channel, BufferedReader in, String query) throws IOException {
+        int size = Math.max(1, Math.min(BATCH_SIZE, ListController.maxElements(channel)));
+        List<String> batch = new ArrayList<String>(size);
+        int count = 0;
+        String line;
+        try {
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty())
+                    continue;
+                batch.add(line);
+                if (batch.size() == size) {
+                    ListController.addAll(channel, batch);
+                    count += batch.size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                ListController.addAll(channel, batch);
+                count += batch.size();
+            }
+        } catch (IllegalArgumentException e) {
+            return badRequest(e);
+        } catch (CapacityExceededException e) {
+            return refuse(e, count);
+        }
+        if (count == 0)
+            return send(channel, query);
+        return new Reply(SC_OK, "<h1>Added " + count + " lines [<a href=\"" + path("/show", channel) + "\" target=\"_blank\">see all</a>]");
+    }
+
+    /**
+     * @param e     the refusal of the full list
+     * @param added the number of lines added before it
+     * @return the answer to the refused add, with Retry-After unless it is 413
+     */
+    private static Reply refuse(CapacityExceededException e, int added) {
+        int status = refusalStatus(e);
+        return new Reply(status, status == SC_REQUEST_ENTITY_TOO_LARGE ? null : RETRY_AFTER, refusal(e, added));
+    }
+
+    /**
+     * @return the answer to a malformed channel or line; the message may quote the request, so it is escaped
+     */
+    private static Reply badRequest(IllegalArgumentException e) {
+        return new Reply(SC_BAD_REQUEST, "<h1>" + ListFormat.escapeHtml(e.getMessage()));
+    }
+
+    /**
+     * @param e the refusal of the full list
+     * @return 413 if the lines do not fit even into the empty list, 429 if the list rejects adds
+     * when it is full, 503 if the add has waited for room in vain; all but 413 are sent with Retry-After
+     */
+    static int refusalStatus(CapacityExceededException e) {
+        if (e.isTooLarge())
+            return SC_REQUEST_ENTITY_TOO_LARGE;
+        switch (e.getMode()) {
+            case REJECT:
+                return SC_TOO_MANY_REQUESTS;
+            case BLOCK:
+                return SC_SERVICE_UNAVAILABLE;
+            default:
+                return SC_REQUEST_ENTITY_TOO_LARGE;
+        }
+    }
+
+    /**
+     * @param e     the refusal of the full list
+     * @param added the number of lines added before the refusal
+     * @return the page which explains the refusal
+     */
+    static String refusal(CapacityExceededException e, int added) {
+        return (e.isTooLarge() ? "<h1>The lines do not fit into the list, " : "<h1>The list is full, ")
+                + (added > 0 ? "added only " + added + " lines." : "nothing added.");
+    }
+
+    /**
+     * @param value the limit parameter of /show, or null
+     * @return the most lines of a page, all if there is no limit, or -1 if the value is not a positive number
+     */
+    static int limit(String value) {
+        if (value == null)
+            return Integer.MAX_VALUE;
+        try {
+            int limit = Integer.parseInt(value);
+            return limit > 0 ? limit : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param value the wait parameter of a long poll, or null
+     * @return the wait in milliseconds, 0 if there is none, or -1 if the value is not a number of
+     * milliseconds up to MAX_WAIT
+     */
+    static long wait(String value) {
+        if (value == null)
+            return 0;
+        try {
+            long wait = Long.parseLong(value);
+            return wait >= 0 && wait <= MAX_WAIT ? wait : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Writes a page of /show from the cursor, with the link to the next page if there are more lines
+     *
+     * @param out     the writer of the response
+     * @param channel the name of the channel, or null for the default list
+     * @param limit   the most lines of the page
+     * @param cursor  the cursor of the page, or null for the first one
+     * @throws IllegalArgumentException if the name of the channel or the cursor is malformed
+     * @throws IOException              if the writer fails
+     */
+    static void show(Writer out, String channel, int limit, String cursor) throws IOException {
+        String next = ListController.write(channel, out, limit, cursor);
+        if (next != null)
+            out.write("<a href=\"" + path("/show", channel) + "?limit=" + limit + "&cursor=" + next + "\">next</a>");
+    }
+
+    /**
+     * Writes the lines of a long poll added after the cursor, with the link to the next poll
+     *
+     * @param out     the writer of the response
+     * @param channel the name of the channel, or null for the default list
+     * @param limit   the most lines to write
+     * @param since   the cursor of the poll
+     * @param wait    the wait of the poll, repeated in the link
+     * @throws IllegalArgumentException if the name of the channel or the cursor is malformed
+     * @throws IOException              if the writer fails
+     */
+    static void showAfter(final Writer out, String channel, int limit, String since, long wait) throws IOException {
+        out.write("<h1><pre>");
+        String next = ListController.writeAfter(channel, since, limit, new ListController.Visitor() {
+            public void line(String cursor, String line) throws IOException {
+                out.write(ListFormat.escapeHtml(line));
+                out.write('\n');
+            }
+        });
+        out.write("</pre></h1>");
+        out.write("<a href=\"" + path("/show", channel) + "?limit=" + limit + "&since=" + next + "&wait=" + wait + "\">next</a>");
+    }
+
+    /**
+     * @param path the path after /send, /show or /stream, or null
+     * @return the name of the channel, or null for the default list
+     */
+    static String channel(String path) {
+        if (path == null || path.isEmpty() || "/".equals(path))
+            return null;
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    /**
+     * @param base    the path of the endpoint, such as "/show"
+     * @param channel the name of the channel, or null for the default list
+     * @return the path of the endpoint for the channel
+     */
+    static String path(String base, String channel) {
+        return channel == null ? base : base + "/" + channel;
+    }
+
+    /**
+     * @param ifNoneMatch the If-None-Match header, or null
+     * @param etag        the quoted entity tag of the page
+     * @return true if the client has the page already, weak tags are compared by their value
+     */
+    static boolean notModified(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null)
+            return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+            if (tag.equals(etag) || tag.equals("*"))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param acceptEncoding the Accept-Encoding header, or null
+     * @return true if the client takes gzip
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return false;
+        for (String coding : acceptEncoding.split(",")) {
+            int semicolon = coding.indexOf(';');
+            String name = (semicolon < 0 ? coding : coding.substring(0, semicolon)).trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equals("*"))
+                continue;
+            String q = semicolon < 0 ? "" : coding.substring(semicolon + 1).replace(" ", "");
+            return !q.matches("q=0(\\.0*)?");
+        }
+        return false;
+    }
+
+    /**
+     * @param page the page
+     * @return the Cache-Control which keeps the page until the first of its lines expires;
+     * a page without lines is revalidated every time, a line may be added at any moment
+     */
+    static String cacheControl(ListController.Page page) {
+        long maxAge = page.maxAge();
+        return maxAge < 0 ? "no-cache" : "max-age=" + maxAge;
+    }
+
+    /**
+     * Finds a parameter in a query string
+     *
+     * @param query the raw query string or null
+     * @param name  the name of the parameter
+     * @return the decoded value of the first such parameter, or null
+     */
+    static String parameter(String query, String name) {
+        if (query == null)
+            return null;
+        for (String part : query.split("&")) {
+            if (part.startsWith(name + "=")) {
+                try {
+                    return URLDecoder.decode(part.substring(name.length() + 1), "UTF-8");
+                } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the ttl parameter from the query string, so only the message is stored
+     *
+     * @param query the query string
+     * @return the query string without ttl=..., or null if there is no query string
+     */
+    static String stripTtl(String query) {
+        if (query == null)
+            return null;
+        StringBuilder result = new StringBuilder();
+        for (String part : query.split("&")) {
+            if (part.startsWith("ttl="))
+                continue;
+            if (result.length() > 0)
+                result.append('&');
+            result.append(part);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Prints the counters of the store and the latencies of /send and /show, one "name value" line per metric
+     *
+     * @param out the writer of the response
+     */
+    static void metrics(PrintWriter out) {
+        ListMetrics metrics = ListController.metrics();
+        out.println("expirable_size " + ListController.size());
+        out.println("expirable_used_bytes " + ListController.usedBytes());
+        out.println("expirable_adds_total " + metrics.getAdds());
+        out.println("expirable_expirations_total " + metrics.getExpirations());
+        out.println("expirable_sweeps_total " + metrics.getSweeps());
+        out.println("expirable_scanned_total " + metrics.getScanned());
+        out.println("expirable_listener_failures_total " + metrics.getListenerFailures());
+        out.println("expirable_channels " + ListController.channels.size());
+        out.println("expirable_channel_adds_total " + ListController.channels.metrics().getAdds());
+        out.println("expirable_channel_expirations_total " + ListController.channels.metrics().getExpirations());
+        print(out, "expirable_sweep_micros", metrics.getSweepNanos());
+        print(out, "expirable_send_latency_micros", ListController.sendLatency);
+        print(out, "expirable_show_latency_micros", ListController.showLatency);
+    }
+
+    /**
+     * Prints the percentiles, the maximum and the count of the histogram in microseconds
+     */
+    private static void print(PrintWriter out, String name, LatencyHistogram histogram) {
+        for (double q : QUANTILES)
+            out.println(name + "{quantile=\"" + q + "\"} " + TimeUnit.NANOSECONDS.toMicros(histogram.percentile(q)));
+        out.println(name + "_max " + TimeUnit.NANOSECONDS.toMicros(histogram.max()));
+        out.println(name + "_count " + histogram.count());
+    }
+
+    /**
+     * Answer of /send, which the servlet and the standalone server each send their own way
+     */
+    static final class Reply {
+        final int status;
+
+        // Value of the Retry-After header, or null to send none
+        final String retryAfter;
+
+        // The HTML page
+        final String body;
+
+        Reply(int status, String body) {
+            this(status, null, body);
+        }
+
+        Reply(int status, String retryAfter, String body) {
+            this.status = status;
+            this.retryAfter = retryAfter;
+            this.body = body;
+        }
+    }
+}
@@ -5,30 +5,54 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.PrintWriter;
 import com.ikasyk.utils.ListController;
 
 public class ExpireSendHandler extends HttpServlet {
 
+    /**
+     * Records the duration of every request, whatever its method and outcome
+     */
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+
+        long start = System.nanoTime();
+        try {
+            super.service(req, resp);
+        } finally {
+            ListController.sendLatency.record(System.nanoTime() - start);
+        }
+    }
+
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
 
-        resp.setHeader("Content-Type", "text/html;charset=utf-8");
-        PrintWriter out = resp.getWriter();
-        String line = req.getQueryString();
-        if (line != null)
-            out.print("<h1>Added line [<a href=\"/show\" target=\"_blank\">see all</a>]:<br/><pre>" + line + "</pre>");
-        else
-            out.print("<h1>Please, enter your line as /show?&lt;my_line&gt;.");
-        ListController.add(req.getQueryString());
+        reply(resp, ExpireResponses.send(ExpireResponses.channel(req.getPathInfo()), req.getQueryString()));
     }
 
+    /**
+     * Adds every non-empty line of the request body, a request without body is handled as GET.
+     * A body without a charset is read as UTF-8, like the standalone server reads it.
+     */
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
 
-        doGet(req, resp);
+        if (req.getCharacterEncoding() == null)
+            req.setCharacterEncoding("UTF-8");
+        reply(resp, ExpireResponses.sendAll(ExpireResponses.channel(req.getPathInfo()), req.getReader(), req.getQueryString()));
+    }
+
+    /**
+     * Sends the answer of /send
+     */
+    private static void reply(HttpServletResponse resp, ExpireResponses.Reply reply) throws IOException {
+        resp.setStatus(reply.status);
+        if (reply.retryAfter != null)
+            resp.setHeader("Retry-After", reply.retryAfter);
+        resp.setHeader("Content-Type", "text/html;charset=utf-8");
+        resp.getWriter().print(reply.body);
     }
 
 }
@@ -1,27 +1,245 @@
 package com.ikasyk;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.NoSuchElementException;
+import java.io.OutputStream;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.ikasyk.utils.ListController;
+import com.ikasyk.utils.ListFormat;
 
+/**
+ * Shows alive lines page by page. With ?since=&lt;cursor&gt;&amp;wait=&lt;ms&gt; it shows only the lines added
+ * after the cursor and, if there are none, holds the request without a thread until one is added
+ * or the wait is over; the page ends with the link which continues after the shown lines.
+ * The latency of such a request is counted until it is parked. /show/&lt;channel&gt; shows the named channel.
+ * The first page is rendered once per change of the list and sent with its ETag,
+ * so an unchanged page costs a 304 or a copy of the cached bytes. A client which accepts application/json
+ * or application/octet-stream gets the lines in that ListFormat, with their sequence numbers and expiry.
+ */
 public class ExpireShowHandler extends HttpServlet {
 
+    // Size of the response buffer, every full buffer is sent as a chunk
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Records the duration of every request, whatever its method and outcome
+     */
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+
+        long start = System.nanoTime();
+        try {
+            super.service(req, resp);
+        } finally {
+            ListController.showLatency.record(System.nanoTime() - start);
+        }
+    }
+
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
 
-        PrintWriter out = resp.getWriter();
+        String channel = ExpireResponses.channel(req.getPathInfo());
+        ListFormat format = ListFormat.negotiate(req.getHeader("Accept"));
+        int limit = ExpireResponses.limit(req.getParameter("limit"));
+        String cursor = req.getParameter("cursor");
+        if (limit < 0) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "limit must be a positive number");
+            return;
+        }
+        if (req.getParameter("since") != null) {
+            poll(req, resp, channel, format, limit, req.getParameter("since"));
+            return;
+        }
+        if (format != ListFormat.HTML) {
+            try {
+                stream(resp, channel, format, limit, cursor);
+            } catch (IllegalArgumentException e) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            }
+            return;
+        }
+
+        if (cursor == null) {
+            ListController.Page page;
+            try {
+                page = ListController.page(channel, limit);
+            } catch (IllegalArgumentException e) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+                return;
+            }
+            if (page != null) {
+                send(req, resp, page);
+                return;
+            }
+        }
+
+        resp.setHeader("Content-Type", "text/html;charset=utf-8");
+        resp.setHeader("Vary", "Accept");
+        resp.setBufferSize(BUFFER_SIZE);
+        try {
+            ExpireResponses.show(resp.getWriter(), channel, limit, cursor);
+        } catch (IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        }
+    }
 
+    /**
+     * Sends a rendered page: 304 if the client has it already, otherwise the page, compressed
+     * if the client takes gzip. Either way the page may be kept until one of its lines expires.
+     */
+    private static void send(HttpServletRequest req, HttpServletResponse resp, ListController.Page page) throws IOException {
+        resp.setHeader("ETag", page.etag());
+        resp.setHeader("Cache-Control", ExpireResponses.cacheControl(page));
+        resp.setHeader("Vary", "Accept, Accept-Encoding");
+        if (ExpireResponses.notModified(req.getHeader("If-None-Match"), page.etag())) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        resp.setHeader("Content-Type", "text/html;charset=utf-8");
+        byte[] body = page.bytes();
+        if (body.length >= ExpireResponses.GZIP_MIN && ExpireResponses.acceptsGzip(req.getHeader("Accept-Encoding"))) {
+            body = page.gzip();
+            resp.setHeader("Content-Encoding", "gzip");
+        }
+        resp.setContentLength(body.length);
+        resp.getOutputStream().write(body);
+    }
+
+    /**
+     * Answers a long poll at once if there are new lines or it does not wait, otherwise parks it
+     */
+    private static void poll(HttpServletRequest req, HttpServletResponse resp, String channel, ListFormat format, int limit,
+                             String since) throws IOException {
+        long wait = ExpireResponses.wait(req.getParameter("wait"));
+        if (wait < 0) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "wait must be a number of milliseconds up to " + ExpireResponses.MAX_WAIT);
+            return;
+        }
         try {
-            out.print(ListController.getAll());
-        } catch (NoSuchElementException e) {
-            out.print("");
+            if (wait == 0 || ListController.hasAfter(channel, since)) {
+                writeAfter(resp, channel, format, limit, since, wait);
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        AsyncContext async = req.startAsync();
+        async.setTimeout(wait);
+        Poll poll = new Poll(async, channel, format, limit, since, wait);
+        async.addListener(poll);
+        ListController.watch(channel, poll);
+        // A line added before the watch was registered would not wake it up
+        if (ListController.hasAfter(channel, since) && ListController.unwatch(poll))
+            poll.run();
+    }
+
+    /**
+     * Streams the lines after the cursor in JSON or binary, they carry the cursors themselves
+     */
+    private static void stream(HttpServletResponse resp, String channel, ListFormat format, int limit, String cursor)
+            throws IOException {
+        resp.setHeader("Content-Type", format.contentType());
+        resp.setHeader("Cache-Control", "no-cache");
+        resp.setHeader("Vary", "Accept");
+        resp.setBufferSize(BUFFER_SIZE);
+        OutputStream out = new BufferedOutputStream(resp.getOutputStream(), BUFFER_SIZE);
+        ListController.write(channel, out, format, limit, cursor);
+        out.flush();
+    }
+
+    /**
+     * Writes the lines added after the cursor and the link to the next poll
+     */
+    private static void writeAfter(HttpServletResponse resp, String channel, ListFormat format, int limit, String since,
+                                   long wait) throws IOException {
+        if (format != ListFormat.HTML) {
+            stream(resp, channel, format, limit, since);
+            return;
+        }
+        resp.setHeader("Content-Type", "text/html;charset=utf-8");
+        resp.setHeader("Vary", "Accept");
+        resp.setHeader("Cache-Control", "no-cache");
+        resp.setBufferSize(BUFFER_SIZE);
+        ExpireResponses.showAfter(resp.getWriter(), channel, limit, since, wait);
+    }
+
+    /**
+     * A parked long poll. It is answered once, by the first of an add and the timeout.
+     */
+    private static class Poll implements Runnable, AsyncListener {
+        private final AsyncContext async;
+        private final String channel;
+        private final ListFormat format;
+        private final int limit;
+        private final String since;
+        private final long wait;
+
+        // True once the poll has been answered or its request has failed
+        private boolean done;
+
+        Poll(AsyncContext async, String channel, ListFormat format, int limit, String since, long wait) {
+            this.async = async;
+            this.channel = channel;
+            this.format = format;
+            this.limit = limit;
+            this.since = since;
+            this.wait = wait;
+        }
+
+        /**
+         * Called on the adding thread, the answer is written on a thread of the container
+         */
+        public void run() {
+            try {
+                async.start(new Runnable() {
+                    public void run() {
+                        respond();
+                    }
+                });
+            } catch (IllegalStateException | RejectedExecutionException e) {
+                // The poll has timed out meanwhile and is answered already, or the container is stopping
+            }
+        }
+
+        private synchronized void respond() {
+            if (done)
+                return;
+            done = true;
+            ListController.unwatch(this);
+            try {
+                writeAfter((HttpServletResponse) async.getResponse(), channel, format, limit, since, wait);
+            } catch (IOException e) {
+                // The client has gone
+            } finally {
+                async.complete();
+            }
+        }
+
+        public void onTimeout(AsyncEvent event) {
+            respond();
+        }
+
+        public synchronized void onError(AsyncEvent event) {
+            done = true;
+            ListController.unwatch(this);
+        }
+
+        public void onComplete(AsyncEvent event) {
+            ListController.unwatch(this);
+        }
+
+        public void onStartAsync(AsyncEvent event) {
         }
     }
 
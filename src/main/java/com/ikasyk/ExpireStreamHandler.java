@@ -0,0 +1,197 @@
+package com.ikasyk;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.ikasyk.utils.ListController;
+
+/**
+ * Streams lines as Server-Sent Events while they are added: one event per line, its id is
+ * the cursor after it. A stream starts after ?since=&lt;cursor&gt;, after the Last-Event-ID of a
+ * reconnecting EventSource, or from now. /stream/&lt;channel&gt; streams the named channel. No thread is held between adds; a stream is closed
+ * after STREAM_TIMEOUT and the client reconnects where it stopped, so dead clients do not pile up.
+ */
+public class ExpireStreamHandler extends HttpServlet {
+
+    // How long one stream stays open in milliseconds
+    private static final long STREAM_TIMEOUT = 300000;
+
+    // Milliseconds an EventSource waits before it reconnects
+    private static final int RETRY = 1000;
+
+    // Number of lines written between two checks of the client
+    private static final int BATCH_SIZE = 256;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+
+        String channel = ExpireResponses.channel(req.getPathInfo());
+        String since = req.getHeader("Last-Event-ID");
+        if (since == null)
+            since = req.getParameter("since");
+        try {
+            if (since == null)
+                since = ListController.cursor(channel);
+            ListController.hasAfter(channel, since);
+        } catch (IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        resp.setHeader("Content-Type", "text/event-stream;charset=utf-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        PrintWriter out = resp.getWriter();
+        out.print("retry: " + RETRY + "\n\n");
+        out.flush();
+        AsyncContext async = req.startAsync();
+        async.setTimeout(STREAM_TIMEOUT);
+        Stream stream = new Stream(async, out, channel, since);
+        async.addListener(stream);
+        stream.drain();
+    }
+
+    /**
+     * An open stream. It waits as a watcher of the next add and writes on a thread of the container.
+     * One thread drains at a time and writes without holding the monitor, so a slow client never
+     * holds up the callbacks of the container; a wake-up during a drain makes it run once more.
+     */
+    private static class Stream implements Runnable, AsyncListener {
+        private final AsyncContext async;
+        private final PrintWriter out;
+
+        // Name of the channel, null for the default list
+        private final String channel;
+
+        // Cursor after the last written line, used by the draining thread only
+        private String cursor;
+
+        // True once the stream is over
+        private boolean closed;
+
+        // True while a thread drains the stream
+        private boolean draining;
+
+        // True if the stream was woken up while it was drained
+        private boolean pending;
+
+        Stream(AsyncContext async, PrintWriter out, String channel, String cursor) {
+            this.async = async;
+            this.out = out;
+            this.channel = channel;
+            this.cursor = cursor;
+        }
+
+        /**
+         * Called on the adding thread
+         */
+        public void run() {
+            try {
+                async.start(new Runnable() {
+                    public void run() {
+                        drain();
+                    }
+                });
+            } catch (IllegalStateException | RejectedExecutionException e) {
+                // The stream is over, or the container is stopping
+            }
+        }
+
+        /**
+         * Writes all lines after the cursor, then watches for the next add
+         */
+        void drain() {
+            synchronized (this) {
+                if (closed)
+                    return;
+                if (draining) {
+                    pending = true;
+                    return;
+                }
+                draining = true;
+            }
+            while (true) {
+                if (!writeAll()) {
+                    close();
+                    return;
+                }
+                ListController.watch(channel, this);
+                // A line added before the watch was registered would not wake it up
+                boolean missed = ListController.hasAfter(channel, cursor) && ListController.unwatch(this);
+                synchronized (this) {
+                    if (closed || !(missed || pending)) {
+                        draining = false;
+                        return;
+                    }
+                    pending = false;
+                }
+            }
+        }
+
+        /**
+         * Copies the lines after the cursor batch by batch and writes every batch to the client
+         *
+         * @return false if the client has gone
+         */
+        private boolean writeAll() {
+            final List<String> events = new ArrayList<String>(BATCH_SIZE);
+            try {
+                while (true) {
+                    events.clear();
+                    String last = cursor;
+                    cursor = ListController.writeAfter(channel, cursor, BATCH_SIZE, new ListController.Visitor() {
+                        public void line(String id, String line) {
+                            StringBuilder event = new StringBuilder("id: ").append(id).append('\n');
+                            for (String part : line.split("\r\n|\r|\n", -1))
+                                event.append("data: ").append(part).append('\n');
+                            events.add(event.append('\n').toString());
+                        }
+                    });
+                    if (cursor.equals(last))
+                        return true;
+                    for (String event : events)
+                        out.print(event);
+                    out.flush();
+                    if (out.checkError())
+                        return false;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        private synchronized void close() {
+            if (closed)
+                return;
+            closed = true;
+            ListController.unwatch(this);
+            async.complete();
+        }
+
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+
+        public synchronized void onError(AsyncEvent event) {
+            closed = true;
+            ListController.unwatch(this);
+        }
+
+        public void onComplete(AsyncEvent event) {
+            ListController.unwatch(this);
+        }
+
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.ikasyk.utils;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.NoSuchElementException;
 
 /**
@@ -8,7 +9,10 @@ import java.util.NoSuchElementException;
  * Created by igor, 26.07.16 12:16
  */
 
-public class ArrayExpirableList<T> implements ExpirableList<T> {
+public class ArrayExpirableList<T> implements ExpirableList<T>, Sweepable, Measurable, Instrumented {
+
+    // Heap taken by an element besides its payload: the slot of the array and the container
+    private static final int ENTRY_BYTES = 40;
 
     // Life time
     private long lifetime;
@@ -19,15 +23,103 @@ public class ArrayExpirableList<T> implements ExpirableList<T> {
     // Array of elements to store
     private ExpirableInspector.Element<T>[] elementData;
 
+    // When expired elements are removed
+    private ExpiryPolicy policy;
+
+    // Source of the current time
+    private Clock clock;
+
+    // Counts adds, expirations and expiry passes
+    private ListMetrics metrics = new ListMetrics();
+
+    // Receives the expired elements
+    private ExpirationDispatcher<T> expirations = new ExpirationDispatcher<T>(metrics);
+
+    // Counts of the values, null if the list is not indexed
+    private EqualityIndex<ExpirableInspector.Element<T>> valueIndex;
+
+    // Limits the number and the size of elements
+    private CapacityGuard capacity;
+
     /**
      * Constructor sets the time of life
      *
      * @param l the time of life
      */
     public ArrayExpirableList(long l) {
+        this(l, ExpiryPolicy.lazy());
+    }
+
+    /**
+     * Constructor sets the time of life and the expiry policy.
+     * With eager or hybrid expiry the list is swept by the shared reaper thread,
+     * so all operations are guarded by the monitor of the list.
+     *
+     * @param l      the time of life
+     * @param policy the expiry policy
+     */
+    public ArrayExpirableList(long l, ExpiryPolicy policy) {
+        this(l, policy, MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Constructor sets the time of life, the expiry policy and the source of time
+     *
+     * @param l      the time of life
+     * @param policy the expiry policy
+     * @param clock  the clock to check expiry against
+     */
+    public ArrayExpirableList(long l, ExpiryPolicy policy, Clock clock) {
+        this(l, policy, clock, false);
+    }
+
+    /**
+     * Constructor sets the time of life, the expiry policy, the source of time and
+     * whether the values are indexed. With the index contains(Object) costs O(1) expected,
+     * and remove(Object) of an absent value returns without a scan.
+     *
+     * @param l       the time of life
+     * @param policy  the expiry policy
+     * @param clock   the clock to check expiry against
+     * @param indexed true to keep a hash index of the values
+     */
+    public ArrayExpirableList(long l, ExpiryPolicy policy, Clock clock, boolean indexed) {
+        this(l, policy, clock, indexed, CapacityPolicy.unbounded());
+    }
+
+    /**
+     * Constructor sets the time of life, the expiry policy, the source of time, the index
+     * and the limits of the list. An add to the full list drops the oldest elements,
+     * fails with CapacityExceededException or waits for room outside the monitor of the list.
+     *
+     * @param l        the time of life
+     * @param policy   the expiry policy
+     * @param clock    the clock to check expiry against
+     * @param indexed  true to keep a hash index of the values
+     * @param capacity the limits of the list
+     */
+    public ArrayExpirableList(long l, ExpiryPolicy policy, Clock clock, boolean indexed, CapacityPolicy capacity) {
         this.lifetime = l;
+        this.capacity = new CapacityGuard(capacity, ENTRY_BYTES, new CapacityGuard.Owner() {
+            public void sweep() {
+                ArrayExpirableList.this.sweep();
+            }
+
+            public boolean evictOldest() {
+                synchronized (ArrayExpirableList.this) {
+                    if (size == 0)
+                        return false;
+                    removeElement(0);
+                    return true;
+                }
+            }
+        });
+        this.valueIndex = indexed ? new EqualityIndex<ExpirableInspector.Element<T>>() : null;
+        this.policy = policy;
+        this.clock = clock;
         elementData = new ExpirableInspector.Element[10];
         size = 0;
+        policy.schedule(this);
     }
 
     /**
@@ -38,23 +130,71 @@ public class ArrayExpirableList<T> implements ExpirableList<T> {
     }
 
     /**
+     * Counts the alive elements, the expired ones which no sweep has removed yet are left out
+     *
      * @return the number of elements in this list
      */
-    public int size() {
-        return size;
+    public synchronized int size() {
+        long now = clock.millis();
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (ExpirableInspector.isExists(elementData[i], now))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return true if this list contains no alive elements
+     */
+    public synchronized boolean isEmpty() {
+        long now = clock.millis();
+        for (int i = 0; i < size; i++) {
+            if (ExpirableInspector.isExists(elementData[i], now))
+                return false;
+        }
+        return true;
     }
 
     /**
-     * @return true if this list contains no elements
+     * @return the estimated number of bytes taken by the elements, including expired ones which are not removed yet
      */
-    public boolean isEmpty() {
-        return size == 0;
+    public long usedBytes() {
+        return capacity.bytes();
     }
 
     /**
-     * @return an iterator over the elements in this list
+     * @return the live counters of this list
+     */
+    public ListMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * @return a weakly consistent iterator over the elements in this list
      */
     public ArrayExpirableList.Iterator<T> iterator() {
+        return iterator(IterationMode.WEAKLY_CONSISTENT);
+    }
+
+    /**
+     * Returns an iterator over the elements which are alive at the moment of the call.
+     *
+     * @param mode how the iterator sees the changes made during the iteration
+     * @return an iterator over the elements in this list
+     */
+    public synchronized ArrayExpirableList.Iterator<T> iterator(IterationMode mode) {
+        expire();
+        if (mode == IterationMode.SNAPSHOT) {
+            long now = clock.millis();
+            Object[] copy = new Object[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (ExpirableInspector.isExists(elementData[i], now))
+                    copy[count++] = elementData[i].get();
+            }
+            return new SnapshotIterator<T>(copy, count);
+        }
         return new Itr();
     }
 
@@ -64,8 +204,77 @@ public class ArrayExpirableList<T> implements ExpirableList<T> {
      * @param element element to be appended to this list
      */
     public void add(T element) {
-        rebuild();
-        addElement(new ExpirableInspector.Element<T>(element, ExpirableInspector.getTime() + lifetime));
+        add(element, lifetime);
+    }
+
+    /**
+     * Appends the specified element to the end of this list with its own time of life.
+     *
+     * @param element   element to be appended to this list
+     * @param ttlMillis the time of life of the element
+     * @throws IllegalArgumentException  if the time of life is negative
+     * @throws CapacityExceededException if the list is full
+     */
+    public void add(T element, long ttlMillis) {
+        if (ttlMillis < 0)
+            throw new IllegalArgumentException("Time of life: " + ttlMillis);
+        capacity.acquire(1, capacity.weigh(element));
+        synchronized (this) {
+            expire();
+            addElement(new ExpirableInspector.Element<T>(element, clock.millis() + ttlMillis));
+        }
+    }
+
+    /**
+     * Appends all elements of the collection to the end of this list.
+     * The batch costs one expiry pass and one growth of the array, all elements get one timestamp.
+     *
+     * @param c the elements to be appended to this list
+     * @throws CapacityExceededException if the list is full
+     */
+    public void addAll(Collection<? extends T> c) {
+        addBatch(c.toArray());
+    }
+
+    /**
+     * Appends all elements of the array to the end of this list.
+     * The batch costs one expiry pass and one growth of the array, all elements get one timestamp.
+     *
+     * @param elements the elements to be appended to this list
+     * @throws CapacityExceededException if the list is full
+     */
+    public void addAll(T[] elements) {
+        addBatch(elements);
+    }
+
+    /**
+     * Reserves room for the elements and appends them in one pass
+     *
+     * @param elements the elements to be appended, they are of type T
+     */
+    private void addBatch(Object[] elements) {
+        capacity.acquire(elements.length, capacity.weigh(elements));
+        synchronized (this) {
+            appendBatch(elements);
+        }
+    }
+
+    /**
+     * Appends the elements in one pass
+     *
+     * @param elements the elements to be appended, they are of type T
+     */
+    private void appendBatch(Object[] elements) {
+        expire();
+        ensureCapacity(size + elements.length);
+        long expired = clock.millis() + lifetime;
+        for (Object element : elements) {
+            ExpirableInspector.Element<T> e = new ExpirableInspector.Element<T>((T) element, expired);
+            elementData[size++] = e;
+            if (valueIndex != null)
+                valueIndex.add(element, e);
+        }
+        metrics.added(elements.length);
     }
 
     /**
@@ -76,10 +285,21 @@ public class ArrayExpirableList<T> implements ExpirableList<T> {
      * @param index   index at which the specified element is to be inserted
      * @param element element to be inserted
      * @throws IndexOutOfBoundsException if the index is out of range
+     * @throws CapacityExceededException if the list is full
      */
     public void add(int index, T element) {
-        rebuild();
-        addElement(index, new ExpirableInspector.Element<T>(element, ExpirableInspector.getTime() + lifetime));
+        long weight = capacity.weigh(element);
+        capacity.acquire(1, weight);
+        try {
+            synchronized (this) {
+                expire();
+                long now = clock.millis();
+                addElement(position(index, now), new ExpirableInspector.Element<T>(element, now + lifetime));
+            }
+        } catch (IndexOutOfBoundsException e) {
+            capacity.release(1, weight);
+            throw e;
+        }
     }
 
 
@@ -92,9 +312,9 @@ public class ArrayExpirableList<T> implements ExpirableList<T> {
      * @return the element previously at the specified position
      * @throws IndexOutOfBoundsException if the index is out of range
      */
-    public T remove(int index) {
-        rebuild();
-        return removeElement(index).get();
+    public synchronized T remove(int index) {
+        expire();
+        return removeElement(position(index, clock.millis())).get();
     }
 
     /**
@@ -104,9 +324,9 @@ public class ArrayExpirableList<T> implements ExpirableList<T> {
      *
      * @param o - element to be removed if present
      */
-    public void remove(Object o) {
-        rebuild();
-        removeElement(o);
+    public synchronized void remove(Object o) {
+        expire();
+        removeElement(o, clock.millis());
     }
 
     /**
@@ -114,9 +334,9 @@ public class ArrayExpirableList<T> implements ExpirableList<T> {
      *
      * @param o - element whose presence in this list is to be tested
      */
-    public boolean contains(Object o) {
-        rebuild();
-        return containsElement(o);
+    public synchronized boolean contains(Object o) {
+        expire();
+        return containsElement(o, clock.millis());
     }
 
     /**
@@ -124,9 +344,11 @@ public class ArrayExpirableList<T> implements ExpirableList<T> {
      *
      * @param index - index of the element to return
      */
-    public T get(int index) {
-        rebuild();
-        return getElement(index).get();
+    public synchronized T get(int index) {
+        expire();
+        int i = position(index, clock.millis());
+        rangeCheck(i);
+        return getElement(i).get();
     }
 
     class Itr implements Iterator<T> {
@@ -136,22 +358,32 @@ public class ArrayExpirableList<T> implements ExpirableList<T> {
         // Index of the last returned element; -1 if no such
         private int lastRet = -1;
 
+        // Elements which expired before this time are skipped
+        private final long cutoff;
+
         /**
          * Reset start cursor to 0
          */
         public Itr() { this(0); }
 
         /**
-         * Reset start cursor to index
+         * Reset start cursor to index and fix the expiry cutoff
          * @param index - position of first element
          */
-        public Itr(int index) { this.cursor = index; }
+        public Itr(int index) {
+            this.cursor = index;
+            this.cutoff = clock.millis();
+        }
 
         /**
          * Returns true if the iteration has more elements.
          */
         public boolean hasNext() {
-            return cursor != size;
+            synchronized (ArrayExpirableList.this) {
+                while (cursor < size && !ExpirableInspector.isExists(elementData[cursor], cutoff))
+                    cursor++;
+                return cursor < size;
+            }
         }
 
         /**
@@ -161,28 +393,93 @@ public class ArrayExpirableList<T> implements ExpirableList<T> {
          * @throws NoSuchElementException if the iteration has no more elements
          */
         public T next() {
-            rebuild();
-            int i = cursor;
-            if (i >= size)
-                throw new NoSuchElementException();
-            cursor = i + 1;
-            return (T) elementData[lastRet = i].get();
+            synchronized (ArrayExpirableList.this) {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                int i = cursor;
+                cursor = i + 1;
+                return (T) elementData[lastRet = i].get();
+            }
+        }
+    }
+
+    /**
+     * Registers a listener of the elements which expire in this list. The listener gets them
+     * in batches on its own thread, so it does not slow the operations of the list down.
+     *
+     * @param listener the listener
+     * @param policy   what happens to the batches when the listener falls behind
+     */
+    public void addExpirationListener(ExpirationListener<T> listener, ListenerPolicy policy) {
+        expirations.add(listener, policy);
+    }
+
+    /**
+     * Unregisters the listener, the batches already queued for it are still delivered
+     *
+     * @param listener the listener
+     */
+    public void removeExpirationListener(ExpirationListener<T> listener) {
+        expirations.remove(listener);
+    }
+
+    /**
+     * Delete all expired elements. Called by the reaper thread.
+     */
+    public synchronized void sweep() {
+        rebuild(size);
+    }
+
+    /**
+     * Removes expired elements before an operation as the expiry policy says
+     */
+    private void expire() {
+        switch (policy.getMode()) {
+            case LAZY:
+                rebuild(size);
+                break;
+            case HYBRID:
+                rebuild(Math.min(size, policy.getBudget()));
+                break;
+            default:
+                break;
         }
     }
 
     /**
-     * Delete all expired elements and rebuild list
+     * Delete expired elements among the first count ones and rebuild list.
+     * The alive elements are moved in one pass, so the cost is linear.
+     *
+     * @param count the number of elements to be checked
      */
-    private void rebuild() {
-        int i = 0;
-        ExpirableInspector.Element<T> element;
-        while (i < size) {
-            element = elementData[i];
-            if (!ExpirableInspector.isExists(element)) {
-                removeElement(i);
-            } else
-                i++;
+    private void rebuild(int count) {
+        long start = System.nanoTime();
+        long now = clock.millis();
+        int kept = 0;
+        long released = 0;
+        ExpirationDispatcher.Batch<T> expired = null;
+        for (int i = 0; i < count; i++) {
+            ExpirableInspector.Element<T> element = elementData[i];
+            if (ExpirableInspector.isExists(element, now)) {
+                elementData[kept++] = element;
+                continue;
+            }
+            released += capacity.weigh(element.get());
+            expired = expirations.collect(expired, element.get(), element.getExpired());
+            if (valueIndex != null)
+                valueIndex.remove(element.get(), element);
+        }
+        if (kept == count) {
+            metrics.swept(count, 0, System.nanoTime() - start);
+            return;
         }
+        capacity.release(count - kept, released);
+        expirations.dispatch(expired);
+        System.arraycopy(elementData, count, elementData, kept, size - count);
+        int newSize = size - (count - kept);
+        Arrays.fill(elementData, newSize, size, null);
+        size = newSize;
+        metrics.swept(count, count - kept, System.nanoTime() - start);
     }
 
     /**
@@ -193,6 +490,9 @@ public class ArrayExpirableList<T> implements ExpirableList<T> {
     private void addElement(ExpirableInspector.Element<T> e) {
         ensureCapacity(size + 1);
         elementData[size++] = e;
+        if (valueIndex != null)
+            valueIndex.add(e.get(), e);
+        metrics.added(1);
     }
 
     /**
@@ -210,6 +510,9 @@ public class ArrayExpirableList<T> implements ExpirableList<T> {
         System.arraycopy(elementData, index, elementData, index + 1, size - index);
         elementData[index] = element;
         size++;
+        if (valueIndex != null)
+            valueIndex.insert(element.get(), element, nextEqual(index + 1, element.get()));
+        metrics.added(1);
     }
 
     /**
@@ -228,30 +531,24 @@ public class ArrayExpirableList<T> implements ExpirableList<T> {
         if (numMoved > 0)
             System.arraycopy(elementData, index+1, elementData, index, numMoved);
         elementData[--size] = null;
+        if (valueIndex != null)
+            valueIndex.remove(oldValue.get(), oldValue);
+        capacity.release(1, capacity.weigh(oldValue.get()));
         return oldValue;
     }
 
     /**
-     * Removes the first occurrence of the specified element from this list.
+     * Removes the first alive occurrence of the specified element from this list.
      * If this list does not contain the element, it is
      * unchanged.
      *
-     * @param o the current element
+     * @param o   the current element
+     * @param now the current timestamp
      */
-    private void removeElement(Object o) {
-        if (o == null) {
-            for (int index = 0; index < size; index++)
-                if (elementData[index].get() == null) {
-                    fastRemoveElement(index);
-                    return;
-                }
-        } else {
-            for (int index = 0; index < size; index++)
-                if (o.equals(elementData[index].get())) { // CHECCKKKKKKKKKK
-                    fastRemoveElement(index);
-                    return;
-                }
-        }
+    private void removeElement(Object o, long now) {
+        int index = indexOf(o, now);
+        if (index >= 0)
+            fastRemoveElement(index);
     }
 
     /**
@@ -264,6 +561,9 @@ public class ArrayExpirableList<T> implements ExpirableList<T> {
      */
     private void fastRemoveElement(int index) {
         rangeCheck(index);
+        if (valueIndex != null)
+            valueIndex.remove(elementData[index].get(), elementData[index]);
+        capacity.release(1, capacity.weigh(elementData[index].get()));
         int numMoved = size - index - 1;
         if (numMoved > 0)
             System.arraycopy(elementData, index+1, elementData, index, numMoved);
@@ -271,24 +571,95 @@ public class ArrayExpirableList<T> implements ExpirableList<T> {
     }
 
     /**
-     * Returns true if this list contains the specified element.
+     * Returns true if this list contains the specified element alive.
      *
-     * @param o - element whose presence in this list is to be tested
+     * @param o   element whose presence in this list is to be tested
+     * @param now the current timestamp
      */
-    boolean containsElement(Object o) {
-        if (o == null) {
-            for (int index = 0; index < size; index++)
-                if (elementData[index].get() == null) {
-                    return true;
-                }
-        } else {
-            for (int index = 0; index < size; index++) {//System.out.println("Equals = " + o.equals(elementData[index].get()));
-                if (o.equals(elementData[index].get())) {
-                    return true;
-                }
+    boolean containsElement(Object o, long now) {
+        if (valueIndex != null)
+            return indexed(o, now) != null;
+        return indexOf(o, now) >= 0;
+    }
+
+    /**
+     * Expired elements which no sweep has removed yet are skipped. With the index the element
+     * is found by identity, without equals, and the search stops where the removal shifts the
+     * rest of the array from, so both take one pass together.
+     *
+     * @param o   the element to look for
+     * @param now the current timestamp
+     * @return the position of the first alive occurrence of the element or -1
+     */
+    private int indexOf(Object o, long now) {
+        if (valueIndex != null) {
+            ExpirableInspector.Element<T> element = indexed(o, now);
+            for (int index = 0; element != null && index < size; index++) {
+                if (elementData[index] == element)
+                    return index;
             }
+            return -1;
+        }
+        for (int index = 0; index < size; index++) {
+            ExpirableInspector.Element<T> element = elementData[index];
+            if ((o == null ? element.get() == null : o.equals(element.get())) && ExpirableInspector.isExists(element, now))
+                return index;
+        }
+        return -1;
+    }
+
+    /**
+     * @param o   the element to look for
+     * @param now the current timestamp
+     * @return the first alive occurrence of the element in the index or null
+     */
+    private ExpirableInspector.Element<T> indexed(Object o, long now) {
+        for (ExpirableInspector.Element<T> element : valueIndex.find(o)) {
+            if (ExpirableInspector.isExists(element, now))
+                return element;
+        }
+        return null;
+    }
+
+    /**
+     * Finds where an inserted value goes among the equal values of the index. Only an insert
+     * before the end of the list scans, and only while the value is in the list already.
+     *
+     * @param from  the position after the inserted value
+     * @param value the inserted value
+     * @return the first element from the specified position on which holds an equal value, or null
+     */
+    private ExpirableInspector.Element<T> nextEqual(int from, Object value) {
+        if (from == size || !valueIndex.contains(value))
+            return null;
+        for (int i = from; i < size; i++) {
+            Object data = elementData[i].get();
+            if (value == null ? data == null : value.equals(data))
+                return elementData[i];
+        }
+        return null;
+    }
+
+    /**
+     * Finds the position of an alive element, the expired ones which no sweep has removed yet
+     * are skipped.
+     *
+     * @param index the index among the alive elements
+     * @param now   the current timestamp
+     * @return the position in elementData, or size if the list has exactly index alive elements
+     * @throws IndexOutOfBoundsException if the list has fewer alive elements
+     */
+    private int position(int index, long now) {
+        if (index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index);
+        int alive = 0;
+        for (int i = 0; i < size; i++) {
+            if (ExpirableInspector.isExists(elementData[i], now) && alive++ == index)
+                return i;
         }
-        return false;
+        if (alive == index)
+            return size;
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + alive);
     }
 
     /**
@@ -0,0 +1,67 @@
+package com.ikasyk.utils;
+
+/**
+ * Clock which returns a value cached by a ticker thread.
+ *
+ * Reading it costs one volatile read, the source clock is called only by the ticker
+ * once per resolution interval, so the value may be behind the real time by that interval.
+ */
+public class CachedClock implements Clock {
+
+    // The clock which is cached
+    private final Clock source;
+
+    // The last value of the source clock
+    private volatile long now;
+
+    private final Thread ticker;
+
+    /**
+     * Creates the clock with millisecond resolution over the monotonic clock
+     */
+    public CachedClock() {
+        this(MonotonicClock.INSTANCE, 1);
+    }
+
+    /**
+     * Creates the clock and starts its ticker thread
+     *
+     * @param source           the clock which is cached
+     * @param resolutionMillis the interval between updates in milliseconds
+     * @throws IllegalArgumentException if the resolution is not positive
+     */
+    public CachedClock(final Clock source, final long resolutionMillis) {
+        if (resolutionMillis <= 0)
+            throw new IllegalArgumentException("Resolution: " + resolutionMillis);
+        this.source = source;
+        this.now = source.millis();
+        this.ticker = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        Thread.sleep(resolutionMillis);
+                        now = source.millis();
+                    }
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+            }
+        }, "cached-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * @return the cached time in milliseconds
+     */
+    public long millis() {
+        return now;
+    }
+
+    /**
+     * Stops the ticker thread, the clock keeps the last value
+     */
+    public void stop() {
+        ticker.interrupt();
+    }
+}
@@ -0,0 +1,48 @@
+package com.ikasyk.utils;
+
+/**
+ * Thrown by an add to a bounded list which has no room for the new elements.
+ */
+public class CapacityExceededException extends IllegalStateException {
+
+    // What the list does when it is full
+    private final OverflowMode mode;
+
+    // True if the elements exceed the limits themselves, so no wait or removal would make room
+    private final boolean tooLarge;
+
+    /**
+     * @param message the detail message
+     * @param mode    the overflow mode of the list
+     */
+    public CapacityExceededException(String message, OverflowMode mode) {
+        this(message, mode, false);
+    }
+
+    /**
+     * @param message  the detail message
+     * @param mode     the overflow mode of the list
+     * @param tooLarge true if the elements do not fit even into the empty list
+     */
+    public CapacityExceededException(String message, OverflowMode mode, boolean tooLarge) {
+        super(message);
+        this.mode = mode;
+        this.tooLarge = tooLarge;
+    }
+
+    /**
+     * @return REJECT if the list refused at once, BLOCK if the timeout is over,
+     * DROP_OLDEST if the elements do not fit even into the empty list
+     */
+    public OverflowMode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return true if the elements do not fit even into the empty list, whatever the overflow mode;
+     * retrying the same add is of no use
+     */
+    public boolean isTooLarge() {
+        return tooLarge;
+    }
+}
@@ -0,0 +1,217 @@
+package com.ikasyk.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the elements and the estimated bytes of a list and applies its capacity policy.
+ *
+ * An add reserves room before it touches the list and every removal gives it back, so the
+ * counters include expired elements until they are really removed. When the room is short the
+ * owner is swept first, then the oldest elements are dropped, the add is rejected or it waits,
+ * as the policy says. The guard never holds its own monitor while it calls the owner, so
+ * the owner may call release() under its lock.
+ *
+ * Reservations are optimistic: both counters are raised and lowered back if a limit is passed,
+ * so concurrent adds near the limit may see the list fuller than it is, never emptier.
+ */
+class CapacityGuard {
+
+    /**
+     * The list the guard belongs to
+     */
+    interface Owner extends Sweepable {
+
+        /**
+         * Removes the oldest element, expired or not
+         *
+         * @return false if the list is empty
+         */
+        boolean evictOldest();
+    }
+
+    // Sweeps of the owner by reserving threads are at least this far apart
+    private static final long SWEEP_PAUSE = TimeUnit.MILLISECONDS.toNanos(10);
+
+    // Longest wait of a blocked add before it checks the room again
+    private static final long POLL_MILLIS = 10;
+
+    private final CapacityPolicy policy;
+
+    // Heap taken by an entry of the owner besides the payload
+    private final int entryBytes;
+
+    private final Owner owner;
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    // Number of blocked adds, removals notify only if there are some
+    private volatile int waiters;
+
+    // Time of the last sweep made by a reserving thread
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime() - SWEEP_PAUSE);
+
+    /**
+     * @param policy     the capacity policy
+     * @param entryBytes the heap taken by an entry of the list besides the payload
+     * @param owner      the list
+     */
+    CapacityGuard(CapacityPolicy policy, int entryBytes, Owner owner) {
+        this.policy = policy;
+        this.entryBytes = entryBytes;
+        this.owner = owner;
+    }
+
+    /**
+     * @param element the element
+     * @return the estimated number of bytes the element takes in the list
+     */
+    long weigh(Object element) {
+        return entryBytes + CapacityPolicy.estimate(element);
+    }
+
+    /**
+     * @param elements the elements, they are of type T
+     * @return the estimated number of bytes the elements take in the list
+     */
+    long weigh(Object[] elements) {
+        long weight = 0;
+        for (Object element : elements)
+            weight += weigh(element);
+        return weight;
+    }
+
+    /**
+     * @return the number of counted elements
+     */
+    int count() {
+        return count.get();
+    }
+
+    /**
+     * @return the estimated number of bytes taken by the counted elements
+     */
+    long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Reserves room for the elements, the caller must not hold the lock of the owner.
+     *
+     * @param n      the number of elements
+     * @param weight their estimated number of bytes
+     * @throws CapacityExceededException if there is no room as the policy says, or the elements
+     *                                   exceed the limits themselves, whatever the policy
+     */
+    void acquire(int n, long weight) {
+        if (tryAcquire(n, weight))
+            return;
+        if (n > policy.getMaxElements() || weight > policy.getMaxBytes())
+            throw new CapacityExceededException("Too large: " + n + " elements of " + weight + " bytes, limit " + policy,
+                    policy.getOverflow(), true);
+        if (sweep() && tryAcquire(n, weight))
+            return;
+        switch (policy.getOverflow()) {
+            case DROP_OLDEST:
+                while (!tryAcquire(n, weight)) {
+                    if (!owner.evictOldest())
+                        throw exceeded(n, weight, OverflowMode.DROP_OLDEST);
+                }
+                return;
+            case BLOCK:
+                await(n, weight);
+                return;
+            default:
+                throw exceeded(n, weight, OverflowMode.REJECT);
+        }
+    }
+
+    /**
+     * Gives back the room of removed elements
+     *
+     * @param n      the number of elements
+     * @param weight their estimated number of bytes
+     */
+    void release(int n, long weight) {
+        count.addAndGet(-n);
+        bytes.addAndGet(-weight);
+        if (waiters > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Raises the counters if the elements fit
+     *
+     * @return true if the room is reserved
+     */
+    private boolean tryAcquire(int n, long weight) {
+        long b = bytes.addAndGet(weight);
+        int c = count.addAndGet(n);
+        if (c <= policy.getMaxElements() && c >= 0 && b <= policy.getMaxBytes())
+            return true;
+        count.addAndGet(-n);
+        bytes.addAndGet(-weight);
+        return false;
+    }
+
+    /**
+     * Waits for room until the timeout of the policy. Expired elements are not removed while
+     * nothing else touches a lazy list, so the waiting thread sweeps it now and then itself.
+     *
+     * @throws CapacityExceededException if the timeout is over or the thread is interrupted
+     */
+    private void await(int n, long weight) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(policy.getTimeout());
+        for (;;) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0)
+                throw exceeded(n, weight, OverflowMode.BLOCK);
+            synchronized (this) {
+                waiters++;
+                try {
+                    if (!fits(n, weight))
+                        wait(Math.min(remaining, POLL_MILLIS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw exceeded(n, weight, OverflowMode.BLOCK);
+                } finally {
+                    waiters--;
+                }
+            }
+            if (tryAcquire(n, weight) || sweep() && tryAcquire(n, weight))
+                return;
+        }
+    }
+
+    /**
+     * @return true if the elements would fit now
+     */
+    private boolean fits(int n, long weight) {
+        return count.get() + (long) n <= policy.getMaxElements() && bytes.get() + weight <= policy.getMaxBytes();
+    }
+
+    /**
+     * Sweeps the owner unless it has been swept by a reserving thread a moment ago
+     *
+     * @return true if this call has swept
+     */
+    private boolean sweep() {
+        long last = lastSweep.get();
+        long now = System.nanoTime();
+        if (now - last < SWEEP_PAUSE || !lastSweep.compareAndSet(last, now))
+            return false;
+        owner.sweep();
+        return true;
+    }
+
+    private CapacityExceededException exceeded(int n, long weight, OverflowMode mode) {
+        return new CapacityExceededException("No room for " + n + " elements of " + weight + " bytes: "
+                + count.get() + " elements, " + bytes.get() + " bytes, limit " + policy, mode);
+    }
+}
@@ -0,0 +1,158 @@
+package com.ikasyk.utils;
+
+/**
+ * Capacity settings of a list: the maximum number of elements, the maximum estimated
+ * number of bytes and what an add does when either would be exceeded.
+ *
+ * The size of an element is estimated from its payload (two bytes per char of a string plus
+ * the headers of the string and its array) and the fixed overhead of an entry of the list,
+ * so the limit follows the heap the list really takes within some tens of percent.
+ */
+public final class CapacityPolicy {
+
+    private static final CapacityPolicy UNBOUNDED =
+            new CapacityPolicy(Integer.MAX_VALUE, Long.MAX_VALUE, OverflowMode.REJECT, 0);
+
+    // Maximum number of elements, expired ones which are not removed yet included
+    private final int maxElements;
+
+    // Maximum estimated number of bytes
+    private final long maxBytes;
+
+    private final OverflowMode overflow;
+
+    // How long a blocked add waits in milliseconds
+    private final long timeout;
+
+    private CapacityPolicy(int maxElements, long maxBytes, OverflowMode overflow, long timeout) {
+        this.maxElements = maxElements;
+        this.maxBytes = maxBytes;
+        this.overflow = overflow;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return the policy without limits
+     */
+    public static CapacityPolicy unbounded() {
+        return UNBOUNDED;
+    }
+
+    /**
+     * @param maxElements the maximum number of elements
+     * @param maxBytes    the maximum estimated number of bytes
+     * @return the policy where the oldest elements are removed to make room
+     * @throws IllegalArgumentException if a limit is not positive
+     */
+    public static CapacityPolicy dropOldest(int maxElements, long maxBytes) {
+        checkLimits(maxElements, maxBytes);
+        return new CapacityPolicy(maxElements, maxBytes, OverflowMode.DROP_OLDEST, 0);
+    }
+
+    /**
+     * @param maxElements the maximum number of elements
+     * @param maxBytes    the maximum estimated number of bytes
+     * @return the policy where an add to the full list fails
+     * @throws IllegalArgumentException if a limit is not positive
+     */
+    public static CapacityPolicy reject(int maxElements, long maxBytes) {
+        checkLimits(maxElements, maxBytes);
+        return new CapacityPolicy(maxElements, maxBytes, OverflowMode.REJECT, 0);
+    }
+
+    /**
+     * @param maxElements   the maximum number of elements
+     * @param maxBytes      the maximum estimated number of bytes
+     * @param timeoutMillis how long an add to the full list waits for room
+     * @return the policy where an add to the full list waits
+     * @throws IllegalArgumentException if a limit is not positive or the timeout is negative
+     */
+    public static CapacityPolicy block(int maxElements, long maxBytes, long timeoutMillis) {
+        checkLimits(maxElements, maxBytes);
+        if (timeoutMillis < 0)
+            throw new IllegalArgumentException("Timeout: " + timeoutMillis);
+        return new CapacityPolicy(maxElements, maxBytes, OverflowMode.BLOCK, timeoutMillis);
+    }
+
+    /**
+     * @return the maximum number of elements, Integer.MAX_VALUE if not limited
+     */
+    public int getMaxElements() {
+        return maxElements;
+    }
+
+    /**
+     * @return the maximum estimated number of bytes, Long.MAX_VALUE if not limited
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return what an add to the full list does
+     */
+    public OverflowMode getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * @return how long an add to the full list waits in the BLOCK mode, in milliseconds
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return true if the policy has a limit
+     */
+    public boolean isBounded() {
+        return this != UNBOUNDED;
+    }
+
+    /**
+     * @param parts the number of shards
+     * @return the policy of one of the shards which share this one, each gets an equal part of the limits
+     */
+    CapacityPolicy split(int parts) {
+        if (!isBounded() || parts == 1)
+            return this;
+        return new CapacityPolicy((int) ((maxElements + (long) parts - 1) / parts),
+                maxBytes == Long.MAX_VALUE ? maxBytes : (maxBytes + parts - 1) / parts, overflow, timeout);
+    }
+
+    /**
+     * Estimates the heap taken by the payload of an element
+     *
+     * @param element the element, may be null
+     * @return the estimated number of bytes
+     */
+    static long estimate(Object element) {
+        if (element == null)
+            return 0;
+        if (element instanceof String)
+            return 40 + 2L * ((String) element).length();
+        if (element instanceof byte[])
+            return 16 + ((byte[]) element).length;
+        if (element instanceof Utf8String) {
+            Utf8String s = (Utf8String) element;
+            // A shared copy is paid once for all the elements referring to it
+            return s.isShared() ? 16 : 40 + s.bytes().length;
+        }
+        return 16;
+    }
+
+    private static void checkLimits(int maxElements, long maxBytes) {
+        if (maxElements <= 0)
+            throw new IllegalArgumentException("Maximum elements: " + maxElements);
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("Maximum bytes: " + maxBytes);
+    }
+
+    @Override
+    public String toString() {
+        if (!isBounded())
+            return "UNBOUNDED";
+        return overflow + "(" + maxElements + " elements, " + maxBytes + " bytes"
+                + (overflow == OverflowMode.BLOCK ? ", " + timeout + " ms" : "") + ")";
+    }
+}
@@ -0,0 +1,321 @@
+package com.ikasyk.utils;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named lists which are created by their first add and reclaimed once they are empty and idle.
+ *
+ * Looking a channel up is one get of a ConcurrentHashMap, which takes no lock; only the first add
+ * to a channel creates its list. A channel has its own time of life and limits, the defaults
+ * or the ones defined for its name, and it expires lazily on its adds and on the sweeps of the
+ * registry, which are the only schedule the reaper keeps for all channels together. All channels
+ * count into one ListMetrics, so an idle channel costs its few list objects and nothing more, and
+ * a reclaimed one nothing at all.
+ *
+ * Every add marks itself in the writer count of its channel, and a sweep reclaims a channel only by
+ * swapping a zero count for -1, so an add is never lost in a list which has just been dropped.
+ * A channel created again numbers its elements after the numbers of all reclaimed channels,
+ * so the cursors its readers kept still point before the new elements.
+ */
+public class ChannelRegistry<T> implements Sweepable {
+
+    // Interval between sweeps of the channels
+    private static final long SWEEP_INTERVAL = 1000;
+
+    // Longest name of a channel
+    private static final int MAX_NAME = 64;
+
+    // Life time of the channels without own settings
+    private final long lifetime;
+
+    // Limits of the channels without own settings
+    private final CapacityPolicy capacity;
+
+    // How long an empty channel stays after its last use
+    private final long idle;
+
+    // Maximum number of channels
+    private final int maxChannels;
+
+    // Source of the current time
+    private final Clock clock;
+
+    private final ConcurrentHashMap<String, Channel<T>> channels = new ConcurrentHashMap<String, Channel<T>>();
+
+    // Settings of the channels defined by name
+    private final ConcurrentHashMap<String, Settings> settings = new ConcurrentHashMap<String, Settings>();
+
+    // The highest sequence number given by a reclaimed channel
+    private final AtomicLong reclaimed = new AtomicLong();
+
+    // Counts adds, expirations and expiry passes of all channels
+    private final ListMetrics metrics = new ListMetrics();
+
+    /**
+     * Creates the registry of unbounded channels
+     *
+     * @param l the time of life in the channels
+     */
+    public ChannelRegistry(long l) {
+        this(l, CapacityPolicy.unbounded());
+    }
+
+    /**
+     * Creates the registry where an empty channel is reclaimed after a minute
+     *
+     * @param l        the time of life in the channels
+     * @param capacity the limits of every channel
+     */
+    public ChannelRegistry(long l, CapacityPolicy capacity) {
+        this(l, capacity, 60000, 1 << 20);
+    }
+
+    /**
+     * Creates the registry
+     *
+     * @param l           the time of life in the channels
+     * @param capacity    the limits of every channel
+     * @param idleMillis  how long an empty channel stays after its last use
+     * @param maxChannels the maximum number of channels
+     */
+    public ChannelRegistry(long l, CapacityPolicy capacity, long idleMillis, int maxChannels) {
+        this(l, capacity, idleMillis, maxChannels, MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Creates the registry and schedules its sweeps
+     *
+     * @param l           the time of life in the channels
+     * @param capacity    the limits of every channel
+     * @param idleMillis  how long an empty channel stays after its last use
+     * @param maxChannels the maximum number of channels
+     * @param clock       the clock to check expiry against
+     * @throws IllegalArgumentException if the time of life or the idle time is negative,
+     *                                  or the maximum number of channels is not positive
+     */
+    public ChannelRegistry(long l, CapacityPolicy capacity, long idleMillis, int maxChannels, Clock clock) {
+        if (l < 0)
+            throw new IllegalArgumentException("Time of life: " + l);
+        if (idleMillis < 0)
+            throw new IllegalArgumentException("Idle time: " + idleMillis);
+        if (maxChannels <= 0)
+            throw new IllegalArgumentException("Maximum channels: " + maxChannels);
+        this.lifetime = l;
+        this.capacity = capacity;
+        this.idle = idleMillis;
+        this.maxChannels = maxChannels;
+        this.clock = clock;
+        ExpirableReaper.register(this, SWEEP_INTERVAL);
+    }
+
+    /**
+     * Sets the time of life and the limits of a channel. A channel which exists already keeps
+     * its settings until it is reclaimed.
+     *
+     * @param name     the name of the channel
+     * @param l        the time of life in the channel
+     * @param capacity the limits of the channel
+     * @throws IllegalArgumentException if the name is not valid or the time of life is negative
+     */
+    public void define(String name, long l, CapacityPolicy capacity) {
+        checkName(name);
+        if (l < 0)
+            throw new IllegalArgumentException("Time of life: " + l);
+        settings.put(name, new Settings(l, capacity));
+    }
+
+    /**
+     * @param name the name of the channel
+     * @return the limits a new channel of this name gets
+     */
+    public CapacityPolicy capacity(String name) {
+        Settings s = settings.get(name);
+        return s == null ? capacity : s.capacity;
+    }
+
+    /**
+     * @return the number of channels
+     */
+    public int size() {
+        return channels.size();
+    }
+
+    /**
+     * @return the live counters of all channels
+     */
+    public ListMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Appends the element to the channel, which is created if it does not exist
+     *
+     * @param name    the name of the channel
+     * @param element the element
+     * @throws IllegalArgumentException  if the name is not valid
+     * @throws CapacityExceededException if the channel is full or there are too many channels
+     */
+    public void add(String name, T element) {
+        Channel<T> c = enter(name);
+        try {
+            c.list.add(element);
+        } finally {
+            c.writers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Appends the element to the channel with its own time of life
+     *
+     * @param name      the name of the channel
+     * @param element   the element
+     * @param ttlMillis the time of life of the element
+     * @throws IllegalArgumentException  if the name is not valid or the time of life is negative
+     * @throws CapacityExceededException if the channel is full or there are too many channels
+     */
+    public void add(String name, T element, long ttlMillis) {
+        Channel<T> c = enter(name);
+        try {
+            c.list.add(element, ttlMillis);
+        } finally {
+            c.writers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Appends all elements of the collection to the channel as one batch
+     *
+     * @param name the name of the channel
+     * @param c    the elements
+     * @throws IllegalArgumentException  if the name is not valid
+     * @throws CapacityExceededException if the channel is full or there are too many channels
+     */
+    public void addAll(String name, Collection<? extends T> c) {
+        Channel<T> channel = enter(name);
+        try {
+            channel.list.addAll(c);
+        } finally {
+            channel.writers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Finds the list of a channel to read it
+     *
+     * @param name the name of the channel
+     * @return the list, or null if the channel does not exist
+     * @throws IllegalArgumentException if the name is not valid
+     */
+    SequencedExpirableList<T> find(String name) {
+        Channel<T> c = channels.get(name);
+        if (c == null) {
+            checkName(name);
+            return null;
+        }
+        c.touch(clock.millis());
+        return c.list;
+    }
+
+    /**
+     * Expires the elements of all channels and reclaims the empty ones which have been idle long enough.
+     * Called by the reaper thread.
+     */
+    public void sweep() {
+        long now = clock.millis();
+        for (Map.Entry<String, Channel<T>> e : channels.entrySet()) {
+            Channel<T> c = e.getValue();
+            c.list.sweep();
+            // The sweep has unlinked the expired elements, the counter alone tells the rest
+            if (now - c.used < idle || c.list.counted() != 0 || !c.writers.compareAndSet(0, -1))
+                continue;
+            // An add may have finished between the check and the swap
+            if (c.list.counted() != 0) {
+                c.writers.set(0);
+                continue;
+            }
+            long last = c.list.lastSequence();
+            for (long r = reclaimed.get(); r < last && !reclaimed.compareAndSet(r, last); r = reclaimed.get()) ;
+            channels.remove(e.getKey(), c);
+        }
+    }
+
+    /**
+     * Finds or creates the channel and registers an add in it
+     *
+     * @return the channel, its writer count includes the caller
+     */
+    private Channel<T> enter(String name) {
+        for (;;) {
+            Channel<T> c = channels.get(name);
+            if (c == null)
+                c = create(name);
+            int writers = c.writers.get();
+            if (writers >= 0 && c.writers.compareAndSet(writers, writers + 1)) {
+                c.touch(clock.millis());
+                return c;
+            }
+            if (writers < 0)
+                Thread.yield();
+        }
+    }
+
+    private Channel<T> create(String name) {
+        checkName(name);
+        if (channels.size() >= maxChannels)
+            throw new CapacityExceededException("Channels: " + maxChannels, OverflowMode.REJECT);
+        Settings s = settings.get(name);
+        Channel<T> c = new Channel<T>(new ConcurrentExpirableList<T>(s == null ? lifetime : s.lifetime, ExpiryPolicy.lazy(),
+                clock, s == null ? capacity : s.capacity, reclaimed.get(), ConcurrentExpirableList.Numbering.CONSECUTIVE, metrics));
+        Channel<T> prior = channels.putIfAbsent(name, c);
+        return prior != null ? prior : c;
+    }
+
+    /**
+     * @throws IllegalArgumentException unless the name has 1 to 64 letters, digits, '-', '_' or '.'
+     */
+    private static void checkName(String name) {
+        if (name == null || name.isEmpty() || name.length() > MAX_NAME)
+            throw new IllegalArgumentException("Channel: " + name);
+        for (int i = 0; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            if (!(ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z' || ch >= '0' && ch <= '9' || ch == '-' || ch == '_' || ch == '.'))
+                throw new IllegalArgumentException("Channel: " + name);
+        }
+    }
+
+    private static class Channel<T> {
+        final ConcurrentExpirableList<T> list;
+
+        // Number of adds in progress, -1 once the channel is reclaimed
+        final AtomicInteger writers = new AtomicInteger();
+
+        // Last time the channel was used
+        volatile long used;
+
+        Channel(ConcurrentExpirableList<T> list) {
+            this.list = list;
+        }
+
+        /**
+         * Writes the time only when it changes, so busy channels do not share a hot field
+         */
+        void touch(long now) {
+            if (used != now)
+                used = now;
+        }
+    }
+
+    private static class Settings {
+        final long lifetime;
+        final CapacityPolicy capacity;
+
+        Settings(long lifetime, CapacityPolicy capacity) {
+            this.lifetime = lifetime;
+            this.capacity = capacity;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.ikasyk.utils;
+
+/**
+ * Source of the current time for expirable containers.
+ * Lists read it once per operation or sweep and compare the result with the expiry times.
+ */
+public interface Clock {
+
+    /**
+     * @return the current time in milliseconds
+     */
+    long millis();
+}
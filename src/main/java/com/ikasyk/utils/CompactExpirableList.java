@@ -0,0 +1,311 @@
+package com.ikasyk.utils;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * List of strings which keeps them as UTF-8 bytes, one shared copy for the strings which repeat.
+ *
+ * Elements are encoded on add and decoded on every read, so it trades a decode per read for memory:
+ * a string takes its UTF-8 length instead of two bytes per char on a JVM without compact strings,
+ * and a message which is sent over and over again takes its bytes once for all its alive copies.
+ * The copy is shared through a Utf8Pool, which frees it together with the last element referring to it.
+ * The order, the sequence numbers, the expiry and the limits are those of the wrapped list.
+ */
+public class CompactExpirableList implements SequencedExpirableList<String>, Sweepable, Measurable, Instrumented, Versioned {
+
+    // The list which holds the encoded elements
+    private final SequencedExpirableList<Utf8String> list;
+
+    private final Utf8Pool pool = new Utf8Pool();
+
+    // Listeners of the wrapped list by the listeners given to this one
+    private final ConcurrentHashMap<ExpirationListener<String>, ExpirationListener<Utf8String>> listeners =
+            new ConcurrentHashMap<ExpirationListener<String>, ExpirationListener<Utf8String>>();
+
+    // Counters returned when the list does not keep its own, they stay zero
+    private final ListMetrics none = new ListMetrics();
+
+    /**
+     * Constructor sets the time of life
+     *
+     * @param l the time of life
+     */
+    public CompactExpirableList(long l) {
+        this(l, ExpiryPolicy.lazy());
+    }
+
+    /**
+     * Constructor sets the time of life and the expiry policy
+     *
+     * @param l      the time of life
+     * @param policy the expiry policy
+     */
+    public CompactExpirableList(long l, ExpiryPolicy policy) {
+        this(l, policy, MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Constructor sets the time of life, the expiry policy and the source of time
+     *
+     * @param l      the time of life
+     * @param policy the expiry policy
+     * @param clock  the clock to check expiry against
+     */
+    public CompactExpirableList(long l, ExpiryPolicy policy, Clock clock) {
+        this(l, policy, clock, CapacityPolicy.unbounded());
+    }
+
+    /**
+     * Constructor keeps the elements in a ConcurrentExpirableList. A repeated element counts
+     * only its reference against the byte limit, the shared copy is not counted.
+     *
+     * @param l        the time of life
+     * @param policy   the expiry policy
+     * @param clock    the clock to check expiry against
+     * @param capacity the limits of the list
+     */
+    public CompactExpirableList(long l, ExpiryPolicy policy, Clock clock, CapacityPolicy capacity) {
+        this(new ConcurrentExpirableList<Utf8String>(l, policy, clock, capacity));
+    }
+
+    /**
+     * @param list the empty list which holds the encoded elements
+     */
+    CompactExpirableList(SequencedExpirableList<Utf8String> list) {
+        this.list = list;
+    }
+
+    /**
+     * @return the number of elements in this list
+     */
+    public int size() {
+        return list.size();
+    }
+
+    /**
+     * @return true if this list contains no elements
+     */
+    public boolean isEmpty() {
+        return list.isEmpty();
+    }
+
+    /**
+     * @return an iterator over the elements in this list
+     */
+    public Iterator<String> iterator() {
+        return new Decoder(list.iterator());
+    }
+
+    /**
+     * @param mode how the iterator sees the changes made during the iteration
+     * @return an iterator over the elements in this list
+     */
+    public Iterator<String> iterator(IterationMode mode) {
+        return new Decoder(list.iterator(mode));
+    }
+
+    /**
+     * @param sequence the sequence number of the last seen element, 0 to start from the beginning
+     * @return an iterator over the elements in this list
+     */
+    public SequencedIterator<String> iteratorAfter(long sequence) {
+        return new SequencedDecoder(list.iteratorAfter(sequence));
+    }
+
+    /**
+     * @param sequence the sequence number of the last seen element, 0 to start from the beginning
+     * @return an iterator over the elements as they are kept, without decoding
+     */
+    SequencedIterator<Utf8String> encodedAfter(long sequence) {
+        return list.iteratorAfter(sequence);
+    }
+
+    /**
+     * @return the sequence number given to the last added element, 0 if nothing has been added
+     */
+    public long lastSequence() {
+        return list.lastSequence();
+    }
+
+    /**
+     * @param element element to be appended to this list
+     */
+    public void add(String element) {
+        list.add(pool.encode(element));
+    }
+
+    /**
+     * @param element   element to be appended to this list
+     * @param ttlMillis the time of life of the element
+     */
+    public void add(String element, long ttlMillis) {
+        list.add(pool.encode(element), ttlMillis);
+    }
+
+    /**
+     * @param c the elements to be appended to this list
+     */
+    public void addAll(Collection<? extends String> c) {
+        addAll(c.toArray(new String[c.size()]));
+    }
+
+    /**
+     * Encodes the elements and appends them as one batch
+     *
+     * @param elements the elements to be appended to this list
+     */
+    public void addAll(String[] elements) {
+        Utf8String[] encoded = new Utf8String[elements.length];
+        for (int i = 0; i < elements.length; i++)
+            encoded[i] = pool.encode(elements[i]);
+        list.addAll(encoded);
+    }
+
+    /**
+     * @param index   index at which the specified element is to be inserted
+     * @param element element to be inserted
+     */
+    public void add(int index, String element) {
+        list.add(index, pool.encode(element));
+    }
+
+    /**
+     * @param index the index of the element to be removed
+     * @return the element previously at the specified position
+     */
+    public String remove(int index) {
+        return decode(list.remove(index));
+    }
+
+    /**
+     * @param o element to be removed from this list, if present
+     */
+    public void remove(Object o) {
+        list.remove(encode(o));
+    }
+
+    /**
+     * @param o - element whose presence in this list is to be tested
+     * @return true if this list contains the specified element
+     */
+    public boolean contains(Object o) {
+        return list.contains(encode(o));
+    }
+
+    /**
+     * @param index - index of the element to return
+     * @return the element at the specified position in this list
+     */
+    public String get(int index) {
+        return decode(list.get(index));
+    }
+
+    /**
+     * Registers a listener of the elements which expire in the wrapped list, they are decoded for it
+     *
+     * @param listener the listener
+     * @param policy   what happens to the batches when the listener falls behind
+     */
+    public void addExpirationListener(final ExpirationListener<String> listener, ListenerPolicy policy) {
+        ExpirationListener<Utf8String> decoder = new ExpirationListener<Utf8String>() {
+            public void expired(final List<Utf8String> elements, long[] expiresAt) {
+                listener.expired(new AbstractList<String>() {
+                    public String get(int index) {
+                        return decode(elements.get(index));
+                    }
+
+                    public int size() {
+                        return elements.size();
+                    }
+                }, expiresAt);
+            }
+        };
+        if (listeners.putIfAbsent(listener, decoder) == null)
+            list.addExpirationListener(decoder, policy);
+    }
+
+    /**
+     * @param listener the listener
+     */
+    public void removeExpirationListener(ExpirationListener<String> listener) {
+        ExpirationListener<Utf8String> decoder = listeners.remove(listener);
+        if (decoder != null)
+            list.removeExpirationListener(decoder);
+    }
+
+    /**
+     * Removes the expired elements of the wrapped list
+     */
+    public void sweep() {
+        if (list instanceof Sweepable)
+            ((Sweepable) list).sweep();
+    }
+
+    /**
+     * @return the estimated number of bytes taken by the elements, 0 if the wrapped list does not know it
+     */
+    public long usedBytes() {
+        return list instanceof Measurable ? ((Measurable) list).usedBytes() : 0;
+    }
+
+    /**
+     * @return the counters of the wrapped list, zero ones if it does not keep them
+     */
+    public ListMetrics metrics() {
+        return list instanceof Instrumented ? ((Instrumented) list).metrics() : none;
+    }
+
+    /**
+     * @return the version of the wrapped list, -1 if it does not count its changes
+     */
+    public long version() {
+        return list instanceof Versioned ? ((Versioned) list).version() : -1;
+    }
+
+    /**
+     * Strings are compared as their encoded form, other objects are equal to no element
+     */
+    private static Object encode(Object o) {
+        return o instanceof String ? new Utf8String((String) o) : o;
+    }
+
+    private static String decode(Utf8String element) {
+        return element == null ? null : element.toString();
+    }
+
+    private static class Decoder implements Iterator<String> {
+        private final Iterator<Utf8String> i;
+
+        Decoder(Iterator<Utf8String> i) {
+            this.i = i;
+        }
+
+        public boolean hasNext() {
+            return i.hasNext();
+        }
+
+        public String next() {
+            return decode(i.next());
+        }
+    }
+
+    private static class SequencedDecoder extends Decoder implements SequencedIterator<String> {
+        private final SequencedIterator<Utf8String> i;
+
+        SequencedDecoder(SequencedIterator<Utf8String> i) {
+            super(i);
+            this.i = i;
+        }
+
+        public long sequence() {
+            return i.sequence();
+        }
+
+        public long expiresAt() {
+            return i.expiresAt();
+        }
+    }
+}
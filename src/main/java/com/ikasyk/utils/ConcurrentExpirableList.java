@@ -0,0 +1,1018 @@
+package com.ikasyk.utils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe, lock-free implementation of ExpirableList.
+ *
+ * Elements are kept in a singly linked chain of nodes. Appends link a new node after the
+ * last one with a single CAS (a lagging tail pointer keeps them O(1)), and removed or expired
+ * nodes are unlinked by the same marker-node technique as java.util.concurrent.ConcurrentSkipListMap:
+ * a node is first claimed, then its next pointer is frozen with a marker, and only then it is
+ * cut out of the chain. No thread ever blocks another, so the list is safe to share between
+ * servlet worker threads.
+ *
+ * Positional operations walk the chain and skip dead nodes, so they are linear like in
+ * LinkedExpirableList. Iterators are weakly consistent: they never throw because of concurrent
+ * modification and return elements which were alive when the iterator was created.
+ * Every element gets a sequence number when it is linked, so an iteration can be continued later:
+ * the number is taken from the node it is linked after in the same loop as the CAS which links it,
+ * so the numbers grow in the list order whichever writer wins, and a reader which has seen a number
+ * has seen every element appended before it. The last node is never unlinked, even when it is dead,
+ * because the next append numbers its node after it. Every 64th node appended after the last
+ * checkpoint is a checkpoint too, kept in a skip list by its number until it is removed, so an
+ * iteration continued from a number starts at the checkpoint before it instead of the head of the list.
+ */
+public class ConcurrentExpirableList<T> implements SequencedExpirableList<T>, Sweepable, Measurable, Instrumented, Versioned {
+
+    // Heap taken by an element besides its payload: the node, the container and the marker which unlinks it
+    private static final int ENTRY_BYTES = 88;
+
+    // A node is a checkpoint when this many nodes have been appended since the checkpoint before it
+    private static final int CHECKPOINT_INTERVAL = 64;
+
+    // Life time
+    private final long lifetime;
+
+    // When expired elements are removed
+    private final ExpiryPolicy policy;
+
+    // Source of the current time
+    private final Clock clock;
+
+    // Receives the expired elements
+    private final ExpirationDispatcher<T> expirations;
+
+    // Counts adds, expirations and expiry passes
+    private final ListMetrics metrics;
+
+    // Counter of alive (not yet claimed) elements
+    private final AtomicInteger size = new AtomicInteger();
+
+    // Numbers the appended nodes
+    private final Numbering numbering;
+
+    // Number of links and claims, counted after they are done; striped, so it adds no contended CAS to an append
+    private final LongAdder changes = new LongAdder();
+
+    // Sentinel node, it is never removed; the first appended node is numbered after it
+    private final Node<T> head;
+
+    // Hint to the last node, may lag behind the real one
+    private volatile Node<T> tail;
+
+    // Checkpoint nodes which are not removed, by their numbers
+    private final ConcurrentSkipListMap<Long, Node<T>> checkpoints = new ConcurrentSkipListMap<Long, Node<T>>();
+
+    // Limits the number and the size of elements
+    private final CapacityGuard capacity;
+
+    /**
+     * Constructor sets the time of life
+     *
+     * @param l the time of life
+     */
+    public ConcurrentExpirableList(long l) {
+        this(l, ExpiryPolicy.lazy());
+    }
+
+    /**
+     * Constructor sets the time of life and the expiry policy.
+     * Readers skip expired elements in any mode, the policy only defines who unlinks them:
+     * lazy appends sweep the whole expired head, hybrid ones at most budget nodes, and eager
+     * appends leave it to the shared reaper thread.
+     *
+     * @param l      the time of life
+     * @param policy the expiry policy
+     */
+    public ConcurrentExpirableList(long l, ExpiryPolicy policy) {
+        this(l, policy, MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Constructor sets the time of life, the expiry policy and the source of time
+     *
+     * @param l      the time of life
+     * @param policy the expiry policy
+     * @param clock  the clock to check expiry against
+     */
+    public ConcurrentExpirableList(long l, ExpiryPolicy policy, Clock clock) {
+        this(l, policy, clock, CapacityPolicy.unbounded());
+    }
+
+    /**
+     * Constructor sets the time of life, the expiry policy, the source of time and the limits
+     * of the list. An add to the full list drops the oldest elements, fails with
+     * CapacityExceededException or waits for room, as the capacity policy says.
+     *
+     * @param l        the time of life
+     * @param policy   the expiry policy
+     * @param clock    the clock to check expiry against
+     * @param capacity the limits of the list
+     */
+    public ConcurrentExpirableList(long l, ExpiryPolicy policy, Clock clock, CapacityPolicy capacity) {
+        this(l, policy, clock, capacity, 0, Numbering.CONSECUTIVE, new ListMetrics());
+    }
+
+    /**
+     * Constructor of a list which is a part of a bigger one: a shard of ShardedExpirableList
+     * or a channel of ChannelRegistry, which number the elements their own way and count
+     * into one set of metrics
+     *
+     * @param l         the time of life
+     * @param policy    the expiry policy
+     * @param clock     the clock to check expiry against
+     * @param capacity  the limits of the list
+     * @param base      the number the first element is numbered after
+     * @param numbering gives the sequence numbers
+     * @param metrics   the counters
+     */
+    ConcurrentExpirableList(long l, ExpiryPolicy policy, Clock clock, CapacityPolicy capacity,
+                            long base, Numbering numbering, ListMetrics metrics) {
+        this.lifetime = l;
+        this.policy = policy;
+        this.clock = clock;
+        this.numbering = numbering;
+        this.metrics = metrics;
+        this.expirations = new ExpirationDispatcher<T>(metrics);
+        this.head = new Node<T>((ExpirableInspector.Element<T>) null);
+        this.head.seq = base;
+        this.tail = head;
+        this.capacity = new CapacityGuard(capacity, ENTRY_BYTES, new CapacityGuard.Owner() {
+            public void sweep() {
+                ConcurrentExpirableList.this.sweep();
+            }
+
+            public boolean evictOldest() {
+                return removeFirst();
+            }
+        });
+        policy.schedule(this);
+    }
+
+    /**
+     * Constructor sets the time of life = 60000 default
+     */
+    public ConcurrentExpirableList() {
+        this(60000);
+    }
+
+    /**
+     * Returns the counter of linked elements after unlinking the expired head, so it costs O(1)
+     * plus the elements which have expired since. An expired element behind a longer-lived one is
+     * counted until a sweep unlinks it; reads skip it in any case.
+     *
+     * @return the number of elements in this list
+     */
+    public int size() {
+        sweep(clock.millis(), Integer.MAX_VALUE, true);
+        return size.get();
+    }
+
+    /**
+     * Reads the counter of linked elements and expires nothing, so right after a sweep it is the
+     * number of alive elements and adds which have not linked yet; an add counts itself first.
+     *
+     * @return the number of elements which are counted and not removed
+     */
+    int counted() {
+        return size.get();
+    }
+
+    /**
+     * @return the estimated number of bytes taken by the elements, including expired ones which are not unlinked yet
+     */
+    public long usedBytes() {
+        return capacity.bytes();
+    }
+
+    /**
+     * @return true if this list contains no alive elements
+     */
+    public boolean isEmpty() {
+        long now = clock.millis();
+        sweep(now, Integer.MAX_VALUE, true);
+        for (Node<T> n = successor(head); n != null; n = successor(n)) {
+            if (isAlive(n, now))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return a weakly consistent iterator over the elements in this list
+     */
+    public ConcurrentExpirableList.Iterator<T> iterator() {
+        return iterator(IterationMode.WEAKLY_CONSISTENT);
+    }
+
+    /**
+     * Returns an iterator over the elements which are alive at the moment of the call.
+     *
+     * @param mode how the iterator sees the changes made during the iteration
+     * @return an iterator over the elements in this list
+     */
+    public ConcurrentExpirableList.Iterator<T> iterator(IterationMode mode) {
+        if (mode == IterationMode.SNAPSHOT) {
+            Object[] copy = new Object[Math.max(size.get(), 16)];
+            int count = 0;
+            for (Itr i = new Itr(Long.MIN_VALUE); i.hasNext(); ) {
+                if (count == copy.length)
+                    copy = Arrays.copyOf(copy, count + (count >> 1));
+                copy[count++] = i.next();
+            }
+            return new SnapshotIterator<T>(copy, count);
+        }
+        return new Itr(Long.MIN_VALUE);
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the alive elements which were added
+     * after the element with the specified sequence number. Elements are returned in
+     * the list order. The iteration starts at the nearest checkpoint at or before the number,
+     * so it passes at most 64 numbers before the first returned element, O(log n) in all.
+     *
+     * @param sequence the sequence number of the last seen element, 0 to start from the beginning
+     * @return an iterator over the elements in this list
+     */
+    public SequencedIterator<T> iteratorAfter(long sequence) {
+        return new Itr(sequence == 0 ? Long.MIN_VALUE : sequence);
+    }
+
+    /**
+     * Reads the number of the last node, which is never unlinked. An element whose add has not
+     * returned yet may already be counted, one which is linked later gets a greater number.
+     *
+     * @return the sequence number given to the last added element, 0 if nothing has been added
+     */
+    public long lastSequence() {
+        Node<T> p = tail;
+        for (Node<T> n; (n = p.next) != null; )
+            p = n;
+        return p.seq;
+    }
+
+    /**
+     * @return the number of adds and removals which readers can see
+     */
+    public long version() {
+        return changes.sum();
+    }
+
+    /**
+     * Appends the specified element to the end of this list.
+     * Only the expired head of the list is swept here, so an append costs O(1)
+     * amortized regardless of the list length.
+     *
+     * @param element element to be appended to this list
+     */
+    public void add(T element) {
+        add(element, lifetime);
+    }
+
+    /**
+     * Appends the specified element to the end of this list with its own time of life.
+     * Elements which expire before an alive predecessor are skipped by readers and
+     * unlinked by the next full sweep or by an iterator passing them.
+     *
+     * @param element   element to be appended to this list
+     * @param ttlMillis the time of life of the element
+     * @throws IllegalArgumentException  if the time of life is negative
+     * @throws CapacityExceededException if the list is full
+     */
+    public void add(T element, long ttlMillis) {
+        if (ttlMillis < 0)
+            throw new IllegalArgumentException("Time of life: " + ttlMillis);
+        capacity.acquire(1, capacity.weigh(element));
+        long now = clock.millis();
+        expire(now);
+        Node<T> node = new Node<T>(new ExpirableInspector.Element<T>(element, now + ttlMillis));
+        size.incrementAndGet();
+        append(node);
+        changes.increment();
+        metrics.added(1);
+    }
+
+    /**
+     * Appends all elements of the collection to the end of this list.
+     * The batch is linked as one chain with a single CAS after one sweep, all elements get one timestamp and consecutive sequence numbers.
+     *
+     * @param c the elements to be appended to this list
+     * @throws CapacityExceededException if the list is full
+     */
+    public void addAll(Collection<? extends T> c) {
+        addBatch(c.toArray());
+    }
+
+    /**
+     * Appends all elements of the array to the end of this list.
+     * The batch is linked as one chain with a single CAS after one sweep, all elements get one timestamp and consecutive sequence numbers.
+     *
+     * @param elements the elements to be appended to this list
+     * @throws CapacityExceededException if the list is full
+     */
+    public void addAll(T[] elements) {
+        addBatch(elements);
+    }
+
+    /**
+     * Builds a private chain of the elements and links it at once
+     *
+     * @param elements the elements to be appended, they are of type T
+     */
+    private void addBatch(Object[] elements) {
+        if (elements.length == 0)
+            return;
+        capacity.acquire(elements.length, capacity.weigh(elements));
+        long now = clock.millis();
+        expire(now);
+        long expired = now + lifetime;
+        Node<T> first = null;
+        Node<T> last = null;
+        for (Object element : elements) {
+            Node<T> node = new Node<T>(new ExpirableInspector.Element<T>((T) element, expired));
+            if (first == null)
+                first = node;
+            else
+                last.next = node;
+            last = node;
+        }
+        size.addAndGet(elements.length);
+        append(first, last);
+        changes.increment();
+        metrics.added(elements.length);
+    }
+
+    /**
+     * Inserts the specified element at the specified position in this list.
+     * Shifts the element currently at that position(if any) and any subsequent
+     * elements to the right. An element inserted before the last one shares the sequence number
+     * of the element before it, so a reader which has already seen that element does not get it.
+     *
+     * @param index   index at which the specified element is to be inserted
+     * @param element element to be inserted
+     * @throws IndexOutOfBoundsException if the index is out of range
+     * @throws CapacityExceededException if the list is full
+     */
+    public void add(int index, T element) {
+        if (index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        long weight = capacity.weigh(element);
+        capacity.acquire(1, weight);
+        long now = clock.millis();
+        expire(now);
+        Node<T> node = new Node<T>(new ExpirableInspector.Element<T>(element, now + lifetime));
+        size.incrementAndGet();
+        for (;;) {
+            Node<T> pred = head;
+            int i = 0;
+            while (i < index) {
+                Node<T> n = successor(pred);
+                if (n == null)
+                    break;
+                if (isAlive(n, now))
+                    i++;
+                pred = n;
+            }
+            if (i < index) {
+                size.decrementAndGet();
+                capacity.release(1, weight);
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + i);
+            }
+            Node<T> next = pred.next;
+            if (next != null && next.isMarker())
+                continue;
+            node.next = next;
+            if (next == null) {
+                numbering.enter();
+                try {
+                    number(pred, node, node);
+                    if (!casNext(pred, null, node))
+                        continue;
+                } finally {
+                    numbering.leave();
+                }
+                casTail(tail, node);
+                index(node, node);
+            } else {
+                node.seq = pred.seq;
+                node.checkpoint = false;
+                node.distance = pred.distance;
+                if (!casNext(pred, next, node))
+                    continue;
+            }
+            changes.increment();
+            metrics.added(1);
+            return;
+        }
+    }
+
+    /**
+     * Removes the element at the specified position in this list.
+     * Shifts any subsequent elements to the left.
+     * Returns the element that was removed from the list.
+     *
+     * @param index the index of the element to be removed
+     * @return the element previously at the specified position
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public T remove(int index) {
+        if (index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        long now = clock.millis();
+        for (;;) {
+            Node<T> pred = head;
+            Node<T> n = successor(pred);
+            int i = 0;
+            while (n != null) {
+                if (isAlive(n, now)) {
+                    if (i == index)
+                        break;
+                    i++;
+                }
+                pred = n;
+                n = successor(n);
+            }
+            if (n == null)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + i);
+            if (claim(n)) {
+                unlink(pred, n);
+                return n.element.get();
+            }
+        }
+    }
+
+    /**
+     * Removes the first node which is not removed yet, expired or not
+     *
+     * @return false if there is no such node
+     */
+    private boolean removeFirst() {
+        for (;;) {
+            Node<T> pred = head;
+            Node<T> n = successor(pred);
+            while (n != null && n.removed != 0) {
+                pred = n;
+                n = successor(n);
+            }
+            if (n == null)
+                return false;
+            if (claim(n)) {
+                unlink(pred, n);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes the first occurrence of the specified element from this list,
+     * if it is present. If this list does not contain the element, it is
+     * unchanged.
+     *
+     * @param o - element to be removed if present
+     */
+    public void remove(Object o) {
+        long now = clock.millis();
+        Node<T> pred = head;
+        Node<T> n = successor(pred);
+        while (n != null) {
+            if (isAlive(n, now) && equal(o, n.element.get()) && claim(n)) {
+                unlink(pred, n);
+                return;
+            }
+            pred = n;
+            n = successor(n);
+        }
+    }
+
+    /**
+     * Returns true if this list contains the specified element.
+     *
+     * @param o - element whose presence in this list is to be tested
+     */
+    public boolean contains(Object o) {
+        long now = clock.millis();
+        for (Node<T> n = successor(head); n != null; n = successor(n)) {
+            if (isAlive(n, now) && equal(o, n.element.get()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the element at the specified position in this list.
+     *
+     * @param index - index of the element to return
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public T get(int index) {
+        if (index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        long now = clock.millis();
+        int i = 0;
+        for (Node<T> n = successor(head); n != null; n = successor(n)) {
+            if (isAlive(n, now)) {
+                if (i == index)
+                    return n.element.get();
+                i++;
+            }
+        }
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + i);
+    }
+
+    class Itr implements SequencedIterator<T> {
+        // Node the search for the next element starts after
+        private Node<T> position;
+
+        // Node of the last returned element, null before the first
+        private Node<T> lastRet;
+
+        // Node of the next element to return; null if not found yet
+        private Node<T> next;
+
+        // Nodes seen before next and before lastRet, to unlink them from
+        private Node<T> nextPred;
+        private Node<T> lastPred;
+
+        // Elements which expired before this time are skipped
+        private final long cutoff = clock.millis();
+
+        // Elements with this or lower sequence number are skipped
+        private final long after;
+
+        /**
+         * @param after the sequence number of the last seen element, Long.MIN_VALUE for none
+         */
+        Itr(long after) {
+            this.after = after;
+            Map.Entry<Long, Node<T>> checkpoint = after == Long.MIN_VALUE ? null : checkpoints.floorEntry(after);
+            this.position = checkpoint == null ? head : checkpoint.getValue();
+        }
+
+        /**
+         * Returns true if the iteration has more elements.
+         * Dead nodes between the last returned and the next element are unlinked on the way,
+         * alive ones which are not after the start sequence are passed. A checkpoint the iteration
+         * starts from may have been unlinked since, its frozen links still lead into the list.
+         */
+        public boolean hasNext() {
+            if (next == null) {
+                Node<T> pred = position;
+                Node<T> n = successor(pred);
+                ExpirationDispatcher.Batch<T> expired = null;
+                while (n != null) {
+                    if (!isAlive(n, cutoff)) {
+                        if (claim(n)) {
+                            expired = expirations.collect(expired, n.element.get(), n.element.getExpired());
+                            metrics.expired(1);
+                        }
+                        unlink(pred, n);
+                    } else if (n.seq > after) {
+                        break;
+                    } else {
+                        pred = n;
+                    }
+                    n = successor(n);
+                }
+                next = n;
+                nextPred = pred;
+                expirations.dispatch(expired);
+            }
+            return next != null;
+        }
+
+        /**
+         * @return the sequence number of the last returned element
+         */
+        public long sequence() {
+            return returned().seq;
+        }
+
+        /**
+         * @return the expiry time of the last returned element
+         */
+        public long expiresAt() {
+            return returned().element.getExpired();
+        }
+
+        private Node<T> returned() {
+            if (lastRet == null)
+                throw new IllegalStateException();
+            return lastRet;
+        }
+
+        /**
+         * Returns the next element in the iteration.
+         *
+         * @return the next element in the iteration
+         * @throws NoSuchElementException if the iteration has no more elements
+         */
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            lastRet = position = next;
+            lastPred = nextPred;
+            next = null;
+            return lastRet.element.get();
+        }
+
+        /**
+         * Removes the node of the element returned by the last call to next(), not an equal
+         * element nor the one which is at its index by now
+         *
+         * @return false if the element has already been removed or has expired
+         * @throws IllegalStateException if next() has not been called yet
+         */
+        boolean removeReturned() {
+            Node<T> n = returned();
+            if (!claim(n))
+                return false;
+            unlink(lastPred, n);
+            return true;
+        }
+
+        /**
+         * Inserts the element right after the node of the element returned by the last call
+         * to next(). The new node shares the sequence number of that node, also at the end of
+         * the list, so a reader which has seen that element does not get it.
+         *
+         * @param element element to be inserted
+         * @return false if the element has already been removed or is being unlinked
+         * @throws IllegalStateException     if next() has not been called yet
+         * @throws CapacityExceededException if the list is full
+         */
+        boolean insertAfterReturned(T element) {
+            Node<T> pred = returned();
+            long weight = capacity.weigh(element);
+            capacity.acquire(1, weight);
+            long now = clock.millis();
+            expire(now);
+            Node<T> node = new Node<T>(new ExpirableInspector.Element<T>(element, now + lifetime));
+            size.incrementAndGet();
+            for (;;) {
+                Node<T> next = pred.next;
+                if (pred.removed != 0 || (next != null && next.isMarker())) {
+                    size.decrementAndGet();
+                    capacity.release(1, weight);
+                    return false;
+                }
+                node.next = next;
+                node.seq = pred.seq;
+                node.distance = pred.distance;
+                if (casNext(pred, next, node)) {
+                    if (next == null)
+                        casTail(tail, node);
+                    changes.increment();
+                    metrics.added(1);
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the live counters of this list
+     */
+    public ListMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Registers a listener of the elements which expire in this list. The listener gets them
+     * in batches on its own thread, so it does not slow the operations of the list down.
+     *
+     * @param listener the listener
+     * @param policy   what happens to the batches when the listener falls behind
+     */
+    public void addExpirationListener(ExpirationListener<T> listener, ListenerPolicy policy) {
+        expirations.add(listener, policy);
+    }
+
+    /**
+     * Unregisters the listener, the batches already queued for it are still delivered
+     *
+     * @param listener the listener
+     */
+    public void removeExpirationListener(ExpirationListener<T> listener) {
+        expirations.remove(listener);
+    }
+
+    /**
+     * Delete all expired elements. Called by the reaper thread.
+     */
+    public void sweep() {
+        sweep(clock.millis(), Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * Unlinks the expired head of the list before an append as the expiry policy says
+     *
+     * @param now the current timestamp
+     */
+    private void expire(long now) {
+        switch (policy.getMode()) {
+            case LAZY:
+                sweep(now, Integer.MAX_VALUE, true);
+                break;
+            case HYBRID:
+                sweep(now, policy.getBudget(), true);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Unlinks dead elements of the list. Can be run by any number of threads at once.
+     *
+     * @param now      the current timestamp
+     * @param budget   the maximum number of elements to unlink
+     * @param headOnly true to stop at the first alive element
+     */
+    private void sweep(long now, int budget, boolean headOnly) {
+        long start = System.nanoTime();
+        ExpirationDispatcher.Batch<T> expired = null;
+        int checked = 0;
+        int claimed = 0;
+        restart:
+        for (;;) {
+            Node<T> pred = head;
+            for (;;) {
+                Node<T> n = pred.next;
+                if (n == null)
+                    break restart;
+                if (n.isMarker())
+                    continue restart;
+                checked++;
+                if (!isAlive(n, now)) {
+                    if (claim(n)) {
+                        expired = expirations.collect(expired, n.element.get(), n.element.getExpired());
+                        claimed++;
+                    }
+                    Node<T> m = mark(n);
+                    if (m == null)
+                        break restart;
+                    if (casNext(pred, n, m.next) && --budget == 0)
+                        break restart;
+                } else if (headOnly) {
+                    break restart;
+                } else {
+                    pred = n;
+                }
+            }
+        }
+        expirations.dispatch(expired);
+        metrics.swept(checked, claimed, System.nanoTime() - start);
+    }
+
+    /**
+     * Links the node after the last node of the list.
+     *
+     * @param node the new node
+     */
+    private void append(Node<T> node) {
+        append(node, node);
+    }
+
+    /**
+     * Links the chain of nodes after the last node of the list with one CAS.
+     *
+     * @param first the first node of the chain
+     * @param last  the last node of the chain
+     */
+    private void append(Node<T> first, Node<T> last) {
+        numbering.enter();
+        try {
+            Node<T> t = tail;
+            Node<T> p = t;
+            for (;;) {
+                Node<T> n = p.next;
+                if (n == null) {
+                    number(p, first, last);
+                    if (casNext(p, null, first)) {
+                        casTail(t, last);
+                        break;
+                    }
+                } else if (n.isMarker()) {
+                    // p is being unlinked: jump over it or start again if it was the last one
+                    Node<T> s = n.next;
+                    p = s != null ? s : head;
+                } else {
+                    p = n;
+                }
+            }
+        } finally {
+            numbering.leave();
+        }
+        index(first, last);
+    }
+
+    /**
+     * Numbers the chain of nodes which is about to be linked and picks its checkpoints by the
+     * nodes since the last one, called again if the link fails
+     *
+     * @param pred  the node the chain is linked after
+     * @param first the first node of the chain
+     * @param last  the last node of the chain
+     */
+    private void number(Node<T> pred, Node<T> first, Node<T> last) {
+        long previous = pred.seq;
+        int distance = pred.distance;
+        for (Node<T> n = first; ; n = n.next) {
+            n.seq = previous = numbering.next(previous);
+            n.checkpoint = ++distance == CHECKPOINT_INTERVAL;
+            if (n.checkpoint)
+                distance = 0;
+            n.distance = distance;
+            if (n == last)
+                return;
+        }
+    }
+
+    /**
+     * Puts the checkpoints of the linked chain into the index. A checkpoint which has been
+     * removed in the meantime is taken out again, whichever of this and the claim comes last.
+     *
+     * @param first the first node of the chain
+     * @param last  the last node of the chain
+     */
+    private void index(Node<T> first, Node<T> last) {
+        for (Node<T> n = first; ; n = n.next) {
+            if (n.checkpoint) {
+                checkpoints.put(n.seq, n);
+                if (n.removed != 0)
+                    checkpoints.remove(n.seq, n);
+            }
+            if (n == last)
+                return;
+        }
+    }
+
+    /**
+     * Cuts already claimed node out of the list. If the predecessor has changed the
+     * node stays marked and it will be unlinked by the next sweep; the last node stays
+     * linked until something is appended after it.
+     *
+     * @param pred the node before
+     * @param node the node to be unlinked
+     */
+    private void unlink(Node<T> pred, Node<T> node) {
+        Node<T> m = mark(node);
+        if (m != null)
+            casNext(pred, node, m.next);
+    }
+
+    /**
+     * Freezes the next pointer of the node with a marker, so nothing can be linked after it.
+     * The last node is not frozen, appends number their nodes after it.
+     *
+     * @param node the dead node
+     * @return the marker, whose next is the successor of the node; null if the node is the last one
+     */
+    private Node<T> mark(Node<T> node) {
+        for (;;) {
+            Node<T> n = node.next;
+            if (n == null)
+                return null;
+            if (n.isMarker())
+                return n;
+            Node<T> m = new Node<T>(n);
+            if (casNext(node, n, m))
+                return m;
+        }
+    }
+
+    /**
+     * Marks the node as removed.
+     *
+     * @param node the node
+     * @return true if this call has removed the node
+     */
+    private boolean claim(Node<T> node) {
+        if (REMOVED.compareAndSet(node, 0, 1)) {
+            if (node.checkpoint)
+                checkpoints.remove(node.seq, node);
+            size.decrementAndGet();
+            capacity.release(1, capacity.weigh(node.element.get()));
+            changes.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the next node after the given one, skipping unlinked ones
+     */
+    private static <T> Node<T> successor(Node<T> node) {
+        Node<T> n = node.next;
+        while (n != null && n.isMarker())
+            n = n.next;
+        return n;
+    }
+
+    /**
+     * @return true if the node is neither removed nor expired
+     */
+    private static boolean isAlive(Node<?> node, long now) {
+        return node.removed == 0 && now <= node.element.getExpired();
+    }
+
+    private static boolean equal(Object o, Object data) {
+        return o == null ? data == null : o.equals(data);
+    }
+
+    private boolean casNext(Node<T> node, Node<T> expect, Node<T> update) {
+        return NEXT.compareAndSet(node, expect, update);
+    }
+
+    private boolean casTail(Node<T> expect, Node<T> update) {
+        return TAIL.compareAndSet(this, expect, update);
+    }
+
+    private static class Node<T> {
+        // Element container, null for the sentinel and markers
+        final ExpirableInspector.Element<T> element;
+
+        // True for nodes which freeze the link of a removed node
+        final boolean marker;
+
+        // True if the node is put into the index of checkpoints, written together with seq
+        boolean checkpoint;
+
+        // Nodes appended since the last checkpoint up to this one, 0 for a checkpoint; written together with seq
+        int distance;
+
+        // Sequence number of the element, the base for the sentinel and 0 for markers;
+        // written before the CAS which links the node, so readers see it
+        long seq;
+
+        volatile Node<T> next;
+
+        // 1 if the element has been removed or expired
+        volatile int removed;
+
+        Node(ExpirableInspector.Element<T> element) {
+            this.element = element;
+            this.marker = false;
+        }
+
+        Node(Node<T> next) {
+            this.element = null;
+            this.marker = true;
+            this.next = next;
+        }
+
+        boolean isMarker() {
+            return marker;
+        }
+    }
+
+    /**
+     * Gives the sequence numbers of the appended nodes. It is asked in the loop which links a node,
+     * with the number of the node it is linked after, so the number it returns must be greater.
+     */
+    static class Numbering {
+        // Numbers the nodes one after another
+        static final Numbering CONSECUTIVE = new Numbering();
+
+        /**
+         * @param previous the number of the node the new one is linked after
+         * @return the number of the new node
+         */
+        long next(long previous) {
+            return previous + 1;
+        }
+
+        /**
+         * Called before an append starts to number its nodes
+         */
+        void enter() {
+        }
+
+        /**
+         * Called after the append has linked its nodes, or has failed
+         */
+        void leave() {
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<Node> REMOVED =
+            AtomicIntegerFieldUpdater.newUpdater(Node.class, "removed");
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<ConcurrentExpirableList, Node> TAIL =
+            AtomicReferenceFieldUpdater.newUpdater(ConcurrentExpirableList.class, Node.class, "tail");
+}
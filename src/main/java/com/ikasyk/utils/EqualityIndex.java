@@ -0,0 +1,96 @@
+package com.ikasyk.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Hash index of the values of a list: remembers the places of equal values in the order they
+ * have in the list. A lookup costs O(1) expected plus the number of equal values, the owner
+ * never scans the list to find a value.
+ *
+ * The index is not thread-safe, it is guarded by its owner.
+ *
+ * @param <R> the type of the reference to the place of a value in the list
+ */
+class EqualityIndex<R> {
+
+    // Places of the values, every list is in the order of the list and never empty
+    private final HashMap<Object, List<R>> places = new HashMap<Object, List<R>>();
+
+    /**
+     * Registers a value which was appended to the list
+     *
+     * @param value the value, may be null
+     * @param ref   the place of the value
+     */
+    void add(Object value, R ref) {
+        insert(value, ref, null);
+    }
+
+    /**
+     * Registers a value which was inserted into the list
+     *
+     * @param value the value, may be null
+     * @param ref   the place of the value
+     * @param next  the place of the next equal value in the list, or null if there is none
+     */
+    void insert(Object value, R ref, R next) {
+        List<R> refs = places.get(value);
+        if (refs == null) {
+            refs = new ArrayList<R>(1);
+            places.put(value, refs);
+        }
+        int index = next == null ? -1 : indexOf(refs, next);
+        if (index < 0)
+            refs.add(ref);
+        else
+            refs.add(index, ref);
+    }
+
+    /**
+     * Unregisters a value which was removed from the list
+     *
+     * @param value the value, may be null
+     * @param ref   the place the value was removed from
+     */
+    void remove(Object value, R ref) {
+        List<R> refs = places.get(value);
+        if (refs == null)
+            return;
+        int index = indexOf(refs, ref);
+        if (index >= 0)
+            refs.remove(index);
+        if (refs.isEmpty())
+            places.remove(value);
+    }
+
+    /**
+     * @param value the value to look for
+     * @return true if the list contains an equal value
+     */
+    boolean contains(Object value) {
+        return places.containsKey(value);
+    }
+
+    /**
+     * @param value the value to look for
+     * @return the places of the equal values in the order of the list, empty if there are none
+     */
+    List<R> find(Object value) {
+        List<R> refs = places.get(value);
+        return refs == null ? Collections.<R>emptyList() : refs;
+    }
+
+    /**
+     * @return the position of the place in the list of places, compared by identity, or -1
+     */
+    private static <R> int indexOf(List<R> refs, R ref) {
+        for (int i = 0; i < refs.size(); i++) {
+            if (refs.get(i) == ref)
+                return i;
+        }
+        return -1;
+    }
+}
@@ -1,7 +1,5 @@
 package com.ikasyk.utils;
 
-import java.util.Date;
-
 /**
  * Created by igor on 26.07.16.
  */
@@ -68,11 +66,10 @@ class ExpirableInspector {
     }
 
     /**
-     * @return the current timestamp
+     * @return the current timestamp of the default clock
      */
     public static long getTime() {
-        Date date = new Date();
-        return date.getTime();
+        return MonotonicClock.INSTANCE.millis();
     }
 
     /**
@@ -80,11 +77,28 @@ class ExpirableInspector {
      * @return is the element lived
      */
     public static boolean isExists(ExpirableInspector.Element element) {
-        long time = ExpirableInspector.getTime();
-        if (time <= element.getExpired()) {
-            return true;
-        } else {
-            return false;
-        }
+        return isExists(element, ExpirableInspector.getTime());
+    }
+
+    /**
+     * Checks the element against a timestamp which was read once for many elements
+     *
+     * @param element the element of list
+     * @param now     the current timestamp
+     * @return is the element lived
+     */
+    public static boolean isExists(ExpirableInspector.Element element, long now) {
+        return isExists(element.getExpired(), now);
+    }
+
+    /**
+     * Checks an expiry time which is not kept in an Element
+     *
+     * @param expired the last timestamp when the element is alive
+     * @param now     the current timestamp
+     * @return is the element lived
+     */
+    public static boolean isExists(long expired, long now) {
+        return now <= expired;
     }
 }
@@ -1,8 +1,11 @@
 package com.ikasyk.utils;
 
+import java.util.Collection;
+
 /**
  * Represents List of elements with a shelf time (an element has to be removed after specified time)
- * The time-to-life is specified in the list constructor. Element's countdown starts after adding it to the list.
+ * The time-to-life is specified in the list constructor, or for a single element when it is added.
+ * Element's countdown starts after adding it to the list.
  */
 interface ExpirableList<T> {
 
@@ -17,10 +20,18 @@ interface ExpirableList<T> {
     boolean isEmpty();
 
     /**
-     * @return an iterator over the elements in this list
+     * @return a weakly consistent iterator over the elements in this list
      */
     Iterator<T> iterator();
 
+    /**
+     * Returns an iterator over the elements which are alive at the moment of the call.
+     *
+     * @param mode how the iterator sees the changes made during the iteration
+     * @return an iterator over the elements in this list
+     */
+    Iterator<T> iterator(IterationMode mode);
+
     /**
      * Appends the specified element to the end of this list.
      *
@@ -28,6 +39,32 @@ interface ExpirableList<T> {
      */
     void add(T element);
 
+    /**
+     * Appends the specified element to the end of this list.
+     * The element lives for the specified time instead of the time of life of the list.
+     *
+     * @param element   element to be appended to this list
+     * @param ttlMillis the time of life of the element in milliseconds
+     * @throws IllegalArgumentException if the time of life is negative
+     */
+    void add(T element, long ttlMillis);
+
+    /**
+     * Appends all elements of the collection to the end of this list.
+     * Implementations handle the batch at once: one expiry pass and one timestamp for all elements.
+     *
+     * @param c the elements to be appended to this list
+     */
+    void addAll(Collection<? extends T> c);
+
+    /**
+     * Appends all elements of the array to the end of this list.
+     * Implementations handle the batch at once: one expiry pass and one timestamp for all elements.
+     *
+     * @param elements the elements to be appended to this list
+     */
+    void addAll(T[] elements);
+
     /**
      * Inserts the specified element at the specified position in this list.
      * Shifts the element currently at that position(if any) and any subsequent
@@ -74,6 +111,22 @@ interface ExpirableList<T> {
      */ 
     T get(int index);
 
+    /**
+     * Registers a listener of the elements which expire in this list. The listener gets them
+     * in batches on its own thread, so it does not slow the operations of the list down.
+     *
+     * @param listener the listener
+     * @param policy   what happens to the batches when the listener falls behind
+     */
+    void addExpirationListener(ExpirationListener<T> listener, ListenerPolicy policy);
+
+    /**
+     * Unregisters the listener, the batches already queued for it are still delivered
+     *
+     * @param listener the listener
+     */
+    void removeExpirationListener(ExpirationListener<T> listener);
+
     interface Iterator<T> {
 
         /**
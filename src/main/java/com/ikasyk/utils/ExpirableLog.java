@@ -0,0 +1,543 @@
+package com.ikasyk.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of (expiry time, string) records kept in memory-mapped segment files.
+ *
+ * A record is written into the current segment and becomes durable when a flusher thread forces
+ * the segment to disk. Writers which wait for durability share one force, so the cost of fsync
+ * is spread over all records written while the previous force was running. A full segment is
+ * sealed: the latest expiry time of its records is written into its header and the segment is
+ * deleted as a whole once that time is over, so the log is never compacted.
+ *
+ * A snapshot holds the alive records up to a mark in the log. At startup the snapshot is read
+ * first, then only the records after the mark, and sealed segments which have expired by their
+ * header are deleted without being read.
+ *
+ * Segment file: header [long latest expiry][int sealed], then records, a zero length ends the records.
+ * Record: [int length + 1, or -1 for null][int crc of the rest][long expiry][UTF-8 bytes].
+ */
+public class ExpirableLog implements Sweepable, Closeable {
+
+    /**
+     * Receives the alive records during the replay
+     */
+    public interface Visitor {
+
+        /**
+         * @param expiresAt the last timestamp when the record is alive
+         * @param payload   the string of the record
+         */
+        void record(long expiresAt, String payload);
+    }
+
+    // Default size of a segment in bytes
+    private static final int DEFAULT_SEGMENT_SIZE = 1 << 26;
+
+    private static final int HEADER = 16;
+    private static final int RECORD_HEADER = 16;
+    private static final String SNAPSHOT = "snapshot";
+
+    // Directory of the segments and the snapshot
+    private final File dir;
+    private final int segmentSize;
+
+    // Source of the current time
+    private final Clock clock;
+
+    // Sealed segments, oldest first
+    private final ArrayDeque<Segment> sealed = new ArrayDeque<Segment>();
+
+    // Segment the records are appended to
+    private Segment active;
+
+    // Number of appended records and the number of them which are on disk
+    private long appended;
+    private long durable;
+
+    private boolean closed;
+    private final Thread flusher;
+
+    /**
+     * Opens the log in the directory without reading the old records
+     *
+     * @param dir the directory of the log, created if it does not exist
+     * @throws IOException if the log cannot be opened
+     */
+    public ExpirableLog(File dir) throws IOException {
+        this(dir, null);
+    }
+
+    /**
+     * Opens the log in the directory and replays its alive records
+     *
+     * @param dir     the directory of the log, created if it does not exist
+     * @param visitor receives the alive records, may be null
+     * @throws IOException if the log cannot be opened
+     */
+    public ExpirableLog(File dir, Visitor visitor) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE, MonotonicClock.INSTANCE, visitor);
+    }
+
+    /**
+     * Opens the log in the directory and replays its alive records
+     *
+     * @param dir         the directory of the log, created if it does not exist
+     * @param segmentSize the size of a segment file in bytes
+     * @param clock       the clock to check expiry against
+     * @param visitor     receives the alive records, may be null
+     * @throws IllegalArgumentException if the segment size is too small
+     * @throws IOException              if the log cannot be opened
+     */
+    public ExpirableLog(File dir, int segmentSize, Clock clock, Visitor visitor) throws IOException {
+        if (segmentSize < HEADER + RECORD_HEADER + 4)
+            throw new IllegalArgumentException("Segment size: " + segmentSize);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create " + dir);
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.clock = clock;
+        long lastId = replay(visitor);
+        active = new Segment(lastId + 1, true);
+        flusher = new Thread(new Runnable() {
+            public void run() {
+                flush();
+            }
+        }, "expirable-log");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Writes the record into the current segment. The record is durable after commit().
+     *
+     * @param expiresAt the last timestamp when the record is alive
+     * @param payload   the string of the record
+     * @return the ticket to wait for with commit()
+     * @throws IllegalArgumentException if the record does not fit into a segment
+     * @throws IllegalStateException    if the log is closed
+     */
+    public synchronized long append(long expiresAt, String payload) {
+        if (closed)
+            throw new IllegalStateException("Log is closed");
+        byte[] bytes = payload == null ? null : payload.getBytes(StandardCharsets.UTF_8);
+        int length = bytes == null ? 0 : bytes.length;
+        if (HEADER + RECORD_HEADER + length + 4 > segmentSize)
+            throw new IllegalArgumentException("Record: " + length + " bytes");
+        if (active.offset + RECORD_HEADER + length + 4 > segmentSize)
+            roll();
+        active.write(expiresAt, bytes);
+        appended++;
+        notifyAll();
+        return appended;
+    }
+
+    /**
+     * Waits until the records up to the ticket are forced to disk.
+     * The flusher writes all appended records before it stops, so this returns after close() too.
+     *
+     * @param ticket the ticket returned by append()
+     * @throws IllegalStateException if the thread is interrupted before that
+     */
+    public synchronized void commit(long ticket) {
+        while (durable < ticket) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted before commit");
+            }
+        }
+    }
+
+    /**
+     * Tells if a record of the payload fits into a segment without encoding it when the answer is obvious
+     *
+     * @param payload the string of the record
+     * @return true if append() would take the record
+     */
+    boolean fits(String payload) {
+        if (payload == null)
+            return true;
+        long room = segmentSize - HEADER - RECORD_HEADER - 4;
+        return 3L * payload.length() <= room || payload.getBytes(StandardCharsets.UTF_8).length <= room;
+    }
+
+    /**
+     * @return the place in the log right after the last appended record
+     */
+    synchronized Mark mark() {
+        return new Mark(active.id, active.offset);
+    }
+
+    /**
+     * Replaces the snapshot and deletes the segments which it covers.
+     * The records must be all alive records appended before the mark, in their order.
+     *
+     * @param mark    the place in the log the snapshot is taken at
+     * @param records the alive records with their expiry times
+     * @param last    the sequence number of the last record to be taken from the iterator
+     * @throws IOException if the snapshot cannot be written
+     */
+    void snapshot(Mark mark, SequencedExpirableList.SequencedIterator<String> records, long last) throws IOException {
+        File tmp = new File(dir, SNAPSHOT + ".tmp");
+        FileOutputStream file = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+            out.writeLong(mark.segment);
+            out.writeInt(mark.offset);
+            CRC32 crc = new CRC32();
+            byte[] expiry = new byte[8];
+            while (records.hasNext()) {
+                String payload = records.next();
+                if (records.sequence() > last)
+                    break;
+                byte[] bytes = payload == null ? null : payload.getBytes(StandardCharsets.UTF_8);
+                ByteBuffer.wrap(expiry).putLong(records.expiresAt());
+                crc.reset();
+                crc.update(expiry, 0, 8);
+                if (bytes != null)
+                    crc.update(bytes, 0, bytes.length);
+                out.writeInt(bytes == null ? -1 : bytes.length + 1);
+                out.writeInt((int) crc.getValue());
+                out.write(expiry);
+                if (bytes != null)
+                    out.write(bytes);
+            }
+            out.writeInt(0);
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        Files.move(tmp.toPath(), new File(dir, SNAPSHOT).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        synchronized (this) {
+            for (Iterator<Segment> i = sealed.iterator(); i.hasNext(); ) {
+                Segment s = i.next();
+                if (s.id < mark.segment) {
+                    s.delete();
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the sealed segments whose latest record has expired
+     */
+    public synchronized void sweep() {
+        if (closed)
+            return;
+        long now = clock.millis();
+        for (Iterator<Segment> i = sealed.iterator(); i.hasNext(); ) {
+            Segment s = i.next();
+            if (s.latest < now) {
+                s.delete();
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Forces the written records to disk and stops the flusher
+     *
+     * @throws IOException if the current segment cannot be sealed
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            active.seal();
+            active.close();
+            for (Segment s : sealed)
+                s.close();
+        }
+    }
+
+    /**
+     * Loop of the flusher thread: forces the current segment while there are records
+     * which are not durable, everything written during a force goes to disk with the next one.
+     */
+    private void flush() {
+        while (true) {
+            Segment segment;
+            long target;
+            synchronized (this) {
+                while (!closed && durable == appended) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // the flusher is stopped by close()
+                    }
+                }
+                if (closed && durable == appended)
+                    return;
+                target = appended;
+                segment = active;
+            }
+            segment.buffer.force();
+            synchronized (this) {
+                durable = Math.max(durable, target);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Seals the current segment and starts the next one
+     */
+    private void roll() {
+        try {
+            active.seal();
+            sealed.addLast(active);
+            active = new Segment(active.id + 1, true);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the snapshot and the segments after its mark, deletes expired and covered segments
+     *
+     * @param visitor receives the alive records, may be null
+     * @return the greatest segment id in the directory
+     * @throws IOException if the log cannot be read
+     */
+    private long replay(Visitor visitor) throws IOException {
+        long now = clock.millis();
+        Mark mark = readSnapshot(visitor, now);
+        long lastId = mark.segment;
+        for (long id : segmentIds()) {
+            lastId = Math.max(lastId, id);
+            Segment s = new Segment(id, false);
+            if (id < mark.segment || (s.isSealed() && s.latest < now)) {
+                s.delete();
+                continue;
+            }
+            s.recover(id == mark.segment ? mark.offset : HEADER, visitor, now);
+            if (s.latest < now) {
+                s.delete();
+            } else {
+                s.seal();
+                sealed.addLast(s);
+            }
+        }
+        return lastId;
+    }
+
+    /**
+     * @return the mark of the snapshot, or the start of the log if there is no snapshot
+     */
+    private Mark readSnapshot(Visitor visitor, long now) throws IOException {
+        File file = new File(dir, SNAPSHOT);
+        if (!file.exists())
+            return new Mark(0, HEADER);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            Mark mark = new Mark(in.readLong(), in.readInt());
+            CRC32 crc = new CRC32();
+            byte[] expiry = new byte[8];
+            while (true) {
+                int n = in.readInt();
+                if (n == 0)
+                    break;
+                int checksum = in.readInt();
+                in.readFully(expiry);
+                byte[] bytes = n < 0 ? null : new byte[n - 1];
+                if (bytes != null)
+                    in.readFully(bytes);
+                crc.reset();
+                crc.update(expiry, 0, 8);
+                if (bytes != null)
+                    crc.update(bytes, 0, bytes.length);
+                if ((int) crc.getValue() != checksum)
+                    throw new IOException("Corrupted snapshot " + file);
+                long expiresAt = ByteBuffer.wrap(expiry).getLong();
+                if (visitor != null && now <= expiresAt)
+                    visitor.record(expiresAt, bytes == null ? null : new String(bytes, StandardCharsets.UTF_8));
+            }
+            return mark;
+        } catch (EOFException e) {
+            throw new IOException("Truncated snapshot " + file, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return ids of the segment files in the directory, in ascending order
+     */
+    private long[] segmentIds() {
+        File[] files = dir.listFiles();
+        long[] ids = new long[files == null ? 0 : files.length];
+        int count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            String name = files[i].getName();
+            if (name.startsWith("segment-") && name.endsWith(".log")) {
+                try {
+                    ids[count++] = Long.parseLong(name.substring(8, name.length() - 4));
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+        ids = Arrays.copyOf(ids, count);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Place in the log: a segment and an offset in it
+     */
+    static final class Mark {
+        final long segment;
+        final int offset;
+
+        Mark(long segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    private class Segment {
+        final long id;
+        final File file;
+        final RandomAccessFile raf;
+        final MappedByteBuffer buffer;
+
+        // End of the records
+        int offset = HEADER;
+
+        // The latest expiry time of the records
+        long latest = Long.MIN_VALUE;
+
+        /**
+         * Maps the segment file
+         *
+         * @param id     the number of the segment
+         * @param create true to start a new segment, false to open an existing one
+         */
+        Segment(long id, boolean create) throws IOException {
+            this.id = id;
+            this.file = new File(dir, String.format("segment-%019d.log", id));
+            this.raf = new RandomAccessFile(file, "rw");
+            if (create)
+                raf.setLength(segmentSize);
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            if (!create && isSealed())
+                latest = buffer.getLong(0);
+        }
+
+        boolean isSealed() {
+            return buffer.capacity() >= HEADER && buffer.getInt(8) == 1;
+        }
+
+        /**
+         * Writes the record at the end of the segment, the length goes last
+         */
+        void write(long expiresAt, byte[] bytes) {
+            int length = bytes == null ? 0 : bytes.length;
+            buffer.position(offset + 8);
+            buffer.putLong(expiresAt);
+            if (bytes != null)
+                buffer.put(bytes);
+            buffer.putInt(offset + 4, checksum(offset + 8, 8 + length));
+            buffer.putInt(offset, bytes == null ? -1 : length + 1);
+            offset += RECORD_HEADER + length;
+            latest = Math.max(latest, expiresAt);
+        }
+
+        /**
+         * Reads the records, passes the alive ones from the start offset to the visitor and stops
+         * at the first torn record, which is cut off.
+         */
+        void recover(int start, Visitor visitor, long now) {
+            int limit = buffer.capacity();
+            int position = HEADER;
+            while (position + RECORD_HEADER <= limit) {
+                int n = buffer.getInt(position);
+                int length = n < 0 ? 0 : n - 1;
+                if (n == 0 || n < -1 || position + RECORD_HEADER + length > limit
+                        || buffer.getInt(position + 4) != checksum(position + 8, 8 + length))
+                    break;
+                long expiresAt = buffer.getLong(position + 8);
+                latest = Math.max(latest, expiresAt);
+                if (visitor != null && position >= start && now <= expiresAt) {
+                    String payload = null;
+                    if (n > 0) {
+                        byte[] bytes = new byte[length];
+                        buffer.position(position + RECORD_HEADER);
+                        buffer.get(bytes);
+                        payload = new String(bytes, StandardCharsets.UTF_8);
+                    }
+                    visitor.record(expiresAt, payload);
+                }
+                position += RECORD_HEADER + length;
+            }
+            if (position + 4 <= limit)
+                buffer.putInt(position, 0);
+            offset = position;
+        }
+
+        /**
+         * Writes the latest expiry time into the header and forces the segment
+         */
+        void seal() {
+            buffer.putLong(0, latest);
+            buffer.putInt(8, 1);
+            buffer.force();
+        }
+
+        private int checksum(int position, int length) {
+            ByteBuffer region = buffer.duplicate();
+            region.limit(position + length);
+            region.position(position);
+            CRC32 crc = new CRC32();
+            crc.update(region);
+            return (int) crc.getValue();
+        }
+
+        void close() throws IOException {
+            raf.close();
+        }
+
+        void delete() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.ikasyk.utils;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Map whose entries expire after a time of life, counted from the last write or the last read.
+ *
+ * Entries are kept in a ConcurrentHashMap, so get and put cost O(1) and readers never block.
+ * An expired entry is removed when it is read, by the bounded cleanup which every write does at
+ * the head of the write queue, and by background sweeps as the expiry policy says.
+ *
+ * With a maximum size, a write which makes the map too big evicts an entry from the head of the
+ * write queue: the first one which is used no more often than the new entry, or the least used
+ * of a few heads, while the others go to the end of the queue. How often a key is used is
+ * estimated by a FrequencySketch, so an entry which is read all the time survives a flood of keys
+ * which are written once.
+ *
+ * Null keys and values are not allowed.
+ */
+public class ExpirableMap<K, V> implements Sweepable {
+
+    /**
+     * What the time of life of an entry is counted from
+     */
+    public enum ExpireAfter {
+        // The last put of the key
+        WRITE,
+        // The last put or get of the key
+        ACCESS
+    }
+
+    // Number of queue heads checked for expiry by one write in the lazy mode
+    private static final int CLEANUP_BUDGET = 4;
+
+    // Number of entries at the head of the queue one eviction chooses from
+    private static final int SAMPLE = 8;
+
+    // Life time
+    private final long lifetime;
+
+    // What the time of life is counted from
+    private final ExpireAfter expireAfter;
+
+    // Maximum number of entries, 0 if the map is not bounded
+    private final int maximumSize;
+
+    // Number of queue heads checked by one write
+    private final int cleanupBudget;
+
+    // Source of the current time
+    private final Clock clock;
+
+    private final ConcurrentHashMap<K, Entry<K, V>> map = new ConcurrentHashMap<K, Entry<K, V>>();
+
+    // Entries in the order they were written, removed ones are dropped when they reach the head
+    private final ConcurrentLinkedQueue<Entry<K, V>> queue = new ConcurrentLinkedQueue<Entry<K, V>>();
+
+    // Number of removed entries which are still in the queue
+    private final AtomicInteger dead = new AtomicInteger();
+
+    // Guards the head of the queue, readers never take it
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // Frequency of keys, null if the map is not bounded
+    private final FrequencySketch sketch;
+
+    /**
+     * Creates the map where entries expire after write
+     *
+     * @param l the time of life
+     */
+    public ExpirableMap(long l) {
+        this(l, ExpireAfter.WRITE);
+    }
+
+    /**
+     * Creates the map which is not bounded
+     *
+     * @param l           the time of life
+     * @param expireAfter what the time of life is counted from
+     */
+    public ExpirableMap(long l, ExpireAfter expireAfter) {
+        this(l, expireAfter, 0);
+    }
+
+    /**
+     * Creates the map with lazy expiry
+     *
+     * @param l           the time of life
+     * @param expireAfter what the time of life is counted from
+     * @param maximumSize the maximum number of entries, 0 if the map is not bounded
+     */
+    public ExpirableMap(long l, ExpireAfter expireAfter, int maximumSize) {
+        this(l, expireAfter, maximumSize, ExpiryPolicy.lazy(), MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Creates the map. In the lazy mode every write checks a few entries at the head of the
+     * write queue, in the hybrid mode the budget of the policy, in the eager mode none;
+     * eager and hybrid maps are swept by the reaper thread.
+     *
+     * @param l           the time of life
+     * @param expireAfter what the time of life is counted from
+     * @param maximumSize the maximum number of entries, 0 if the map is not bounded
+     * @param policy      the expiry policy
+     * @param clock       the clock to check expiry against
+     * @throws IllegalArgumentException if the maximum size is negative
+     */
+    public ExpirableMap(long l, ExpireAfter expireAfter, int maximumSize, ExpiryPolicy policy, Clock clock) {
+        if (maximumSize < 0)
+            throw new IllegalArgumentException("Maximum size: " + maximumSize);
+        this.lifetime = l;
+        this.expireAfter = expireAfter;
+        this.maximumSize = maximumSize;
+        this.clock = clock;
+        this.sketch = maximumSize > 0 ? new FrequencySketch(maximumSize) : null;
+        switch (policy.getMode()) {
+            case HYBRID:
+                cleanupBudget = policy.getBudget();
+                break;
+            case EAGER:
+                cleanupBudget = 0;
+                break;
+            default:
+                cleanupBudget = CLEANUP_BUDGET;
+                break;
+        }
+        policy.schedule(this);
+    }
+
+    /**
+     * @return the number of entries, including expired ones which are not removed yet
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * @return true if the map has no entries
+     */
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    /**
+     * Returns the value of the key. With expire-after-access the time of life of the entry starts again.
+     *
+     * @param key the key
+     * @return the value, or null if there is no alive entry for the key
+     */
+    public V get(Object key) {
+        Entry<K, V> e = map.get(key);
+        if (sketch != null)
+            sketch.increment(key);
+        if (e == null)
+            return null;
+        long now = clock.millis();
+        if (!ExpirableInspector.isExists(e.expired, now)) {
+            expireEntry(e);
+            return null;
+        }
+        if (expireAfter == ExpireAfter.ACCESS)
+            e.expired = now + e.ttl;
+        return e.value;
+    }
+
+    /**
+     * @param key the key
+     * @return true if there is an alive entry for the key, its time of life is not changed
+     */
+    public boolean containsKey(Object key) {
+        Entry<K, V> e = map.get(key);
+        if (e == null)
+            return false;
+        if (!ExpirableInspector.isExists(e.expired, clock.millis())) {
+            expireEntry(e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Associates the value with the key for the time of life of the map
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the previous alive value of the key, or null
+     */
+    public V put(K key, V value) {
+        return put(key, value, lifetime);
+    }
+
+    /**
+     * Associates the value with the key for its own time of life
+     *
+     * @param key       the key
+     * @param value     the value
+     * @param ttlMillis the time of life of the entry
+     * @return the previous alive value of the key, or null
+     * @throws IllegalArgumentException if the time of life is negative
+     */
+    public V put(K key, V value, long ttlMillis) {
+        if (ttlMillis < 0)
+            throw new IllegalArgumentException("Time of life: " + ttlMillis);
+        if (value == null)
+            throw new NullPointerException();
+        long now = clock.millis();
+        Entry<K, V> e = new Entry<K, V>(key, value, now + ttlMillis, ttlMillis);
+        Entry<K, V> old = map.put(key, e);
+        queue.offer(e);
+        if (sketch != null)
+            sketch.increment(key);
+        V result = null;
+        if (old != null) {
+            markRemoved(old);
+            if (ExpirableInspector.isExists(old.expired, now))
+                result = old.value;
+        }
+        cleanUp(now);
+        if (maximumSize > 0 && map.size() > maximumSize)
+            evict(e, now);
+        return result;
+    }
+
+    /**
+     * Removes the entry of the key
+     *
+     * @param key the key
+     * @return the alive value of the key, or null
+     */
+    public V remove(Object key) {
+        Entry<K, V> e = map.remove(key);
+        if (e == null)
+            return null;
+        markRemoved(e);
+        return ExpirableInspector.isExists(e.expired, clock.millis()) ? e.value : null;
+    }
+
+    /**
+     * Delete all expired entries. Called by the reaper thread.
+     */
+    public void sweep() {
+        long now = clock.millis();
+        for (Entry<K, V> e : map.values()) {
+            if (!ExpirableInspector.isExists(e.expired, now))
+                expireEntry(e);
+        }
+        evictionLock.lock();
+        try {
+            purge();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the expired entry from the map if it is still there
+     */
+    private void expireEntry(Entry<K, V> e) {
+        if (map.remove(e.key, e))
+            markRemoved(e);
+    }
+
+    /**
+     * Marks the entry which has been taken out of the map by this thread
+     */
+    private void markRemoved(Entry<K, V> e) {
+        e.removed = true;
+        dead.incrementAndGet();
+    }
+
+    /**
+     * Takes a removed entry off the queue
+     *
+     * @param e the entry taken from the queue
+     * @return true if the entry was removed from the map earlier
+     */
+    private boolean dropIfRemoved(Entry<K, V> e) {
+        if (!e.removed)
+            return false;
+        dead.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Drops removed and expired entries from the head of the queue. Skipped if another writer
+     * is doing it, so writers do not wait for each other here.
+     *
+     * @param now the current timestamp
+     */
+    private void cleanUp(long now) {
+        if (cleanupBudget == 0 || !evictionLock.tryLock())
+            return;
+        try {
+            for (int i = 0; i < cleanupBudget; i++) {
+                Entry<K, V> head = queue.peek();
+                if (head == null)
+                    break;
+                if (!head.removed && ExpirableInspector.isExists(head.expired, now))
+                    break;
+                queue.poll();
+                if (!dropIfRemoved(head) && !map.remove(head.key, head))
+                    dead.decrementAndGet();
+                head.removed = true;
+            }
+            if (dead.get() > map.size() + 16)
+                purge();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Evicts entries from the head of the queue until the map fits into its maximum size.
+     * Expired entries go first, then the first head which is used no more often than the new entry,
+     * otherwise the least used of SAMPLE heads; the passed heads go to the tail.
+     *
+     * @param candidate the entry which has been written
+     * @param now       the current timestamp
+     */
+    private void evict(Entry<K, V> candidate, long now) {
+        evictionLock.lock();
+        try {
+            while (map.size() > maximumSize) {
+                int bar = sketch.frequency(candidate.key);
+                Entry<K, V> victim = null;
+                int least = Integer.MAX_VALUE;
+                for (int i = 0; i < SAMPLE && least > bar; ) {
+                    Entry<K, V> head = queue.poll();
+                    if (head == null)
+                        break;
+                    if (dropIfRemoved(head))
+                        continue;
+                    i++;
+                    int frequency = ExpirableInspector.isExists(head.expired, now) ? sketch.frequency(head.key) : -1;
+                    if (frequency < least) {
+                        if (victim != null)
+                            queue.offer(victim);
+                        victim = head;
+                        least = frequency;
+                    } else {
+                        queue.offer(head);
+                    }
+                }
+                if (victim == null)
+                    break;
+                if (map.remove(victim.key, victim))
+                    victim.removed = true;
+                else
+                    dead.decrementAndGet();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Drops all removed entries from the queue, called under the eviction lock
+     */
+    private void purge() {
+        int count = 0;
+        for (Iterator<Entry<K, V>> i = queue.iterator(); i.hasNext(); ) {
+            if (i.next().removed) {
+                i.remove();
+                count++;
+            }
+        }
+        dead.addAndGet(-count);
+    }
+
+    private static class Entry<K, V> {
+        final K key;
+        final V value;
+
+        // Last timestamp when the entry is alive
+        volatile long expired;
+
+        // Time of life, added again on access
+        final long ttl;
+
+        // True once the entry has been taken out of the map
+        volatile boolean removed;
+
+        Entry(K key, V value, long expired, long ttl) {
+            this.key = key;
+            this.value = value;
+            this.expired = expired;
+            this.ttl = ttl;
+        }
+    }
+}
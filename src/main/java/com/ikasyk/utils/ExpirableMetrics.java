@@ -0,0 +1,95 @@
+package com.ikasyk.utils;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes the counters of the message store and the latencies of its servlets over JMX
+ * as com.ikasyk:type=ExpirableList,name=messages. Every read goes to the live counters.
+ */
+public class ExpirableMetrics implements ExpirableMetricsMBean {
+
+    // Name of the bean in the platform MBean server
+    public static final String OBJECT_NAME = "com.ikasyk:type=ExpirableList,name=messages";
+
+    /**
+     * Registers the bean in the platform MBean server, replacing the one of an earlier
+     * deployment of the application. A failure leaves the store without JMX, nothing else.
+     */
+    static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(new ExpirableMetrics(), name);
+        } catch (JMException e) {
+            // The metrics are still served by /metrics
+        } catch (SecurityException e) {
+            // The container does not allow JMX
+        }
+    }
+
+    public int getSize() {
+        return ListController.size();
+    }
+
+    public long getUsedBytes() {
+        return ListController.usedBytes();
+    }
+
+    public long getAdds() {
+        return ListController.metrics().getAdds();
+    }
+
+    public long getExpirations() {
+        return ListController.metrics().getExpirations();
+    }
+
+    public long getSweeps() {
+        return ListController.metrics().getSweeps();
+    }
+
+    public long getScannedElements() {
+        return ListController.metrics().getScanned();
+    }
+
+    public long getSweepP50Micros() {
+        return micros(ListController.metrics().getSweepNanos().percentile(0.5));
+    }
+
+    public long getSweepP99Micros() {
+        return micros(ListController.metrics().getSweepNanos().percentile(0.99));
+    }
+
+    public long getSweepMaxMicros() {
+        return micros(ListController.metrics().getSweepNanos().max());
+    }
+
+    public long getSendP50Micros() {
+        return micros(ListController.sendLatency.percentile(0.5));
+    }
+
+    public long getSendP99Micros() {
+        return micros(ListController.sendLatency.percentile(0.99));
+    }
+
+    public long getSendP999Micros() {
+        return micros(ListController.sendLatency.percentile(0.999));
+    }
+
+    public long getShowP50Micros() {
+        return micros(ListController.showLatency.percentile(0.5));
+    }
+
+    public long getShowP99Micros() {
+        return micros(ListController.showLatency.percentile(0.99));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
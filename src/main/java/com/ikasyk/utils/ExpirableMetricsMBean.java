@@ -0,0 +1,77 @@
+package com.ikasyk.utils;
+
+/**
+ * Management interface of the message store, durations are in microseconds.
+ */
+public interface ExpirableMetricsMBean {
+
+    /**
+     * @return the number of alive messages
+     */
+    int getSize();
+
+    /**
+     * @return the estimated number of bytes taken by the messages
+     */
+    long getUsedBytes();
+
+    /**
+     * @return the number of added messages
+     */
+    long getAdds();
+
+    /**
+     * @return the number of expired messages
+     */
+    long getExpirations();
+
+    /**
+     * @return the number of expiry passes
+     */
+    long getSweeps();
+
+    /**
+     * @return the number of messages checked by expiry passes
+     */
+    long getScannedElements();
+
+    /**
+     * @return the median duration of an expiry pass
+     */
+    long getSweepP50Micros();
+
+    /**
+     * @return the 99th percentile of the duration of an expiry pass
+     */
+    long getSweepP99Micros();
+
+    /**
+     * @return the longest expiry pass
+     */
+    long getSweepMaxMicros();
+
+    /**
+     * @return the median duration of a /send request
+     */
+    long getSendP50Micros();
+
+    /**
+     * @return the 99th percentile of the duration of a /send request
+     */
+    long getSendP99Micros();
+
+    /**
+     * @return the 99.9th percentile of the duration of a /send request
+     */
+    long getSendP999Micros();
+
+    /**
+     * @return the median duration of a /show request
+     */
+    long getShowP50Micros();
+
+    /**
+     * @return the 99th percentile of the duration of a /show request
+     */
+    long getShowP99Micros();
+}
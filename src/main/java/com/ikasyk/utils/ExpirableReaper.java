@@ -0,0 +1,66 @@
+package com.ikasyk.utils;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared background thread which sweeps lists with eager or hybrid expiry.
+ *
+ * Lists are held by weak references, so a list which is no longer used is collected
+ * together with its schedule.
+ */
+class ExpirableReaper {
+
+    private static final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "expirable-reaper");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    private ExpirableReaper() {
+    }
+
+    /**
+     * Sweeps the list every interval while it is reachable
+     *
+     * @param list           the list to be swept
+     * @param intervalMillis the interval between sweeps in milliseconds
+     */
+    static void register(Sweepable list, long intervalMillis) {
+        Task task = new Task(list);
+        task.future = executor.scheduleWithFixedDelay(task, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static class Task implements Runnable {
+        private final WeakReference<Sweepable> list;
+
+        volatile ScheduledFuture<?> future;
+
+        Task(Sweepable list) {
+            this.list = new WeakReference<Sweepable>(list);
+        }
+
+        public void run() {
+            Sweepable target = list.get();
+            if (target == null) {
+                if (future != null)
+                    future.cancel(false);
+                return;
+            }
+            try {
+                target.sweep();
+            } catch (RuntimeException e) {
+                // a failed sweep must not cancel the next ones
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.ikasyk.utils;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers batches of expired elements of a list to its expiration listeners.
+ *
+ * An expiry pass collects its elements into a batch, which stays null while there are no
+ * listeners, so a list without listeners pays one volatile read per expired element.
+ * Every listener has a single thread with a bounded queue of batches; what happens when
+ * the queue is full is set by its ListenerPolicy. A listener which throws gets the next batches
+ * all the same, the failure is counted in the metrics of the list. Nothing here refers to the list,
+ * so the reaper can still forget it.
+ *
+ * @param <T> the type of the elements
+ */
+class ExpirationDispatcher<T> {
+
+    // Idle time after which the thread of a listener stops
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static final ThreadFactory THREADS = new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "expirable-listener");
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    private final CopyOnWriteArrayList<Subscription<T>> subscriptions = new CopyOnWriteArrayList<Subscription<T>>();
+
+    // Counts the failures of the listeners, null if the list keeps no metrics
+    private final ListMetrics metrics;
+
+    /**
+     * Creates a dispatcher for a list which keeps no metrics
+     */
+    ExpirationDispatcher() {
+        this(null);
+    }
+
+    /**
+     * @param metrics the counters of the list, or null
+     */
+    ExpirationDispatcher(ListMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Elements removed by one expiry pass
+     */
+    static class Batch<T> {
+        private Object[] elements = new Object[16];
+        private long[] expiries = new long[16];
+        private int size;
+
+        /**
+         * @param element   the expired element
+         * @param expiresAt the last timestamp when it was alive
+         */
+        void add(T element, long expiresAt) {
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, size << 1);
+                expiries = Arrays.copyOf(expiries, size << 1);
+            }
+            elements[size] = element;
+            expiries[size++] = expiresAt;
+        }
+    }
+
+    /**
+     * Registers the listener with its own thread
+     *
+     * @param listener the listener
+     * @param policy   what happens when the listener falls behind
+     */
+    void add(ExpirationListener<T> listener, ListenerPolicy policy) {
+        if (listener == null)
+            throw new NullPointerException();
+        subscriptions.add(new Subscription<T>(listener, policy, metrics));
+    }
+
+    /**
+     * Unregisters the first registration of the listener, the batches already queued are still delivered
+     *
+     * @param listener the listener
+     */
+    void remove(ExpirationListener<T> listener) {
+        for (Subscription<T> s : subscriptions) {
+            if (s.listener == listener && subscriptions.remove(s)) {
+                s.executor.shutdown();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if there are listeners, lets a list skip the work of making the elements to report
+     */
+    boolean isListened() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Adds an expired element to the batch of the current expiry pass
+     *
+     * @param batch     the batch of the pass, null before its first expired element
+     * @param element   the expired element
+     * @param expiresAt the last timestamp when it was alive
+     * @return the batch to pass on to the next call, null if there are no listeners
+     */
+    Batch<T> collect(Batch<T> batch, T element, long expiresAt) {
+        if (batch == null) {
+            if (subscriptions.isEmpty())
+                return null;
+            batch = new Batch<T>();
+        }
+        batch.add(element, expiresAt);
+        return batch;
+    }
+
+    /**
+     * Hands the batch to every listener
+     *
+     * @param batch the batch, may be null or empty
+     */
+    void dispatch(Batch<T> batch) {
+        if (batch == null || batch.size == 0)
+            return;
+        List<T> elements = new Elements<T>(batch.elements, batch.size);
+        long[] expiries = batch.size == batch.expiries.length ? batch.expiries : Arrays.copyOf(batch.expiries, batch.size);
+        for (Subscription<T> s : subscriptions)
+            s.deliver(elements, expiries);
+    }
+
+    /**
+     * @return the number of expired elements which have been dropped because listeners fell behind
+     */
+    long dropped() {
+        long dropped = 0;
+        for (Subscription<T> s : subscriptions)
+            dropped += s.dropped.get();
+        return dropped;
+    }
+
+    /**
+     * Read-only view of the elements of a batch
+     */
+    private static class Elements<T> extends AbstractList<T> implements RandomAccess {
+        private final Object[] elements;
+        private final int size;
+
+        Elements(Object[] elements, int size) {
+            this.elements = elements;
+            this.size = size;
+        }
+
+        public T get(int index) {
+            if (index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            return (T) elements[index];
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * A listener with its thread and queue
+     */
+    private static class Subscription<T> {
+        final ExpirationListener<T> listener;
+        final ThreadPoolExecutor executor;
+
+        // Counts the batches the listener has thrown on, or null
+        final ListMetrics metrics;
+
+        // Number of elements in the dropped batches
+        final AtomicLong dropped = new AtomicLong();
+
+        Subscription(ExpirationListener<T> listener, final ListenerPolicy policy, ListMetrics metrics) {
+            this.listener = listener;
+            this.metrics = metrics;
+            this.executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(policy.getQueueSize()), THREADS, new RejectedExecutionHandler() {
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                    overflow((Delivery) r, policy);
+                }
+            });
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+
+        void deliver(List<T> elements, long[] expiries) {
+            executor.execute(new Delivery(elements, expiries));
+        }
+
+        /**
+         * Applies the policy to a batch which found the queue full
+         */
+        private void overflow(Delivery delivery, ListenerPolicy policy) {
+            if (executor.isShutdown()) {
+                dropped.addAndGet(delivery.elements.size());
+                return;
+            }
+            switch (policy.getOverflow()) {
+                case DROP_OLDEST:
+                    Runnable oldest = executor.getQueue().poll();
+                    if (oldest != null)
+                        dropped.addAndGet(((Delivery) oldest).elements.size());
+                    executor.execute(delivery);
+                    break;
+                case BLOCK:
+                    try {
+                        if (executor.getQueue().offer(delivery, policy.getTimeout(), TimeUnit.MILLISECONDS)) {
+                            executor.prestartCoreThread();
+                            return;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    dropped.addAndGet(delivery.elements.size());
+                    break;
+                default:
+                    dropped.addAndGet(delivery.elements.size());
+                    break;
+            }
+        }
+
+        /**
+         * One batch on its way to the listener
+         */
+        private class Delivery implements Runnable {
+            final List<T> elements;
+            final long[] expiries;
+
+            Delivery(List<T> elements, long[] expiries) {
+                this.elements = elements;
+                this.expiries = expiries;
+            }
+
+            public void run() {
+                try {
+                    listener.expired(elements, expiries);
+                } catch (RuntimeException e) {
+                    // A failing listener must not stop the deliveries of the next batches
+                    if (metrics != null)
+                        metrics.listenerFailed();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.ikasyk.utils;
+
+import java.util.List;
+
+/**
+ * Receives the elements which a list has removed because their time of life is over.
+ *
+ * The list collects the elements one expiry pass removes into a batch and hands it to the
+ * thread of the listener, so a slow listener never delays the operations of the list.
+ * Elements which are removed explicitly are not reported.
+ *
+ * @param <T> the type of the elements
+ */
+public interface ExpirationListener<T> {
+
+    /**
+     * Called on the thread of the listener for every batch of expired elements
+     *
+     * @param elements  the expired elements, in the order they were in the list
+     * @param expiresAt the last timestamps when the elements were alive, by the index of the element;
+     *                  the array is shared with the other listeners and must not be changed
+     */
+    void expired(List<T> elements, long[] expiresAt);
+}
@@ -0,0 +1,24 @@
+package com.ikasyk.utils;
+
+/**
+ * Defines when expired elements are removed from a list.
+ */
+public enum ExpiryMode {
+
+    /**
+     * Expired elements are removed by the operations of the list, nothing runs in background
+     */
+    LAZY,
+
+    /**
+     * Expired elements are removed only by the reaper thread at the sweep interval,
+     * operations of the list do no cleanup
+     */
+    EAGER,
+
+    /**
+     * Every operation removes a bounded number of expired elements and the reaper thread
+     * sweeps the rest at the sweep interval
+     */
+    HYBRID
+}
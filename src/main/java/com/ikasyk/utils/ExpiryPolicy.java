@@ -0,0 +1,96 @@
+package com.ikasyk.utils;
+
+/**
+ * Expiry settings of a list: the mode, the interval of background sweeps and
+ * the number of elements one operation may check in the hybrid mode.
+ */
+public final class ExpiryPolicy {
+
+    private static final ExpiryPolicy LAZY = new ExpiryPolicy(ExpiryMode.LAZY, 0, 0);
+
+    private final ExpiryMode mode;
+
+    // Interval between background sweeps in milliseconds
+    private final long sweepInterval;
+
+    // Maximum number of elements checked by one operation
+    private final int budget;
+
+    private ExpiryPolicy(ExpiryMode mode, long sweepInterval, int budget) {
+        this.mode = mode;
+        this.sweepInterval = sweepInterval;
+        this.budget = budget;
+    }
+
+    /**
+     * @return the policy where operations remove expired elements themselves
+     */
+    public static ExpiryPolicy lazy() {
+        return LAZY;
+    }
+
+    /**
+     * @param sweepInterval the interval between sweeps in milliseconds
+     * @return the policy where only the reaper thread removes expired elements
+     * @throws IllegalArgumentException if the interval is not positive
+     */
+    public static ExpiryPolicy eager(long sweepInterval) {
+        checkInterval(sweepInterval);
+        return new ExpiryPolicy(ExpiryMode.EAGER, sweepInterval, 0);
+    }
+
+    /**
+     * @param sweepInterval the interval between sweeps in milliseconds
+     * @param budget        the number of elements one operation may check
+     * @return the policy with bounded cleanup per operation and background sweeps
+     * @throws IllegalArgumentException if the interval or the budget is not positive
+     */
+    public static ExpiryPolicy hybrid(long sweepInterval, int budget) {
+        checkInterval(sweepInterval);
+        if (budget <= 0)
+            throw new IllegalArgumentException("Budget: " + budget);
+        return new ExpiryPolicy(ExpiryMode.HYBRID, sweepInterval, budget);
+    }
+
+    /**
+     * @return the mode of expiry
+     */
+    public ExpiryMode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the interval between background sweeps in milliseconds, 0 in the lazy mode
+     */
+    public long getSweepInterval() {
+        return sweepInterval;
+    }
+
+    /**
+     * @return the number of elements one operation may check in the hybrid mode
+     */
+    public int getBudget() {
+        return budget;
+    }
+
+    /**
+     * Starts background sweeps of the list if the mode needs them
+     *
+     * @param list the list to be swept
+     */
+    void schedule(Sweepable list) {
+        if (mode != ExpiryMode.LAZY)
+            ExpirableReaper.register(list, sweepInterval);
+    }
+
+    private static void checkInterval(long sweepInterval) {
+        if (sweepInterval <= 0)
+            throw new IllegalArgumentException("Sweep interval: " + sweepInterval);
+    }
+
+    @Override
+    public String toString() {
+        return mode + (mode == ExpiryMode.LAZY ? "" : "(" + sweepInterval + " ms"
+                + (mode == ExpiryMode.HYBRID ? ", " + budget + " per operation" : "") + ")");
+    }
+}
@@ -0,0 +1,90 @@
+package com.ikasyk.utils;
+
+/**
+ * Count-min sketch of how often keys are used, with 4-bit counters.
+ *
+ * A key is counted in four counters picked by different hashes and its frequency is the smallest
+ * of them, so the estimate may be higher than the truth but never lower. After a number of
+ * increments proportional to the size all counters are halved, so old popularity fades.
+ *
+ * Increments are not atomic: a lost increment only makes the estimate a bit lower, so readers
+ * update the sketch without locking.
+ */
+class FrequencySketch {
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    // Sixteen 4-bit counters in every long
+    private final long[] table;
+    private final int mask;
+
+    // Number of increments after which the counters are halved
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param maximumSize the number of keys to be told apart
+     */
+    FrequencySketch(int maximumSize) {
+        int length = Integer.highestOneBit(Math.max(maximumSize, 16) - 1) << 1;
+        table = new long[Math.min(length, 1 << 24)];
+        mask = table.length - 1;
+        sampleSize = 10 * Math.max(maximumSize, 16);
+    }
+
+    /**
+     * @param key the key
+     * @return the estimated number of uses of the key, at most 15
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = 15;
+        for (int i = 0; i < 4; i++) {
+            int h = rehash(hash, i);
+            int shift = (h >>> 28) << 2;
+            frequency = Math.min(frequency, (int) ((table[h & mask] >>> shift) & 0xF));
+        }
+        return frequency;
+    }
+
+    /**
+     * Counts one use of the key
+     *
+     * @param key the key
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int h = rehash(hash, i);
+            int index = h & mask;
+            int shift = (h >>> 28) << 2;
+            if (((table[index] >>> shift) & 0xF) != 0xF) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize)
+            reset();
+    }
+
+    /**
+     * Halves all counters
+     */
+    private void reset() {
+        additions = 0;
+        for (int i = 0; i < table.length; i++)
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private static int rehash(int hash, int i) {
+        int h = (hash + i) * (0x9E3779B9 + (i << 1));
+        return h ^ (h >>> 15);
+    }
+}
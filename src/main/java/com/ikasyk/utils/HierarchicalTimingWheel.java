@@ -0,0 +1,243 @@
+package com.ikasyk.utils;
+
+/**
+ * Hierarchical timing wheel of intrusive nodes.
+ *
+ * The wheel has LEVELS levels of 64 slots each; a slot of level L covers 64^L ticks. A node is
+ * put into the lowest level which can hold its deadline, and when the time reaches a slot of an
+ * upper level its nodes are cascaded down. Scheduling and cancelling a node is O(1), and every
+ * node is cascaded at most LEVELS times before it expires, so expiry is O(1) amortized no matter
+ * how many nodes are scheduled. Empty slots are skipped with an occupancy bitmap per level, and
+ * while the lowest level is empty the time jumps straight to the next occupied upper slot.
+ *
+ * The wheel is not thread-safe, it is guarded by its owner.
+ *
+ * @param <N> the type of scheduled nodes
+ */
+class HierarchicalTimingWheel<N extends HierarchicalTimingWheel.Node> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 6;
+
+    /**
+     * Base class for the scheduled objects.
+     */
+    static class Node {
+        // Tick when the node expires
+        long deadline;
+
+        // Index of the bucket (level * SLOTS + slot) or -1 if the node is not scheduled
+        int bucket = -1;
+
+        Node wheelNext;
+        Node wheelPrev;
+
+        /**
+         * @return true if the node is scheduled in a wheel
+         */
+        boolean isScheduled() {
+            return bucket >= 0;
+        }
+    }
+
+    // Duration of one tick in milliseconds
+    private final long tickMillis;
+
+    // Heads of the doubly linked buckets
+    private final Node[] buckets = new Node[LEVELS * SLOTS];
+
+    // Bit i of occupied[L] is set if slot i of level L is not empty
+    private final long[] occupied = new long[LEVELS];
+
+    // The last processed tick
+    private long current;
+
+    // Counter of scheduled nodes
+    private int count;
+
+    /**
+     * Creates a wheel which starts at the specified time
+     *
+     * @param tickMillis duration of one tick in milliseconds
+     * @param now        the current timestamp
+     */
+    HierarchicalTimingWheel(long tickMillis, long now) {
+        if (tickMillis <= 0)
+            throw new IllegalArgumentException("Tick: " + tickMillis);
+        this.tickMillis = tickMillis;
+        this.current = now / tickMillis;
+    }
+
+    /**
+     * @return the number of scheduled nodes
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Schedules the node to expire after the specified timestamp.
+     * The node is returned by advance() once the time is past the expiry.
+     *
+     * @param node    the node which is not scheduled yet
+     * @param expired the last timestamp when the node is alive
+     */
+    void schedule(N node, long expired) {
+        long tick = expired / tickMillis + 1;
+        node.deadline = tick > current ? tick : current + 1;
+        place(node, current);
+        count++;
+    }
+
+    /**
+     * Removes the node from the wheel
+     *
+     * @param node the scheduled node
+     */
+    void cancel(N node) {
+        if (node.isScheduled()) {
+            unlinkNode(node);
+            count--;
+        }
+    }
+
+    /**
+     * Moves the wheel to the specified time and takes out all expired nodes.
+     *
+     * @param now the current timestamp
+     * @return the chain of expired nodes linked by wheelNext, or null
+     */
+    @SuppressWarnings("unchecked")
+    N advance(long now) {
+        long target = now / tickMillis;
+        Node expired = null;
+        while (current < target) {
+            if (count == 0) {
+                current = target;
+                break;
+            }
+            long c = current + 1;
+            if ((c & SLOT_MASK) == 0)
+                cascade(c);
+            int bucket = (int) (c & SLOT_MASK);
+            Node n = buckets[bucket];
+            while (n != null) {
+                Node next = n.wheelNext;
+                unlinkNode(n);
+                if (n.deadline > c) {
+                    place(n, c);
+                } else {
+                    n.wheelNext = expired;
+                    expired = n;
+                    count--;
+                }
+                n = next;
+            }
+            current = c;
+            if (current < target)
+                current = Math.min(nextTick(current), target) - 1;
+        }
+        return (N) expired;
+    }
+
+    /**
+     * @return the next tick after c which has to be processed
+     */
+    private long nextTick(long c) {
+        long next = c + 1;
+        int offset = (int) (next & SLOT_MASK);
+        if (offset == 0)
+            return occupied[0] == 0 ? nextCascade(c) : next;
+        long bits = occupied[0] & (-1L << offset);
+        long base = next - offset;
+        if (bits != 0)
+            return base + Long.numberOfTrailingZeros(bits);
+        return occupied[0] == 0 ? nextCascade(c) : base + SLOTS;
+    }
+
+    /**
+     * Every node of an upper level sits in a slot which starts after the current tick, so the first
+     * occupied slot after c in the rotation of a level is the next one which must be cascaded.
+     *
+     * @return the first tick after c where an upper slot with nodes starts
+     */
+    private long nextCascade(long c) {
+        long next = Long.MAX_VALUE;
+        for (int level = 1; level < LEVELS; level++) {
+            if (occupied[level] == 0)
+                continue;
+            int shift = SLOT_BITS * level;
+            long slot = (c >>> shift) + 1;
+            int distance = Long.numberOfTrailingZeros(Long.rotateRight(occupied[level], (int) (slot & SLOT_MASK)));
+            next = Math.min(next, (slot + distance) << shift);
+        }
+        return next;
+    }
+
+    /**
+     * Moves the nodes of all upper slots which start at tick c to the lower levels.
+     *
+     * @param c the tick which is a multiple of SLOTS
+     */
+    private void cascade(long c) {
+        int top = 1;
+        while (top < LEVELS - 1 && (c & ((1L << (SLOT_BITS * (top + 1))) - 1)) == 0)
+            top++;
+        for (int level = top; level >= 1; level--) {
+            int bucket = level * SLOTS + (int) ((c >>> (SLOT_BITS * level)) & SLOT_MASK);
+            Node n = buckets[bucket];
+            while (n != null) {
+                Node next = n.wheelNext;
+                unlinkNode(n);
+                place(n, c);
+                n = next;
+            }
+        }
+    }
+
+    /**
+     * Links the node into the bucket which matches its deadline
+     *
+     * @param node the node
+     * @param from the tick the deadline is counted from
+     */
+    private void place(Node node, long from) {
+        long delta = node.deadline - from;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1))))
+            level++;
+        long tick = level == LEVELS - 1 && delta >= (1L << (SLOT_BITS * LEVELS))
+                ? from + (1L << (SLOT_BITS * LEVELS)) - 1 : node.deadline;
+        int slot = (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        int bucket = level * SLOTS + slot;
+        Node head = buckets[bucket];
+        node.wheelPrev = null;
+        node.wheelNext = head;
+        if (head != null)
+            head.wheelPrev = node;
+        buckets[bucket] = node;
+        node.bucket = bucket;
+        occupied[level] |= 1L << slot;
+    }
+
+    /**
+     * Unlinks the node from its bucket
+     *
+     * @param node the scheduled node
+     */
+    private void unlinkNode(Node node) {
+        int bucket = node.bucket;
+        if (node.wheelPrev != null)
+            node.wheelPrev.wheelNext = node.wheelNext;
+        else
+            buckets[bucket] = node.wheelNext;
+        if (node.wheelNext != null)
+            node.wheelNext.wheelPrev = node.wheelPrev;
+        if (buckets[bucket] == null)
+            occupied[bucket / SLOTS] &= ~(1L << (bucket % SLOTS));
+        node.wheelNext = node.wheelPrev = null;
+        node.bucket = -1;
+    }
+}
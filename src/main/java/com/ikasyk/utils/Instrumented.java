@@ -0,0 +1,12 @@
+package com.ikasyk.utils;
+
+/**
+ * Store which counts what happens to its elements.
+ */
+public interface Instrumented {
+
+    /**
+     * @return the live counters of the store
+     */
+    ListMetrics metrics();
+}
@@ -0,0 +1,20 @@
+package com.ikasyk.utils;
+
+/**
+ * Defines how an iterator sees the changes of the list made after the iterator was created.
+ * In both modes the expiry cutoff is fixed when the iterator is created.
+ */
+public enum IterationMode {
+
+    /**
+     * The iterator walks the list itself. Elements added or removed during the iteration
+     * may or may not be returned, but every step costs O(1) and nothing is copied.
+     */
+    WEAKLY_CONSISTENT,
+
+    /**
+     * The alive elements are copied once when the iterator is created,
+     * later changes of the list are not visible.
+     */
+    SNAPSHOT
+}
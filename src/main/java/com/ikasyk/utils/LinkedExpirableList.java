@@ -1,5 +1,6 @@
 package com.ikasyk.utils;
 
+import java.util.Collection;
 import java.util.NoSuchElementException;
 
 /**
@@ -7,7 +8,10 @@ import java.util.NoSuchElementException;
  * Created by igor, 27.07.16 12:28
  */
 
-public class LinkedExpirableList<T> implements ExpirableList<T> {
+public class LinkedExpirableList<T> implements ExpirableList<T>, Sweepable, Measurable, Instrumented {
+
+    // Heap taken by an element besides its payload: the entry and the container
+    private static final int ENTRY_BYTES = 64;
 
     // Life time
     private long lifetime;
@@ -17,15 +21,103 @@ public class LinkedExpirableList<T> implements ExpirableList<T> {
 
     private Entry<T> header = new Entry<T>(null, null, null);
 
+    // When expired elements are removed
+    private ExpiryPolicy policy;
+
+    // Source of the current time
+    private Clock clock;
+
+    // Counts adds, expirations and expiry passes
+    private ListMetrics metrics = new ListMetrics();
+
+    // Receives the expired elements
+    private ExpirationDispatcher<T> expirations = new ExpirationDispatcher<T>(metrics);
+
+    // Entries by value, null if the list is not indexed
+    private EqualityIndex<Entry<T>> valueIndex;
+
+    // Limits the number and the size of elements
+    private CapacityGuard capacity;
+
     /**
      * Constructor sets the time of life
      *
      * @param l the time of life
      */
     public LinkedExpirableList(long l) {
+        this(l, ExpiryPolicy.lazy());
+    }
+
+    /**
+     * Constructor sets the time of life and the expiry policy.
+     * With eager or hybrid expiry the list is swept by the shared reaper thread,
+     * so all operations are guarded by the monitor of the list.
+     *
+     * @param l      the time of life
+     * @param policy the expiry policy
+     */
+    public LinkedExpirableList(long l, ExpiryPolicy policy) {
+        this(l, policy, MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Constructor sets the time of life, the expiry policy and the source of time
+     *
+     * @param l      the time of life
+     * @param policy the expiry policy
+     * @param clock  the clock to check expiry against
+     */
+    public LinkedExpirableList(long l, ExpiryPolicy policy, Clock clock) {
+        this(l, policy, clock, false);
+    }
+
+    /**
+     * Constructor sets the time of life, the expiry policy, the source of time and
+     * whether the values are indexed. With the index contains(Object) costs O(1) expected,
+     * and so does remove(Object) unless the list holds several equal values.
+     *
+     * @param l       the time of life
+     * @param policy  the expiry policy
+     * @param clock   the clock to check expiry against
+     * @param indexed true to keep a hash index of the values
+     */
+    public LinkedExpirableList(long l, ExpiryPolicy policy, Clock clock, boolean indexed) {
+        this(l, policy, clock, indexed, CapacityPolicy.unbounded());
+    }
+
+    /**
+     * Constructor sets the time of life, the expiry policy, the source of time, the index
+     * and the limits of the list. An add to the full list drops the oldest elements,
+     * fails with CapacityExceededException or waits for room outside the monitor of the list.
+     *
+     * @param l        the time of life
+     * @param policy   the expiry policy
+     * @param clock    the clock to check expiry against
+     * @param indexed  true to keep a hash index of the values
+     * @param capacity the limits of the list
+     */
+    public LinkedExpirableList(long l, ExpiryPolicy policy, Clock clock, boolean indexed, CapacityPolicy capacity) {
         this.lifetime = l;
+        this.capacity = new CapacityGuard(capacity, ENTRY_BYTES, new CapacityGuard.Owner() {
+            public void sweep() {
+                LinkedExpirableList.this.sweep();
+            }
+
+            public boolean evictOldest() {
+                synchronized (LinkedExpirableList.this) {
+                    if (size == 0)
+                        return false;
+                    removeElement(header.next);
+                    return true;
+                }
+            }
+        });
+        this.valueIndex = indexed ? new EqualityIndex<Entry<T>>() : null;
+        this.policy = policy;
+        this.clock = clock;
         size = 0;
         header.next = header.prev = header;
+        policy.schedule(this);
     }
 
     /**
@@ -36,24 +128,72 @@ public class LinkedExpirableList<T> implements ExpirableList<T> {
     }
 
     /**
+     * Counts the alive elements, the expired ones which no sweep has removed yet are left out
+     *
      * @return the number of elements in this list
      */
-    public int size() {
-        return size;
+    public synchronized int size() {
+        long now = clock.millis();
+        int count = 0;
+        for (Entry<T> e = header.next; e != header; e = e.next) {
+            if (ExpirableInspector.isExists(e.element, now))
+                count++;
+        }
+        return count;
     }
 
     /**
-     * @return true if this list contains no elements
+     * @return true if this list contains no alive elements
      */
-    public boolean isEmpty() {
-        return size == 0;
+    public synchronized boolean isEmpty() {
+        long now = clock.millis();
+        for (Entry<T> e = header.next; e != header; e = e.next) {
+            if (ExpirableInspector.isExists(e.element, now))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the estimated number of bytes taken by the elements, including expired ones which are not removed yet
+     */
+    public long usedBytes() {
+        return capacity.bytes();
     }
 
 
     /**
-     * @return an iterator over the elements in this list
+     * @return the live counters of this list
+     */
+    public ListMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * @return a weakly consistent iterator over the elements in this list
      */
     public ArrayExpirableList.Iterator<T> iterator() {
+        return iterator(IterationMode.WEAKLY_CONSISTENT);
+    }
+
+    /**
+     * Returns an iterator over the elements which are alive at the moment of the call.
+     *
+     * @param mode how the iterator sees the changes made during the iteration
+     * @return an iterator over the elements in this list
+     */
+    public synchronized ArrayExpirableList.Iterator<T> iterator(IterationMode mode) {
+        expire();
+        if (mode == IterationMode.SNAPSHOT) {
+            long now = clock.millis();
+            Object[] copy = new Object[size];
+            int count = 0;
+            for (Entry<T> e = header.next; e != header; e = e.next) {
+                if (ExpirableInspector.isExists(e.element, now))
+                    copy[count++] = e.element.get();
+            }
+            return new SnapshotIterator<T>(copy, count);
+        }
         return new Itr();
     }
 
@@ -63,8 +203,71 @@ public class LinkedExpirableList<T> implements ExpirableList<T> {
      * @param element element to be appended to this list
      */
     public void add(T element) {
-        rebuild();
-        addBeforeElement(new ExpirableInspector.Element<T>(element, ExpirableInspector.getTime() + lifetime), header);
+        add(element, lifetime);
+    }
+
+    /**
+     * Appends the specified element to the end of this list with its own time of life.
+     *
+     * @param element   element to be appended to this list
+     * @param ttlMillis the time of life of the element
+     * @throws IllegalArgumentException  if the time of life is negative
+     * @throws CapacityExceededException if the list is full
+     */
+    public void add(T element, long ttlMillis) {
+        if (ttlMillis < 0)
+            throw new IllegalArgumentException("Time of life: " + ttlMillis);
+        capacity.acquire(1, capacity.weigh(element));
+        synchronized (this) {
+            expire();
+            addBeforeElement(new ExpirableInspector.Element<T>(element, clock.millis() + ttlMillis), header);
+        }
+    }
+
+    /**
+     * Appends all elements of the collection to the end of this list.
+     * The batch costs one expiry pass, all elements get one timestamp.
+     *
+     * @param c the elements to be appended to this list
+     * @throws CapacityExceededException if the list is full
+     */
+    public void addAll(Collection<? extends T> c) {
+        addBatch(c.toArray());
+    }
+
+    /**
+     * Appends all elements of the array to the end of this list.
+     * The batch costs one expiry pass, all elements get one timestamp.
+     *
+     * @param elements the elements to be appended to this list
+     * @throws CapacityExceededException if the list is full
+     */
+    public void addAll(T[] elements) {
+        addBatch(elements);
+    }
+
+    /**
+     * Reserves room for the elements and appends them in one pass
+     *
+     * @param elements the elements to be appended, they are of type T
+     */
+    private void addBatch(Object[] elements) {
+        capacity.acquire(elements.length, capacity.weigh(elements));
+        synchronized (this) {
+            appendBatch(elements);
+        }
+    }
+
+    /**
+     * Appends the elements in one pass
+     *
+     * @param elements the elements to be appended, they are of type T
+     */
+    private void appendBatch(Object[] elements) {
+        expire();
+        long expired = clock.millis() + lifetime;
+        for (Object element : elements)
+            addBeforeElement(new ExpirableInspector.Element<T>((T) element, expired), header);
     }
 
     /**
@@ -75,10 +278,21 @@ public class LinkedExpirableList<T> implements ExpirableList<T> {
      * @param index   index at which the specified element is to be inserted
      * @param element element to be inserted
      * @throws IndexOutOfBoundsException if the index is out of range
+     * @throws CapacityExceededException if the list is full
      */
     public void add(int index, T element) {
-        rebuild();
-        addBeforeElement(new ExpirableInspector.Element<T>(element, ExpirableInspector.getTime() + lifetime), (index == size ? header : entryElement(index)));
+        long weight = capacity.weigh(element);
+        capacity.acquire(1, weight);
+        try {
+            synchronized (this) {
+                expire();
+                long now = clock.millis();
+                addBeforeElement(new ExpirableInspector.Element<T>(element, now + lifetime), entryElement(index, now, true));
+            }
+        } catch (IndexOutOfBoundsException e) {
+            capacity.release(1, weight);
+            throw e;
+        }
     }
 
     /**
@@ -90,9 +304,9 @@ public class LinkedExpirableList<T> implements ExpirableList<T> {
      * @return the element previously at the specified position
      * @throws IndexOutOfBoundsException if the index is out of range
      */
-    public T remove(int index) {
-        rebuild();
-        return removeElement(entryElement(index)).get();
+    public synchronized T remove(int index) {
+        expire();
+        return removeElement(entryElement(index, clock.millis(), false)).get();
     }
 
     /**
@@ -102,9 +316,9 @@ public class LinkedExpirableList<T> implements ExpirableList<T> {
      *
      * @param o - element to be removed if present
      */
-    public void remove(Object o) {
-        rebuild();
-        removeElement(o);
+    public synchronized void remove(Object o) {
+        expire();
+        removeElement(o, clock.millis());
     }
 
     /**
@@ -112,9 +326,9 @@ public class LinkedExpirableList<T> implements ExpirableList<T> {
      *
      * @param o - element whose presence in this list is to be tested
      */
-    public boolean contains(Object o) {
-        rebuild();
-        return containsElement(o);
+    public synchronized boolean contains(Object o) {
+        expire();
+        return containsElement(o, clock.millis());
     }
 
     /**
@@ -122,34 +336,27 @@ public class LinkedExpirableList<T> implements ExpirableList<T> {
      *
      * @param index - index of the element to return
      */
-    public T get(int index) {
-        rebuild();
-        return getElement(index).get();
+    public synchronized T get(int index) {
+        expire();
+        return entryElement(index, clock.millis(), false).element.get();
     }
 
     class Itr implements Iterator<T> {
-        // Index of the next element to return
-        private int cursor = 0;
-
-        // Index of the last returned element; -1 if no such
-        private int lastRet = -1;
-
-        /**
-         * Reset start cursor to 0
-         */
-        public Itr() { this(0); }
+        // Entry of the next element to return, removed entries keep the link to their successor
+        private Entry<T> next = header.next;
 
-        /**
-         * Reset start cursor to index
-         * @param index - position of first element
-         */
-        public Itr(int index) { this.cursor = index; }
+        // Elements which expired before this time are skipped
+        private final long cutoff = clock.millis();
 
         /**
          * Returns true if the iteration has more elements.
          */
         public boolean hasNext() {
-            return cursor != size();
+            synchronized (LinkedExpirableList.this) {
+                while (next != header && (next.element == null || !ExpirableInspector.isExists(next.element, cutoff)))
+                    next = next.next;
+                return next != header;
+            }
         }
 
         /**
@@ -159,32 +366,84 @@ public class LinkedExpirableList<T> implements ExpirableList<T> {
          * @throws NoSuchElementException if the iteration has no more elements
          */
         public T next() {
-            rebuild();
-            try {
-                int i = cursor;
-                ExpirableInspector.Element<T> next = getElement(i);
-                lastRet = i;
-                cursor = i + 1;
-                return (T) next.get();
-            } catch (IndexOutOfBoundsException e) {
-                throw new NoSuchElementException();
+            synchronized (LinkedExpirableList.this) {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Entry<T> e = next;
+                next = e.next;
+                return e.element.get();
             }
         }
     }
 
     /**
-     * Delete all expired elements and rebuild list
+     * Registers a listener of the elements which expire in this list. The listener gets them
+     * in batches on its own thread, so it does not slow the operations of the list down.
+     *
+     * @param listener the listener
+     * @param policy   what happens to the batches when the listener falls behind
      */
-    private void rebuild() {
-        Entry e = header.next;
+    public void addExpirationListener(ExpirationListener<T> listener, ListenerPolicy policy) {
+        expirations.add(listener, policy);
+    }
+
+    /**
+     * Unregisters the listener, the batches already queued for it are still delivered
+     *
+     * @param listener the listener
+     */
+    public void removeExpirationListener(ExpirationListener<T> listener) {
+        expirations.remove(listener);
+    }
+
+    /**
+     * Delete all expired elements. Called by the reaper thread.
+     */
+    public synchronized void sweep() {
+        rebuild(size);
+    }
+
+    /**
+     * Removes expired elements before an operation as the expiry policy says
+     */
+    private void expire() {
+        switch (policy.getMode()) {
+            case LAZY:
+                rebuild(size);
+                break;
+            case HYBRID:
+                rebuild(policy.getBudget());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Delete expired elements among the first count ones and rebuild list
+     *
+     * @param count the number of elements to be checked
+     */
+    private void rebuild(int count) {
+        long start = System.nanoTime();
+        long now = clock.millis();
+        Entry<T> e = header.next;
         if (e == null) return;
-        while (e != header) {
-            if (!ExpirableInspector.isExists(e.element)) {
-                Entry next = e.next;
+        ExpirationDispatcher.Batch<T> expired = null;
+        int checked = 0;
+        int removed = 0;
+        while (e != header && count-- > 0) {
+            checked++;
+            if (!ExpirableInspector.isExists(e.element, now)) {
+                Entry<T> next = e.next;
+                expired = expirations.collect(expired, e.element.get(), e.element.getExpired());
                 removeElement(e);
+                removed++;
                 e = next;
             } else e = e.next;
         }
+        expirations.dispatch(expired);
+        metrics.swept(checked, removed, System.nanoTime() - start);
     }
 
 
@@ -198,6 +457,9 @@ public class LinkedExpirableList<T> implements ExpirableList<T> {
         newEntry.prev.next = newEntry;
         newEntry.next.prev = newEntry;
         size++;
+        if (valueIndex != null)
+            valueIndex.insert(e.get(), newEntry, entry == header ? null : nextEqual(entry, e.get()));
+        metrics.added(1);
     }
 
     /**
@@ -216,65 +478,80 @@ public class LinkedExpirableList<T> implements ExpirableList<T> {
         ExpirableInspector.Element<T> result = e.element;
         e.prev.next = e.next;
         e.next.prev = e.prev;
-        e.next = e.prev = null;
+        e.prev = null;
         e.element = null;
         size--;
+        if (valueIndex != null)
+            valueIndex.remove(result.get(), e);
+        capacity.release(1, capacity.weigh(result.get()));
         return result;
     }
 
     /**
-     * Removes the first occurrence of the specified element from this list.
+     * Removes the first alive occurrence of the specified element from this list.
      * If this list does not contain the element, it is
      * unchanged.
      *
-     * @param o the current element
+     * @param o   the current element
+     * @param now the current timestamp
      */
-    private void removeElement(Object o) {
-        if (o==null) {
-            for (Entry<T> e = header.next; e != header; e = e.next) {
-                if (e.element.get() == null) {
-                    remove(e);
-                    return;
-                }
-            }
-        } else {
-            for (Entry<T> e = header.next; e != header; e = e.next) {
-                if (o.equals(e.element.get())) {
-                    remove(e);
-                    return;
-                }
-            }
-        }
+    private void removeElement(Object o, long now) {
+        Entry<T> entry = entryOf(o, now);
+        if (entry != null)
+            removeElement(entry);
     }
 
     /**
-     * Returns true if this list contains the specified element.
+     * Returns true if this list contains the specified element alive.
      *
-     * @param o - element whose presence in this list is to be tested
+     * @param o   element whose presence in this list is to be tested
+     * @param now the current timestamp
      */
-    boolean containsElement(Object o) {
-        int index = 0;
-        if (o==null) {
-            for (Entry e = header.next; e != header; e = e.next) {
-                if (e.element.get()==null)
-                    return true;
-            }
-        } else {
-            for (Entry e = header.next; e != header; e = e.next) {
-                if (o.equals(e.element.get()))
-                    return true;
+    boolean containsElement(Object o, long now) {
+        return entryOf(o, now) != null;
+    }
+
+    /**
+     * Expired elements which no sweep has removed yet are skipped. With the index only the
+     * entries of equal values are checked, the list is not scanned.
+     *
+     * @param o   the element to look for
+     * @param now the current timestamp
+     * @return the entry of the first alive occurrence of the element or null
+     */
+    private Entry<T> entryOf(Object o, long now) {
+        if (valueIndex != null) {
+            for (Entry<T> entry : valueIndex.find(o)) {
+                if (ExpirableInspector.isExists(entry.element, now))
+                    return entry;
             }
+            return null;
         }
-        return false;
+        for (Entry<T> e = header.next; e != header; e = e.next) {
+            T data = e.element.get();
+            if ((o == null ? data == null : o.equals(data)) && ExpirableInspector.isExists(e.element, now))
+                return e;
+        }
+        return null;
     }
 
     /**
-     * Returns the element at the specified position in this list.
+     * Finds where an inserted value goes among the equal values of the index. Only an insert
+     * before the end of the list walks, and only while the value is in the list already.
      *
-     * @param index - index of the element to return
+     * @param from  the entry the value was inserted before
+     * @param value the inserted value
+     * @return the first entry from the specified one on which holds an equal value, or null
      */
-    private ExpirableInspector.Element<T> getElement(int index) {
-        return entryElement(index).element;
+    private Entry<T> nextEqual(Entry<T> from, Object value) {
+        if (!valueIndex.contains(value))
+            return null;
+        for (Entry<T> e = from; e != header; e = e.next) {
+            T data = e.element.get();
+            if (value == null ? data == null : value.equals(data))
+                return e;
+        }
+        return null;
     }
 
     private static class Entry<T> {
@@ -289,19 +566,27 @@ public class LinkedExpirableList<T> implements ExpirableList<T> {
         }
     }
 
-    private Entry<T> entryElement(int index) {
-        if (index < 0 || index >= size)
-            throw new IndexOutOfBoundsException("Index: "+index+
-                    ", Size: "+size);
-        Entry<T> e = header;
-        if (index < (size >> 1)) {
-            for (int i = 0; i <= index; i++)
-                e = e.next;
-        } else {
-            for (int i = size; i > index; i--)
-                e = e.prev;
+    /**
+     * Finds the entry of an alive element, the expired ones which no sweep has removed yet
+     * are skipped.
+     *
+     * @param index  the index among the alive elements
+     * @param now    the current timestamp
+     * @param forAdd true if the header may be returned for an index one past the last element
+     * @return the entry, or the header if forAdd and the list has exactly index alive elements
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    private Entry<T> entryElement(int index, long now, boolean forAdd) {
+        if (index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index);
+        int alive = 0;
+        for (Entry<T> e = header.next; e != header; e = e.next) {
+            if (ExpirableInspector.isExists(e.element, now) && alive++ == index)
+                return e;
         }
-        return e;
+        if (forAdd && alive == index)
+            return header;
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + alive);
     }
 
     private void rangeCheckForAdd(int index) {
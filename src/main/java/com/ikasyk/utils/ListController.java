@@ -1,24 +1,718 @@
 package com.ikasyk.utils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Project ExpireHandlerServer
  * Created by igor, 27.07.16 15:54
  */
 public class ListController {
-    public static LinkedExpirableList<String> list = new LinkedExpirableList<String>(10000);
+    // Limits of the default list
+    private static final CapacityPolicy capacity = createCapacity(System.getProperty("expirable.maxElements"),
+            System.getProperty("expirable.maxBytes"), System.getProperty("expirable.overflow"),
+            System.getProperty("expirable.blockTimeout"));
 
+    public static SequencedExpirableList<String> list = createList(System.getProperty("expirable.store"),
+            Boolean.getBoolean("expirable.compact"), System.getProperty("expirable.log"), Long.getLong("expirable.ttl", 10000), capacity);
+
+    // Named channels, each with its own list
+    public static final ChannelRegistry<String> channels = createChannels(System.getProperties());
+
+    // Durations of the /send requests in nanoseconds
+    public static final LatencyHistogram sendLatency = new LatencyHistogram();
+
+    // Durations of the /show requests in nanoseconds
+    public static final LatencyHistogram showLatency = new LatencyHistogram();
+
+    // Counters returned when the store does not keep its own, they stay zero
+    private static final ListMetrics NO_METRICS = new ListMetrics();
+
+    // Most rendered pages kept, a new page then replaces the least recently used one
+    private static final int MAX_PAGES = 1024;
+
+    // Largest store in estimated bytes whose pages are rendered into memory, larger ones are streamed
+    private static final long MAX_PAGE_BYTES = 1 << 20;
+
+    // Rendered first pages of /show by channel and limit, in the order of use; guarded by itself
+    private static final LinkedHashMap<String, Page> pages = new LinkedHashMap<String, Page>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Page> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+
+    // Callbacks waiting for the next add, each is called once, with the channel they wait on ("" for the default list)
+    private static final ConcurrentHashMap<Runnable, String> watchers = new ConcurrentHashMap<Runnable, String>();
+
+    // The same callbacks by the channel they wait on, so an add wakes only those of its channel;
+    // a set is changed only inside compute, which drops it once it is empty
+    private static final ConcurrentHashMap<String, Set<Runnable>> watchersByChannel = new ConcurrentHashMap<String, Set<Runnable>>();
+
+    /**
+     * Receives the lines written by writeAfter
+     */
+    public interface Visitor {
+
+        /**
+         * @param cursor the cursor which continues after the line
+         * @param line   the line
+         * @throws IOException if the line cannot be written
+         */
+        void line(String cursor, String line) throws IOException;
+    }
+
+    /**
+     * A rendered page of /show with its validator. It is shared between requests
+     * until its list changes or one of its lines expires.
+     */
+    public static final class Page {
+
+        // The list it was rendered from, null for a channel which does not exist
+        private final Object list;
+
+        // Version of the list read before rendering
+        private final long version;
+
+        // The page in UTF-8
+        private final byte[] bytes;
+
+        // Digest of the bytes, quoted
+        private final String etag;
+
+        // When the first of the shown lines expires, Long.MAX_VALUE if none does
+        private final long expiresAt;
+
+        // The page compressed with gzip, made by the first request which accepts it
+        private volatile byte[] gzip;
+
+        Page(Object list, long version, String html, long expiresAt) {
+            this.list = list;
+            this.version = version;
+            this.bytes = html.getBytes(StandardCharsets.UTF_8);
+            this.etag = "\"" + digest(bytes) + "\"";
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * @return the page in UTF-8
+         */
+        public byte[] bytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the page compressed with gzip
+         */
+        public byte[] gzip() {
+            byte[] result = gzip;
+            if (result == null) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length / 4 + 64);
+                try {
+                    OutputStream out = new GZIPOutputStream(buffer);
+                    out.write(bytes);
+                    out.close();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                gzip = result = buffer.toByteArray();
+            }
+            return result;
+        }
+
+        /**
+         * @return the strong entity tag of the page, quoted: the first 128 bits of the SHA-256 of its bytes,
+         * so equal pages have equal tags and different ones differ but with negligible chance
+         */
+        public String etag() {
+            return etag;
+        }
+
+        /**
+         * @return the whole seconds until the first of the shown lines expires, -1 if none does
+         */
+        public long maxAge() {
+            if (expiresAt == Long.MAX_VALUE)
+                return -1;
+            return Math.max(0, (expiresAt - MonotonicClock.INSTANCE.millis()) / 1000);
+        }
+
+        /**
+         * @return the first 16 bytes of the SHA-256 of the bytes in hex
+         */
+        private static String digest(byte[] bytes) {
+            byte[] hash;
+            try {
+                hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            StringBuilder result = new StringBuilder(32);
+            for (int i = 0; i < 16; i++)
+                result.append(Character.forDigit(hash[i] >> 4 & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+            return result.toString();
+        }
+    }
+
+    static {
+        ExpirableMetrics.register();
+    }
+
+    /**
+     * Creates the store of messages
+     *
+     * @param store    "mapped" to keep the messages in a memory-mapped file, "sharded" to keep them on the heap
+     *                 in a shard per processor, otherwise they are kept on the heap in one list
+     * @param compact  true to keep the messages on the heap as UTF-8 bytes, one copy for the repeated ones
+     * @param log      the directory of the log which keeps the messages over restarts, or null
+     * @param l        the time of life of a message in milliseconds
+     * @param capacity the limits of the heap store, the mapped one is bounded by its file
+     * @return the list of messages
+     * @throws IllegalArgumentException if the time of life is negative
+     */
+    static SequencedExpirableList<String> createList(String store, boolean compact, String log, long l, CapacityPolicy capacity) {
+        if (l < 0)
+            throw new IllegalArgumentException("Time of life: " + l);
+        SequencedExpirableList<String> list;
+        if ("mapped".equals(store))
+            list = new MappedExpirableList(l, ExpiryPolicy.eager(1000));
+        else if (compact)
+            list = new CompactExpirableList(ListController.<Utf8String>createHeapList(store, l, capacity));
+        else
+            list = createHeapList(store, l, capacity);
+        if (log == null)
+            return list;
+        try {
+            return new PersistentExpirableList(list, l, new File(log), 60000);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param store    "sharded" for a shard per processor, otherwise one list
+     * @param l        the time of life of a message in milliseconds
+     * @param capacity the limits of the list
+     * @return the list which keeps the messages on the heap
+     */
+    private static <T> SequencedExpirableList<T> createHeapList(String store, long l, CapacityPolicy capacity) {
+        if ("sharded".equals(store))
+            return new ShardedExpirableList<T>(l, Runtime.getRuntime().availableProcessors(),
+                    ShardedExpirableList.Routing.THREAD, ExpiryPolicy.eager(1000), MonotonicClock.INSTANCE, capacity);
+        return new ConcurrentExpirableList<T>(l, ExpiryPolicy.eager(1000), MonotonicClock.INSTANCE, capacity);
+    }
+
+    /**
+     * Reads the limits of the store
+     *
+     * @param maxElements the maximum number of messages, or null
+     * @param maxBytes    the maximum estimated number of bytes, or null
+     * @param overflow    "drop-oldest", "block" or "reject" (the default)
+     * @param timeout     how long an add to the full store waits in milliseconds, 1000 if null
+     * @return the capacity policy, unbounded if neither limit is set
+     * @throws IllegalArgumentException if a setting is malformed
+     */
+    static CapacityPolicy createCapacity(String maxElements, String maxBytes, String overflow, String timeout) {
+        if (maxElements == null && maxBytes == null)
+            return CapacityPolicy.unbounded();
+        int elements = maxElements == null ? Integer.MAX_VALUE : Integer.parseInt(maxElements);
+        long bytes = maxBytes == null ? Long.MAX_VALUE : Long.parseLong(maxBytes);
+        if ("drop-oldest".equals(overflow))
+            return CapacityPolicy.dropOldest(elements, bytes);
+        if ("block".equals(overflow))
+            return CapacityPolicy.block(elements, bytes, timeout == null ? 1000 : Long.parseLong(timeout));
+        if (overflow == null || "reject".equals(overflow))
+            return CapacityPolicy.reject(elements, bytes);
+        throw new IllegalArgumentException("Overflow: " + overflow);
+    }
+
+    /**
+     * Creates the registry of channels. A channel lives expirable.ttl and has the limits of the default list
+     * unless expirable.channel.&lt;name&gt;.ttl, .maxElements, .maxBytes or .overflow set its own;
+     * an empty channel is reclaimed after expirable.channelIdle milliseconds.
+     *
+     * @param properties the settings
+     * @return the registry
+     * @throws IllegalArgumentException if a setting is malformed
+     */
+    static ChannelRegistry<String> createChannels(Properties properties) {
+        String timeout = properties.getProperty("expirable.blockTimeout");
+        ChannelRegistry<String> registry = new ChannelRegistry<String>(Long.parseLong(properties.getProperty("expirable.ttl", "10000")),
+                createCapacity(properties.getProperty("expirable.maxElements"), properties.getProperty("expirable.maxBytes"),
+                        properties.getProperty("expirable.overflow"), timeout),
+                Long.parseLong(properties.getProperty("expirable.channelIdle", "60000")),
+                Integer.parseInt(properties.getProperty("expirable.maxChannels", "1000000")));
+        String prefix = "expirable.channel.";
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.startsWith(prefix) || !key.endsWith(".ttl") && !key.endsWith(".maxElements")
+                    && !key.endsWith(".maxBytes") && !key.endsWith(".overflow"))
+                continue;
+            String name = key.substring(prefix.length(), key.lastIndexOf('.'));
+            String channel = prefix + name + ".";
+            registry.define(name, Long.parseLong(properties.getProperty(channel + "ttl", properties.getProperty("expirable.ttl", "10000"))),
+                    createCapacity(properties.getProperty(channel + "maxElements"), properties.getProperty(channel + "maxBytes"),
+                            properties.getProperty(channel + "overflow"), timeout));
+        }
+        return registry;
+    }
+
+    /**
+     * @return the number of alive messages
+     */
+    public static int size() {
+        return list.size();
+    }
+
+    /**
+     * @return the estimated number of bytes taken by the messages, 0 if the store does not know it
+     */
+    public static long usedBytes() {
+        return list instanceof Measurable ? ((Measurable) list).usedBytes() : 0;
+    }
+
+    /**
+     * @return the counters of the store, zero ones if it does not keep them
+     */
+    public static ListMetrics metrics() {
+        return list instanceof Instrumented ? ((Instrumented) list).metrics() : NO_METRICS;
+    }
+
+    /**
+     * @param channel the name of the channel, null for the default list
+     * @return the most lines the channel holds at once, so the most one add may pass to it
+     */
+    public static int maxElements(String channel) {
+        return (channel == null ? capacity : channels.capacity(channel)).getMaxElements();
+    }
+
+    /**
+     * Adds the line to the default list
+     *
+     * @param line the line
+     * @throws CapacityExceededException if the list is full
+     */
     public static void add(String line) {
-        list.add(line);
+        add(null, line);
+    }
+
+    /**
+     * Adds the line to the default list with its own time of life
+     *
+     * @param line the line
+     * @param ttl  the time of life of the line in milliseconds
+     * @throws IllegalArgumentException  if the time of life is negative
+     * @throws CapacityExceededException if the list is full
+     */
+    public static void add(String line, long ttl) {
+        add(null, line, ttl);
+    }
+
+    /**
+     * Adds the lines to the default list in one batch
+     *
+     * @param lines the lines
+     * @throws CapacityExceededException if the list is full
+     */
+    public static void addAll(Collection<String> lines) {
+        addAll(null, lines);
+    }
+
+    /**
+     * Adds the line to the channel, which is created by its first line
+     *
+     * @param channel the name of the channel, null for the default list
+     * @param line    the line
+     * @throws IllegalArgumentException  if the name of the channel is not valid
+     * @throws CapacityExceededException if the channel is full or there are too many channels
+     */
+    public static void add(String channel, String line) {
+        if (channel == null)
+            list.add(line);
+        else
+            channels.add(channel, line);
+        added(channel);
+    }
+
+    /**
+     * Adds the line to the channel with its own time of life, the channel is created by its first line
+     *
+     * @param channel the name of the channel, null for the default list
+     * @param line    the line
+     * @param ttl     the time of life of the line in milliseconds
+     * @throws IllegalArgumentException  if the name of the channel is not valid or the time of life is negative
+     * @throws CapacityExceededException if the channel is full or there are too many channels
+     */
+    public static void add(String channel, String line, long ttl) {
+        if (channel == null)
+            list.add(line, ttl);
+        else
+            channels.add(channel, line, ttl);
+        added(channel);
+    }
+
+    /**
+     * Adds the lines to the channel in one batch, the channel is created by its first lines
+     *
+     * @param channel the name of the channel, null for the default list
+     * @param lines   the lines
+     * @throws IllegalArgumentException  if the name of the channel is not valid
+     * @throws CapacityExceededException if the channel is full or there are too many channels
+     */
+    public static void addAll(String channel, Collection<String> lines) {
+        if (channel == null)
+            list.addAll(lines);
+        else
+            channels.addAll(channel, lines);
+        added(channel);
+    }
+
+    /**
+     * Calls the callback once after the next add. It runs on the adding thread,
+     * so it should only hand the work over to another thread.
+     *
+     * @param watcher the callback
+     */
+    public static void watch(Runnable watcher) {
+        watch(null, watcher);
+    }
+
+    /**
+     * Calls the callback once after the next add to the channel
+     *
+     * @param channel the name of the channel, null for the default list
+     * @param watcher the callback
+     */
+    public static void watch(String channel, final Runnable watcher) {
+        final String key = channel == null ? "" : channel;
+        String prior = watchers.get(watcher);
+        if (prior != null && !prior.equals(key))
+            unwatch(watcher);
+        watchersByChannel.compute(key, new BiFunction<String, Set<Runnable>, Set<Runnable>>() {
+            public Set<Runnable> apply(String k, Set<Runnable> set) {
+                if (set == null)
+                    set = ConcurrentHashMap.newKeySet();
+                watchers.put(watcher, key);
+                set.add(watcher);
+                return set;
+            }
+        });
+    }
+
+    /**
+     * Cancels the callback. Whoever removes it first owns the call, so a watcher which has
+     * found new lines itself calls unwatch() and runs only if it returns true.
+     *
+     * @param watcher the callback
+     * @return true if the callback was still waiting
+     */
+    public static boolean unwatch(Runnable watcher) {
+        String key = watchers.get(watcher);
+        return key != null && claim(key, watcher);
+    }
+
+    /**
+     * Calls the watchers of an add to the channel, the watchers of other channels are not looked at
+     */
+    private static void added(String channel) {
+        if (watchers.isEmpty())
+            return;
+        String key = channel == null ? "" : channel;
+        Set<Runnable> set = watchersByChannel.get(key);
+        if (set == null)
+            return;
+        for (Runnable watcher : set) {
+            if (claim(key, watcher))
+                watcher.run();
+        }
+    }
+
+    /**
+     * Takes the callback off both maps if it still waits on the channel, and drops the set
+     * of the channel once it is empty
+     *
+     * @return true if this call has taken it off, so owns the call
+     */
+    private static boolean claim(final String key, final Runnable watcher) {
+        final boolean[] claimed = new boolean[1];
+        watchersByChannel.computeIfPresent(key, new BiFunction<String, Set<Runnable>, Set<Runnable>>() {
+            public Set<Runnable> apply(String k, Set<Runnable> set) {
+                if (watchers.remove(watcher, key)) {
+                    set.remove(watcher);
+                    claimed[0] = true;
+                }
+                return set.isEmpty() ? null : set;
+            }
+        });
+        return claimed[0];
+    }
+
+    /**
+     * @param channel the name of the channel, null for the default list
+     * @return the list of the channel, or null if the channel does not exist
+     * @throws IllegalArgumentException if the name of the channel is not valid
+     */
+    private static SequencedExpirableList<String> find(String channel) {
+        return channel == null ? list : channels.find(channel);
+    }
+
+    /**
+     * @return the cursor after the last added line, a reader which starts from it gets only the lines added later
+     */
+    public static String cursor() {
+        return cursor(null);
+    }
+
+    /**
+     * @param channel the name of the channel, null for the default list
+     * @return the cursor after the last line added to the channel
+     * @throws IllegalArgumentException if the name of the channel is not valid
+     */
+    public static String cursor(String channel) {
+        SequencedExpirableList<String> l = find(channel);
+        return l == null ? "" : Long.toString(l.lastSequence(), Character.MAX_RADIX);
+    }
+
+    /**
+     * @param cursor the cursor of the last seen line, null to start from the beginning
+     * @return true if there are alive lines after the cursor
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public static boolean hasAfter(String cursor) {
+        return hasAfter(null, cursor);
     }
+
+    /**
+     * @param channel the name of the channel, null for the default list
+     * @param cursor  the cursor of the last seen line, null to start from the beginning
+     * @return true if there are alive lines in the channel after the cursor
+     * @throws IllegalArgumentException if the name of the channel or the cursor is malformed
+     */
+    public static boolean hasAfter(String channel, String cursor) {
+        long sequence = parseCursor(cursor);
+        SequencedExpirableList<String> l = find(channel);
+        return l != null && l.iteratorAfter(sequence).hasNext();
+    }
+
+    /**
+     * Passes alive lines added after the cursor to the visitor
+     *
+     * @param cursor  the cursor of the last seen line, null to start from the beginning
+     * @param limit   the maximum number of lines
+     * @param visitor receives the lines
+     * @return the cursor after the last passed line, or the given cursor if there were none
+     * @throws IllegalArgumentException if the cursor is malformed
+     * @throws IOException if the visitor fails
+     */
+    public static String writeAfter(String cursor, int limit, Visitor visitor) throws IOException {
+        return writeAfter(null, cursor, limit, visitor);
+    }
+
+    /**
+     * Passes alive lines added to the channel after the cursor to the visitor
+     *
+     * @param channel the name of the channel, null for the default list
+     * @param cursor  the cursor of the last seen line, null to start from the beginning
+     * @param limit   the maximum number of lines
+     * @param visitor receives the lines
+     * @return the cursor after the last passed line, or the given cursor if there were none
+     * @throws IllegalArgumentException if the name of the channel or the cursor is malformed
+     * @throws IOException if the visitor fails
+     */
+    public static String writeAfter(String channel, String cursor, int limit, Visitor visitor) throws IOException {
+        long sequence = parseCursor(cursor);
+        SequencedExpirableList<String> l = find(channel);
+        if (l == null)
+            return Long.toString(sequence, Character.MAX_RADIX);
+        SequencedExpirableList.SequencedIterator<String> i = l.iteratorAfter(sequence);
+        for (int count = 0; count < limit && i.hasNext(); count++) {
+            String line = String.valueOf(i.next());
+            sequence = i.sequence();
+            visitor.line(Long.toString(sequence, Character.MAX_RADIX), line);
+        }
+        return Long.toString(sequence, Character.MAX_RADIX);
+    }
+
+    /**
+     * Renders all alive lines of the default list as one HTML page
+     *
+     * @return the page
+     */
     public static String getAll() throws NoSuchElementException {
-        LinkedExpirableList.Iterator<String> i = list.iterator();
-        String result = "<h1><pre>";
-        while (i.hasNext()) {
-            result += i.next() + "\n";
+        StringWriter result = new StringWriter();
+        try {
+            write(result, Integer.MAX_VALUE, null);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Writes alive lines as HTML straight to the writer, nothing is collected in memory.
+     *
+     * @param out    the writer of the response
+     * @param limit  the maximum number of lines to write
+     * @param cursor the cursor returned for the previous page, or null to start from the beginning
+     * @return the cursor of the next page, or null if all alive lines have been written
+     * @throws IllegalArgumentException if the cursor is malformed
+     * @throws IOException if the writer fails
+     */
+    public static String write(Writer out, int limit, String cursor) throws IOException {
+        return write(null, out, limit, cursor);
+    }
+
+    /**
+     * Writes alive lines of the channel as HTML, a channel which does not exist is written empty
+     *
+     * @param channel the name of the channel, null for the default list
+     * @param out     the writer of the response
+     * @param limit   the maximum number of lines to write
+     * @param cursor  the cursor returned for the previous page, or null to start from the beginning
+     * @return the cursor of the next page, or null if all alive lines have been written
+     * @throws IllegalArgumentException if the name of the channel or the cursor is malformed
+     * @throws IOException if the writer fails
+     */
+    public static String write(String channel, Writer out, int limit, String cursor) throws IOException {
+        long sequence = parseCursor(cursor);
+        return write(find(channel), out, limit, sequence, null);
+    }
+
+    /**
+     * Streams alive lines of the channel in the format. The lines of a compact list are written
+     * as the bytes it keeps, the others are encoded one by one; nothing else is built in memory.
+     *
+     * @param channel the name of the channel, null for the default list
+     * @param out     the stream of the response, it should be buffered
+     * @param format  the format
+     * @param limit   the maximum number of lines to write
+     * @param cursor  the cursor returned for the previous page, or null to start from the beginning
+     * @return the cursor of the next page, or null if all alive lines have been written
+     * @throws IllegalArgumentException if the name of the channel or the cursor is malformed
+     * @throws IOException if the stream fails
+     */
+    public static String write(String channel, OutputStream out, ListFormat format, int limit, String cursor) throws IOException {
+        long sequence = parseCursor(cursor);
+        SequencedExpirableList<String> l = find(channel);
+        format.begin(out);
+        String next = null;
+        if (l != null) {
+            SequencedExpirableList.SequencedIterator<?> i = l instanceof CompactExpirableList
+                    ? ((CompactExpirableList) l).encodedAfter(sequence) : l.iteratorAfter(sequence);
+            int count = 0;
+            while (count < limit && i.hasNext()) {
+                Object line = i.next();
+                byte[] bytes = line == null ? null
+                        : line instanceof Utf8String ? ((Utf8String) line).bytes() : line.toString().getBytes(StandardCharsets.UTF_8);
+                format.line(out, bytes, i.sequence(), i.expiresAt(), count == 0);
+                sequence = i.sequence();
+                count++;
+            }
+            if (count > 0 && i.hasNext())
+                next = Long.toString(sequence, Character.MAX_RADIX);
+        }
+        format.end(out, Long.toString(sequence, Character.MAX_RADIX), next);
+        return next;
+    }
+
+    /**
+     * Returns the first page of the channel with the link to the next one. The page is rendered once
+     * and reused while the version of the list stays the same and none of its lines has expired,
+     * so polling an unchanged list costs a version check.
+     *
+     * @param channel the name of the channel, null for the default list
+     * @param limit   the maximum number of lines
+     * @return the page, or null if the store does not count its changes or is too large
+     * to be rendered into memory; such a page should be written with write()
+     * @throws IllegalArgumentException if the name of the channel is not valid
+     */
+    public static Page page(String channel, int limit) {
+        SequencedExpirableList<String> l = find(channel);
+        if (l == null)
+            return new Page(null, 0, "<h1><pre></pre></h1>", Long.MAX_VALUE);
+        long version = l instanceof Versioned ? ((Versioned) l).version() : -1;
+        if (version < 0 || !(l instanceof Measurable) || ((Measurable) l).usedBytes() > MAX_PAGE_BYTES)
+            return null;
+        String key = (channel == null ? "" : channel) + "?" + limit;
+        Page page;
+        synchronized (pages) {
+            page = pages.get(key);
+        }
+        if (page != null && page.list == l && page.version == version && MonotonicClock.INSTANCE.millis() < page.expiresAt)
+            return page;
+        StringWriter out = new StringWriter();
+        long[] expiresAt = {Long.MAX_VALUE};
+        try {
+            String next = write(l, out, limit, 0, expiresAt);
+            if (next != null)
+                out.write("<a href=\"/show" + (channel == null ? "" : "/" + channel) + "?limit=" + limit + "&cursor=" + next + "\">next</a>");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        page = new Page(l, version, out.toString(), expiresAt[0]);
+        synchronized (pages) {
+            pages.put(key, page);
+        }
+        return page;
+    }
+
+    /**
+     * Writes alive lines of the list as HTML
+     *
+     * @param l         the list, or null to write an empty page
+     * @param expiresAt receives the earliest expiry of the written lines in its first cell, or null
+     * @return the cursor of the next page, or null if all alive lines have been written
+     */
+    private static String write(SequencedExpirableList<String> l, Writer out, int limit, long sequence, long[] expiresAt)
+            throws IOException {
+        out.write("<h1><pre>");
+        if (l == null) {
+            out.write("</pre></h1>");
+            return null;
+        }
+        SequencedExpirableList.SequencedIterator<String> i = l.iteratorAfter(sequence);
+        int count = 0;
+        while (count < limit && i.hasNext()) {
+            out.write(ListFormat.escapeHtml(String.valueOf(i.next())));
+            out.write('\n');
+            if (expiresAt != null && i.expiresAt() < expiresAt[0])
+                expiresAt[0] = i.expiresAt();
+            count++;
+        }
+        out.write("</pre></h1>");
+        return count > 0 && i.hasNext() ? Long.toString(i.sequence(), Character.MAX_RADIX) : null;
+    }
+
+    /**
+     * @param cursor the cursor of a page or null
+     * @return the sequence number of the last line of the previous page
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    private static long parseCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty())
+            return 0;
+        try {
+            long sequence = Long.parseLong(cursor, Character.MAX_RADIX);
+            if (sequence < 0)
+                throw new IllegalArgumentException("Cursor: " + cursor);
+            return sequence;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cursor: " + cursor);
         }
-        result += "</pre></h1>";
-        return result;
     }
 }
@@ -0,0 +1,267 @@
+package com.ikasyk.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Formats in which /show writes the lines. Every format writes UTF-8 bytes straight to the stream,
+ * line by line, so a page of any size is written without building it in memory.
+ */
+public enum ListFormat {
+
+    /**
+     * The lines in a &lt;pre&gt; block, escaped. The link to the next page is written by the caller.
+     */
+    HTML("text/html;charset=utf-8") {
+        void begin(OutputStream out) throws IOException {
+            out.write(PRE);
+        }
+
+        void line(OutputStream out, byte[] line, long sequence, long expiresAt, boolean first) throws IOException {
+            if (line == null)
+                line = NULL;
+            int start = 0;
+            for (int i = 0; i < line.length; i++) {
+                byte[] entity = entity(line[i]);
+                if (entity == null)
+                    continue;
+                out.write(line, start, i - start);
+                out.write(entity);
+                start = i + 1;
+            }
+            out.write(line, start, line.length - start);
+            out.write('\n');
+        }
+
+        void end(OutputStream out, String cursor, String next) throws IOException {
+            out.write(END_PRE);
+        }
+    },
+
+    /**
+     * {"lines":[{"sequence":1,"expiresAt":1469624400000,"line":"..."},...],"cursor":"1","next":null}
+     * where expiresAt is the last millisecond of the epoch when the line is alive, cursor continues
+     * after the last written line and next is the cursor of the next page, null if there is none.
+     * A line which was added as null is written as null.
+     */
+    JSON("application/json;charset=utf-8") {
+        void begin(OutputStream out) throws IOException {
+            out.write(ascii("{\"lines\":["));
+        }
+
+        void line(OutputStream out, byte[] line, long sequence, long expiresAt, boolean first) throws IOException {
+            out.write(ascii((first ? "" : ",") + "{\"sequence\":" + sequence + ",\"expiresAt\":" + expiresAt + ",\"line\":"));
+            if (line == null) {
+                out.write(NULL);
+            } else {
+                out.write('"');
+                int start = 0;
+                for (int i = 0; i < line.length; i++) {
+                    int b = line[i] & 0xFF;
+                    if (b >= 0x20 && b != '"' && b != '\\')
+                        continue;
+                    out.write(line, start, i - start);
+                    out.write(escape(b));
+                    start = i + 1;
+                }
+                out.write(line, start, line.length - start);
+                out.write('"');
+            }
+            out.write('}');
+        }
+
+        void end(OutputStream out, String cursor, String next) throws IOException {
+            out.write(ascii("],\"cursor\":\"" + cursor + "\",\"next\":" + (next == null ? "null" : "\"" + next + "\"") + "}"));
+        }
+    },
+
+    /**
+     * Length-prefixed records, all numbers big-endian: the magic "EXPL" and the version byte 1,
+     * then per line its sequence number (8 bytes), the last millisecond of the epoch when it is alive
+     * (8 bytes), its length in bytes (4 bytes, -1 for null) and its UTF-8 bytes. A sequence number 0
+     * ends the lines; it is followed by the sequence numbers after the last written line and of
+     * the next page (8 bytes each, 0 if there is no next page).
+     */
+    BINARY("application/octet-stream") {
+        void begin(OutputStream out) throws IOException {
+            out.write(MAGIC);
+        }
+
+        void line(OutputStream out, byte[] line, long sequence, long expiresAt, boolean first) throws IOException {
+            byte[] header = new byte[20];
+            putLong(header, 0, sequence);
+            putLong(header, 8, expiresAt);
+            putInt(header, 16, line == null ? -1 : line.length);
+            out.write(header);
+            if (line != null)
+                out.write(line);
+        }
+
+        void end(OutputStream out, String cursor, String next) throws IOException {
+            byte[] trailer = new byte[24];
+            putLong(trailer, 8, Long.parseLong(cursor, Character.MAX_RADIX));
+            putLong(trailer, 16, next == null ? 0 : Long.parseLong(next, Character.MAX_RADIX));
+            out.write(trailer);
+        }
+    };
+
+    private static final byte[] PRE = ascii("<h1><pre>");
+
+    private static final byte[] END_PRE = ascii("</pre></h1>");
+
+    private static final byte[] NULL = ascii("null");
+
+    private static final byte[] MAGIC = {'E', 'X', 'P', 'L', 1};
+
+    // Entities of the characters which are markup in HTML, by the character
+    private static final byte[][] ENTITIES = new byte[128][];
+
+    static {
+        ENTITIES['<'] = ascii("&lt;");
+        ENTITIES['>'] = ascii("&gt;");
+        ENTITIES['&'] = ascii("&amp;");
+        ENTITIES['"'] = ascii("&quot;");
+        ENTITIES['\''] = ascii("&#39;");
+    }
+
+    private final String contentType;
+
+    ListFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * @return the Content-Type of a response in this format
+     */
+    public String contentType() {
+        return contentType;
+    }
+
+    /**
+     * Picks the format of the response: the supported media type with the highest quality
+     * in the Accept header, the first listed of equal ones
+     *
+     * @param accept the Accept header, or null
+     * @return JSON for application/json, BINARY for application/octet-stream, otherwise HTML
+     */
+    public static ListFormat negotiate(String accept) {
+        if (accept == null)
+            return HTML;
+        ListFormat best = HTML;
+        double quality = 0;
+        for (String range : accept.split(",")) {
+            String[] parts = range.split(";");
+            String type = parts[0].trim().toLowerCase();
+            ListFormat format = "application/json".equals(type) ? JSON
+                    : "application/octet-stream".equals(type) ? BINARY
+                    : "text/html".equals(type) || "text/*".equals(type) || "*/*".equals(type) ? HTML : null;
+            if (format == null)
+                continue;
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (q > quality) {
+                best = format;
+                quality = q;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param s the text, may be null
+     * @return the text with the markup characters of HTML replaced by entities
+     */
+    public static String escapeHtml(String s) {
+        if (s == null)
+            return null;
+        StringBuilder result = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            byte[] entity = c < 128 ? ENTITIES[c] : null;
+            if (entity == null) {
+                if (result != null)
+                    result.append(c);
+                continue;
+            }
+            if (result == null)
+                result = new StringBuilder(s.length() + 16).append(s, 0, i);
+            result.append(new String(entity, StandardCharsets.US_ASCII));
+        }
+        return result == null ? s : result.toString();
+    }
+
+    /**
+     * Writes what comes before the lines
+     */
+    abstract void begin(OutputStream out) throws IOException;
+
+    /**
+     * Writes a line
+     *
+     * @param line      the UTF-8 bytes of the line, null for a null line
+     * @param sequence  its sequence number
+     * @param expiresAt the last millisecond when it is alive
+     * @param first     true for the first line of the response
+     */
+    abstract void line(OutputStream out, byte[] line, long sequence, long expiresAt, boolean first) throws IOException;
+
+    /**
+     * Writes what comes after the lines
+     *
+     * @param cursor the cursor after the last written line
+     * @param next   the cursor of the next page, or null
+     */
+    abstract void end(OutputStream out, String cursor, String next) throws IOException;
+
+    /**
+     * @return the entity of a markup byte, null for the other bytes; the bytes of multibyte
+     * UTF-8 characters are never markup
+     */
+    private static byte[] entity(byte b) {
+        return b >= 0 ? ENTITIES[b] : null;
+    }
+
+    /**
+     * @return the JSON escape of a quote, a backslash or a control character
+     */
+    private static byte[] escape(int b) {
+        switch (b) {
+            case '"':
+                return ascii("\\\"");
+            case '\\':
+                return ascii("\\\\");
+            case '\n':
+                return ascii("\\n");
+            case '\r':
+                return ascii("\\r");
+            case '\t':
+                return ascii("\\t");
+            default:
+                return ascii(String.format("\\u%04x", b));
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void putLong(byte[] b, int offset, long v) {
+        for (int i = 7; i >= 0; i--, v >>>= 8)
+            b[offset + i] = (byte) v;
+    }
+
+    private static void putInt(byte[] b, int offset, int v) {
+        for (int i = 3; i >= 0; i--, v >>>= 8)
+            b[offset + i] = (byte) v;
+    }
+}
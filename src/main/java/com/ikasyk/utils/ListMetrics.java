@@ -0,0 +1,105 @@
+package com.ikasyk.utils;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a list: how many elements were added and expired, how many expiry passes
+ * ran, how long they took and how many elements they checked.
+ *
+ * The counters are striped, so threads which update them at once do not contend
+ * for one cache line; reading a value sums the stripes.
+ */
+public class ListMetrics {
+
+    private final LongAdder adds = new LongAdder();
+
+    private final LongAdder expirations = new LongAdder();
+
+    // Elements checked by expiry passes
+    private final LongAdder scanned = new LongAdder();
+
+    // Durations of expiry passes in nanoseconds
+    private final LatencyHistogram sweepNanos = new LatencyHistogram();
+
+    // Batches which an expiration listener has thrown on
+    private final LongAdder listenerFailures = new LongAdder();
+
+    /**
+     * @param count the number of added elements
+     */
+    void added(int count) {
+        adds.add(count);
+    }
+
+    /**
+     * Counts elements which expired outside of an expiry pass, e.g. found by an iterator
+     *
+     * @param count the number of expired elements
+     */
+    void expired(int count) {
+        expirations.add(count);
+    }
+
+    /**
+     * Counts one expiry pass
+     *
+     * @param checked the number of elements the pass has checked
+     * @param expired the number of elements it has removed
+     * @param nanos   how long it took
+     */
+    void swept(int checked, int expired, long nanos) {
+        scanned.add(checked);
+        if (expired > 0)
+            expirations.add(expired);
+        sweepNanos.record(nanos);
+    }
+
+    /**
+     * Counts one batch which an expiration listener has thrown on
+     */
+    void listenerFailed() {
+        listenerFailures.increment();
+    }
+
+    /**
+     * @return the number of added elements
+     */
+    public long getAdds() {
+        return adds.sum();
+    }
+
+    /**
+     * @return the number of elements removed because their time of life was over
+     */
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * @return the number of expiry passes
+     */
+    public long getSweeps() {
+        return sweepNanos.count();
+    }
+
+    /**
+     * @return the number of elements checked by expiry passes
+     */
+    public long getScanned() {
+        return scanned.sum();
+    }
+
+    /**
+     * @return the number of batches which an expiration listener has thrown on
+     */
+    public long getListenerFailures() {
+        return listenerFailures.sum();
+    }
+
+    /**
+     * @return the durations of expiry passes in nanoseconds
+     */
+    public LatencyHistogram getSweepNanos() {
+        return sweepNanos;
+    }
+}
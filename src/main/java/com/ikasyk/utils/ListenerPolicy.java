@@ -0,0 +1,91 @@
+package com.ikasyk.utils;
+
+/**
+ * Delivery settings of an expiration listener: how many batches may wait for it and
+ * what happens to a new batch when that many are waiting.
+ *
+ * Every listener has its own thread, which stops when the listener has nothing to do for a minute.
+ */
+public final class ListenerPolicy {
+
+    private final OverflowMode overflow;
+
+    // Maximum number of batches waiting for the listener
+    private final int queueSize;
+
+    // How long an expiry pass waits for room in the queue in milliseconds
+    private final long timeout;
+
+    private ListenerPolicy(OverflowMode overflow, int queueSize, long timeout) {
+        this.overflow = overflow;
+        this.queueSize = queueSize;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param queueSize the maximum number of waiting batches
+     * @return the policy where the oldest waiting batch is dropped to make room
+     * @throws IllegalArgumentException if the queue size is not positive
+     */
+    public static ListenerPolicy dropOldest(int queueSize) {
+        checkQueueSize(queueSize);
+        return new ListenerPolicy(OverflowMode.DROP_OLDEST, queueSize, 0);
+    }
+
+    /**
+     * @param queueSize the maximum number of waiting batches
+     * @return the policy where the new batch is dropped when the queue is full
+     * @throws IllegalArgumentException if the queue size is not positive
+     */
+    public static ListenerPolicy reject(int queueSize) {
+        checkQueueSize(queueSize);
+        return new ListenerPolicy(OverflowMode.REJECT, queueSize, 0);
+    }
+
+    /**
+     * The expiry pass runs under the lock of a synchronized list, so a blocked pass blocks
+     * the list too; with eager expiry only the reaper thread waits.
+     *
+     * @param queueSize     the maximum number of waiting batches
+     * @param timeoutMillis how long the expiry pass waits for room before it drops the batch
+     * @return the policy where the expiry pass waits for the listener
+     * @throws IllegalArgumentException if the queue size is not positive or the timeout is negative
+     */
+    public static ListenerPolicy block(int queueSize, long timeoutMillis) {
+        checkQueueSize(queueSize);
+        if (timeoutMillis < 0)
+            throw new IllegalArgumentException("Timeout: " + timeoutMillis);
+        return new ListenerPolicy(OverflowMode.BLOCK, queueSize, timeoutMillis);
+    }
+
+    /**
+     * @return what happens to a new batch when the queue is full
+     */
+    public OverflowMode getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * @return the maximum number of batches waiting for the listener
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * @return how long the expiry pass waits for room in the BLOCK mode, in milliseconds
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    private static void checkQueueSize(int queueSize) {
+        if (queueSize <= 0)
+            throw new IllegalArgumentException("Queue size: " + queueSize);
+    }
+
+    @Override
+    public String toString() {
+        return overflow + "(" + queueSize + " batches" + (overflow == OverflowMode.BLOCK ? ", " + timeout + " ms" : "") + ")";
+    }
+}
@@ -0,0 +1,829 @@
+package com.ikasyk.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+/**
+ * Implementation of ExpirableList for strings which keeps the text out of the Java heap.
+ *
+ * The strings are written as UTF-8 bytes into a ring log in a memory-mapped file. The heap only
+ * holds the index: parallel primitive arrays with the position, the length, the expiry time and
+ * the sequence number of every element, arranged in a circle like in RingBufferExpirableList.
+ * While the expiry times are ordered, expired elements are dropped by moving the head of the index,
+ * and the space of the log is taken back by moving the head of the log to the oldest alive record,
+ * so nothing is compacted. The log grows only when the alive records do not fit in it.
+ *
+ * A string is decoded on every read, so the list suits elements which are written once and read
+ * a few times. All operations are guarded by the monitor of the list.
+ */
+public class MappedExpirableList implements SequencedExpirableList<String>, Sweepable, Closeable, Measurable {
+
+    // Initial size of the log in bytes
+    private static final int DEFAULT_CAPACITY = 1 << 24;
+
+    // Largest size of the log, one mapping is limited by the int range
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    // Life time
+    private long lifetime;
+
+    // When expired elements are removed
+    private ExpiryPolicy policy;
+
+    // Source of the current time
+    private Clock clock;
+
+    // Receives the expired elements
+    private ExpirationDispatcher<String> expirations = new ExpirationDispatcher<String>();
+
+    // File of the log, deleted on close if the list created it
+    private File file;
+    private boolean temporary;
+    private RandomAccessFile raf;
+
+    // Mapped log and its size
+    private MappedByteBuffer log;
+    private int capacity;
+
+    // Log positions grow forever, the offset in the mapping is position % capacity
+    private long logHead;
+    private long logTail;
+
+    // Counter of elements
+    private int size;
+
+    // Index of the first element in the arrays below
+    private int head;
+
+    // Number of elements ever dropped from the head, lets iterators keep their place
+    private long dropped;
+
+    // True while the expiry times of the elements go in non-decreasing order
+    private boolean ordered = true;
+
+    // True while no element has been inserted before another, so the sequence numbers are sorted
+    private boolean appendOnly = true;
+
+    // Last sequence number given to an element
+    private long sequence;
+
+    // Circular index, the length of the arrays is always a power of two
+    private long[] positions;
+    private int[] lengths;
+    private long[] expiries;
+    private long[] sequences;
+
+    /**
+     * Constructor sets the time of life, the log is kept in a temporary file
+     *
+     * @param l the time of life
+     */
+    public MappedExpirableList(long l) {
+        this(l, ExpiryPolicy.lazy());
+    }
+
+    /**
+     * Constructor sets the time of life and the expiry policy
+     *
+     * @param l      the time of life
+     * @param policy the expiry policy
+     */
+    public MappedExpirableList(long l, ExpiryPolicy policy) {
+        this(l, policy, MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Constructor sets the time of life, the expiry policy and the source of time
+     *
+     * @param l      the time of life
+     * @param policy the expiry policy
+     * @param clock  the clock to check expiry against
+     */
+    public MappedExpirableList(long l, ExpiryPolicy policy, Clock clock) {
+        this(l, policy, clock, null, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor sets the time of life, the expiry policy, the source of time and the log file.
+     * The content of an existing file is overwritten.
+     *
+     * @param l        the time of life
+     * @param policy   the expiry policy
+     * @param clock    the clock to check expiry against
+     * @param file     the file of the log, or null for a temporary file
+     * @param capacity the initial size of the log in bytes
+     * @throws IllegalArgumentException if the capacity is not positive
+     * @throws IllegalStateException    if the file cannot be mapped
+     */
+    public MappedExpirableList(long l, ExpiryPolicy policy, Clock clock, File file, int capacity) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY)
+            throw new IllegalArgumentException("Capacity: " + capacity);
+        this.lifetime = l;
+        this.policy = policy;
+        this.clock = clock;
+        try {
+            this.temporary = file == null;
+            this.file = temporary ? File.createTempFile("expirable", ".log") : file;
+            raf = new RandomAccessFile(this.file, "rw");
+            map(capacity);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        positions = new long[16];
+        lengths = new int[16];
+        expiries = new long[16];
+        sequences = new long[16];
+        policy.schedule(this);
+    }
+
+    /**
+     * Constructor sets the time of life = 60000 default
+     */
+    public MappedExpirableList() {
+        this(60000);
+    }
+
+    /**
+     * @return the number of elements in this list
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return true if this list contains no elements
+     */
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of bytes of the log taken by the records between its head and tail
+     */
+    public synchronized long usedBytes() {
+        return logTail - logHead;
+    }
+
+    /**
+     * @return a weakly consistent iterator over the elements in this list
+     */
+    public MappedExpirableList.Iterator<String> iterator() {
+        return iterator(IterationMode.WEAKLY_CONSISTENT);
+    }
+
+    /**
+     * Returns an iterator over the elements which are alive at the moment of the call.
+     *
+     * @param mode how the iterator sees the changes made during the iteration
+     * @return an iterator over the elements in this list
+     */
+    public synchronized MappedExpirableList.Iterator<String> iterator(IterationMode mode) {
+        expire(clock.millis());
+        if (mode == IterationMode.SNAPSHOT) {
+            Object[] copy = new Object[size];
+            int count = 0;
+            for (Itr i = new Itr(0); i.hasNext(); )
+                copy[count++] = i.next();
+            return new SnapshotIterator<String>(copy, count);
+        }
+        return new Itr(0);
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the alive elements which were added
+     * after the element with the specified sequence number. While nothing has been inserted
+     * into the middle of the list the start is found by a binary search.
+     *
+     * @param sequence the sequence number of the last seen element, 0 to start from the beginning
+     * @return an iterator over the elements in this list
+     */
+    public synchronized SequencedIterator<String> iteratorAfter(long sequence) {
+        return new Itr(sequence);
+    }
+
+    /**
+     * @return the sequence number given to the last added element, 0 if nothing has been added
+     */
+    public synchronized long lastSequence() {
+        return sequence;
+    }
+
+    /**
+     * Appends the specified element to the end of this list.
+     *
+     * @param element element to be appended to this list
+     */
+    public synchronized void add(String element) {
+        add(element, lifetime);
+    }
+
+    /**
+     * Appends the specified element to the end of this list with its own time of life.
+     * An element which expires earlier than the last one breaks the order of expiry times.
+     *
+     * @param element   element to be appended to this list
+     * @param ttlMillis the time of life of the element
+     * @throws IllegalArgumentException if the time of life is negative
+     */
+    public synchronized void add(String element, long ttlMillis) {
+        if (ttlMillis < 0)
+            throw new IllegalArgumentException("Time of life: " + ttlMillis);
+        long now = clock.millis();
+        expire(now);
+        addElement(size, element, now + ttlMillis);
+    }
+
+    /**
+     * Appends all elements of the collection to the end of this list.
+     * The batch costs one expiry pass, all elements get one timestamp.
+     *
+     * @param c the elements to be appended to this list
+     */
+    public synchronized void addAll(Collection<? extends String> c) {
+        addBatch(c.toArray(new String[c.size()]));
+    }
+
+    /**
+     * Appends all elements of the array to the end of this list.
+     * The batch costs one expiry pass, all elements get one timestamp.
+     *
+     * @param elements the elements to be appended to this list
+     */
+    public synchronized void addAll(String[] elements) {
+        addBatch(elements);
+    }
+
+    /**
+     * Appends the elements in one pass
+     *
+     * @param elements the elements to be appended
+     */
+    private void addBatch(String[] elements) {
+        long now = clock.millis();
+        expire(now);
+        ensureIndexCapacity(size + elements.length);
+        long expired = now + lifetime;
+        for (String element : elements)
+            addElement(size, element, expired);
+    }
+
+    /**
+     * Inserts the specified element at the specified position in this list.
+     * Shifts the element currently at that position(if any) and any subsequent
+     * elements to the right.
+     *
+     * @param index   index at which the specified element is to be inserted
+     * @param element element to be inserted
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public synchronized void add(int index, String element) {
+        long now = clock.millis();
+        expire(now);
+        addElement(index, element, now + lifetime);
+    }
+
+    /**
+     * Removes the element at the specified position in this list.
+     * Shifts any subsequent elements to the left.
+     * Returns the element that was removed from the list.
+     *
+     * @param index the index of the element to be removed
+     * @return the element previously at the specified position
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public synchronized String remove(int index) {
+        expire(clock.millis());
+        rangeCheck(index);
+        String oldValue = read(slot(index));
+        removeElement(index);
+        return oldValue;
+    }
+
+    /**
+     * Removes the first occurrence of the specified element from this list,
+     * if it is present. If this list does not contain the element, it is
+     * unchanged.
+     *
+     * @param o - element to be removed if present
+     */
+    public synchronized void remove(Object o) {
+        expire(clock.millis());
+        int index = indexOf(o);
+        if (index >= 0)
+            removeElement(index);
+    }
+
+    /**
+     * Returns true if this list contains the specified element.
+     * The element is encoded once and compared with the records byte by byte.
+     *
+     * @param o - element whose presence in this list is to be tested
+     */
+    public synchronized boolean contains(Object o) {
+        expire(clock.millis());
+        return indexOf(o) >= 0;
+    }
+
+    /**
+     * Returns the element at the specified position in this list.
+     *
+     * @param index - index of the element to return
+     */
+    public synchronized String get(int index) {
+        expire(clock.millis());
+        rangeCheck(index);
+        return read(slot(index));
+    }
+
+    /**
+     * Registers a listener of the elements which expire in this list. The listener gets them
+     * in batches on its own thread, so it does not slow the operations of the list down.
+     *
+     * @param listener the listener
+     * @param policy   what happens to the batches when the listener falls behind
+     */
+    public void addExpirationListener(ExpirationListener<String> listener, ListenerPolicy policy) {
+        expirations.add(listener, policy);
+    }
+
+    /**
+     * Unregisters the listener, the batches already queued for it are still delivered
+     *
+     * @param listener the listener
+     */
+    public void removeExpirationListener(ExpirationListener<String> listener) {
+        expirations.remove(listener);
+    }
+
+    /**
+     * Delete all expired elements. Called by the reaper thread.
+     */
+    public synchronized void sweep() {
+        if (log != null)
+            expire(clock.millis(), size);
+    }
+
+    /**
+     * Unmaps the log as far as the platform allows and deletes it if it is temporary.
+     * The list must not be used after that.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        if (log == null)
+            return;
+        log = null;
+        size = 0;
+        raf.close();
+        if (temporary)
+            file.delete();
+    }
+
+    class Itr implements SequencedIterator<String> {
+        // Number of the next element to check counted from the first element ever added
+        private long cursor;
+
+        // Sequence number and expiry time of the last returned element; sequence -1 if no such
+        private long lastSequence = -1;
+        private long lastExpiry;
+
+        // Elements which expired before this time are skipped
+        private final long cutoff = clock.millis();
+
+        // Elements with this or lower sequence number are skipped
+        private final long after;
+
+        /**
+         * @param after the sequence number of the last seen element
+         */
+        Itr(long after) {
+            this.after = after;
+            this.cursor = dropped + (appendOnly ? firstAfter(after) : 0);
+        }
+
+        /**
+         * Returns true if the iteration has more elements.
+         */
+        public boolean hasNext() {
+            synchronized (MappedExpirableList.this) {
+                int i = (int) Math.max(cursor - dropped, 0);
+                while (i < size && (expiries[slot(i)] < cutoff || sequences[slot(i)] <= after))
+                    i++;
+                cursor = dropped + i;
+                return i < size;
+            }
+        }
+
+        /**
+         * @return the sequence number of the last returned element
+         */
+        public long sequence() {
+            if (lastSequence < 0)
+                throw new IllegalStateException();
+            return lastSequence;
+        }
+
+        /**
+         * @return the expiry time of the last returned element
+         */
+        public long expiresAt() {
+            if (lastSequence < 0)
+                throw new IllegalStateException();
+            return lastExpiry;
+        }
+
+        /**
+         * Returns the next element in the iteration.
+         *
+         * @return the next element in the iteration
+         * @throws NoSuchElementException if the iteration has no more elements
+         */
+        public String next() {
+            synchronized (MappedExpirableList.this) {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                int s = slot((int) (cursor++ - dropped));
+                lastSequence = sequences[s];
+                lastExpiry = expiries[s];
+                return read(s);
+            }
+        }
+    }
+
+    /**
+     * Removes expired elements before an operation as the expiry policy says
+     *
+     * @param now the current timestamp
+     */
+    private void expire(long now) {
+        if (log == null)
+            throw new IllegalStateException("List is closed");
+        switch (policy.getMode()) {
+            case LAZY:
+                expire(now, size);
+                break;
+            case HYBRID:
+                expire(now, policy.getBudget());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Delete expired elements. While the list is ordered only the head pointer is moved
+     * for at most count elements, otherwise the index is compacted in one pass.
+     *
+     * @param now   the current timestamp
+     * @param count the number of elements which may be dropped from the head
+     */
+    private void expire(long now, int count) {
+        if (ordered) {
+            int mask = expiries.length - 1;
+            boolean listened = expirations.isListened();
+            ExpirationDispatcher.Batch<String> expired = null;
+            while (count-- > 0 && size > 0 && expiries[head] < now) {
+                if (listened)
+                    expired = expirations.collect(expired, read(head), expiries[head]);
+                head = (head + 1) & mask;
+                size--;
+                dropped++;
+            }
+            expirations.dispatch(expired);
+        } else {
+            compact(now);
+        }
+        if (size == 0)
+            logHead = logTail;
+    }
+
+    /**
+     * Removes expired elements from any position of the index in one pass and checks whether
+     * the remaining ones are ordered again.
+     *
+     * @param now the current timestamp
+     */
+    private void compact(long now) {
+        int kept = 0;
+        long last = Long.MIN_VALUE;
+        boolean sorted = true;
+        boolean listened = expirations.isListened();
+        ExpirationDispatcher.Batch<String> batch = null;
+        for (int i = 0; i < size; i++) {
+            int s = slot(i);
+            long expired = expiries[s];
+            if (expired < now) {
+                if (listened)
+                    batch = expirations.collect(batch, read(s), expired);
+                continue;
+            }
+            if (expired < last)
+                sorted = false;
+            last = expired;
+            copySlot(s, slot(kept++));
+        }
+        size = kept;
+        ordered = sorted;
+        expirations.dispatch(batch);
+    }
+
+    /**
+     * Writes the element to the log and inserts it into the index at the specified position,
+     * moving the shorter side of the index.
+     *
+     * @param index   index at which the specified element is to be inserted
+     * @param element element to be inserted
+     * @param expired the last timestamp when the element is alive
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    private void addElement(int index, String element, long expired) {
+        rangeCheckForAdd(index);
+        byte[] bytes = element == null ? null : element.getBytes(StandardCharsets.UTF_8);
+        long position = logTail;
+        if (bytes != null)
+            position = write(bytes);
+        ensureIndexCapacity(size + 1);
+        int mask = expiries.length - 1;
+        if (index < size >> 1) {
+            head = (head - 1) & mask;
+            dropped--;
+            for (int i = 0; i < index; i++)
+                copySlot((head + i + 1) & mask, (head + i) & mask);
+        } else {
+            for (int i = size; i > index; i--)
+                copySlot((head + i - 1) & mask, (head + i) & mask);
+        }
+        int s = (head + index) & mask;
+        positions[s] = position;
+        lengths[s] = bytes == null ? -1 : bytes.length;
+        expiries[s] = expired;
+        sequences[s] = ++sequence;
+        size++;
+        if (index < size - 1)
+            appendOnly = false;
+        if (ordered && ((index > 0 && expiries[(s - 1) & mask] > expired)
+                || (index < size - 1 && expiries[(s + 1) & mask] < expired)))
+            ordered = false;
+    }
+
+    /**
+     * Removes the element at the specified position from the index, moving the shorter side.
+     * Its record stays in the log until the head of the log passes it.
+     *
+     * @param index the index of the element to be removed
+     */
+    private void removeElement(int index) {
+        int mask = expiries.length - 1;
+        if (index < size >> 1) {
+            for (int i = index; i > 0; i--)
+                copySlot((head + i - 1) & mask, (head + i) & mask);
+            head = (head + 1) & mask;
+            dropped++;
+        } else {
+            for (int i = index; i < size - 1; i++)
+                copySlot((head + i + 1) & mask, (head + i) & mask);
+        }
+        size--;
+        if (size == 0)
+            logHead = logTail;
+    }
+
+    /**
+     * @param after the sequence number of the last seen element
+     * @return the index of the first element with a greater sequence number
+     */
+    private int firstAfter(long after) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sequences[slot(mid)] <= after)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * @param o the element to look for
+     * @return the index of the first occurrence of the element or -1
+     */
+    private int indexOf(Object o) {
+        if (o == null) {
+            for (int i = 0; i < size; i++)
+                if (lengths[slot(i)] < 0)
+                    return i;
+        } else if (o instanceof String) {
+            byte[] bytes = ((String) o).getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < size; i++)
+                if (lengths[slot(i)] == bytes.length && matches(positions[slot(i)], bytes))
+                    return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @param position the position of the record in the log
+     * @param bytes    the bytes to compare with, of the same length as the record
+     * @return true if the record is equal to the bytes
+     */
+    private boolean matches(long position, byte[] bytes) {
+        int offset = (int) (position % capacity);
+        for (byte b : bytes) {
+            if (log.get(offset) != b)
+                return false;
+            if (++offset == capacity)
+                offset = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the record of the element
+     *
+     * @param s the slot of the element in the index
+     * @return the element
+     */
+    private String read(int s) {
+        int length = lengths[s];
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        int offset = (int) (positions[s] % capacity);
+        int first = Math.min(length, capacity - offset);
+        log.position(offset);
+        log.get(bytes, 0, first);
+        if (first < length) {
+            log.position(0);
+            log.get(bytes, first, length - first);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends the record to the log, wrapping around its end
+     *
+     * @param bytes the encoded element
+     * @return the position of the record
+     */
+    private long write(byte[] bytes) {
+        reserve(bytes.length);
+        long position = logTail;
+        int offset = (int) (position % capacity);
+        int first = Math.min(bytes.length, capacity - offset);
+        log.position(offset);
+        log.put(bytes, 0, first);
+        if (first < bytes.length) {
+            log.position(0);
+            log.put(bytes, first, bytes.length - first);
+        }
+        logTail += bytes.length;
+        return position;
+    }
+
+    /**
+     * Makes room for a record. First the head of the log is moved to the oldest record
+     * which is still in the index, and only if that is not enough the log grows.
+     *
+     * @param length the length of the record
+     */
+    private void reserve(int length) {
+        if (logTail + length - logHead <= capacity)
+            return;
+        long oldest = logTail;
+        for (int i = 0; i < size; i++) {
+            int s = slot(i);
+            if (lengths[s] > 0 && positions[s] < oldest)
+                oldest = positions[s];
+        }
+        logHead = oldest;
+        if (logTail + length - logHead > capacity)
+            grow(logTail + length - logHead);
+    }
+
+    /**
+     * Maps a larger log. The records which wrapped around the end of the old mapping
+     * are moved behind it, so the alive records lie in one run and keep their offsets.
+     *
+     * @param minCapacity the number of bytes the log has to hold
+     */
+    private void grow(long minCapacity) {
+        long newCapacity = (long) capacity << 1;
+        while (newCapacity < minCapacity)
+            newCapacity <<= 1;
+        if (newCapacity > MAX_CAPACITY)
+            throw new IllegalStateException("Log is full: " + minCapacity + " bytes");
+        int oldCapacity = capacity;
+        int offset = (int) (logHead % oldCapacity);
+        int wrapped = (int) Math.max(0, offset + (logTail - logHead) - oldCapacity);
+        try {
+            map((int) newCapacity);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] chunk = new byte[8192];
+        for (int done = 0; done < wrapped; ) {
+            int n = Math.min(chunk.length, wrapped - done);
+            log.position(done);
+            log.get(chunk, 0, n);
+            log.position(oldCapacity + done);
+            log.put(chunk, 0, n);
+            done += n;
+        }
+        for (int i = 0; i < size; i++) {
+            int s = slot(i);
+            if (lengths[s] >= 0 && positions[s] >= logHead)
+                positions[s] = offset + (positions[s] - logHead);
+        }
+        logTail = offset + (logTail - logHead);
+        logHead = offset;
+    }
+
+    /**
+     * Maps the first bytes of the file
+     *
+     * @param newCapacity the size of the mapping
+     * @throws IOException if the file cannot be mapped
+     */
+    private void map(int newCapacity) throws IOException {
+        if (raf.length() < newCapacity)
+            raf.setLength(newCapacity);
+        log = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
+        capacity = newCapacity;
+    }
+
+    /**
+     * Copies an entry of the index to another slot
+     */
+    private void copySlot(int from, int to) {
+        positions[to] = positions[from];
+        lengths[to] = lengths[from];
+        expiries[to] = expiries[from];
+        sequences[to] = sequences[from];
+    }
+
+    /**
+     * @param index the position in the list
+     * @return the slot in the index arrays
+     */
+    private int slot(int index) {
+        return (head + index) & (expiries.length - 1);
+    }
+
+    /**
+     * Reserve memory for the index, the entries are unrolled to start at 0
+     *
+     * @param minCapacity - the number of elements
+     */
+    private void ensureIndexCapacity(int minCapacity) {
+        int oldCapacity = expiries.length;
+        if (minCapacity > oldCapacity) {
+            int newCapacity = oldCapacity << 1;
+            while (newCapacity < minCapacity)
+                newCapacity <<= 1;
+            positions = unroll(positions, newCapacity);
+            lengths = unroll(lengths, newCapacity);
+            expiries = unroll(expiries, newCapacity);
+            sequences = unroll(sequences, newCapacity);
+            head = 0;
+        }
+    }
+
+    private long[] unroll(long[] data, int newCapacity) {
+        long[] newData = new long[newCapacity];
+        int firstPart = Math.min(size, data.length - head);
+        System.arraycopy(data, head, newData, 0, firstPart);
+        System.arraycopy(data, 0, newData, firstPart, size - firstPart);
+        return newData;
+    }
+
+    private int[] unroll(int[] data, int newCapacity) {
+        int[] newData = new int[newCapacity];
+        int firstPart = Math.min(size, data.length - head);
+        System.arraycopy(data, head, newData, 0, firstPart);
+        System.arraycopy(data, 0, newData, firstPart, size - firstPart);
+        return newData;
+    }
+
+    /**
+     * Throws exception if position index is not in list
+     * @param index
+     */
+    private void rangeCheck(int index) {
+        if (index >= size || index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    private void rangeCheckForAdd(int index) {
+        if (index > size || index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+}
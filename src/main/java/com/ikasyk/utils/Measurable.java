@@ -0,0 +1,13 @@
+package com.ikasyk.utils;
+
+/**
+ * Store which knows how much memory its elements take.
+ */
+public interface Measurable {
+
+    /**
+     * @return the estimated number of bytes taken by the elements, including the expired ones
+     * which are not removed yet
+     */
+    long usedBytes();
+}
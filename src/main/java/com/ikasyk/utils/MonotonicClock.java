@@ -0,0 +1,33 @@
+package com.ikasyk.utils;
+
+/**
+ * Clock based on System.nanoTime.
+ *
+ * It starts at the wall-clock time of its creation and then only moves forward,
+ * so corrections of the system time never make elements expire too early or live too long.
+ */
+public class MonotonicClock implements Clock {
+
+    /**
+     * The clock shared by all lists which are created without their own clock
+     */
+    public static final MonotonicClock INSTANCE = new MonotonicClock();
+
+    // Wall-clock time of the creation
+    private final long originMillis;
+
+    // Value of System.nanoTime at the creation
+    private final long originNanos;
+
+    public MonotonicClock() {
+        this.originMillis = System.currentTimeMillis();
+        this.originNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the current time in milliseconds
+     */
+    public long millis() {
+        return originMillis + (System.nanoTime() - originNanos) / 1000000L;
+    }
+}
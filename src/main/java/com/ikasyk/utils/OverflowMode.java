@@ -0,0 +1,23 @@
+package com.ikasyk.utils;
+
+/**
+ * Defines what an add does when a bounded list is full.
+ */
+public enum OverflowMode {
+
+    /**
+     * The oldest elements are removed until the new ones fit
+     */
+    DROP_OLDEST,
+
+    /**
+     * The add fails at once with CapacityExceededException
+     */
+    REJECT,
+
+    /**
+     * The add waits until removals or expiry make room, and fails with
+     * CapacityExceededException when the timeout is over
+     */
+    BLOCK
+}
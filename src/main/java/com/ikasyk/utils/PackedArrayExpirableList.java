@@ -0,0 +1,482 @@
+package com.ikasyk.utils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+/**
+ * Implementation of ExpirableList on two parallel arrays.
+ *
+ * Works like ArrayExpirableList, but instead of an array of ExpirableInspector.Element wrappers
+ * the expiry times are kept in a primitive long[] and the elements in an Object[] with the same
+ * indexes. No wrapper is allocated on add, and the expiry scan runs over contiguous longs
+ * without following a pointer per element; the element array is touched only to move the alive ones.
+ */
+public class PackedArrayExpirableList<T> implements ExpirableList<T>, Sweepable {
+
+    // Life time
+    private long lifetime;
+
+    // Counter of elements
+    private int size;
+
+    // Last timestamp when the element with the same index is alive
+    private long[] expiries;
+
+    // Array of elements to store
+    private Object[] elementData;
+
+    // When expired elements are removed
+    private ExpiryPolicy policy;
+
+    // Source of the current time
+    private Clock clock;
+
+    // Receives the expired elements
+    private ExpirationDispatcher<T> expirations = new ExpirationDispatcher<T>();
+
+    /**
+     * Constructor sets the time of life
+     *
+     * @param l the time of life
+     */
+    public PackedArrayExpirableList(long l) {
+        this(l, ExpiryPolicy.lazy());
+    }
+
+    /**
+     * Constructor sets the time of life and the expiry policy.
+     * With eager or hybrid expiry the list is swept by the shared reaper thread,
+     * so all operations are guarded by the monitor of the list.
+     *
+     * @param l      the time of life
+     * @param policy the expiry policy
+     */
+    public PackedArrayExpirableList(long l, ExpiryPolicy policy) {
+        this(l, policy, MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Constructor sets the time of life, the expiry policy and the source of time
+     *
+     * @param l      the time of life
+     * @param policy the expiry policy
+     * @param clock  the clock to check expiry against
+     */
+    public PackedArrayExpirableList(long l, ExpiryPolicy policy, Clock clock) {
+        this.lifetime = l;
+        this.policy = policy;
+        this.clock = clock;
+        expiries = new long[10];
+        elementData = new Object[10];
+        size = 0;
+        policy.schedule(this);
+    }
+
+    /**
+     * Constructor sets the time of life = 60000 default
+     */
+    public PackedArrayExpirableList() {
+        this(60000);
+    }
+
+    /**
+     * Counts the alive elements, the expired ones which no sweep has removed yet are left out
+     *
+     * @return the number of elements in this list
+     */
+    public synchronized int size() {
+        long now = clock.millis();
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (now <= expiries[i])
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return true if this list contains no alive elements
+     */
+    public synchronized boolean isEmpty() {
+        long now = clock.millis();
+        for (int i = 0; i < size; i++) {
+            if (now <= expiries[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return a weakly consistent iterator over the elements in this list
+     */
+    public PackedArrayExpirableList.Iterator<T> iterator() {
+        return iterator(IterationMode.WEAKLY_CONSISTENT);
+    }
+
+    /**
+     * Returns an iterator over the elements which are alive at the moment of the call.
+     *
+     * @param mode how the iterator sees the changes made during the iteration
+     * @return an iterator over the elements in this list
+     */
+    public synchronized PackedArrayExpirableList.Iterator<T> iterator(IterationMode mode) {
+        expire();
+        if (mode == IterationMode.SNAPSHOT) {
+            long now = clock.millis();
+            Object[] copy = new Object[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (now <= expiries[i])
+                    copy[count++] = elementData[i];
+            }
+            return new SnapshotIterator<T>(copy, count);
+        }
+        return new Itr();
+    }
+
+    /**
+     * Appends the specified element to the end of this list.
+     *
+     * @param element element to be appended to this list
+     */
+    public synchronized void add(T element) {
+        add(element, lifetime);
+    }
+
+    /**
+     * Appends the specified element to the end of this list with its own time of life.
+     *
+     * @param element   element to be appended to this list
+     * @param ttlMillis the time of life of the element
+     * @throws IllegalArgumentException if the time of life is negative
+     */
+    public synchronized void add(T element, long ttlMillis) {
+        if (ttlMillis < 0)
+            throw new IllegalArgumentException("Time of life: " + ttlMillis);
+        expire();
+        addElement(size, element, clock.millis() + ttlMillis);
+    }
+
+    /**
+     * Appends all elements of the collection to the end of this list.
+     * The batch costs one expiry pass and one growth of the arrays, all elements get one timestamp.
+     *
+     * @param c the elements to be appended to this list
+     */
+    public synchronized void addAll(Collection<? extends T> c) {
+        addBatch(c.toArray());
+    }
+
+    /**
+     * Appends all elements of the array to the end of this list.
+     * The batch costs one expiry pass and one growth of the arrays, all elements get one timestamp.
+     *
+     * @param elements the elements to be appended to this list
+     */
+    public synchronized void addAll(T[] elements) {
+        addBatch(elements);
+    }
+
+    /**
+     * Appends the elements in one pass
+     *
+     * @param elements the elements to be appended, they are of type T
+     */
+    private void addBatch(Object[] elements) {
+        expire();
+        ensureCapacity(size + elements.length);
+        long expired = clock.millis() + lifetime;
+        Arrays.fill(expiries, size, size + elements.length, expired);
+        System.arraycopy(elements, 0, elementData, size, elements.length);
+        size += elements.length;
+    }
+
+    /**
+     * Inserts the specified element at the specified position in this list.
+     * Shifts the element currently at that position(if any) and any subsequent
+     * elements to the right.
+     *
+     * @param index   index at which the specified element is to be inserted
+     * @param element element to be inserted
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public synchronized void add(int index, T element) {
+        expire();
+        long now = clock.millis();
+        addElement(position(index, now), element, now + lifetime);
+    }
+
+    /**
+     * Removes the element at the specified position in this list.
+     * Shifts any subsequent elements to the left.
+     * Returns the element that was removed from the list.
+     *
+     * @param index the index of the element to be removed
+     * @return the element previously at the specified position
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public synchronized T remove(int index) {
+        expire();
+        int i = position(index, clock.millis());
+        rangeCheck(i);
+        return removeElement(i);
+    }
+
+    /**
+     * Removes the first occurrence of the specified element from this list,
+     * if it is present. If this list does not contain the element, it is
+     * unchanged.
+     *
+     * @param o - element to be removed if present
+     */
+    public synchronized void remove(Object o) {
+        expire();
+        int index = indexOf(o, clock.millis());
+        if (index >= 0)
+            removeElement(index);
+    }
+
+    /**
+     * Returns true if this list contains the specified element.
+     *
+     * @param o - element whose presence in this list is to be tested
+     */
+    public synchronized boolean contains(Object o) {
+        expire();
+        return indexOf(o, clock.millis()) >= 0;
+    }
+
+    /**
+     * Returns the element at the specified position in this list.
+     *
+     * @param index - index of the element to return
+     */
+    public synchronized T get(int index) {
+        expire();
+        int i = position(index, clock.millis());
+        rangeCheck(i);
+        return (T) elementData[i];
+    }
+
+    class Itr implements Iterator<T> {
+        // Index of the next element to return
+        private int cursor;
+
+        // Elements which expired before this time are skipped
+        private final long cutoff;
+
+        /**
+         * Reset start cursor to 0 and fix the expiry cutoff
+         */
+        public Itr() {
+            this.cutoff = clock.millis();
+        }
+
+        /**
+         * Returns true if the iteration has more elements.
+         */
+        public boolean hasNext() {
+            synchronized (PackedArrayExpirableList.this) {
+                while (cursor < size && expiries[cursor] < cutoff)
+                    cursor++;
+                return cursor < size;
+            }
+        }
+
+        /**
+         * Returns the next element in the iteration.
+         *
+         * @return the next element in the iteration
+         * @throws NoSuchElementException if the iteration has no more elements
+         */
+        public T next() {
+            synchronized (PackedArrayExpirableList.this) {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return (T) elementData[cursor++];
+            }
+        }
+    }
+
+    /**
+     * Registers a listener of the elements which expire in this list. The listener gets them
+     * in batches on its own thread, so it does not slow the operations of the list down.
+     *
+     * @param listener the listener
+     * @param policy   what happens to the batches when the listener falls behind
+     */
+    public void addExpirationListener(ExpirationListener<T> listener, ListenerPolicy policy) {
+        expirations.add(listener, policy);
+    }
+
+    /**
+     * Unregisters the listener, the batches already queued for it are still delivered
+     *
+     * @param listener the listener
+     */
+    public void removeExpirationListener(ExpirationListener<T> listener) {
+        expirations.remove(listener);
+    }
+
+    /**
+     * Delete all expired elements. Called by the reaper thread.
+     */
+    public synchronized void sweep() {
+        rebuild(size);
+    }
+
+    /**
+     * Removes expired elements before an operation as the expiry policy says
+     */
+    private void expire() {
+        switch (policy.getMode()) {
+            case LAZY:
+                rebuild(size);
+                break;
+            case HYBRID:
+                rebuild(Math.min(size, policy.getBudget()));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Delete expired elements among the first count ones and rebuild list.
+     * The scan reads only the expiry times, the alive elements are moved in the same pass.
+     *
+     * @param count the number of elements to be checked
+     */
+    private void rebuild(int count) {
+        long now = clock.millis();
+        int i = 0;
+        while (i < count && now <= expiries[i])
+            i++;
+        if (i == count)
+            return;
+        int kept = i;
+        ExpirationDispatcher.Batch<T> batch = expirations.collect(null, (T) elementData[i], expiries[i]);
+        for (i++; i < count; i++) {
+            long expired = expiries[i];
+            if (now <= expired) {
+                expiries[kept] = expired;
+                elementData[kept++] = elementData[i];
+            } else if (batch != null) {
+                batch.add((T) elementData[i], expired);
+            }
+        }
+        System.arraycopy(expiries, count, expiries, kept, size - count);
+        System.arraycopy(elementData, count, elementData, kept, size - count);
+        int newSize = size - (count - kept);
+        Arrays.fill(elementData, newSize, size, null);
+        size = newSize;
+        expirations.dispatch(batch);
+    }
+
+    /**
+     * Inserts the specified element at the specified position in this list.
+     *
+     * @param index   index at which the specified element is to be inserted
+     * @param element element to be inserted
+     * @param expired the last timestamp when the element is alive
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    private void addElement(int index, T element, long expired) {
+        rangeCheckForAdd(index);
+        ensureCapacity(size + 1);
+        int numMoved = size - index;
+        if (numMoved > 0) {
+            System.arraycopy(expiries, index, expiries, index + 1, numMoved);
+            System.arraycopy(elementData, index, elementData, index + 1, numMoved);
+        }
+        expiries[index] = expired;
+        elementData[index] = element;
+        size++;
+    }
+
+    /**
+     * Removes the element at the specified position in this list.
+     * Shifts any subsequent elements to the left.
+     *
+     * @param index the index of the element to be removed
+     * @return the element previously at the specified position
+     */
+    private T removeElement(int index) {
+        T oldValue = (T) elementData[index];
+        int numMoved = size - index - 1;
+        if (numMoved > 0) {
+            System.arraycopy(expiries, index + 1, expiries, index, numMoved);
+            System.arraycopy(elementData, index + 1, elementData, index, numMoved);
+        }
+        elementData[--size] = null;
+        return oldValue;
+    }
+
+    /**
+     * Expired elements which no sweep has removed yet are skipped
+     *
+     * @param o   the element to look for
+     * @param now the current timestamp
+     * @return the index of the first alive occurrence of the element or -1
+     */
+    private int indexOf(Object o, long now) {
+        for (int index = 0; index < size; index++) {
+            if ((o == null ? elementData[index] == null : o.equals(elementData[index])) && now <= expiries[index])
+                return index;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the position of an alive element, the expired ones which no sweep has removed yet
+     * are skipped.
+     *
+     * @param index the index among the alive elements
+     * @param now   the current timestamp
+     * @return the position in the arrays, or size if the list has exactly index alive elements
+     * @throws IndexOutOfBoundsException if the list has fewer alive elements
+     */
+    private int position(int index, long now) {
+        if (index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index);
+        int alive = 0;
+        for (int i = 0; i < size; i++) {
+            if (now <= expiries[i] && alive++ == index)
+                return i;
+        }
+        if (alive == index)
+            return size;
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + alive);
+    }
+
+    /**
+     * Reserve memory for both arrays
+     *
+     * @param minCapacity - the length of elements
+     */
+    private void ensureCapacity(int minCapacity) {
+        int oldCapacity = elementData.length;
+        if (minCapacity > oldCapacity) {
+            int newCapacity = (oldCapacity * 3) / 2 + 1;
+            if (newCapacity < minCapacity)
+                newCapacity = minCapacity;
+            expiries = Arrays.copyOf(expiries, newCapacity);
+            elementData = Arrays.copyOf(elementData, newCapacity);
+        }
+    }
+
+    /**
+     * Throws exception if position index is not in list
+     * @param index
+     */
+    private void rangeCheck(int index) {
+        if (index >= size || index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    private void rangeCheckForAdd(int index) {
+        if (index > size || index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+}
@@ -0,0 +1,312 @@
+package com.ikasyk.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * List of strings which survives restarts: every added element is also written to an ExpirableLog.
+ *
+ * At construction the alive records of the log are added to the wrapped list. An add returns after
+ * its record is on disk, concurrent adds share one force of the log. Every snapshot interval the
+ * alive elements of the list are written to a snapshot, which lets the next start skip the older
+ * segments, and the segments which have expired are deleted.
+ *
+ * The log is append-only, so the operations which would change the order of the elements
+ * or remove them are not supported. An element is logged after the list has taken it, so the
+ * elements a bounded list refuses are not logged; if the list refuses the records of the log
+ * at a start, they and the ones after them are skipped.
+ */
+public class PersistentExpirableList implements SequencedExpirableList<String>, Sweepable, Closeable, Measurable, Instrumented, Versioned {
+
+    // The list which holds the elements in memory
+    private final SequencedExpirableList<String> list;
+
+    // Life time
+    private final long lifetime;
+
+    // Log of the added elements, its monitor orders the adds to the list and to the log
+    private final ExpirableLog log;
+
+    // Source of the current time
+    private final Clock clock;
+
+    // Counters returned when the list does not keep its own, they stay zero
+    private final ListMetrics none = new ListMetrics();
+
+    /**
+     * Opens the log and replays it into the list
+     *
+     * @param list             the empty list which holds the elements
+     * @param l                the time of life
+     * @param dir              the directory of the log
+     * @param snapshotInterval the interval between snapshots in milliseconds
+     * @throws IOException if the log cannot be opened
+     */
+    public PersistentExpirableList(SequencedExpirableList<String> list, long l, File dir, long snapshotInterval) throws IOException {
+        this(list, l, dir, snapshotInterval, MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Opens the log and replays it into the list
+     *
+     * @param list             the empty list which holds the elements
+     * @param l                the time of life
+     * @param dir              the directory of the log
+     * @param snapshotInterval the interval between snapshots in milliseconds
+     * @param clock            the clock the list uses
+     * @throws IllegalArgumentException if the interval is not positive
+     * @throws IOException              if the log cannot be opened
+     */
+    public PersistentExpirableList(final SequencedExpirableList<String> list, long l, File dir, long snapshotInterval,
+                                   final Clock clock) throws IOException {
+        if (snapshotInterval <= 0)
+            throw new IllegalArgumentException("Snapshot interval: " + snapshotInterval);
+        this.list = list;
+        this.lifetime = l;
+        this.clock = clock;
+        this.log = new ExpirableLog(dir, 1 << 26, clock, new ExpirableLog.Visitor() {
+            // True once the list has refused a record
+            private boolean full;
+
+            public void record(long expiresAt, String payload) {
+                if (full)
+                    return;
+                try {
+                    list.add(payload, Math.max(0, expiresAt - clock.millis()));
+                } catch (CapacityExceededException e) {
+                    full = true;
+                }
+            }
+        });
+        ExpirableReaper.register(this, snapshotInterval);
+    }
+
+    /**
+     * @return the estimated number of bytes taken by the elements in memory, 0 if the list does not know it
+     */
+    public long usedBytes() {
+        return list instanceof Measurable ? ((Measurable) list).usedBytes() : 0;
+    }
+
+    /**
+     * @return the version of the list which holds the elements, -1 if it does not count its changes
+     */
+    public long version() {
+        return list instanceof Versioned ? ((Versioned) list).version() : -1;
+    }
+
+    /**
+     * @return the counters of the list which holds the elements, zero ones if it does not keep them
+     */
+    public ListMetrics metrics() {
+        return list instanceof Instrumented ? ((Instrumented) list).metrics() : none;
+    }
+
+    /**
+     * @return the number of elements in this list
+     */
+    public int size() {
+        return list.size();
+    }
+
+    /**
+     * @return true if this list contains no elements
+     */
+    public boolean isEmpty() {
+        return list.isEmpty();
+    }
+
+    /**
+     * @return a weakly consistent iterator over the elements in this list
+     */
+    public Iterator<String> iterator() {
+        return list.iterator();
+    }
+
+    /**
+     * @param mode how the iterator sees the changes made during the iteration
+     * @return an iterator over the elements in this list
+     */
+    public Iterator<String> iterator(IterationMode mode) {
+        return list.iterator(mode);
+    }
+
+    /**
+     * @param sequence the sequence number of the last seen element, 0 to start from the beginning
+     * @return an iterator over the elements in this list
+     */
+    public SequencedIterator<String> iteratorAfter(long sequence) {
+        return list.iteratorAfter(sequence);
+    }
+
+    /**
+     * @return the sequence number given to the last added element, 0 if nothing has been added
+     */
+    public long lastSequence() {
+        return list.lastSequence();
+    }
+
+    /**
+     * Appends the specified element to the end of this list and waits until it is on disk.
+     *
+     * @param element element to be appended to this list
+     */
+    public void add(String element) {
+        add(element, lifetime);
+    }
+
+    /**
+     * Appends the specified element to the end of this list with its own time of life
+     * and waits until it is on disk.
+     *
+     * @param element   element to be appended to this list
+     * @param ttlMillis the time of life of the element
+     * @throws IllegalArgumentException  if the time of life is negative or the element does not fit into the log
+     * @throws CapacityExceededException if the list is full
+     */
+    public void add(String element, long ttlMillis) {
+        if (ttlMillis < 0)
+            throw new IllegalArgumentException("Time of life: " + ttlMillis);
+        checkRecord(element);
+        long ticket;
+        synchronized (log) {
+            list.add(element, ttlMillis);
+            ticket = log.append(clock.millis() + ttlMillis, element);
+        }
+        log.commit(ticket);
+    }
+
+    /**
+     * Appends all elements of the collection and waits until they are on disk
+     *
+     * @param c the elements to be appended to this list
+     */
+    public void addAll(Collection<? extends String> c) {
+        addAll(c.toArray(new String[c.size()]));
+    }
+
+    /**
+     * Appends all elements of the array and waits until they are on disk
+     *
+     * @param elements the elements to be appended to this list
+     * @throws IllegalArgumentException  if an element does not fit into the log
+     * @throws CapacityExceededException if the list is full
+     */
+    public void addAll(String[] elements) {
+        if (elements.length == 0)
+            return;
+        for (String element : elements)
+            checkRecord(element);
+        long ticket = 0;
+        synchronized (log) {
+            list.addAll(elements);
+            long expired = clock.millis() + lifetime;
+            for (String element : elements)
+                ticket = log.append(expired, element);
+        }
+        log.commit(ticket);
+    }
+
+    /**
+     * Fails before the list is changed if the log cannot take the element
+     *
+     * @param element the element
+     * @throws IllegalArgumentException if the element does not fit into a segment of the log
+     */
+    private void checkRecord(String element) {
+        if (!log.fits(element))
+            throw new IllegalArgumentException("Record: " + element.length() + " chars");
+    }
+
+    /**
+     * Not supported, the log keeps the order of adds
+     *
+     * @throws UnsupportedOperationException always
+     */
+    public void add(int index, String element) {
+        throw new UnsupportedOperationException("The log is append-only");
+    }
+
+    /**
+     * Not supported, the log keeps the order of adds
+     *
+     * @throws UnsupportedOperationException always
+     */
+    public String remove(int index) {
+        throw new UnsupportedOperationException("The log is append-only");
+    }
+
+    /**
+     * Not supported, the log keeps the order of adds
+     *
+     * @throws UnsupportedOperationException always
+     */
+    public void remove(Object o) {
+        throw new UnsupportedOperationException("The log is append-only");
+    }
+
+    /**
+     * @param o - element whose presence in this list is to be tested
+     * @return true if this list contains the specified element
+     */
+    public boolean contains(Object o) {
+        return list.contains(o);
+    }
+
+    /**
+     * @param index - index of the element to return
+     * @return the element at the specified position in this list
+     */
+    public String get(int index) {
+        return list.get(index);
+    }
+
+    /**
+     * Registers a listener of the elements which expire in the wrapped list
+     *
+     * @param listener the listener
+     * @param policy   what happens to the batches when the listener falls behind
+     */
+    public void addExpirationListener(ExpirationListener<String> listener, ListenerPolicy policy) {
+        list.addExpirationListener(listener, policy);
+    }
+
+    /**
+     * Unregisters the listener, the batches already queued for it are still delivered
+     *
+     * @param listener the listener
+     */
+    public void removeExpirationListener(ExpirationListener<String> listener) {
+        list.removeExpirationListener(listener);
+    }
+
+    /**
+     * Writes a snapshot and deletes the segments of the log which are no longer needed.
+     * Called by the reaper thread every snapshot interval.
+     */
+    public void sweep() {
+        ExpirableLog.Mark mark;
+        long last;
+        synchronized (log) {
+            mark = log.mark();
+            last = list.lastSequence();
+        }
+        try {
+            log.snapshot(mark, list.iteratorAfter(0), last);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        log.sweep();
+    }
+
+    /**
+     * Closes the log, the list keeps its elements in memory
+     *
+     * @throws IOException if the log cannot be closed
+     */
+    public void close() throws IOException {
+        log.close();
+    }
+}
@@ -0,0 +1,451 @@
+package com.ikasyk.utils;
+
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+/**
+ * Implementation of ExpirableList on a circular array.
+ *
+ * While all elements share one lifetime, appended elements expire in the order they were added:
+ * the expired elements are always a prefix of the list and they are dropped by moving the head
+ * pointer, which makes add and expiry O(1) amortized, while get(index) stays O(1).
+ * If an element is inserted into the middle of the list or has its own time of life which ends
+ * earlier than the one of the last element, expiry times are no longer sorted and
+ * the list falls back to a single compacting pass until the order is restored. The pass runs only
+ * once the earliest expiry time in the list is over, so the operations between stay O(1).
+ */
+public class RingBufferExpirableList<T> implements ExpirableList<T> {
+
+    // Life time
+    private long lifetime;
+
+    // Source of the current time
+    private Clock clock;
+
+    // Receives the expired elements
+    private ExpirationDispatcher<T> expirations = new ExpirationDispatcher<T>();
+
+    // Counter of elements
+    private int size;
+
+    // Index of the first element in elementData
+    private int head;
+
+    // True while the expiry times of the elements go in non-decreasing order
+    private boolean ordered = true;
+
+    // The earliest expiry time while the list is not ordered, it may stay lower after a removal
+    private long earliest = Long.MAX_VALUE;
+
+    // Circular array of elements to store, its length is always a power of two
+    private ExpirableInspector.Element<T>[] elementData;
+
+    /**
+     * Constructor sets the time of life
+     *
+     * @param l the time of life
+     */
+    public RingBufferExpirableList(long l) {
+        this(l, MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Constructor sets the time of life and the source of time
+     *
+     * @param l     the time of life
+     * @param clock the clock to check expiry against
+     */
+    public RingBufferExpirableList(long l, Clock clock) {
+        this.lifetime = l;
+        this.clock = clock;
+        elementData = new ExpirableInspector.Element[16];
+        size = 0;
+    }
+
+    /**
+     * Constructor sets the time of life = 60000 default
+     */
+    public RingBufferExpirableList() {
+        this(60000);
+    }
+
+    /**
+     * @return the number of elements in this list
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if this list contains no elements
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return a weakly consistent iterator over the elements in this list
+     */
+    public RingBufferExpirableList.Iterator<T> iterator() {
+        return new Itr();
+    }
+
+    /**
+     * Returns an iterator over the elements which are alive at the moment of the call.
+     *
+     * @param mode how the iterator sees the changes made during the iteration
+     * @return an iterator over the elements in this list
+     */
+    public RingBufferExpirableList.Iterator<T> iterator(IterationMode mode) {
+        if (mode == IterationMode.SNAPSHOT) {
+            expire(clock.millis());
+            Object[] copy = new Object[size];
+            for (int i = 0; i < size; i++)
+                copy[i] = elementData[slot(i)].get();
+            return new SnapshotIterator<T>(copy, size);
+        }
+        return new Itr();
+    }
+
+    /**
+     * Appends the specified element to the end of this list.
+     *
+     * @param element element to be appended to this list
+     */
+    public void add(T element) {
+        add(element, lifetime);
+    }
+
+    /**
+     * Appends the specified element to the end of this list with its own time of life.
+     * An element which expires earlier than the last one breaks the order of expiry times.
+     *
+     * @param element   element to be appended to this list
+     * @param ttlMillis the time of life of the element
+     * @throws IllegalArgumentException if the time of life is negative
+     */
+    public void add(T element, long ttlMillis) {
+        if (ttlMillis < 0)
+            throw new IllegalArgumentException("Time of life: " + ttlMillis);
+        long now = clock.millis();
+        expire(now);
+        addElement(size, new ExpirableInspector.Element<T>(element, now + ttlMillis));
+    }
+
+    /**
+     * Appends all elements of the collection to the end of this list.
+     * The batch costs one expiry pass and one growth of the array, all elements get one timestamp.
+     *
+     * @param c the elements to be appended to this list
+     */
+    public void addAll(Collection<? extends T> c) {
+        addBatch(c.toArray());
+    }
+
+    /**
+     * Appends all elements of the array to the end of this list.
+     * The batch costs one expiry pass and one growth of the array, all elements get one timestamp.
+     *
+     * @param elements the elements to be appended to this list
+     */
+    public void addAll(T[] elements) {
+        addBatch(elements);
+    }
+
+    /**
+     * Appends the elements in one pass
+     *
+     * @param elements the elements to be appended, they are of type T
+     */
+    private void addBatch(Object[] elements) {
+        long now = clock.millis();
+        expire(now);
+        ensureCapacity(size + elements.length);
+        long expired = now + lifetime;
+        if (ordered && size > 0 && elementData[slot(size - 1)].getExpired() > expired)
+            ordered = false;
+        earliest = Math.min(earliest, expired);
+        for (Object element : elements)
+            elementData[slot(size++)] = new ExpirableInspector.Element<T>((T) element, expired);
+    }
+
+    /**
+     * Inserts the specified element at the specified position in this list.
+     * Shifts the element currently at that position(if any) and any subsequent
+     * elements to the right.
+     *
+     * @param index   index at which the specified element is to be inserted
+     * @param element element to be inserted
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public void add(int index, T element) {
+        long now = clock.millis();
+        expire(now);
+        addElement(index, new ExpirableInspector.Element<T>(element, now + lifetime));
+    }
+
+    /**
+     * Removes the element at the specified position in this list.
+     * Shifts any subsequent elements to the left.
+     * Returns the element that was removed from the list.
+     *
+     * @param index the index of the element to be removed
+     * @return the element previously at the specified position
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public T remove(int index) {
+        expire(clock.millis());
+        rangeCheck(index);
+        return removeElement(index).get();
+    }
+
+    /**
+     * Removes the first occurrence of the specified element from this list,
+     * if it is present. If this list does not contain the element, it is
+     * unchanged.
+     *
+     * @param o - element to be removed if present
+     */
+    public void remove(Object o) {
+        expire(clock.millis());
+        int index = indexOf(o);
+        if (index >= 0)
+            removeElement(index);
+    }
+
+    /**
+     * Returns true if this list contains the specified element.
+     *
+     * @param o - element whose presence in this list is to be tested
+     */
+    public boolean contains(Object o) {
+        expire(clock.millis());
+        return indexOf(o) >= 0;
+    }
+
+    /**
+     * Returns the element at the specified position in this list.
+     *
+     * @param index - index of the element to return
+     */
+    public T get(int index) {
+        expire(clock.millis());
+        rangeCheck(index);
+        return elementData[slot(index)].get();
+    }
+
+    class Itr implements Iterator<T> {
+        // Index of the next element to return
+        private int cursor;
+
+        /**
+         * Drops the expired elements once, the following steps cost O(1)
+         */
+        public Itr() {
+            expire(clock.millis());
+        }
+
+        /**
+         * Returns true if the iteration has more elements.
+         */
+        public boolean hasNext() {
+            return cursor < size;
+        }
+
+        /**
+         * Returns the next element in the iteration.
+         *
+         * @return the next element in the iteration
+         * @throws NoSuchElementException if the iteration has no more elements
+         */
+        public T next() {
+            int i = cursor;
+            if (i >= size)
+                throw new NoSuchElementException();
+            cursor = i + 1;
+            return elementData[slot(i)].get();
+        }
+    }
+
+    /**
+     * Registers a listener of the elements which expire in this list. The listener gets them
+     * in batches on its own thread, so it does not slow the operations of the list down.
+     *
+     * @param listener the listener
+     * @param policy   what happens to the batches when the listener falls behind
+     */
+    public void addExpirationListener(ExpirationListener<T> listener, ListenerPolicy policy) {
+        expirations.add(listener, policy);
+    }
+
+    /**
+     * Unregisters the listener, the batches already queued for it are still delivered
+     *
+     * @param listener the listener
+     */
+    public void removeExpirationListener(ExpirationListener<T> listener) {
+        expirations.remove(listener);
+    }
+
+    /**
+     * Delete all expired elements. While the list is ordered only the head pointer is moved.
+     *
+     * @param now the current timestamp
+     */
+    private void expire(long now) {
+        if (ordered) {
+            ExpirationDispatcher.Batch<T> expired = null;
+            while (size > 0 && elementData[head].getExpired() < now) {
+                expired = expirations.collect(expired, elementData[head].get(), elementData[head].getExpired());
+                elementData[head] = null;
+                head = (head + 1) & (elementData.length - 1);
+                size--;
+            }
+            expirations.dispatch(expired);
+        } else if (earliest < now) {
+            compact(now);
+        }
+    }
+
+    /**
+     * Removes expired elements from any position in one pass and checks whether
+     * the remaining ones are ordered again.
+     *
+     * @param now the current timestamp
+     */
+    private void compact(long now) {
+        int mask = elementData.length - 1;
+        int kept = 0;
+        long last = Long.MIN_VALUE;
+        long first = Long.MAX_VALUE;
+        boolean sorted = true;
+        ExpirationDispatcher.Batch<T> expired = null;
+        for (int i = 0; i < size; i++) {
+            ExpirableInspector.Element<T> e = elementData[(head + i) & mask];
+            if (e.getExpired() < now) {
+                expired = expirations.collect(expired, e.get(), e.getExpired());
+                continue;
+            }
+            if (e.getExpired() < last)
+                sorted = false;
+            last = e.getExpired();
+            first = Math.min(first, last);
+            elementData[(head + kept++) & mask] = e;
+        }
+        for (int i = kept; i < size; i++)
+            elementData[(head + i) & mask] = null;
+        size = kept;
+        ordered = sorted;
+        earliest = first;
+        expirations.dispatch(expired);
+    }
+
+    /**
+     * Inserts the element at the specified position, moving the shorter side of the list.
+     *
+     * @param index   index at which the specified element is to be inserted
+     * @param element element to be inserted
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    private void addElement(int index, ExpirableInspector.Element<T> element) {
+        rangeCheckForAdd(index);
+        ensureCapacity(size + 1);
+        int mask = elementData.length - 1;
+        if (index < size >> 1) {
+            head = (head - 1) & mask;
+            for (int i = 0; i < index; i++)
+                elementData[(head + i) & mask] = elementData[(head + i + 1) & mask];
+        } else {
+            for (int i = size; i > index; i--)
+                elementData[(head + i) & mask] = elementData[(head + i - 1) & mask];
+        }
+        elementData[(head + index) & mask] = element;
+        size++;
+        long ex = element.getExpired();
+        earliest = Math.min(earliest, ex);
+        if (ordered) {
+            if ((index > 0 && elementData[(head + index - 1) & mask].getExpired() > ex)
+                    || (index < size - 1 && elementData[(head + index + 1) & mask].getExpired() < ex))
+                ordered = false;
+        }
+    }
+
+    /**
+     * Removes the element at the specified position, moving the shorter side of the list.
+     * Removal keeps the order of the expiry times.
+     *
+     * @param index the index of the element to be removed
+     * @return the element previously at the specified position
+     */
+    private ExpirableInspector.Element<T> removeElement(int index) {
+        int mask = elementData.length - 1;
+        ExpirableInspector.Element<T> oldValue = elementData[(head + index) & mask];
+        if (index < size >> 1) {
+            for (int i = index; i > 0; i--)
+                elementData[(head + i) & mask] = elementData[(head + i - 1) & mask];
+            elementData[head] = null;
+            head = (head + 1) & mask;
+        } else {
+            for (int i = index; i < size - 1; i++)
+                elementData[(head + i) & mask] = elementData[(head + i + 1) & mask];
+            elementData[(head + size - 1) & mask] = null;
+        }
+        size--;
+        return oldValue;
+    }
+
+    /**
+     * @param o the element to look for
+     * @return the index of the first occurrence of the element or -1
+     */
+    private int indexOf(Object o) {
+        for (int i = 0; i < size; i++) {
+            Object data = elementData[slot(i)].get();
+            if (o == null ? data == null : o.equals(data))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @param index the position in the list
+     * @return the position in elementData
+     */
+    private int slot(int index) {
+        return (head + index) & (elementData.length - 1);
+    }
+
+    /**
+     * Reserve memory for elementData, the elements are unrolled to start at 0
+     *
+     * @param minCapacity - the length of elements
+     */
+    private void ensureCapacity(int minCapacity) {
+        int oldCapacity = elementData.length;
+        if (minCapacity > oldCapacity) {
+            int newCapacity = oldCapacity << 1;
+            while (newCapacity < minCapacity)
+                newCapacity <<= 1;
+            ExpirableInspector.Element<T>[] newData = new ExpirableInspector.Element[newCapacity];
+            int firstPart = Math.min(size, oldCapacity - head);
+            System.arraycopy(elementData, head, newData, 0, firstPart);
+            System.arraycopy(elementData, 0, newData, firstPart, size - firstPart);
+            elementData = newData;
+            head = 0;
+        }
+    }
+
+    /**
+     * Throws exception if position index is not in list
+     * @param index
+     */
+    private void rangeCheck(int index) {
+        if (index >= size || index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    private void rangeCheckForAdd(int index) {
+        if (index > size || index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+}
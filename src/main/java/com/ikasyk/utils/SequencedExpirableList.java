@@ -0,0 +1,37 @@
+package com.ikasyk.utils;
+
+/**
+ * ExpirableList which numbers its elements in the order they were added.
+ * The numbers let a reader continue an iteration later from the place where it stopped.
+ */
+interface SequencedExpirableList<T> extends ExpirableList<T> {
+
+    /**
+     * Returns a weakly consistent iterator over the alive elements which were added
+     * after the element with the specified sequence number.
+     *
+     * @param sequence the sequence number of the last seen element, 0 to start from the beginning
+     * @return an iterator over the elements in this list
+     */
+    SequencedIterator<T> iteratorAfter(long sequence);
+
+    /**
+     * @return the sequence number given to the last added element, 0 if nothing has been added
+     */
+    long lastSequence();
+
+    interface SequencedIterator<T> extends Iterator<T> {
+
+        /**
+         * @return the sequence number of the element returned by the last call to next()
+         * @throws IllegalStateException if next() has not been called yet
+         */
+        long sequence();
+
+        /**
+         * @return the expiry time of the element returned by the last call to next()
+         * @throws IllegalStateException if next() has not been called yet
+         */
+        long expiresAt();
+    }
+}
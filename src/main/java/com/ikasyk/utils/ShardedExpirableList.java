@@ -0,0 +1,647 @@
+package com.ikasyk.utils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe expirable list split into independent lock-free shards, so concurrent writers
+ * do not meet on one tail and one size counter.
+ *
+ * Every shard is a ConcurrentExpirableList with its own chain, size, capacity and expiry;
+ * an add goes to the shard of the calling thread or of the element, as the routing says,
+ * and touches nothing the other shards use. Every shard numbers its elements on its own: the
+ * number is a stamp times the number of shards plus the index of the shard, so the numbers are
+ * unique, and the stamp is the microsecond of the link raised above the stamp before it in the
+ * shard. Iteration merges the shards by number, which is the order of adds within a shard and
+ * close to it between shards. Positional operations walk the merged order and cost
+ * O(n * shards) in the worst case. An element inserted at an index goes to the shard of the element
+ * before it and shares its number, so the merge returns it right after that element.
+ *
+ * An add which is linking its element may still give it a number below one which another shard
+ * has already linked. An iteration continued from a number therefore stops at the horizon, a number
+ * which every later element exceeds: a reader raises the floor of the stamps, shared by the shards,
+ * above the stamps linked so far and then counts the adds in progress of every shard. A shard with
+ * none numbers its next element above the floor, one with some only above its last node, so the
+ * elements beyond the horizon wait for those adds and are returned next time. The floor is written
+ * only when it is behind, so readers do not write to the shards the writers use.
+ *
+ * The capacity limits are split evenly between the shards, so one shard can be full while
+ * others have room, and DROP_OLDEST drops the oldest elements of the full shard.
+ */
+public class ShardedExpirableList<T> implements SequencedExpirableList<T>, Sweepable, Measurable, Instrumented, Versioned {
+
+    /**
+     * How an add chooses its shard
+     */
+    public enum Routing {
+        // By the calling thread, so a thread always appends to the same chain
+        THREAD,
+        // By the hash code of the element, so equal elements share a shard
+        KEY
+    }
+
+    private final ConcurrentExpirableList<T>[] shards;
+
+    private final Routing routing;
+
+    // Numbering of every shard
+    private final Stamps[] stamps;
+
+    // Time the microseconds of the numbers are counted from
+    private final long origin = System.nanoTime();
+
+    // The lowest stamp of the next element of every shard, raised by readers only
+    private final AtomicLong floor = new AtomicLong();
+
+    // Counts adds, expirations and expiry passes of all shards
+    private final ListMetrics metrics = new ListMetrics();
+
+    /**
+     * Constructor sets the time of life, the list has a shard per processor
+     *
+     * @param l the time of life
+     */
+    public ShardedExpirableList(long l) {
+        this(l, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor sets the time of life and the number of shards, adds are routed by thread
+     *
+     * @param l      the time of life
+     * @param shards the number of shards
+     */
+    public ShardedExpirableList(long l, int shards) {
+        this(l, shards, Routing.THREAD);
+    }
+
+    /**
+     * Constructor sets the time of life, the number of shards and the routing
+     *
+     * @param l       the time of life
+     * @param shards  the number of shards
+     * @param routing how an add chooses its shard
+     */
+    public ShardedExpirableList(long l, int shards, Routing routing) {
+        this(l, shards, routing, ExpiryPolicy.lazy(), MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Constructor sets the time of life, the number of shards, the routing, the expiry policy and the source of time
+     *
+     * @param l       the time of life
+     * @param shards  the number of shards
+     * @param routing how an add chooses its shard
+     * @param policy  the expiry policy of every shard
+     * @param clock   the clock to check expiry against
+     */
+    public ShardedExpirableList(long l, int shards, Routing routing, ExpiryPolicy policy, Clock clock) {
+        this(l, shards, routing, policy, clock, CapacityPolicy.unbounded());
+    }
+
+    /**
+     * Constructor sets the time of life, the number of shards, the routing, the expiry policy,
+     * the source of time and the limits of the whole list
+     *
+     * @param l        the time of life
+     * @param shards   the number of shards
+     * @param routing  how an add chooses its shard
+     * @param policy   the expiry policy of every shard
+     * @param clock    the clock to check expiry against
+     * @param capacity the limits of the list, split evenly between the shards
+     * @throws IllegalArgumentException if the number of shards is not positive
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedExpirableList(long l, int shards, Routing routing, ExpiryPolicy policy, Clock clock, CapacityPolicy capacity) {
+        if (shards <= 0)
+            throw new IllegalArgumentException("Shards: " + shards);
+        this.routing = routing;
+        this.shards = new ConcurrentExpirableList[shards];
+        this.stamps = new Stamps[shards];
+        CapacityPolicy part = capacity.split(shards);
+        for (int i = 0; i < shards; i++) {
+            this.stamps[i] = new Stamps(i, shards, origin, floor);
+            this.shards[i] = new ConcurrentExpirableList<T>(l, policy, clock, part, i, stamps[i], metrics);
+        }
+    }
+
+    /**
+     * Constructor sets the time of life = 60000 default
+     */
+    public ShardedExpirableList() {
+        this(60000);
+    }
+
+    /**
+     * @return the shard of an add of the element
+     */
+    private ConcurrentExpirableList<T> shard(Object element) {
+        int h = routing == Routing.KEY
+                ? (element == null ? 0 : element.hashCode())
+                : (int) Thread.currentThread().getId();
+        h ^= h >>> 16;
+        return shards[(h & Integer.MAX_VALUE) % shards.length];
+    }
+
+    /**
+     * @return the number of elements in this list
+     */
+    public int size() {
+        int size = 0;
+        for (ConcurrentExpirableList<T> shard : shards)
+            size += shard.size();
+        return size;
+    }
+
+    /**
+     * @return the estimated number of bytes taken by the elements, including expired ones which are not unlinked yet
+     */
+    public long usedBytes() {
+        long bytes = 0;
+        for (ConcurrentExpirableList<T> shard : shards)
+            bytes += shard.usedBytes();
+        return bytes;
+    }
+
+    /**
+     * @return the sum of the versions of the shards, it grows with a change of any of them
+     */
+    public long version() {
+        long version = 0;
+        for (ConcurrentExpirableList<T> shard : shards)
+            version += shard.version();
+        return version;
+    }
+
+    /**
+     * @return true if this list contains no elements
+     */
+    public boolean isEmpty() {
+        for (ConcurrentExpirableList<T> shard : shards) {
+            if (!shard.isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return a weakly consistent iterator over the elements in this list
+     */
+    public ExpirableList.Iterator<T> iterator() {
+        return iterator(IterationMode.WEAKLY_CONSISTENT);
+    }
+
+    /**
+     * Returns an iterator over the elements which are alive at the moment of the call, in the order of adds.
+     *
+     * @param mode how the iterator sees the changes made during the iteration
+     * @return an iterator over the elements in this list
+     */
+    public ExpirableList.Iterator<T> iterator(IterationMode mode) {
+        if (mode == IterationMode.SNAPSHOT) {
+            Object[] copy = new Object[16];
+            int count = 0;
+            for (Merge i = new Merge(0, Long.MAX_VALUE); i.hasNext(); ) {
+                if (count == copy.length)
+                    copy = Arrays.copyOf(copy, count + (count >> 1));
+                copy[count++] = i.next();
+            }
+            return new SnapshotIterator<T>(copy, count);
+        }
+        return new Merge(0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the alive elements which were added
+     * after the element with the specified sequence number, in the order of adds.
+     * It returns no element beyond the horizon, so no later add can be numbered below
+     * an element it has returned.
+     *
+     * @param sequence the sequence number of the last seen element, 0 to start from the beginning
+     * @return an iterator over the elements in this list
+     */
+    public SequencedIterator<T> iteratorAfter(long sequence) {
+        return new Merge(sequence, horizon());
+    }
+
+    /**
+     * @return the number below the horizon, an element added later gets a greater one;
+     * 0 if nothing has been added
+     */
+    public long lastSequence() {
+        long last = horizon() - 1;
+        for (ConcurrentExpirableList<T> shard : shards) {
+            if (shard.lastSequence() >= shards.length)
+                return last;
+        }
+        return 0;
+    }
+
+    /**
+     * Finds the lowest number an element which is not linked yet can get. The floor is raised
+     * before the adds in progress are counted and an add counts itself before it reads the floor,
+     * so an add which is not counted numbers its element above the floor; an add which is counted
+     * links after the last node of its shard, which is read afterwards.
+     *
+     * @return the number every element linked later exceeds or equals
+     */
+    private long horizon() {
+        int n = shards.length;
+        long next = 0;
+        for (ConcurrentExpirableList<T> shard : shards)
+            next = Math.max(next, shard.lastSequence() / n + 1);
+        for (long f = floor.get(); f < next && !floor.compareAndSet(f, next); f = floor.get()) ;
+        long horizon = Long.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            boolean idle = stamps[i].writers.get() == 0;
+            long stamp = shards[i].lastSequence() / n + 1;
+            if (idle)
+                stamp = Math.max(stamp, next);
+            horizon = Math.min(horizon, stamp * n + i);
+        }
+        return horizon;
+    }
+
+    /**
+     * @return the microseconds since the origin
+     */
+    private static long micros(long origin) {
+        return (System.nanoTime() - origin) / 1000;
+    }
+
+    /**
+     * Appends the specified element to the end of its shard.
+     *
+     * @param element element to be appended to this list
+     * @throws CapacityExceededException if the shard is full
+     */
+    public void add(T element) {
+        shard(element).add(element);
+    }
+
+    /**
+     * Appends the specified element to the end of its shard with its own time of life.
+     *
+     * @param element   element to be appended to this list
+     * @param ttlMillis the time of life of the element
+     * @throws IllegalArgumentException  if the time of life is negative
+     * @throws CapacityExceededException if the shard is full
+     */
+    public void add(T element, long ttlMillis) {
+        shard(element).add(element, ttlMillis);
+    }
+
+    /**
+     * Appends all elements of the collection. With routing by thread the batch goes to one shard
+     * as one chain, with routing by key every element goes to its own shard.
+     *
+     * @param c the elements to be appended to this list
+     * @throws CapacityExceededException if a shard is full
+     */
+    public void addAll(Collection<? extends T> c) {
+        if (routing == Routing.THREAD) {
+            shard(null).addAll(c);
+            return;
+        }
+        for (T element : c)
+            add(element);
+    }
+
+    /**
+     * Appends all elements of the array. With routing by thread the batch goes to one shard
+     * as one chain, with routing by key every element goes to its own shard.
+     *
+     * @param elements the elements to be appended to this list
+     * @throws CapacityExceededException if a shard is full
+     */
+    public void addAll(T[] elements) {
+        if (routing == Routing.THREAD) {
+            shard(null).addAll(elements);
+            return;
+        }
+        for (T element : elements)
+            add(element);
+    }
+
+    /**
+     * Inserts the specified element at the specified position in the merged order. It is linked
+     * in the shard of the element before it, right after that element and with its sequence number,
+     * so a reader which has already seen that element does not get it. At the start it goes before
+     * the first element of its shard, at the end it is appended to the shard of the last element.
+     *
+     * @param index   index at which the specified element is to be inserted
+     * @param element element to be inserted
+     * @throws IndexOutOfBoundsException if the index is out of range
+     * @throws CapacityExceededException if the shard is full
+     */
+    public void add(int index, T element) {
+        if (index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        for (;;) {
+            Merge i = seek(index, index);
+            if (!i.hasFollower()) {
+                (i.last < 0 ? shard(element) : shards[i.last]).add(element);
+                return;
+            }
+            if (i.last < 0) {
+                i.next();
+                shards[i.last].add(0, element);
+                return;
+            }
+            if (i.insertAfterReturned(element))
+                return;
+        }
+    }
+
+    /**
+     * Removes the element at the specified position in the merged order. The node which is found
+     * is the one removed; if it is removed by another thread first, the position is looked up again.
+     *
+     * @param index the index of the element to be removed
+     * @return the element previously at the specified position
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public T remove(int index) {
+        if (index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        for (;;) {
+            Merge i = seek(index + 1, index);
+            if (i.removeReturned())
+                return i.current;
+        }
+    }
+
+    /**
+     * Removes the first occurrence of the specified element in the merged order, if it is present.
+     *
+     * @param o - element to be removed if present
+     */
+    public void remove(Object o) {
+        if (routing == Routing.KEY) {
+            shard(o).remove(o);
+            return;
+        }
+        for (Merge i = new Merge(0, Long.MAX_VALUE); i.hasNext(); ) {
+            T element = i.next();
+            if ((o == null ? element == null : o.equals(element)) && i.removeReturned())
+                return;
+        }
+    }
+
+    /**
+     * Returns true if this list contains the specified element.
+     *
+     * @param o - element whose presence in this list is to be tested
+     */
+    public boolean contains(Object o) {
+        if (routing == Routing.KEY)
+            return shard(o).contains(o);
+        for (ConcurrentExpirableList<T> shard : shards) {
+            if (shard.contains(o))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the element at the specified position in the merged order.
+     *
+     * @param index - index of the element to return
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public T get(int index) {
+        if (index < 0)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        return seek(index + 1, index).current;
+    }
+
+    /**
+     * @param count the number of elements to pass
+     * @param index the index the elements are passed for
+     * @return the iterator which has just returned the last of the elements
+     * @throws IndexOutOfBoundsException if the list has fewer elements
+     */
+    private Merge seek(int count, int index) {
+        Merge i = new Merge(0, Long.MAX_VALUE);
+        for (int passed = 0; passed < count; passed++) {
+            if (!i.hasNext())
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + passed);
+            i.next();
+        }
+        return i;
+    }
+
+    /**
+     * @return the live counters of all shards
+     */
+    public ListMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Registers a listener of the elements which expire in this list. Every shard delivers
+     * its own batches, so one listener gets batches from several shards.
+     *
+     * @param listener the listener
+     * @param policy   what happens to the batches when the listener falls behind
+     */
+    public void addExpirationListener(ExpirationListener<T> listener, ListenerPolicy policy) {
+        for (ConcurrentExpirableList<T> shard : shards)
+            shard.addExpirationListener(listener, policy);
+    }
+
+    /**
+     * Unregisters the listener, the batches already queued for it are still delivered
+     *
+     * @param listener the listener
+     */
+    public void removeExpirationListener(ExpirationListener<T> listener) {
+        for (ConcurrentExpirableList<T> shard : shards)
+            shard.removeExpirationListener(listener);
+    }
+
+    /**
+     * Delete all expired elements of every shard.
+     */
+    public void sweep() {
+        for (ConcurrentExpirableList<T> shard : shards)
+            shard.sweep();
+    }
+
+    /**
+     * Merges the iterators of the shards by sequence number. Every shard keeps its next
+     * element ready and the one with the lowest number goes first.
+     */
+    private class Merge implements SequencedIterator<T> {
+        private final ConcurrentExpirableList<T>.Itr[] sources;
+
+        // Elements with this or a greater number are not returned
+        private final long horizon;
+
+        // Shards whose elements below the horizon are all returned
+        private final boolean[] done;
+
+        // Next element of every shard, valid where ready is set
+        private final Object[] heads;
+        private final long[] sequences;
+        private final long[] expiries;
+        private final boolean[] ready;
+
+        // Shard of the last returned element, -1 before the first
+        int last = -1;
+
+        // The last returned element
+        T current;
+
+        private long currentSequence;
+        private long currentExpiry;
+
+        @SuppressWarnings("unchecked")
+        Merge(long after, long horizon) {
+            int n = shards.length;
+            this.horizon = horizon;
+            done = new boolean[n];
+            sources = new ConcurrentExpirableList.Itr[n];
+            heads = new Object[n];
+            sequences = new long[n];
+            expiries = new long[n];
+            ready = new boolean[n];
+            for (int i = 0; i < n; i++)
+                sources[i] = (ConcurrentExpirableList<T>.Itr) shards[i].iteratorAfter(after);
+        }
+
+        public boolean hasNext() {
+            boolean any = false;
+            for (int i = 0; i < sources.length; i++) {
+                fill(i);
+                any |= ready[i];
+            }
+            return any;
+        }
+
+        /**
+         * Returns true if an element follows the last returned one. Unlike hasNext() it does not
+         * take the next element of the shard of the last returned one, so that one can still be
+         * removed or inserted after; the next element of that shard is not checked against the horizon.
+         */
+        boolean hasFollower() {
+            boolean any = false;
+            for (int i = 0; i < sources.length; i++) {
+                if (i == last && !ready[i]) {
+                    any |= !done[i] && sources[i].hasNext();
+                } else {
+                    fill(i);
+                    any |= ready[i];
+                }
+            }
+            return any;
+        }
+
+        /**
+         * Takes the next element of the shard unless one is ready or the shard is done
+         */
+        private void fill(int i) {
+            if (!ready[i] && !done[i] && sources[i].hasNext()) {
+                heads[i] = sources[i].next();
+                sequences[i] = sources[i].sequence();
+                expiries[i] = sources[i].expiresAt();
+                // the shard is in order, nothing after this element is below the horizon either
+                ready[i] = sequences[i] < horizon;
+                done[i] = !ready[i];
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            int min = -1;
+            for (int i = 0; i < sources.length; i++) {
+                if (ready[i] && (min < 0 || sequences[i] < sequences[min]))
+                    min = i;
+            }
+            ready[min] = false;
+            last = min;
+            current = (T) heads[min];
+            heads[min] = null;
+            currentSequence = sequences[min];
+            currentExpiry = expiries[min];
+            return current;
+        }
+
+        public long sequence() {
+            if (last < 0)
+                throw new IllegalStateException();
+            return currentSequence;
+        }
+
+        public long expiresAt() {
+            if (last < 0)
+                throw new IllegalStateException();
+            return currentExpiry;
+        }
+
+        /**
+         * Removes the node of the last returned element from its shard; the iterator of the shard
+         * has not moved past it, its next element is taken only when this one is returned
+         *
+         * @return false if the element has already been removed or has expired
+         */
+        boolean removeReturned() {
+            if (last < 0)
+                throw new IllegalStateException();
+            return sources[last].removeReturned();
+        }
+
+        /**
+         * Inserts the element right after the last returned element in its shard
+         *
+         * @return false if the element has already been removed or has expired
+         */
+        boolean insertAfterReturned(T element) {
+            if (last < 0)
+                throw new IllegalStateException();
+            return sources[last].insertAfterReturned(element);
+        }
+    }
+
+    /**
+     * Numbers the elements of one shard by the microsecond of their link, at least the floor,
+     * and counts the adds which are linking, so the horizon knows whether one of them may still
+     * take a lower number
+     */
+    private static final class Stamps extends ConcurrentExpirableList.Numbering {
+        private final int shard;
+        private final int shards;
+        private final long origin;
+
+        // Adds of the shard which are linking their elements
+        final AtomicInteger writers = new AtomicInteger();
+
+        // The floor shared by the shards
+        private final AtomicLong floor;
+
+        Stamps(int shard, int shards, long origin, AtomicLong floor) {
+            this.shard = shard;
+            this.shards = shards;
+            this.origin = origin;
+            this.floor = floor;
+        }
+
+        long next(long previous) {
+            long stamp = Math.max(previous / shards + 1, Math.max(floor.get(), micros(origin)));
+            return stamp * shards + shard;
+        }
+
+        void enter() {
+            writers.incrementAndGet();
+        }
+
+        void leave() {
+            writers.decrementAndGet();
+        }
+    }
+}
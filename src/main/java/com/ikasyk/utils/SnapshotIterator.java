@@ -0,0 +1,47 @@
+package com.ikasyk.utils;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over a copy of the alive elements of a list.
+ */
+class SnapshotIterator<T> implements ExpirableList.Iterator<T> {
+
+    // Copied elements
+    private final Object[] elements;
+
+    // Number of copied elements
+    private final int count;
+
+    // Index of the next element to return
+    private int cursor;
+
+    /**
+     * @param elements the copied elements
+     * @param count    the number of elements in the array
+     */
+    SnapshotIterator(Object[] elements, int count) {
+        this.elements = elements;
+        this.count = count;
+    }
+
+    /**
+     * Returns true if the iteration has more elements.
+     */
+    public boolean hasNext() {
+        return cursor < count;
+    }
+
+    /**
+     * Returns the next element in the iteration.
+     *
+     * @return the next element in the iteration
+     * @throws NoSuchElementException if the iteration has no more elements
+     */
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (cursor >= count)
+            throw new NoSuchElementException();
+        return (T) elements[cursor++];
+    }
+}
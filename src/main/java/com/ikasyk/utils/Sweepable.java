@@ -0,0 +1,12 @@
+package com.ikasyk.utils;
+
+/**
+ * A container which can remove all its expired elements at once.
+ */
+interface Sweepable {
+
+    /**
+     * Delete all expired elements. Must be safe to call from the reaper thread.
+     */
+    void sweep();
+}
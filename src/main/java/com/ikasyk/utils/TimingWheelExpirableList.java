@@ -0,0 +1,359 @@
+package com.ikasyk.utils;
+
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+/**
+ * Implementation of ExpirableList for elements with different times of life.
+ *
+ * Elements are stored in a doubly linked list like in LinkedExpirableList, and every entry is
+ * also scheduled in a HierarchicalTimingWheel. Expired entries are taken out of the wheel and
+ * unlinked one by one, so the cost of expiry does not depend on the number of alive elements
+ * and no full scan is needed even if the elements expire in a different order than they were added.
+ */
+public class TimingWheelExpirableList<T> implements ExpirableList<T> {
+
+    // Life time
+    private long lifetime;
+
+    // Source of the current time
+    private Clock clock;
+
+    // Receives the expired elements
+    private ExpirationDispatcher<T> expirations = new ExpirationDispatcher<T>();
+
+    // Counter of elements
+    private int size;
+
+    private Entry<T> header = new Entry<T>(null, null, null);
+
+    // Expiry schedule of the entries
+    private HierarchicalTimingWheel<Entry<T>> wheel;
+
+    /**
+     * Constructor sets the default time of life
+     *
+     * @param l the time of life
+     */
+    public TimingWheelExpirableList(long l) {
+        this(l, MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Constructor sets the time of life and the source of time
+     *
+     * @param l     the time of life
+     * @param clock the clock to check expiry against
+     */
+    public TimingWheelExpirableList(long l, Clock clock) {
+        this.lifetime = l;
+        this.clock = clock;
+        size = 0;
+        header.next = header.prev = header;
+        wheel = new HierarchicalTimingWheel<Entry<T>>(1, clock.millis());
+    }
+
+    /**
+     * Constructor sets the default time of life = 60000
+     */
+    public TimingWheelExpirableList() {
+        this(60000);
+    }
+
+    /**
+     * @return the number of elements in this list
+     */
+    public int size() {
+        expire();
+        return size;
+    }
+
+    /**
+     * @return true if this list contains no elements
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return a weakly consistent iterator over the elements in this list
+     */
+    public TimingWheelExpirableList.Iterator<T> iterator() {
+        return iterator(IterationMode.WEAKLY_CONSISTENT);
+    }
+
+    /**
+     * Returns an iterator over the elements which are alive at the moment of the call.
+     *
+     * @param mode how the iterator sees the changes made during the iteration
+     * @return an iterator over the elements in this list
+     */
+    public TimingWheelExpirableList.Iterator<T> iterator(IterationMode mode) {
+        expire();
+        if (mode == IterationMode.SNAPSHOT) {
+            Object[] copy = new Object[size];
+            int count = 0;
+            for (Entry<T> e = header.next; e != header; e = e.next)
+                copy[count++] = e.element.get();
+            return new SnapshotIterator<T>(copy, count);
+        }
+        return new Itr();
+    }
+
+    /**
+     * Appends the specified element to the end of this list.
+     *
+     * @param element element to be appended to this list
+     */
+    public void add(T element) {
+        add(element, lifetime);
+    }
+
+    /**
+     * Appends the specified element to the end of this list with its own time of life.
+     *
+     * @param element   element to be appended to this list
+     * @param ttlMillis the time of life of the element
+     * @throws IllegalArgumentException if the time of life is negative
+     */
+    public void add(T element, long ttlMillis) {
+        expire();
+        addBeforeElement(element, ttlMillis, header);
+    }
+
+    /**
+     * Appends all elements of the collection to the end of this list.
+     * The batch costs one expiry pass, all elements get one timestamp.
+     *
+     * @param c the elements to be appended to this list
+     */
+    public void addAll(Collection<? extends T> c) {
+        addBatch(c.toArray());
+    }
+
+    /**
+     * Appends all elements of the array to the end of this list.
+     * The batch costs one expiry pass, all elements get one timestamp.
+     *
+     * @param elements the elements to be appended to this list
+     */
+    public void addAll(T[] elements) {
+        addBatch(elements);
+    }
+
+    /**
+     * Appends the elements in one pass
+     *
+     * @param elements the elements to be appended, they are of type T
+     */
+    private void addBatch(Object[] elements) {
+        expire();
+        long expired = clock.millis() + lifetime;
+        for (Object element : elements) {
+            Entry<T> newEntry = new Entry<T>(new ExpirableInspector.Element<T>((T) element, expired), header, header.prev);
+            newEntry.prev.next = newEntry;
+            header.prev = newEntry;
+            size++;
+            wheel.schedule(newEntry, expired);
+        }
+    }
+
+    /**
+     * Inserts the specified element at the specified position in this list.
+     * Shifts the element currently at that position(if any) and any subsequent
+     * elements to the right.
+     *
+     * @param index   index at which the specified element is to be inserted
+     * @param element element to be inserted
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public void add(int index, T element) {
+        expire();
+        addBeforeElement(element, lifetime, index == size ? header : entryElement(index));
+    }
+
+    /**
+     * Removes the element at the specified position in this list.
+     * Shifts any subsequent elements to the left.
+     * Returns the element that was removed from the list.
+     *
+     * @param index the index of the element to be removed
+     * @return the element previously at the specified position
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public T remove(int index) {
+        expire();
+        Entry<T> e = entryElement(index);
+        wheel.cancel(e);
+        return removeElement(e).get();
+    }
+
+    /**
+     * Removes the first occurrence of the specified element from this list,
+     * if it is present. If this list does not contain the element, it is
+     * unchanged.
+     *
+     * @param o - element to be removed if present
+     */
+    public void remove(Object o) {
+        expire();
+        for (Entry<T> e = header.next; e != header; e = e.next) {
+            Object data = e.element.get();
+            if (o == null ? data == null : o.equals(data)) {
+                wheel.cancel(e);
+                removeElement(e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns true if this list contains the specified element.
+     *
+     * @param o - element whose presence in this list is to be tested
+     */
+    public boolean contains(Object o) {
+        expire();
+        for (Entry<T> e = header.next; e != header; e = e.next) {
+            Object data = e.element.get();
+            if (o == null ? data == null : o.equals(data))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the element at the specified position in this list.
+     *
+     * @param index - index of the element to return
+     */
+    public T get(int index) {
+        expire();
+        return entryElement(index).element.get();
+    }
+
+    class Itr implements Iterator<T> {
+        // Entry of the next element to return, removed entries keep the link to their successor
+        private Entry<T> next = header.next;
+
+        /**
+         * Returns true if the iteration has more elements.
+         */
+        public boolean hasNext() {
+            while (next != header && next.element == null)
+                next = next.next;
+            return next != header;
+        }
+
+        /**
+         * Returns the next element in the iteration.
+         *
+         * @return the next element in the iteration
+         * @throws NoSuchElementException if the iteration has no more elements
+         */
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Entry<T> e = next;
+            next = e.next;
+            return e.element.get();
+        }
+    }
+
+    /**
+     * Registers a listener of the elements which expire in this list. The listener gets them
+     * in batches on its own thread, so it does not slow the operations of the list down.
+     *
+     * @param listener the listener
+     * @param policy   what happens to the batches when the listener falls behind
+     */
+    public void addExpirationListener(ExpirationListener<T> listener, ListenerPolicy policy) {
+        expirations.add(listener, policy);
+    }
+
+    /**
+     * Unregisters the listener, the batches already queued for it are still delivered
+     *
+     * @param listener the listener
+     */
+    public void removeExpirationListener(ExpirationListener<T> listener) {
+        expirations.remove(listener);
+    }
+
+    /**
+     * Unlinks all entries which the wheel reports as expired
+     */
+    private void expire() {
+        Entry<T> e = wheel.advance(clock.millis());
+        ExpirationDispatcher.Batch<T> expired = null;
+        while (e != null) {
+            Entry<T> next = (Entry<T>) e.wheelNext;
+            e.wheelNext = null;
+            expired = expirations.collect(expired, e.element.get(), e.element.getExpired());
+            removeElement(e);
+            e = next;
+        }
+        expirations.dispatch(expired);
+    }
+
+    /**
+     * Inserts the element before the specified entry and schedules its expiry.
+     *
+     * @param element   element to be inserted
+     * @param ttlMillis the time of life of the element
+     * @param entry     the entry to insert before
+     */
+    private void addBeforeElement(T element, long ttlMillis, Entry<T> entry) {
+        if (ttlMillis < 0)
+            throw new IllegalArgumentException("Time of life: " + ttlMillis);
+        long expired = clock.millis() + ttlMillis;
+        Entry<T> newEntry = new Entry<T>(new ExpirableInspector.Element<T>(element, expired), entry, entry.prev);
+        newEntry.prev.next = newEntry;
+        newEntry.next.prev = newEntry;
+        size++;
+        wheel.schedule(newEntry, expired);
+    }
+
+    /**
+     * Unlinks the entry from the list.
+     *
+     * @param e the entry to be removed
+     * @return the element of the entry
+     */
+    private ExpirableInspector.Element<T> removeElement(Entry<T> e) {
+        ExpirableInspector.Element<T> result = e.element;
+        e.prev.next = e.next;
+        e.next.prev = e.prev;
+        e.prev = null;
+        e.element = null;
+        size--;
+        return result;
+    }
+
+    private static class Entry<T> extends HierarchicalTimingWheel.Node {
+        ExpirableInspector.Element<T> element;
+        Entry<T> next;
+        Entry<T> prev;
+
+        Entry(ExpirableInspector.Element<T> element, Entry<T> next, Entry<T> prev) {
+            this.element = element;
+            this.next = next;
+            this.prev = prev;
+        }
+    }
+
+    private Entry<T> entryElement(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index +
+                    ", Size: " + size);
+        Entry<T> e = header;
+        if (index < (size >> 1)) {
+            for (int i = 0; i <= index; i++)
+                e = e.next;
+        } else {
+            for (int i = size; i > index; i--)
+                e = e.prev;
+        }
+        return e;
+    }
+}
@@ -0,0 +1,103 @@
+package com.ikasyk.utils;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodes strings to UTF-8 and lets equal ones which repeat share one copy.
+ *
+ * A FrequencySketch counts how often a payload is encoded; a payload seen once is returned as its own
+ * copy and costs nothing here, so a stream of distinct messages does not fill the pool. From the second
+ * time on the payload is looked up in a table of shared copies. The table holds the copies weakly:
+ * a copy is freed by the collector once the last element which refers to it has been removed, whatever
+ * removed it, and its entry is dropped by a later encode. Lookups take no lock.
+ */
+final class Utf8Pool {
+
+    // Number of payloads the sketch tells apart
+    private static final int SKETCH_SIZE = 1 << 16;
+
+    // How often a payload is counted before it is shared
+    private static final int SHARE_FREQUENCY = 2;
+
+    private final FrequencySketch sketch = new FrequencySketch(SKETCH_SIZE);
+
+    // Shared copies, each key maps to itself
+    private final ConcurrentHashMap<Key, Key> copies = new ConcurrentHashMap<Key, Key>();
+
+    // Keys whose copy has been freed
+    private final ReferenceQueue<Utf8String> freed = new ReferenceQueue<Utf8String>();
+
+    /**
+     * @param s the string, may be null
+     * @return the encoded string, the shared copy if it repeats, or null
+     */
+    Utf8String encode(String s) {
+        if (s == null)
+            return null;
+        Utf8String candidate = new Utf8String(s);
+        sketch.increment(candidate);
+        if (sketch.frequency(candidate) < SHARE_FREQUENCY)
+            return candidate;
+        expunge();
+        Key found = copies.get(new Key(candidate, null));
+        Utf8String copy = found == null ? null : found.get();
+        if (copy != null)
+            return copy;
+        copy = new Utf8String(candidate.bytes(), true);
+        Key key = new Key(copy, freed);
+        for (;;) {
+            Key prior = copies.putIfAbsent(key, key);
+            if (prior == null)
+                return copy;
+            Utf8String other = prior.get();
+            if (other != null)
+                return other;
+            copies.remove(prior);
+        }
+    }
+
+    /**
+     * @return the number of shared copies, including the freed ones not dropped yet
+     */
+    int size() {
+        return copies.size();
+    }
+
+    /**
+     * Drops the entries of the freed copies
+     */
+    private void expunge() {
+        for (Reference<? extends Utf8String> r; (r = freed.poll()) != null; )
+            copies.remove(r);
+    }
+
+    /**
+     * Weak key compared by the bytes of its copy; once the copy is freed it equals only itself
+     */
+    private static final class Key extends WeakReference<Utf8String> {
+        private final int hash;
+
+        Key(Utf8String copy, ReferenceQueue<Utf8String> queue) {
+            super(copy, queue);
+            this.hash = copy.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key) || hash != ((Key) o).hash)
+                return false;
+            Utf8String copy = get();
+            return copy != null && copy.equals(((Key) o).get());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.ikasyk.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Immutable string kept as its UTF-8 bytes. Two of them are equal when their bytes are,
+ * so a list of them finds, counts and removes elements as a list of strings does.
+ */
+final class Utf8String {
+
+    private final byte[] bytes;
+
+    private final int hash;
+
+    // True for the copy a Utf8Pool shares between elements
+    private final boolean shared;
+
+    /**
+     * @param s the string
+     */
+    Utf8String(String s) {
+        this(s.getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    /**
+     * @param bytes  the UTF-8 bytes, they are not copied
+     * @param shared true for the copy shared between elements
+     */
+    Utf8String(byte[] bytes, boolean shared) {
+        this.bytes = bytes;
+        this.hash = Arrays.hashCode(bytes);
+        this.shared = shared;
+    }
+
+    /**
+     * @return the UTF-8 bytes, they must not be changed
+     */
+    byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return true if this copy is shared between elements
+     */
+    boolean isShared() {
+        return shared;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Utf8String))
+            return false;
+        Utf8String other = (Utf8String) o;
+        return hash == other.hash && Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * @return the decoded string
+     */
+    @Override
+    public String toString() {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,17 @@
+package com.ikasyk.utils;
+
+/**
+ * Store which counts its changes, so a view rendered from it can be reused until it changes.
+ */
+public interface Versioned {
+
+    /**
+     * The version grows after every add and every removal, expirations included, once the change
+     * is visible to readers. A view rendered after reading the version is current as long as the
+     * version stays the same and none of the shown elements has expired; an element expires
+     * before it is removed, so the expiry has to be checked apart.
+     *
+     * @return the version of the contents, or -1 if the store does not count its changes
+     */
+    long version();
+}
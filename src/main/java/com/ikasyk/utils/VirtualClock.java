@@ -0,0 +1,54 @@
+package com.ikasyk.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clock which is moved only by hand. Makes expiry deterministic in tests and benchmarks.
+ */
+public class VirtualClock implements Clock {
+
+    private final AtomicLong now;
+
+    /**
+     * Creates the clock which starts at 0
+     */
+    public VirtualClock() {
+        this(0);
+    }
+
+    /**
+     * @param start the initial time in milliseconds
+     */
+    public VirtualClock(long start) {
+        this.now = new AtomicLong(start);
+    }
+
+    /**
+     * @return the current virtual time in milliseconds
+     */
+    public long millis() {
+        return now.get();
+    }
+
+    /**
+     * Moves the clock forward
+     *
+     * @param millis the number of milliseconds to add
+     * @return the new time
+     * @throws IllegalArgumentException if the amount is negative
+     */
+    public long advance(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("Advance: " + millis);
+        return now.addAndGet(millis);
+    }
+
+    /**
+     * Sets the clock to the specified time, it may move back
+     *
+     * @param millis the new time in milliseconds
+     */
+    public void set(long millis) {
+        now.set(millis);
+    }
+}
@@ -0,0 +1,161 @@
+package com.ikasyk;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.ikasyk.utils.FreshStore;
+import com.ikasyk.utils.ListController;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Requests to the standalone server on a free port of localhost, over a fresh store
+ */
+public class ExpireHandlerServerTest {
+
+    @Rule
+    public final FreshStore store = new FreshStore();
+
+    private ExecutorService executor;
+    private HttpServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        executor = Executors.newCachedThreadPool();
+        server = ExpireHandlerServer.start(new InetSocketAddress("localhost", 0), executor);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    @Test
+    public void showsTheSentLines() throws IOException {
+        assertEquals(200, request("GET", "/send?first", null).status);
+        assertEquals(200, request("GET", "/send?ttl=5000&second", null).status);
+        Response show = request("GET", "/show", null);
+        assertEquals(200, show.status);
+        assertEquals("<h1><pre>first\nsecond\n</pre></h1>", show.body);
+    }
+
+    @Test
+    public void addsTheLinesOfAPost() throws IOException {
+        Response send = request("POST", "/send", "a\n\nb\nc\n");
+        assertEquals(200, send.status);
+        assertTrue(send.body, send.body.contains("Added 3 lines"));
+        assertEquals(3, ListController.size());
+    }
+
+    @Test
+    public void pagesTheShowByCursor() throws IOException {
+        for (int i = 0; i < 3; i++)
+            request("GET", "/send?line-" + i, null);
+        Response first = request("GET", "/show?limit=2", null);
+        assertTrue(first.body, first.body.startsWith("<h1><pre>line-0\nline-1\n</pre></h1>"));
+        int href = first.body.indexOf("href=\"") + "href=\"".length();
+        Response second = request("GET", first.body.substring(href, first.body.indexOf('"', href)), null);
+        assertEquals("<h1><pre>line-2\n</pre></h1>", second.body);
+    }
+
+    /**
+     * A long poll is answered at once when there are new lines, otherwise by the next add or,
+     * with no lines, when its wait is over
+     */
+    @Test(timeout = 30000)
+    public void longPollsTheShow() throws Exception {
+        ListController.add("old");
+        String since = ListController.cursor();
+        ListController.add("new");
+        Response now = request("GET", "/show?since=" + since + "&wait=60000", null);
+        assertEquals("<h1><pre>new\n</pre></h1>" + next(ListController.cursor(), 60000), now.body);
+
+        since = ListController.cursor();
+        Thread sender = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ListController.add("late");
+            }
+        };
+        sender.start();
+        Response parked = request("GET", "/show?since=" + since + "&wait=20000", null);
+        sender.join();
+        assertEquals("<h1><pre>late\n</pre></h1>" + next(ListController.cursor(), 20000), parked.body);
+
+        since = ListController.cursor();
+        Response empty = request("GET", "/show?since=" + since + "&wait=100", null);
+        assertEquals(200, empty.status);
+        assertEquals("<h1><pre></pre></h1>" + next(since, 100), empty.body);
+    }
+
+    @Test
+    public void refusesBadRequests() throws IOException {
+        assertEquals(400, request("GET", "/send?ttl=-1&x", null).status);
+        assertEquals(400, request("GET", "/show?limit=0", null).status);
+        assertEquals(400, request("GET", "/show?cursor=not-a-cursor", null).status);
+        assertEquals(400, request("GET", "/show?since=0&wait=-1", null).status);
+        assertEquals(400, request("GET", "/show?since=0&wait=300001", null).status);
+        assertEquals(400, request("GET", "/show?since=not-a-cursor&wait=100", null).status);
+        assertEquals(405, request("PUT", "/show", "x").status);
+    }
+
+    @Test
+    public void printsTheMetrics() throws IOException {
+        Response metrics = request("GET", "/metrics", null);
+        assertEquals(200, metrics.status);
+        assertTrue(metrics.body, metrics.body.contains("expirable_size 0\n"));
+    }
+
+    private Response request(String method, String path, String body) throws IOException {
+        URL url = new URL("http://localhost:" + server.getAddress().getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            OutputStream out = connection.getOutputStream();
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+            out.close();
+        }
+        Response response = new Response();
+        response.status = connection.getResponseCode();
+        InputStream in = response.status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (in != null) {
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) >= 0; )
+                bytes.write(buffer, 0, n);
+            in.close();
+        }
+        response.body = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        return response;
+    }
+
+    private static String next(String since, long wait) {
+        return "<a href=\"/show?limit=" + Integer.MAX_VALUE + "&since=" + since + "&wait=" + wait + "\">next</a>";
+    }
+
+    private static class Response {
+        int status;
+        String body;
+    }
+}
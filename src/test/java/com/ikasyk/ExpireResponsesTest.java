@@ -0,0 +1,141 @@
+package com.ikasyk;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import com.ikasyk.utils.CapacityExceededException;
+import com.ikasyk.utils.CapacityPolicy;
+import com.ikasyk.utils.FreshStore;
+import com.ikasyk.utils.ListController;
+import com.ikasyk.utils.OverflowMode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExpireResponsesTest {
+
+    @Rule
+    public final FreshStore store = new FreshStore();
+
+    @Test
+    public void mapsRefusalsToStatuses() {
+        assertEquals(429, ExpireResponses.refusalStatus(new CapacityExceededException("full", OverflowMode.REJECT)));
+        assertEquals(503, ExpireResponses.refusalStatus(new CapacityExceededException("full", OverflowMode.BLOCK)));
+        assertEquals(413, ExpireResponses.refusalStatus(new CapacityExceededException("full", OverflowMode.DROP_OLDEST)));
+    }
+
+    /**
+     * A retry of a too large add can never succeed, so it is 413 whatever the mode
+     */
+    @Test
+    public void answersTooLargeWith413() {
+        for (OverflowMode mode : OverflowMode.values()) {
+            CapacityExceededException e = new CapacityExceededException("too large", mode, true);
+            assertEquals(mode.toString(), 413, ExpireResponses.refusalStatus(e));
+            assertTrue(ExpireResponses.refusal(e, 0).contains("do not fit"));
+        }
+    }
+
+    @Test
+    public void printsOneLinePerMetric() {
+        StringWriter out = new StringWriter();
+        ExpireResponses.metrics(new PrintWriter(out));
+        for (String line : out.toString().split("\n"))
+            assertTrue(line, line.matches("expirable_[a-z_]+(\\{quantile=\"[0-9.]+\"\\})? -?[0-9]+"));
+        assertTrue(out.toString().contains("expirable_adds_total "));
+        assertTrue(out.toString().contains("expirable_send_latency_micros{quantile=\"0.99\"} "));
+    }
+
+    @Test
+    public void parsesTheLimitAndTheWait() {
+        assertEquals(Integer.MAX_VALUE, ExpireResponses.limit(null));
+        assertEquals(5, ExpireResponses.limit("5"));
+        assertEquals(-1, ExpireResponses.limit("0"));
+        assertEquals(-1, ExpireResponses.limit("many"));
+        assertEquals(0, ExpireResponses.wait(null));
+        assertEquals(ExpireResponses.MAX_WAIT, ExpireResponses.wait(Long.toString(ExpireResponses.MAX_WAIT)));
+        assertEquals(-1, ExpireResponses.wait("-1"));
+        assertEquals(-1, ExpireResponses.wait(Long.toString(ExpireResponses.MAX_WAIT + 1)));
+    }
+
+    @Test
+    public void matchesEntityTags() {
+        assertFalse(ExpireResponses.notModified(null, "\"a\""));
+        assertTrue(ExpireResponses.notModified("\"a\"", "\"a\""));
+        assertTrue(ExpireResponses.notModified("\"b\", W/\"a\"", "\"a\""));
+        assertTrue(ExpireResponses.notModified("*", "\"a\""));
+        assertFalse(ExpireResponses.notModified("\"b\"", "\"a\""));
+    }
+
+    @Test
+    public void readsWhetherTheClientTakesGzip() {
+        assertFalse(ExpireResponses.acceptsGzip(null));
+        assertTrue(ExpireResponses.acceptsGzip("deflate, gzip;q=0.5"));
+        assertTrue(ExpireResponses.acceptsGzip("*"));
+        assertFalse(ExpireResponses.acceptsGzip("gzip;q=0"));
+        assertFalse(ExpireResponses.acceptsGzip("br"));
+    }
+
+    @Test
+    public void sendAddsTheQueryWithoutItsTtl() {
+        ExpireResponses.Reply reply = ExpireResponses.send(null, "ttl=500&a<b");
+        assertEquals(200, reply.status);
+        assertTrue(reply.body, reply.body.contains("for 500 ms"));
+        assertTrue(reply.body, reply.body.contains("<pre>a&lt;b</pre>"));
+        assertEquals(400, ExpireResponses.send(null, "ttl=soon&a").status);
+        assertEquals("<h1><pre>a&lt;b\n</pre></h1>", ListController.getAll());
+    }
+
+    @Test
+    public void sendAllCountsTheNonEmptyLines() throws IOException {
+        ExpireResponses.Reply reply = ExpireResponses.sendAll("posts", new BufferedReader(new StringReader("a\n\nb\r\nc")), null);
+        assertEquals(200, reply.status);
+        assertNull(reply.retryAfter);
+        assertTrue(reply.body, reply.body.contains("Added 3 lines"));
+        assertTrue(reply.body, reply.body.contains("/show/posts"));
+        assertEquals(0, ListController.size());
+    }
+
+    /**
+     * A channel which holds fewer lines than a batch still takes a long POST batch by batch
+     */
+    @Test
+    public void capsTheBatchAtTheChannelLimit() throws IOException {
+        ListController.channels.define("tiny", 1000, CapacityPolicy.dropOldest(2, Long.MAX_VALUE));
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 10; i++)
+            body.append("line-").append(i).append('\n');
+        ExpireResponses.Reply reply = ExpireResponses.sendAll("tiny", new BufferedReader(new StringReader(body.toString())), null);
+        assertEquals(200, reply.status);
+        assertTrue(reply.body, reply.body.contains("Added 10 lines"));
+        StringWriter lines = new StringWriter();
+        ListController.write("tiny", lines, 100, null);
+        assertEquals("<h1><pre>line-8\nline-9\n</pre></h1>", lines.toString());
+    }
+
+    /**
+     * The message of a refused channel name quotes the request, it must reach the page escaped
+     */
+    @Test
+    public void escapesTheMessageOfABadRequest() {
+        ExpireResponses.Reply reply = ExpireResponses.send("<script>", "a");
+        assertEquals(400, reply.status);
+        assertFalse(reply.body, reply.body.contains("<script>"));
+    }
+
+    @Test
+    public void findsTheFirstDecodedParameter() {
+        assertEquals("a b", ExpireResponses.parameter("x=1&since=a+b&since=c", "since"));
+        assertNull(ExpireResponses.parameter("x=1", "since"));
+        assertNull(ExpireResponses.parameter(null, "since"));
+        assertNull(ExpireResponses.parameter("since=%zz", "since"));
+    }
+}
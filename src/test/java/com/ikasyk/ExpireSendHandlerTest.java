@@ -0,0 +1,44 @@
+package com.ikasyk;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import com.ikasyk.utils.FreshStore;
+import com.ikasyk.utils.ListController;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExpireSendHandlerTest {
+
+    // Lines beyond Latin-1, which a body decoded as ISO-8859-1 would garble
+    private static final String[] LINES = {"caf\u00e9", "\u043f\u0440\u0438\u0432\u0435\u0442", "\u65e5\u672c"};
+
+    @Rule
+    public final FreshStore store = new FreshStore();
+
+    @Rule
+    public final ServletServer server = new ServletServer();
+
+    /**
+     * A bulk /send without a charset in its content type is read as UTF-8
+     */
+    @Test(timeout = 30000)
+    public void readsABodyWithoutCharsetAsUtf8() throws IOException {
+        ServletServer.Response response = server.post("/send", LINES[0] + "\n" + LINES[1] + "\n" + LINES[2] + "\n", "text/plain");
+        assertEquals(200, response.status);
+        String all = ListController.getAll();
+        for (String line : LINES)
+            assertTrue(all, all.contains(line));
+        assertEquals(LINES.length, ListController.size());
+    }
+
+    @Test(timeout = 30000)
+    public void readsABodyInItsDeclaredCharset() throws IOException {
+        ServletServer.Response response = server.post("/send", LINES[1] + "\n", "text/plain;charset=utf-8");
+        assertEquals(200, response.status);
+        assertTrue(ListController.getAll().contains(LINES[1]));
+    }
+}
@@ -0,0 +1,131 @@
+package com.ikasyk;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import com.ikasyk.utils.FreshStore;
+import com.ikasyk.utils.ListController;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Long polls of /show?since=&lt;cursor&gt;&amp;wait=&lt;ms&gt;
+ */
+public class ExpireShowHandlerTest {
+
+    @Rule
+    public final FreshStore store = new FreshStore();
+
+    @Rule
+    public final ServletServer server = new ServletServer();
+
+    @Test(timeout = 30000)
+    public void answersAtOnceWhenThereAreNewLines() throws IOException {
+        ListController.add("old");
+        String since = ListController.cursor();
+        ListController.add("new");
+        ServletServer.Response poll = server.get("/show?since=" + since + "&wait=60000");
+        assertEquals(200, poll.status);
+        assertEquals("<h1><pre>new\n</pre></h1>" + next(ListController.cursor(), 60000), poll.body);
+    }
+
+    /**
+     * A parked poll is answered by the next add
+     */
+    @Test(timeout = 30000)
+    public void parksUntilALineIsAdded() throws Exception {
+        String since = ListController.cursor();
+        Thread sender = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ListController.add("late");
+            }
+        };
+        sender.start();
+        ServletServer.Response poll = server.get("/show?since=" + since + "&wait=20000");
+        sender.join();
+        assertEquals(200, poll.status);
+        assertEquals("<h1><pre>late\n</pre></h1>" + next(ListController.cursor(), 20000), poll.body);
+    }
+
+    /**
+     * A poll which has waited in vain continues from the same cursor
+     */
+    @Test(timeout = 30000)
+    public void timesOutEmpty() throws IOException {
+        ListController.add("seen");
+        String since = ListController.cursor();
+        ServletServer.Response poll = server.get("/show?since=" + since + "&wait=100");
+        assertEquals(200, poll.status);
+        assertEquals("<h1><pre></pre></h1>" + next(since, 100), poll.body);
+    }
+
+    @Test(timeout = 30000)
+    public void refusesABadWaitOrCursor() throws IOException {
+        assertEquals(400, server.get("/show?since=0&wait=-1").status);
+        assertEquals(400, server.get("/show?since=0&wait=300001").status);
+        assertEquals(400, server.get("/show?since=not-a-cursor&wait=0").status);
+        assertEquals(400, server.get("/show?since=not-a-cursor&wait=100").status);
+    }
+
+    /**
+     * The first page carries its ETag, a client which has it gets a 304 until the list changes
+     */
+    @Test(timeout = 30000)
+    public void answersAnUnchangedPageWith304() throws IOException {
+        ListController.add("a");
+        ServletServer.Response first = server.get("/show");
+        String etag = first.header("ETag");
+        assertEquals(200, first.status);
+        assertNotNull(etag);
+        assertEquals(304, revalidate("/show", etag).status);
+        assertEquals(304, revalidate("/show", "\"other\", W/" + etag).status);
+        assertEquals(200, revalidate("/show", "\"other\"").status);
+        ListController.add("b");
+        ServletServer.Response changed = revalidate("/show", etag);
+        assertEquals(200, changed.status);
+        assertEquals("<h1><pre>a\nb\n</pre></h1>", changed.body);
+        assertFalse(etag.equals(changed.header("ETag")));
+    }
+
+    @Test(timeout = 30000)
+    public void compressesALargePage() throws IOException {
+        for (int i = 0; i < 100; i++)
+            ListController.add("a line long enough to make the page worth compressing " + i);
+        String plain = server.get("/show").body;
+        HttpURLConnection connection = server.open("/show");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+        InputStream in = new GZIPInputStream(connection.getInputStream());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) >= 0; )
+            bytes.write(buffer, 0, n);
+        in.close();
+        assertEquals(plain, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private ServletServer.Response revalidate(String path, String ifNoneMatch) throws IOException {
+        HttpURLConnection connection = server.open(path);
+        connection.setRequestProperty("If-None-Match", ifNoneMatch);
+        return ServletServer.read(connection);
+    }
+
+    private static String next(String since, long wait) {
+        return "<a href=\"/show?limit=" + Integer.MAX_VALUE + "&since=" + since + "&wait=" + wait + "\">next</a>";
+    }
+}
@@ -0,0 +1,132 @@
+package com.ikasyk;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+
+import com.ikasyk.utils.FreshStore;
+import com.ikasyk.utils.ListController;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Server-Sent Events of /stream
+ */
+public class ExpireStreamHandlerTest {
+
+    @Rule
+    public final FreshStore store = new FreshStore();
+
+    @Rule
+    public final ServletServer server = new ServletServer();
+
+    /**
+     * Lines which are already there come first, later ones are pushed as they are added;
+     * a line of several lines is one event of several data fields
+     */
+    @Test(timeout = 30000)
+    public void pushesLinesAsTheyAreAdded() throws IOException {
+        String since = ListController.cursor();
+        ListController.add("one");
+        String first = ListController.cursor();
+        HttpURLConnection connection = server.open("/stream?since=" + since);
+        try {
+            BufferedReader in = events(connection);
+            assertEquals("text/event-stream;charset=utf-8", connection.getContentType().replace(" ", "").toLowerCase());
+            assertEquals("retry: 1000", in.readLine());
+            assertEquals("", in.readLine());
+            assertEvent(in, first, "data: one");
+            ListController.add("two\nthree");
+            assertEvent(in, ListController.cursor(), "data: two", "data: three");
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * A reconnecting EventSource continues after the Last-Event-ID it sends
+     */
+    @Test(timeout = 30000)
+    public void resumesAfterTheLastEventId() throws IOException {
+        ListController.add("a");
+        String seen = ListController.cursor();
+        ListController.add("b");
+        HttpURLConnection connection = server.open("/stream");
+        connection.setRequestProperty("Last-Event-ID", seen);
+        try {
+            BufferedReader in = events(connection);
+            in.readLine();
+            in.readLine();
+            assertEvent(in, ListController.cursor(), "data: b");
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Lines added by several threads while the stream is written arrive each once, in the order
+     * of the list
+     */
+    @Test(timeout = 30000)
+    public void deliversEveryLineOnceWhileLinesAreAdded() throws Exception {
+        final int writers = 4;
+        final int perWriter = 500;
+        HttpURLConnection connection = server.open("/stream?since=" + ListController.cursor());
+        try {
+            BufferedReader in = events(connection);
+            in.readLine();
+            in.readLine();
+            Thread[] threads = new Thread[writers];
+            for (int t = 0; t < writers; t++) {
+                final int writer = t;
+                threads[t] = new Thread() {
+                    public void run() {
+                        for (int i = 0; i < perWriter; i++)
+                            ListController.add(writer + ":" + i);
+                    }
+                };
+                threads[t].start();
+            }
+            int[] next = new int[writers];
+            String lastId = null;
+            for (int n = 0; n < writers * perWriter; n++) {
+                String id = in.readLine().substring("id: ".length());
+                String[] data = in.readLine().substring("data: ".length()).split(":");
+                assertEquals("", in.readLine());
+                if (lastId != null)
+                    assertTrue(lastId + " then " + id, Long.parseLong(id, Character.MAX_RADIX) > Long.parseLong(lastId, Character.MAX_RADIX));
+                lastId = id;
+                int writer = Integer.parseInt(data[0]);
+                assertEquals(next[writer]++, Integer.parseInt(data[1]));
+            }
+            for (Thread t : threads)
+                t.join();
+            assertEquals(ListController.cursor(), lastId);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void refusesAMalformedCursor() throws IOException {
+        assertEquals(400, server.get("/stream?since=not-a-cursor").status);
+    }
+
+    private static BufferedReader events(HttpURLConnection connection) throws IOException {
+        assertEquals(200, connection.getResponseCode());
+        return new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static void assertEvent(BufferedReader in, String id, String... data) throws IOException {
+        assertEquals("id: " + id, in.readLine());
+        for (String line : data)
+            assertEquals(line, in.readLine());
+        assertEquals("", in.readLine());
+    }
+}
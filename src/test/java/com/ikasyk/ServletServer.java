@@ -0,0 +1,114 @@
+package com.ikasyk;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.rules.ExternalResource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Runs the servlets of web.xml in an embedded Jetty on a free port of localhost for the time of a test
+ */
+public class ServletServer extends ExternalResource {
+
+    // Milliseconds a request of a test may take
+    private static final int TIMEOUT = 10000;
+
+    private Server server;
+
+    @Override
+    protected void before() throws Exception {
+        server = new Server();
+        ServerConnector connector = new ServerConnector(server);
+        connector.setHost("localhost");
+        connector.setPort(0);
+        server.addConnector(connector);
+        ServletContextHandler context = new ServletContextHandler();
+        context.addServlet(ExpireSendHandler.class, "/send");
+        context.addServlet(ExpireShowHandler.class, "/show").setAsyncSupported(true);
+        context.addServlet(ExpireStreamHandler.class, "/stream").setAsyncSupported(true);
+        context.addServlet(ExpireMetricsHandler.class, "/metrics");
+        server.setHandler(context);
+        server.start();
+    }
+
+    @Override
+    protected void after() {
+        try {
+            server.stop();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Opens a connection to the path, the request is sent when the response is read
+     */
+    public HttpURLConnection open(String path) throws IOException {
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        return connection;
+    }
+
+    public Response get(String path) throws IOException {
+        return read(open(path));
+    }
+
+    public Response post(String path, String body) throws IOException {
+        return post(path, body, "text/plain;charset=utf-8");
+    }
+
+    /**
+     * Posts the body encoded in UTF-8 with the content type, which may name no charset
+     */
+    public Response post(String path, String body, String contentType) throws IOException {
+        HttpURLConnection connection = open(path);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", contentType);
+        OutputStream out = connection.getOutputStream();
+        out.write(body.getBytes(StandardCharsets.UTF_8));
+        out.close();
+        return read(connection);
+    }
+
+    /**
+     * Reads the whole response
+     */
+    public static Response read(HttpURLConnection connection) throws IOException {
+        Response response = new Response();
+        response.status = connection.getResponseCode();
+        response.connection = connection;
+        InputStream in = response.status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (in != null) {
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) >= 0; )
+                bytes.write(buffer, 0, n);
+            in.close();
+        }
+        response.body = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        return response;
+    }
+
+    public static class Response {
+        public int status;
+        public String body;
+
+        // The answered connection, for its headers
+        public HttpURLConnection connection;
+
+        public String header(String name) {
+            return connection.getHeaderField(name);
+        }
+    }
+}
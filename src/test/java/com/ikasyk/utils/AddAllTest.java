@@ -0,0 +1,79 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.ikasyk.utils.ExpirableList.Iterator;
+import com.ikasyk.utils.SequencedExpirableList.SequencedIterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AddAllTest {
+
+    /**
+     * A batch is appended in its order after the elements already in the list, and it expires
+     * at once because the whole batch has one timestamp
+     */
+    @Test
+    public void appendsTheBatchInOrder() {
+        VirtualClock clock = new VirtualClock();
+        for (ExpirableList<String> list : lists(clock)) {
+            list.add("first");
+            clock.advance(5);
+            list.addAll(Arrays.asList("a", null, "b"));
+            list.addAll(new String[]{"c", "d"});
+            list.addAll(new ArrayList<String>());
+            String name = list.getClass().getSimpleName();
+            assertEquals(name, Arrays.asList("first", "a", null, "b", "c", "d"), elements(list));
+            clock.advance(96);
+            assertEquals(name, Arrays.asList("a", null, "b", "c", "d"), elements(list));
+            clock.advance(5);
+            assertTrue(name, elements(list).isEmpty());
+            clock.set(0);
+        }
+    }
+
+    /**
+     * The lock-free list numbers a batch with consecutive sequence numbers
+     */
+    @Test
+    public void numbersTheBatchConsecutively() {
+        ConcurrentExpirableList<Integer> list = new ConcurrentExpirableList<Integer>(100, ExpiryPolicy.lazy(), new VirtualClock());
+        Integer[] batch = new Integer[2000];
+        for (int i = 0; i < batch.length; i++)
+            batch[i] = i;
+        list.add(-1);
+        list.addAll(batch);
+        SequencedIterator<Integer> it = list.iteratorAfter(0);
+        it.next();
+        long previous = it.sequence();
+        for (int i = 0; i < batch.length; i++) {
+            assertEquals(Integer.valueOf(i), it.next());
+            assertEquals(previous + 1, it.sequence());
+            previous = it.sequence();
+        }
+        assertEquals(batch.length + 1, list.size());
+    }
+
+    private static List<ExpirableList<String>> lists(Clock clock) {
+        List<ExpirableList<String>> lists = new ArrayList<ExpirableList<String>>();
+        lists.add(new ArrayExpirableList<String>(100, ExpiryPolicy.lazy(), clock));
+        lists.add(new LinkedExpirableList<String>(100, ExpiryPolicy.lazy(), clock));
+        lists.add(new ConcurrentExpirableList<String>(100, ExpiryPolicy.lazy(), clock));
+        lists.add(new RingBufferExpirableList<String>(100, clock));
+        lists.add(new TimingWheelExpirableList<String>(100, clock));
+        return lists;
+    }
+
+    private static <T> List<T> elements(ExpirableList<T> list) {
+        List<T> result = new ArrayList<T>();
+        Iterator<T> it = list.iterator();
+        while (it.hasNext())
+            result.add(it.next());
+        return result;
+    }
+}
@@ -0,0 +1,131 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CapacityGuardTest {
+
+    private final VirtualClock clock = new VirtualClock();
+
+    @Test
+    public void rejectsWhenFull() {
+        ConcurrentExpirableList<String> list = list(CapacityPolicy.reject(2, Long.MAX_VALUE));
+        list.add("a");
+        list.add("b");
+        CapacityExceededException e = refusal(list, "c");
+        assertEquals(OverflowMode.REJECT, e.getMode());
+        assertFalse(e.isTooLarge());
+        assertEquals(2, list.size());
+    }
+
+    @Test
+    public void makesRoomByExpiry() {
+        ConcurrentExpirableList<String> list = list(CapacityPolicy.reject(2, Long.MAX_VALUE));
+        list.add("a", 10);
+        list.add("b", 10);
+        clock.advance(11);
+        list.add("c");
+        assertEquals(1, list.size());
+    }
+
+    @Test
+    public void dropsTheOldestWhenFull() {
+        ConcurrentExpirableList<String> list = list(CapacityPolicy.dropOldest(2, Long.MAX_VALUE));
+        list.add("a");
+        list.add("b");
+        list.add("c");
+        assertEquals(2, list.size());
+        assertFalse(list.contains("a"));
+        assertTrue(list.contains("c"));
+    }
+
+    @Test
+    public void blocksUntilTheTimeout() {
+        ConcurrentExpirableList<String> list = list(CapacityPolicy.block(1, Long.MAX_VALUE, 20));
+        list.add("a");
+        CapacityExceededException e = refusal(list, "b");
+        assertEquals(OverflowMode.BLOCK, e.getMode());
+        assertFalse(e.isTooLarge());
+    }
+
+    @Test
+    public void wakesABlockedAddOnRemoval() throws InterruptedException {
+        final ConcurrentExpirableList<String> list = list(CapacityPolicy.block(1, Long.MAX_VALUE, 10000));
+        list.add("a");
+        Thread remover = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                list.remove("a");
+            }
+        };
+        remover.start();
+        list.add("b");
+        remover.join();
+        assertEquals(1, list.size());
+        assertTrue(list.contains("b"));
+    }
+
+    /**
+     * A batch larger than the list can never be added, whatever the overflow mode says
+     */
+    @Test
+    public void tellsATooLargeAddApart() {
+        for (CapacityPolicy policy : Arrays.asList(CapacityPolicy.reject(2, Long.MAX_VALUE),
+                CapacityPolicy.block(2, Long.MAX_VALUE, 10000), CapacityPolicy.dropOldest(2, Long.MAX_VALUE))) {
+            ConcurrentExpirableList<String> list = list(policy);
+            try {
+                list.addAll(new String[]{"a", "b", "c"});
+                fail("Added to " + policy);
+            } catch (CapacityExceededException e) {
+                assertTrue(policy.toString(), e.isTooLarge());
+                assertEquals(policy.getOverflow(), e.getMode());
+            }
+            assertTrue(list.isEmpty());
+        }
+    }
+
+    @Test
+    public void countsBytesAndGivesThemBack() {
+        ConcurrentExpirableList<String> list = list(CapacityPolicy.reject(Integer.MAX_VALUE, 1000));
+        list.add("short");
+        long one = list.usedBytes();
+        assertTrue(one > 0);
+        list.add("short");
+        assertEquals(2 * one, list.usedBytes());
+        list.remove("short");
+        assertEquals(one, list.usedBytes());
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        try {
+            list.add(new String(chars));
+            fail();
+        } catch (CapacityExceededException e) {
+            assertEquals(OverflowMode.REJECT, e.getMode());
+            assertTrue(e.isTooLarge());
+        }
+        assertEquals(one, list.usedBytes());
+    }
+
+    private ConcurrentExpirableList<String> list(CapacityPolicy policy) {
+        return new ConcurrentExpirableList<String>(1000, ExpiryPolicy.lazy(), clock, policy);
+    }
+
+    private static CapacityExceededException refusal(ExpirableList<String> list, String element) {
+        try {
+            list.add(element);
+        } catch (CapacityExceededException e) {
+            return e;
+        }
+        throw new AssertionError("Added " + element);
+    }
+}
@@ -0,0 +1,153 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ikasyk.utils.SequencedExpirableList.SequencedIterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChannelRegistryTest {
+
+    private static final long IDLE = 100;
+
+    private final VirtualClock clock = new VirtualClock();
+
+    private final ChannelRegistry<String> registry =
+            new ChannelRegistry<String>(1000, CapacityPolicy.unbounded(), IDLE, 3, clock);
+
+    @Test
+    public void keepsChannelsApart() {
+        registry.add("a", "1");
+        registry.addAll("b", Arrays.asList("2", "3"));
+        assertEquals(1, registry.find("a").size());
+        assertEquals(2, registry.find("b").size());
+        assertNull(registry.find("c"));
+        assertEquals(2, registry.size());
+        assertEquals(3, registry.metrics().getAdds());
+    }
+
+    @Test
+    public void appliesTheSettingsOfAChannel() {
+        CapacityPolicy small = CapacityPolicy.reject(1, Long.MAX_VALUE);
+        registry.define("short", 10, small);
+        assertSame(small, registry.capacity("short"));
+        assertSame(CapacityPolicy.unbounded().getOverflow(), registry.capacity("other").getOverflow());
+        registry.add("short", "a");
+        try {
+            registry.add("short", "b");
+            fail();
+        } catch (CapacityExceededException e) {
+            assertEquals(OverflowMode.REJECT, e.getMode());
+        }
+        registry.add("long", "a");
+        clock.advance(11);
+        assertTrue(registry.find("short").isEmpty());
+        assertFalse(registry.find("long").isEmpty());
+    }
+
+    @Test
+    public void refusesInvalidNamesAndTooManyChannels() {
+        for (String name : new String[]{"", "a b", "<x>", "a/b"}) {
+            try {
+                registry.add(name, "x");
+                fail(name);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().startsWith("Channel: "));
+            }
+        }
+        registry.add("a", "x");
+        registry.add("b", "x");
+        registry.add("c", "x");
+        try {
+            registry.add("d", "x");
+            fail();
+        } catch (CapacityExceededException e) {
+            assertEquals(3, registry.size());
+        }
+    }
+
+    /**
+     * A channel created again numbers its elements after the old ones, so an old cursor still works
+     */
+    @Test
+    public void reclaimsIdleChannelsAndKeepsCursorsValid() {
+        registry.add("a", "old", 10);
+        SequencedIterator<String> it = registry.find("a").iteratorAfter(0);
+        it.next();
+        long cursor = it.sequence();
+        clock.advance(IDLE + 11);
+        registry.sweep();
+        assertEquals(0, registry.size());
+        assertNull(registry.find("a"));
+        registry.add("a", "new");
+        it = registry.find("a").iteratorAfter(cursor);
+        assertEquals("new", it.next());
+        assertTrue(it.sequence() > cursor);
+    }
+
+    /**
+     * A sweep of the registry passes every channel once, its check for an empty channel reads
+     * the counter the sweep has left and passes nothing again
+     */
+    @Test
+    public void sweepsEveryChannelOnce() {
+        for (int i = 0; i < 100; i++) {
+            registry.add("a", "x" + i);
+            registry.add("b", "y" + i);
+        }
+        clock.advance(IDLE);
+        long before = registry.metrics().getSweeps();
+        registry.sweep();
+        assertEquals(2, registry.metrics().getSweeps() - before);
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void keepsAChannelWhileItIsUsed() {
+        registry.add("a", "x", 10);
+        clock.advance(50);
+        registry.find("a");
+        clock.advance(60);
+        registry.sweep();
+        assertEquals(1, registry.size());
+    }
+
+    /**
+     * Adds racing with the sweeps which reclaim their channel must all land in a live channel
+     */
+    @Test
+    public void losesNoAddToAReclaimedChannel() throws InterruptedException {
+        final ChannelRegistry<String> registry = new ChannelRegistry<String>(1000, CapacityPolicy.unbounded(), 0, 10, clock);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger found = new AtomicInteger();
+        Thread sweeper = new Thread() {
+            public void run() {
+                while (running.get()) {
+                    SequencedExpirableList<String> list = registry.find("a");
+                    while (list != null && !list.isEmpty()) {
+                        list.remove(0);
+                        found.incrementAndGet();
+                    }
+                    registry.sweep();
+                }
+            }
+        };
+        sweeper.start();
+        int adds = 20000;
+        for (int i = 0; i < adds; i++)
+            registry.add("a", "x");
+        running.set(false);
+        sweeper.join();
+        SequencedExpirableList<String> list = registry.find("a");
+        assertEquals(adds, found.get() + (list == null ? 0 : list.size()));
+    }
+}
@@ -0,0 +1,102 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClockTest {
+
+    /**
+     * A sweep over many expired elements reads the clock once, not once per element
+     */
+    @Test
+    public void sweepReadsTheClockOnce() {
+        CountingClock clock = new CountingClock();
+        List<ExpirableList<String>> lists = new ArrayList<ExpirableList<String>>();
+        lists.add(new ArrayExpirableList<String>(10, ExpiryPolicy.lazy(), clock));
+        lists.add(new LinkedExpirableList<String>(10, ExpiryPolicy.lazy(), clock));
+        lists.add(new ConcurrentExpirableList<String>(10, ExpiryPolicy.lazy(), clock));
+        for (ExpirableList<String> list : lists) {
+            for (int i = 0; i < 1000; i++)
+                list.add("e" + i);
+        }
+        clock.advance(11);
+        for (ExpirableList<String> list : lists) {
+            clock.reads = 0;
+            ((Sweepable) list).sweep();
+            assertEquals(list.getClass().getSimpleName(), 1, clock.reads);
+            assertFalse(list.iterator().hasNext());
+        }
+    }
+
+    /**
+     * The lists expire by the clock they were given, not by the wall clock
+     */
+    @Test
+    public void listsFollowTheirClock() {
+        VirtualClock clock = new VirtualClock(1000);
+        List<ExpirableList<String>> lists = new ArrayList<ExpirableList<String>>();
+        lists.add(new ArrayExpirableList<String>(100, ExpiryPolicy.lazy(), clock));
+        lists.add(new LinkedExpirableList<String>(100, ExpiryPolicy.lazy(), clock));
+        lists.add(new ConcurrentExpirableList<String>(100, ExpiryPolicy.lazy(), clock));
+        lists.add(new RingBufferExpirableList<String>(100, clock));
+        lists.add(new TimingWheelExpirableList<String>(100, clock));
+        for (ExpirableList<String> list : lists)
+            list.add("a");
+        clock.advance(100);
+        for (ExpirableList<String> list : lists)
+            assertTrue(list.getClass().getSimpleName(), list.contains("a"));
+        clock.advance(1);
+        for (ExpirableList<String> list : lists)
+            assertFalse(list.getClass().getSimpleName(), list.contains("a"));
+    }
+
+    @Test
+    public void monotonicClockNeverMovesBack() {
+        MonotonicClock clock = new MonotonicClock();
+        long last = clock.millis();
+        assertTrue(Math.abs(last - System.currentTimeMillis()) < 1000);
+        for (int i = 0; i < 100000; i++) {
+            long now = clock.millis();
+            assertTrue(now >= last);
+            last = now;
+        }
+    }
+
+    @Test
+    public void cachedClockFollowsItsSource() throws InterruptedException {
+        VirtualClock source = new VirtualClock(500);
+        CachedClock clock = new CachedClock(source, 1);
+        try {
+            assertEquals(500, clock.millis());
+            source.advance(10);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (clock.millis() != 510 && System.currentTimeMillis() < deadline)
+                Thread.sleep(1);
+            assertEquals(510, clock.millis());
+        } finally {
+            clock.stop();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void virtualClockDoesNotAdvanceBack() {
+        new VirtualClock().advance(-1);
+    }
+
+    private static class CountingClock extends VirtualClock {
+        // Number of reads since the last reset
+        int reads;
+
+        @Override
+        public long millis() {
+            reads++;
+            return super.millis();
+        }
+    }
+}
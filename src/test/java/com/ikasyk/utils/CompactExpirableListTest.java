@@ -0,0 +1,117 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.ikasyk.utils.ExpirableList.Iterator;
+import com.ikasyk.utils.SequencedExpirableList.SequencedIterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompactExpirableListTest {
+
+    private static final String UNICODE = "\u00e9t\u00e9 \u65e5\u672c \uD83D\uDE00";
+
+    private final VirtualClock clock = new VirtualClock();
+
+    private final CompactExpirableList list = new CompactExpirableList(10, ExpiryPolicy.lazy(), clock);
+
+    @Test
+    public void decodesWhatItEncoded() {
+        list.add("plain");
+        list.add(UNICODE);
+        list.add("");
+        list.add(null);
+        assertEquals(Arrays.asList("plain", UNICODE, "", null), elements());
+        assertEquals(UNICODE, list.get(1));
+        assertTrue(list.contains(UNICODE));
+        assertTrue(list.contains(null));
+        assertFalse(list.contains(1));
+        list.remove(UNICODE);
+        assertEquals(Arrays.asList("plain", "", null), elements());
+        assertEquals("plain", list.remove(0));
+    }
+
+    /**
+     * A payload is shared from its second encode on, a payload seen once keeps its own copy
+     */
+    @Test
+    public void sharesRepeatedPayloads() {
+        Utf8Pool pool = new Utf8Pool();
+        Utf8String first = pool.encode("repeated");
+        Utf8String second = pool.encode("repeated");
+        Utf8String third = pool.encode("repeated");
+        assertFalse(first.isShared());
+        assertTrue(second.isShared());
+        assertSame(second, third);
+        assertEquals(first, second);
+        assertEquals(1, pool.size());
+        assertNull(pool.encode(null));
+        assertFalse(pool.encode("once").isShared());
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void comparesByBytes() {
+        Utf8String a = new Utf8String(UNICODE);
+        Utf8String b = new Utf8String(UNICODE);
+        assertNotSame(a.bytes(), b.bytes());
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals(UNICODE, a.toString());
+        assertFalse(a.equals(new Utf8String("other")));
+    }
+
+    @Test
+    public void followsTheWrappedListInExpiryAndSequence() {
+        list.add("a");
+        list.add("b", 5);
+        clock.advance(6);
+        SequencedIterator<String> it = list.iteratorAfter(0);
+        assertEquals("a", it.next());
+        assertEquals(10, it.expiresAt());
+        assertFalse(it.hasNext());
+        SequencedIterator<Utf8String> encoded = list.encodedAfter(0);
+        assertEquals(new Utf8String("a"), encoded.next());
+        assertEquals(it.sequence(), encoded.sequence());
+        clock.advance(5);
+        list.sweep();
+        assertTrue(list.isEmpty());
+        assertEquals(2, list.metrics().getAdds());
+    }
+
+    @Test
+    public void decodesForItsListeners() throws InterruptedException {
+        final LinkedBlockingQueue<List<String>> batches = new LinkedBlockingQueue<List<String>>();
+        ExpirationListener<String> listener = new ExpirationListener<String>() {
+            public void expired(List<String> elements, long[] expiresAt) {
+                batches.add(new ArrayList<String>(elements));
+            }
+        };
+        list.addExpirationListener(listener, ListenerPolicy.reject(16));
+        list.add(UNICODE);
+        list.add("b");
+        clock.advance(11);
+        list.sweep();
+        assertEquals(Arrays.asList(UNICODE, "b"), batches.poll(5, TimeUnit.SECONDS));
+        list.removeExpirationListener(listener);
+    }
+
+    private List<String> elements() {
+        List<String> result = new ArrayList<String>();
+        Iterator<String> it = list.iterator();
+        while (it.hasNext())
+            result.add(it.next());
+        return result;
+    }
+}
@@ -0,0 +1,383 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.ikasyk.utils.ExpirableList.Iterator;
+import com.ikasyk.utils.SequencedExpirableList.SequencedIterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentExpirableListTest {
+
+    private static final int WRITERS = 8;
+
+    private static final int PER_WRITER = 20000;
+
+    // Steps of every writer when it also removes, each removal scans the list
+    private static final int MIXED_STEPS = 2000;
+
+    // Time of life of the elements which must outlive the test
+    private static final long LONG_TTL = 1000000;
+
+    // Time of life of the elements which expire while the writers still write
+    private static final long SHORT_TTL = 5;
+
+    @Test
+    public void keepsTheOrderOfAdds() {
+        ConcurrentExpirableList<String> list = new ConcurrentExpirableList<String>(LONG_TTL);
+        for (int i = 0; i < 200; i++)
+            list.add("e" + i);
+        assertEquals(200, list.size());
+        assertEquals("e0", list.get(0));
+        assertEquals("e199", list.get(199));
+        Iterator<String> it = list.iterator();
+        for (int i = 0; i < 200; i++)
+            assertEquals("e" + i, it.next());
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void insertsAndRemovesByPosition() {
+        ConcurrentExpirableList<String> list = new ConcurrentExpirableList<String>(LONG_TTL);
+        list.add("b");
+        list.add(0, "a");
+        list.add(2, "d");
+        list.add(2, "c");
+        assertEquals("c", list.remove(2));
+        list.remove("a");
+        assertEquals("b", list.get(0));
+        assertEquals("d", list.get(1));
+        assertEquals(2, list.size());
+    }
+
+    @Test
+    public void removesExpiredElements() throws InterruptedException {
+        ConcurrentExpirableList<String> list = new ConcurrentExpirableList<String>(50);
+        list.add("a");
+        list.add("b");
+        assertTrue(list.contains("a"));
+        Thread.sleep(100);
+        assertFalse(list.contains("a"));
+        assertTrue(list.isEmpty());
+        assertFalse(list.iterator().hasNext());
+    }
+
+    @Test
+    public void cursorResumesAfterTheLastSeenElement() {
+        ConcurrentExpirableList<String> list = new ConcurrentExpirableList<String>(LONG_TTL, ExpiryPolicy.lazy(), new VirtualClock());
+        for (int i = 0; i < 1000; i++)
+            list.add("e" + i);
+        long cursor = 0;
+        for (int i = 0; i < 1000; i++) {
+            SequencedIterator<String> it = list.iteratorAfter(cursor);
+            assertEquals("e" + i, it.next());
+            cursor = it.sequence();
+        }
+        assertFalse(list.iteratorAfter(cursor).hasNext());
+        assertEquals(cursor, list.lastSequence());
+    }
+
+    /**
+     * size() unlinks the expired head and reads the counter, it does not walk the alive elements
+     */
+    @Test
+    public void countsWithoutWalkingTheList() {
+        VirtualClock clock = new VirtualClock();
+        ConcurrentExpirableList<String> list = new ConcurrentExpirableList<String>(LONG_TTL, ExpiryPolicy.eager(60000), clock);
+        for (int i = 0; i < 100; i++)
+            list.add("short" + i, SHORT_TTL);
+        for (int i = 0; i < 10000; i++)
+            list.add("e" + i);
+        clock.advance(SHORT_TTL + 1);
+        long scanned = list.metrics().getScanned();
+        assertEquals(10000, list.size());
+        assertTrue("Scanned " + (list.metrics().getScanned() - scanned), list.metrics().getScanned() - scanned <= 101);
+        scanned = list.metrics().getScanned();
+        assertEquals(10000, list.size());
+        assertFalse(list.isEmpty());
+        assertTrue(list.metrics().getScanned() - scanned <= 2);
+    }
+
+    /**
+     * An expired element behind a longer-lived one is counted until a sweep, but never read
+     */
+    @Test
+    public void skipsAnExpiredElementBehindAnAliveOne() {
+        VirtualClock clock = new VirtualClock();
+        ConcurrentExpirableList<String> list = new ConcurrentExpirableList<String>(LONG_TTL, ExpiryPolicy.eager(60000), clock);
+        list.add("long");
+        list.add("short", SHORT_TTL);
+        clock.advance(SHORT_TTL + 1);
+        assertEquals(2, list.size());
+        assertFalse(list.contains("short"));
+        assertEquals("long", list.get(0));
+        list.sweep();
+        assertEquals(1, list.size());
+        list.remove(0);
+        assertTrue(list.isEmpty());
+    }
+
+    /**
+     * An iteration resumes at the checkpoint before the cursor. Removed and expired elements,
+     * checkpoints among them, must not make it skip or repeat an element.
+     */
+    @Test
+    public void resumesFromCheckpointsOverRemovedElements() {
+        VirtualClock clock = new VirtualClock();
+        ConcurrentExpirableList<String> list = new ConcurrentExpirableList<String>(LONG_TTL, ExpiryPolicy.lazy(), clock);
+        for (int i = 0; i < 5000; i++) {
+            if (i % 3 == 0)
+                list.add("e" + i, SHORT_TTL);
+            else
+                list.add("e" + i);
+        }
+        List<Long> sequences = new ArrayList<Long>();
+        SequencedIterator<String> all = list.iteratorAfter(0);
+        while (all.hasNext()) {
+            all.next();
+            sequences.add(all.sequence());
+        }
+        for (int i = 0; i < 5000; i += 7)
+            list.remove("e" + i);
+        clock.advance(SHORT_TTL + 1);
+        for (int i = 0; i < sequences.size(); i++) {
+            SequencedIterator<String> it = list.iteratorAfter(sequences.get(i));
+            int next = i + 1;
+            while (next < 5000 && (next % 3 == 0 || next % 7 == 0))
+                next++;
+            if (next == 5000) {
+                assertFalse(it.hasNext());
+            } else {
+                assertEquals("After e" + i, "e" + next, it.next());
+                assertEquals(sequences.get(next), Long.valueOf(it.sequence()));
+            }
+        }
+    }
+
+    /**
+     * Writers append, insert at the head and remove their own elements at the same time. In the
+     * end every element which was not removed must be in the list exactly once, and the appends of
+     * every writer must keep their order.
+     */
+    @Test
+    public void losesNothingUnderConcurrentAddsAndRemoves() throws InterruptedException {
+        final ConcurrentExpirableList<String> list = new ConcurrentExpirableList<String>(LONG_TTL);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] writers = new Thread[WRITERS];
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            writers[w] = new Thread() {
+                public void run() {
+                    await(start);
+                    for (int i = 0; i < MIXED_STEPS; i++) {
+                        switch (i % 4) {
+                            case 0:
+                            case 1:
+                                list.add(writer + ":" + i);
+                                break;
+                            case 2:
+                                list.add(0, writer + ":" + i);
+                                break;
+                            default:
+                                list.remove(writer + ":" + (i - 3));
+                                break;
+                        }
+                    }
+                }
+            };
+        }
+        run(start, writers);
+
+        Set<String> seen = new HashSet<String>();
+        int[] next = new int[WRITERS];
+        Iterator<String> it = list.iterator();
+        while (it.hasNext()) {
+            String line = it.next();
+            assertTrue("Twice: " + line, seen.add(line));
+            int writer = Integer.parseInt(line.substring(0, line.indexOf(':')));
+            int i = Integer.parseInt(line.substring(line.indexOf(':') + 1));
+            assertTrue("Removed: " + line, i % 4 != 0);
+            if (i % 4 == 1) {
+                assertEquals("Append of writer " + writer, 4 * next[writer] + 1, i);
+                next[writer]++;
+            }
+        }
+        // Each writer keeps the appends and the inserts of every four steps
+        assertEquals(WRITERS * MIXED_STEPS / 2, seen.size());
+        assertEquals(seen.size(), list.size());
+    }
+
+    /**
+     * Writers add while readers follow the list with cursors and a sweeper expires the short-lived
+     * elements. Every reader must see every long-lived element exactly once, in the order each
+     * writer added them, with increasing sequence numbers.
+     */
+    @Test
+    public void losesNothingUnderConcurrentAddIterateAndExpire() throws InterruptedException {
+        final VirtualClock clock = new VirtualClock();
+        final ConcurrentExpirableList<String> list =
+                new ConcurrentExpirableList<String>(LONG_TTL, ExpiryPolicy.lazy(), clock);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+
+        Thread[] writers = new Thread[WRITERS];
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            writers[w] = new Thread() {
+                public void run() {
+                    await(start);
+                    for (int i = 0; i < PER_WRITER; i++) {
+                        if (i % 2 == 0)
+                            list.add(writer + ":" + i);
+                        else
+                            list.add(writer + ":" + i, SHORT_TTL);
+                    }
+                }
+            };
+        }
+
+        final List<List<String>> seen = new ArrayList<List<String>>();
+        Thread[] readers = new Thread[2];
+        for (int r = 0; r < readers.length; r++) {
+            final List<String> lines = new ArrayList<String>();
+            seen.add(lines);
+            readers[r] = new Thread() {
+                public void run() {
+                    await(start);
+                    long cursor = 0;
+                    boolean last;
+                    do {
+                        last = !writing.get();
+                        SequencedIterator<String> it = list.iteratorAfter(cursor);
+                        while (it.hasNext()) {
+                            String line = it.next();
+                            long sequence = it.sequence();
+                            if (sequence <= cursor)
+                                fail(failures, "Sequence " + sequence + " after " + cursor);
+                            cursor = sequence;
+                            if (index(line) % 2 == 0)
+                                lines.add(line);
+                        }
+                    } while (!last);
+                }
+            };
+        }
+
+        Thread sweeper = new Thread() {
+            public void run() {
+                await(start);
+                while (writing.get()) {
+                    clock.advance(1);
+                    list.sweep();
+                    Iterator<String> it = list.iterator();
+                    while (it.hasNext())
+                        it.next();
+                }
+            }
+        };
+
+        for (Thread t : writers)
+            t.start();
+        for (Thread t : readers)
+            t.start();
+        sweeper.start();
+        start.countDown();
+        for (Thread t : writers)
+            t.join();
+        writing.set(false);
+        sweeper.join();
+        for (Thread t : readers)
+            t.join();
+        assertTrue(failures.toString(), failures.isEmpty());
+
+        for (List<String> lines : seen)
+            assertWritten(lines);
+        clock.advance(SHORT_TTL + 1);
+        list.sweep();
+        List<String> alive = new ArrayList<String>();
+        Iterator<String> it = list.iterator();
+        while (it.hasNext())
+            alive.add(it.next());
+        assertWritten(alive);
+        assertEquals(alive.size(), list.size());
+    }
+
+    /**
+     * Measures the appends per millisecond of a few writers. The number is printed for comparison
+     * between runs, the test itself fails only if the writers hang.
+     */
+    @Test(timeout = 60000)
+    public void measuresConcurrentAddThroughput() throws InterruptedException {
+        final ConcurrentExpirableList<Integer> list = new ConcurrentExpirableList<Integer>(LONG_TTL);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] writers = new Thread[WRITERS];
+        for (int w = 0; w < WRITERS; w++) {
+            writers[w] = new Thread() {
+                public void run() {
+                    await(start);
+                    for (int i = 0; i < PER_WRITER; i++)
+                        list.add(i);
+                }
+            };
+        }
+        long started = System.nanoTime();
+        run(start, writers);
+        long millis = Math.max(1, (System.nanoTime() - started) / 1000000);
+        assertEquals(WRITERS * PER_WRITER, list.size());
+        System.out.println(WRITERS + " writers: " + (WRITERS * PER_WRITER / millis) + " adds/ms");
+    }
+
+    /**
+     * Checks that the lines hold the even lines of every writer, each once and in order
+     */
+    private static void assertWritten(List<String> lines) {
+        int[] next = new int[WRITERS];
+        for (String line : lines) {
+            int writer = Integer.parseInt(line.substring(0, line.indexOf(':')));
+            int i = index(line);
+            assertEquals("Line of writer " + writer, next[writer], i);
+            next[writer] += 2;
+        }
+        for (int w = 0; w < WRITERS; w++)
+            assertEquals("Lines of writer " + w, PER_WRITER, next[w]);
+    }
+
+    /**
+     * @return the number of the line among the lines of its writer
+     */
+    private static int index(String line) {
+        return Integer.parseInt(line.substring(line.indexOf(':') + 1));
+    }
+
+    private static void run(CountDownLatch start, Thread[] threads) throws InterruptedException {
+        for (Thread t : threads)
+            t.start();
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void fail(List<Throwable> failures, String message) {
+        synchronized (failures) {
+            failures.add(new AssertionError(message));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.ikasyk.utils.ExpirableList.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The indexed lists must answer like the same lists without the index
+ */
+public class EqualityIndexTest {
+
+    // Few distinct values, so most of them are duplicated
+    private static final int VALUES = 20;
+
+    private static final int STEPS = 20000;
+
+    @Test
+    public void indexedArrayListAnswersLikeAScan() {
+        VirtualClock clock = new VirtualClock();
+        compare(clock, new ArrayExpirableList<Integer>(50, ExpiryPolicy.lazy(), clock, true),
+                new ArrayExpirableList<Integer>(50, ExpiryPolicy.lazy(), clock, false));
+    }
+
+    @Test
+    public void indexedLinkedListAnswersLikeAScan() {
+        VirtualClock clock = new VirtualClock();
+        compare(clock, new LinkedExpirableList<Integer>(50, ExpiryPolicy.lazy(), clock, true),
+                new LinkedExpirableList<Integer>(50, ExpiryPolicy.lazy(), clock, false));
+    }
+
+    @Test
+    public void forgetsRemovedAndExpiredValues() {
+        VirtualClock clock = new VirtualClock();
+        LinkedExpirableList<String> list = new LinkedExpirableList<String>(10, ExpiryPolicy.lazy(), clock, true);
+        list.add("a");
+        list.add("a");
+        list.add(null);
+        list.remove("a");
+        assertTrue(list.contains("a"));
+        list.remove("a");
+        assertFalse(list.contains("a"));
+        assertTrue(list.contains(null));
+        clock.advance(11);
+        assertFalse(list.contains(null));
+    }
+
+    /**
+     * Removing and finding a duplicated value looks at its places in the index only, the equals
+     * of the elements before it is never called
+     */
+    @Test
+    public void findsDuplicatesWithoutAScan() {
+        List<ExpirableList<Key>> lists = new ArrayList<ExpirableList<Key>>();
+        lists.add(new ArrayExpirableList<Key>(1000, ExpiryPolicy.lazy(), new VirtualClock(), true));
+        lists.add(new LinkedExpirableList<Key>(1000, ExpiryPolicy.lazy(), new VirtualClock(), true));
+        for (ExpirableList<Key> list : lists) {
+            String name = list.getClass().getSimpleName();
+            for (int i = 0; i < 1000; i++)
+                list.add(new Key(i));
+            for (int i = 0; i < 100; i++)
+                list.add(new Key(-1));
+            Key.equalsCalls = 0;
+            for (int i = 0; i < 100; i++) {
+                assertTrue(name, list.contains(new Key(-1)));
+                list.remove(new Key(-1));
+            }
+            assertFalse(name, list.contains(new Key(-1)));
+            assertTrue(name + " " + Key.equalsCalls, Key.equalsCalls <= 300);
+            assertEquals(name, 1000, list.size());
+        }
+    }
+
+    private static void compare(VirtualClock clock, ExpirableList<Integer> indexed, ExpirableList<Integer> plain) {
+        Random random = new Random(42);
+        for (int step = 0; step < STEPS; step++) {
+            Integer value = random.nextInt(VALUES + 1) == 0 ? null : random.nextInt(VALUES);
+            switch (random.nextInt(7)) {
+                case 0:
+                case 1:
+                    indexed.add(value);
+                    plain.add(value);
+                    break;
+                case 2:
+                    long ttl = random.nextInt(100);
+                    indexed.add(value, ttl);
+                    plain.add(value, ttl);
+                    break;
+                case 3:
+                    indexed.remove((Object) value);
+                    plain.remove((Object) value);
+                    break;
+                case 5:
+                    int at = random.nextInt(plain.size() + 1);
+                    indexed.add(at, value);
+                    plain.add(at, value);
+                    break;
+                case 4:
+                    int size = plain.size();
+                    if (size > 0) {
+                        int index = random.nextInt(size);
+                        assertEquals(plain.remove(index), indexed.remove(index));
+                    }
+                    break;
+                default:
+                    clock.advance(random.nextInt(3));
+                    break;
+            }
+            assertEquals("Step " + step, plain.contains(value), indexed.contains(value));
+        }
+        assertEquals(elements(plain), elements(indexed));
+        for (int v = 0; v < VALUES; v++)
+            assertEquals(plain.contains(v), indexed.contains(v));
+    }
+
+    private static class Key {
+        // Calls of equals since the last reset
+        static int equalsCalls;
+
+        final int value;
+
+        Key(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            equalsCalls++;
+            return o instanceof Key && ((Key) o).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value;
+        }
+    }
+
+    private static <T> List<T> elements(ExpirableList<T> list) {
+        List<T> result = new ArrayList<T>();
+        Iterator<T> it = list.iterator();
+        while (it.hasNext())
+            result.add(it.next());
+        return result;
+    }
+}
@@ -0,0 +1,164 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import com.ikasyk.utils.ExpirableMap.ExpireAfter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExpirableMapTest {
+
+    private final VirtualClock clock = new VirtualClock();
+
+    /**
+     * With expire-after-write a read does not make the entry live longer
+     */
+    @Test
+    public void expiresAfterWrite() {
+        ExpirableMap<String, String> map = map(ExpireAfter.WRITE, 0);
+        map.put("a", "1");
+        clock.advance(60);
+        assertEquals("1", map.get("a"));
+        clock.advance(40);
+        assertEquals("1", map.get("a"));
+        clock.advance(1);
+        assertNull(map.get("a"));
+        assertFalse(map.containsKey("a"));
+        assertEquals(0, map.size());
+    }
+
+    /**
+     * With expire-after-access every read starts the time of life again, containsKey does not
+     */
+    @Test
+    public void expiresAfterAccess() {
+        ExpirableMap<String, String> map = map(ExpireAfter.ACCESS, 0);
+        map.put("a", "1");
+        for (int i = 0; i < 5; i++) {
+            clock.advance(60);
+            assertEquals("1", map.get("a"));
+        }
+        clock.advance(60);
+        assertTrue(map.containsKey("a"));
+        clock.advance(41);
+        assertFalse(map.containsKey("a"));
+    }
+
+    @Test
+    public void putAnswersThePreviousAliveValue() {
+        ExpirableMap<String, String> map = map(ExpireAfter.WRITE, 0);
+        assertNull(map.put("a", "1", 10));
+        assertEquals("1", map.put("a", "2", 10));
+        clock.advance(11);
+        assertNull(map.put("a", "3"));
+        assertEquals("3", map.remove("a"));
+        assertNull(map.remove("a"));
+    }
+
+    /**
+     * At the bound the write evicts the first head which is used no more often than the new entry
+     */
+    @Test
+    public void evictsTheLeastUsedHeadAtTheBound() {
+        ExpirableMap<String, String> map = map(ExpireAfter.WRITE, 3);
+        map.put("a", "1");
+        map.put("b", "2");
+        map.put("c", "3");
+        for (int i = 0; i < 5; i++)
+            map.get("a");
+        map.put("d", "4");
+        assertEquals(3, map.size());
+        assertTrue(map.containsKey("a"));
+        assertFalse(map.containsKey("b"));
+        assertTrue(map.containsKey("c"));
+        assertTrue(map.containsKey("d"));
+    }
+
+    /**
+     * An expired entry at the head makes room before any alive entry is evicted
+     */
+    @Test
+    public void dropsAnExpiredHeadBeforeEvicting() {
+        ExpirableMap<String, String> map = map(ExpireAfter.WRITE, 3);
+        map.put("short", "1", 5);
+        map.put("a", "2");
+        map.put("b", "3");
+        clock.advance(6);
+        map.put("c", "4");
+        assertFalse(map.containsKey("short"));
+        assertTrue(map.containsKey("a"));
+        assertTrue(map.containsKey("b"));
+        assertTrue(map.containsKey("c"));
+    }
+
+    /**
+     * A key which is read all the time survives a flood of keys which are written once
+     */
+    @Test
+    public void keepsAFrequentKeyThroughAFlood() {
+        ExpirableMap<String, String> map = map(ExpireAfter.WRITE, 16);
+        map.put("hot", "1");
+        for (int i = 0; i < 1000; i++) {
+            map.put("cold" + i, "x");
+            map.get("hot");
+        }
+        assertEquals("1", map.get("hot"));
+        assertEquals(16, map.size());
+    }
+
+    /**
+     * Threads read and write overlapping keys of a bounded map. A read answers nothing or a value
+     * written for that key, and the map ends within its bound.
+     */
+    @Test
+    public void staysConsistentUnderConcurrentGetAndPut() throws InterruptedException {
+        final ExpirableMap<Integer, String> map = map(ExpireAfter.ACCESS, 256);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<String> failures = new ArrayList<String>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final Random random = new Random(t);
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 50000; i++) {
+                        int key = random.nextInt(1024);
+                        if (random.nextInt(4) == 0) {
+                            map.put(key, "v" + key);
+                        } else {
+                            String value = map.get(key);
+                            if (value != null && !value.equals("v" + key)) {
+                                synchronized (failures) {
+                                    failures.add(key + " -> " + value);
+                                }
+                            }
+                        }
+                    }
+                }
+            };
+        }
+        for (Thread t : threads)
+            t.start();
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertTrue("Size " + map.size(), map.size() <= 256);
+    }
+
+    private <K, V> ExpirableMap<K, V> map(ExpireAfter expireAfter, int maximumSize) {
+        return new ExpirableMap<K, V>(100, expireAfter, maximumSize, ExpiryPolicy.lazy(), clock);
+    }
+}
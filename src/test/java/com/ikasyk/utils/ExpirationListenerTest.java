@@ -0,0 +1,160 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExpirationListenerTest {
+
+    // Longest wait for a batch which must come
+    private static final long TIMEOUT = 5;
+
+    private final VirtualClock clock = new VirtualClock();
+
+    @Test
+    public void deliversAnExpiryPassAsOneBatch() throws InterruptedException {
+        ConcurrentExpirableList<String> list = new ConcurrentExpirableList<String>(10, ExpiryPolicy.lazy(), clock);
+        Recorder recorder = new Recorder();
+        list.addExpirationListener(recorder, ListenerPolicy.reject(16));
+        list.add("a");
+        list.add("b", 5);
+        list.add("c");
+        clock.advance(11);
+        list.sweep();
+        Batch batch = recorder.take();
+        assertEquals(Arrays.asList("a", "b", "c"), batch.elements);
+        assertEquals(Arrays.asList(10L, 5L, 10L), batch.expiresAt);
+        assertNotSame(Thread.currentThread(), batch.thread);
+    }
+
+    @Test
+    public void doesNotReportExplicitRemovals() throws InterruptedException {
+        ArrayExpirableList<String> list = new ArrayExpirableList<String>(10, ExpiryPolicy.lazy(), clock);
+        Recorder recorder = new Recorder();
+        list.addExpirationListener(recorder, ListenerPolicy.reject(16));
+        list.add("removed");
+        list.add("expired");
+        list.remove("removed");
+        clock.advance(11);
+        list.sweep();
+        assertEquals(Arrays.asList("expired"), recorder.take().elements);
+        assertNull(recorder.poll());
+    }
+
+    /**
+     * A listener which does not keep up loses batches, the list does not wait for it
+     */
+    @Test
+    public void dropsBatchesOfASlowListener() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Recorder recorder = new Recorder();
+        ExpirationListener<String> slow = new ExpirationListener<String>() {
+            public void expired(List<String> elements, long[] expiresAt) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                recorder.expired(elements, expiresAt);
+            }
+        };
+        LinkedExpirableList<String> list = new LinkedExpirableList<String>(10, ExpiryPolicy.lazy(), clock);
+        list.addExpirationListener(slow, ListenerPolicy.reject(1));
+        for (int i = 0; i < 10; i++) {
+            list.add("e" + i);
+            clock.advance(11);
+            list.sweep();
+        }
+        release.countDown();
+        int delivered = 0;
+        while (recorder.take(1) != null)
+            delivered++;
+        assertTrue("Delivered " + delivered, delivered >= 1 && delivered <= 2);
+    }
+
+    @Test
+    public void stopsDeliveringToARemovedListener() throws InterruptedException {
+        ConcurrentExpirableList<String> list = new ConcurrentExpirableList<String>(10, ExpiryPolicy.lazy(), clock);
+        Recorder recorder = new Recorder();
+        list.addExpirationListener(recorder, ListenerPolicy.block(16, 1000));
+        list.add("a");
+        clock.advance(11);
+        list.sweep();
+        assertEquals(Arrays.asList("a"), recorder.take().elements);
+        list.removeExpirationListener(recorder);
+        list.add("b");
+        clock.advance(11);
+        list.sweep();
+        assertNull(recorder.take(1));
+    }
+
+    /**
+     * A listener which throws is counted in the metrics of the list and still gets the next batch
+     */
+    @Test
+    public void countsTheFailuresOfAListener() throws InterruptedException {
+        final Recorder recorder = new Recorder();
+        ExpirationListener<String> failing = new ExpirationListener<String>() {
+            public void expired(List<String> elements, long[] expiresAt) {
+                if (elements.contains("bad"))
+                    throw new IllegalStateException("bad");
+                recorder.expired(elements, expiresAt);
+            }
+        };
+        ArrayExpirableList<String> list = new ArrayExpirableList<String>(10, ExpiryPolicy.lazy(), clock);
+        list.addExpirationListener(failing, ListenerPolicy.block(16, 1000));
+        list.add("bad");
+        clock.advance(11);
+        list.sweep();
+        list.add("good");
+        clock.advance(11);
+        list.sweep();
+        assertEquals(Arrays.asList("good"), recorder.take().elements);
+        assertEquals(1, list.metrics().getListenerFailures());
+    }
+
+    private static class Batch {
+        final List<Object> elements;
+        final List<Long> expiresAt = new ArrayList<Long>();
+        final Thread thread = Thread.currentThread();
+
+        Batch(List<?> elements, long[] expiresAt) {
+            this.elements = new ArrayList<Object>(elements);
+            for (int i = 0; i < elements.size(); i++)
+                this.expiresAt.add(expiresAt[i]);
+        }
+    }
+
+    private static class Recorder implements ExpirationListener<String> {
+        private final LinkedBlockingQueue<Batch> batches = new LinkedBlockingQueue<Batch>();
+
+        public void expired(List<String> elements, long[] expiresAt) {
+            batches.add(new Batch(elements, expiresAt));
+        }
+
+        Batch take() throws InterruptedException {
+            Batch batch = take(TIMEOUT);
+            if (batch == null)
+                throw new AssertionError("No batch");
+            return batch;
+        }
+
+        Batch take(long seconds) throws InterruptedException {
+            return batches.poll(seconds, TimeUnit.SECONDS);
+        }
+
+        Batch poll() {
+            return batches.poll();
+        }
+    }
+}
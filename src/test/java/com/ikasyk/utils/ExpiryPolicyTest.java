@@ -0,0 +1,103 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExpiryPolicyTest {
+
+    /**
+     * In the eager and hybrid modes nothing reads the lists, the reaper alone must empty them
+     */
+    @Test
+    public void reaperSweepsListsInTheBackground() throws InterruptedException {
+        ArrayExpirableList<String> array = new ArrayExpirableList<String>(30, ExpiryPolicy.eager(10));
+        LinkedExpirableList<String> linked = new LinkedExpirableList<String>(30, ExpiryPolicy.hybrid(10, 2));
+        for (int i = 0; i < 100; i++) {
+            array.add("e" + i);
+            linked.add("e" + i);
+        }
+        assertEquals(100, array.size());
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((array.size() > 0 || linked.size() > 0) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, array.size());
+        assertEquals(0, linked.size());
+    }
+
+    @Test
+    public void lazyListsExpireInsideTheOperations() throws InterruptedException {
+        LinkedExpirableList<String> list = new LinkedExpirableList<String>(30, ExpiryPolicy.lazy());
+        list.add("a");
+        Thread.sleep(60);
+        assertFalse(list.contains("a"));
+        list.add("b");
+        assertEquals(1, list.size());
+    }
+
+    /**
+     * Until the reaper comes an expired element stays in an eager or hybrid list, the reads and
+     * the positions must not see it
+     */
+    @Test
+    public void readsSkipExpiredElementsInEveryMode() {
+        ExpiryPolicy[] policies = {ExpiryPolicy.lazy(), ExpiryPolicy.eager(60000), ExpiryPolicy.hybrid(60000, 1)};
+        for (ExpiryPolicy policy : policies) {
+            VirtualClock clock = new VirtualClock();
+            List<ExpirableList<String>> lists = new ArrayList<ExpirableList<String>>();
+            lists.add(new ArrayExpirableList<String>(1000, policy, clock));
+            lists.add(new ArrayExpirableList<String>(1000, policy, clock, true));
+            lists.add(new LinkedExpirableList<String>(1000, policy, clock));
+            lists.add(new LinkedExpirableList<String>(1000, policy, clock, true));
+            lists.add(new PackedArrayExpirableList<String>(1000, policy, clock));
+            for (ExpirableList<String> list : lists) {
+                list.add("b");
+                list.add("a", 10);
+                list.add("c");
+            }
+            clock.advance(11);
+            for (ExpirableList<String> list : lists) {
+                String name = list.getClass().getSimpleName() + " " + policy.getMode();
+                assertEquals(name, 2, list.size());
+                assertFalse(name, list.isEmpty());
+                assertEquals(name, "c", list.get(1));
+                assertFalse(name, list.contains("a"));
+                list.remove("a");
+                assertEquals(name, 2, list.size());
+                list.add(2, "x");
+                assertEquals(name, "x", list.get(2));
+                assertEquals(name, "c", list.remove(1));
+                try {
+                    list.get(2);
+                    fail(name);
+                } catch (IndexOutOfBoundsException e) {
+                    // two alive elements are left
+                }
+            }
+            clock.advance(1001);
+            for (ExpirableList<String> list : lists) {
+                String name = list.getClass().getSimpleName() + " " + policy.getMode();
+                assertEquals(name, 0, list.size());
+                assertTrue(name, list.isEmpty());
+                ((Sweepable) list).sweep();
+                assertEquals(name, 0, list.size());
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesANonPositiveInterval() {
+        ExpiryPolicy.eager(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesANonPositiveBudget() {
+        ExpiryPolicy.hybrid(10, 0);
+    }
+}
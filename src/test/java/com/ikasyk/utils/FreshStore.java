@@ -0,0 +1,27 @@
+package com.ikasyk.utils;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * Gives a test an empty store of the service on a virtual clock and puts the real one back after it,
+ * so tests of the front ends do not see each other's lines
+ */
+public class FreshStore extends ExternalResource {
+
+    // The clock of the fresh store
+    public final VirtualClock clock = new VirtualClock();
+
+    // The store of the service, put back after the test
+    private SequencedExpirableList<String> saved;
+
+    @Override
+    protected void before() {
+        saved = ListController.list;
+        ListController.list = new ConcurrentExpirableList<String>(10000, ExpiryPolicy.lazy(), clock);
+    }
+
+    @Override
+    protected void after() {
+        ListController.list = saved;
+    }
+}
@@ -0,0 +1,126 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HierarchicalTimingWheelTest {
+
+    /**
+     * Deadlines just before and after the bounds of the first three levels, so the nodes are
+     * cascaded down from upper slots before they expire
+     */
+    @Test
+    public void cascadesNodesDownToTheirExactTick() {
+        long[] expiries = {0, 62, 63, 64, 4094, 4095, 4096, 4160, 262143, 262144, 300000};
+        HierarchicalTimingWheel<Item> wheel = new HierarchicalTimingWheel<Item>(1, 0);
+        Item[] items = new Item[expiries.length];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = new Item(expiries[i]);
+            wheel.schedule(items[i], expiries[i]);
+        }
+        for (long now = 1; now <= 300001; now++) {
+            for (Item e = wheel.advance(now); e != null; e = (Item) e.wheelNext)
+                e.expiredAt = now;
+        }
+        for (Item item : items)
+            assertEquals("Expiry " + item.expired, item.expired + 1, item.expiredAt);
+        assertEquals(0, wheel.size());
+    }
+
+    /**
+     * Nodes with deadlines spread over several levels, scheduled between random jumps of the time:
+     * every node must come out at the first advance past its expiry, never earlier
+     */
+    @Test
+    public void expiresMixedDeadlinesInRandomSteps() {
+        Random random = new Random(42);
+        HierarchicalTimingWheel<Item> wheel = new HierarchicalTimingWheel<Item>(1, 0);
+        long now = 0;
+        int scheduled = 0;
+        int expired = 0;
+        while (now < 1000000) {
+            for (int i = random.nextInt(20); i > 0; i--) {
+                long ttl = random.nextBoolean() ? random.nextInt(100) : random.nextInt(500000);
+                wheel.schedule(new Item(now + ttl), now + ttl);
+                scheduled++;
+            }
+            long previous = now;
+            now += 1 + random.nextInt(random.nextBoolean() ? 10 : 5000);
+            for (Item e = wheel.advance(now); e != null; e = (Item) e.wheelNext) {
+                assertTrue("Late: " + e.expired + " at " + now, e.expired >= previous);
+                assertTrue("Early: " + e.expired + " at " + now, e.expired < now);
+                expired++;
+            }
+        }
+        Item e = wheel.advance(now + 600000);
+        while (e != null) {
+            expired++;
+            e = (Item) e.wheelNext;
+        }
+        assertEquals(scheduled, expired);
+        assertEquals(0, wheel.size());
+    }
+
+    /**
+     * A deadline past the span of the top level waits in its last slot and is placed again each
+     * time that slot comes, the time jumps between the occupied slots instead of every tick
+     */
+    @Test(timeout = 10000)
+    public void keepsADeadlinePastTheTopLevel() {
+        long span = 1L << 36;
+        HierarchicalTimingWheel<Item> wheel = new HierarchicalTimingWheel<Item>(1, 0);
+        Item far = new Item(3 * span + 12345);
+        Item near = new Item(span / 2);
+        wheel.schedule(far, far.expired);
+        wheel.schedule(near, near.expired);
+        assertEquals(near, wheel.advance(span / 2 + 1));
+        for (long now = span / 2 + 1; now <= far.expired; now += span / 7)
+            assertNull("At " + now, wheel.advance(now));
+        assertNull(wheel.advance(far.expired));
+        assertEquals(far, wheel.advance(far.expired + 1));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void forgetsCancelledNodes() {
+        HierarchicalTimingWheel<Item> wheel = new HierarchicalTimingWheel<Item>(1, 0);
+        Item near = new Item(10);
+        Item far = new Item(100000);
+        wheel.schedule(near, near.expired);
+        wheel.schedule(far, far.expired);
+        wheel.cancel(near);
+        wheel.cancel(far);
+        assertEquals(0, wheel.size());
+        assertNull(wheel.advance(200000));
+    }
+
+    /**
+     * A tick of several milliseconds rounds the expiry up, a node is never taken out early
+     */
+    @Test
+    public void roundsTheExpiryUpToTheTick() {
+        HierarchicalTimingWheel<Item> wheel = new HierarchicalTimingWheel<Item>(10, 0);
+        Item item = new Item(25);
+        wheel.schedule(item, item.expired);
+        assertNull(wheel.advance(25));
+        assertNull(wheel.advance(29));
+        assertEquals(item, wheel.advance(30));
+    }
+
+    private static class Item extends HierarchicalTimingWheel.Node {
+        // The last timestamp when the item is alive
+        final long expired;
+
+        // The timestamp of the advance which has taken the item out
+        long expiredAt = -1;
+
+        Item(long expired) {
+            this.expired = expired;
+        }
+    }
+}
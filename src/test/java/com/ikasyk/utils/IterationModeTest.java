@@ -0,0 +1,86 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.ikasyk.utils.ExpirableList.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class IterationModeTest {
+
+    @Test
+    public void snapshotDoesNotSeeLaterChanges() {
+        for (ExpirableList<String> list : lists(new VirtualClock())) {
+            list.add("a");
+            list.add("b");
+            Iterator<String> it = list.iterator(IterationMode.SNAPSHOT);
+            list.add("c");
+            list.remove("a");
+            assertEquals(name(list), Arrays.asList("a", "b"), drain(it));
+        }
+    }
+
+    /**
+     * Both modes fix the expiry cutoff when the iterator is created, an element which expires
+     * during the iteration is still returned
+     */
+    @Test
+    public void iteratorsKeepTheirExpiryCutoff() {
+        for (IterationMode mode : IterationMode.values()) {
+            VirtualClock clock = new VirtualClock();
+            for (ExpirableList<String> list : lists(clock)) {
+                list.add("a", 10);
+                list.add("b", 10);
+                Iterator<String> it = list.iterator(mode);
+                clock.advance(11);
+                assertEquals(name(list) + " " + mode, Arrays.asList("a", "b"), drain(it));
+                assertFalse(name(list) + " " + mode, list.iterator(mode).hasNext());
+                clock.set(0);
+            }
+        }
+    }
+
+    /**
+     * A weakly consistent iterator continues past elements removed under it
+     */
+    @Test
+    public void weaklyConsistentIteratorSurvivesRemovals() {
+        for (ExpirableList<String> list : lists(new VirtualClock())) {
+            for (int i = 0; i < 10; i++)
+                list.add("e" + i);
+            Iterator<String> it = list.iterator(IterationMode.WEAKLY_CONSISTENT);
+            assertEquals("e0", it.next());
+            assertEquals("e0", list.remove(0));
+            assertEquals("e5", list.remove(4));
+            List<String> rest = drain(it);
+            assertFalse(name(list) + " " + rest, rest.contains("e5"));
+            assertEquals(name(list) + " " + rest, "e9", rest.get(rest.size() - 1));
+        }
+    }
+
+    private static List<ExpirableList<String>> lists(Clock clock) {
+        List<ExpirableList<String>> lists = new ArrayList<ExpirableList<String>>();
+        lists.add(new ArrayExpirableList<String>(100, ExpiryPolicy.lazy(), clock));
+        lists.add(new LinkedExpirableList<String>(100, ExpiryPolicy.lazy(), clock));
+        lists.add(new ConcurrentExpirableList<String>(100, ExpiryPolicy.lazy(), clock));
+        lists.add(new RingBufferExpirableList<String>(100, clock));
+        lists.add(new TimingWheelExpirableList<String>(100, clock));
+        return lists;
+    }
+
+    private static String name(ExpirableList<?> list) {
+        return list.getClass().getSimpleName();
+    }
+
+    private static List<String> drain(Iterator<String> it) {
+        List<String> result = new ArrayList<String>();
+        while (it.hasNext())
+            result.add(it.next());
+        return result;
+    }
+}
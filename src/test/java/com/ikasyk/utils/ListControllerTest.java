@@ -0,0 +1,160 @@
+package com.ikasyk.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ListControllerTest {
+
+    // The store of the service, put back after every test
+    private SequencedExpirableList<String> saved;
+
+    /**
+     * Other tests add to the store of the service, every test here starts with an empty one
+     */
+    @Before
+    public void replaceTheList() {
+        saved = ListController.list;
+        ListController.list = new ConcurrentExpirableList<String>(10000, ExpiryPolicy.lazy(), new VirtualClock());
+    }
+
+    @After
+    public void restoreTheList() {
+        ListController.list = saved;
+    }
+
+    /**
+     * Pages of two lines follow each other by their cursors until the last one, which has none
+     */
+    @Test
+    public void writesPagesWithLimitAndCursor() throws IOException {
+        for (int i = 0; i < 5; i++)
+            ListController.add("page-" + i);
+        StringBuilder lines = new StringBuilder();
+        String cursor = null;
+        int pages = 0;
+        do {
+            StringWriter out = new StringWriter();
+            cursor = ListController.write(out, 2, cursor);
+            String page = out.toString();
+            lines.append(page.substring("<h1><pre>".length(), page.length() - "</pre></h1>".length()));
+            pages++;
+        } while (cursor != null);
+        assertEquals(3, pages);
+        assertEquals("page-0\npage-1\npage-2\npage-3\npage-4\n", lines.toString());
+    }
+
+    @Test
+    public void endsAtTheLastLine() throws IOException {
+        StringWriter out = new StringWriter();
+        assertNull(ListController.write(out, Integer.MAX_VALUE, null));
+        assertEquals(ListController.getAll(), out.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesAMalformedCursor() throws IOException {
+        ListController.write(new StringWriter(), 1, "not a cursor");
+    }
+
+    @Test
+    public void wakesOnlyTheWatchersOfTheChannel() {
+        Counter a = new Counter();
+        Counter b = new Counter();
+        ListController.watch("watch-a", a);
+        ListController.watch("watch-b", b);
+        ListController.add("watch-b", "x");
+        assertEquals(0, a.runs.get());
+        assertEquals(1, b.runs.get());
+        ListController.add("watch-b", "x");
+        assertEquals(1, b.runs.get());
+        assertTrue(ListController.unwatch(a));
+        assertFalse(ListController.unwatch(a));
+        ListController.add("watch-a", "x");
+        assertEquals(0, a.runs.get());
+    }
+
+    /**
+     * A watcher which watches again while it is woken up is woken up by the next add too
+     */
+    @Test
+    public void keepsAWatcherWhichWatchesAgainFromItsRun() {
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable watcher = new Runnable() {
+            public void run() {
+                if (runs.incrementAndGet() < 3)
+                    ListController.watch("again", this);
+            }
+        };
+        ListController.watch("again", watcher);
+        for (int i = 0; i < 5; i++)
+            ListController.add("again", "x");
+        assertEquals(3, runs.get());
+        assertFalse(ListController.unwatch(watcher));
+    }
+
+    @Test
+    public void movesAWatcherToTheChannelItWatchesLast() {
+        Counter watcher = new Counter();
+        ListController.watch("move-a", watcher);
+        ListController.watch("move-b", watcher);
+        ListController.add("move-a", "x");
+        assertEquals(0, watcher.runs.get());
+        ListController.add("move-b", "x");
+        assertEquals(1, watcher.runs.get());
+    }
+
+    @Test
+    public void readsAChannelFromItsCursor() {
+        String cursor = ListController.cursor("cursor-a");
+        assertFalse(ListController.hasAfter("cursor-a", cursor));
+        ListController.add("cursor-a", "x");
+        ListController.add("cursor-b", "y");
+        assertTrue(ListController.hasAfter("cursor-a", cursor));
+        assertEquals(ListController.maxElements(null), ListController.maxElements("cursor-a"));
+    }
+
+    /**
+     * "Aa" and "BB" have the same String hash, the pages which show them must still differ in their tags
+     */
+    @Test
+    public void tagsPagesByTheirContents() {
+        ListController.add("tag-a", "Aa");
+        ListController.add("tag-b", "BB");
+        String a = ListController.page("tag-a", 10).etag();
+        String b = ListController.page("tag-b", 10).etag();
+        assertTrue(a, a.matches("\"[0-9a-f]{32}\""));
+        assertFalse(a.equals(b));
+        assertEquals(a, ListController.page("tag-a", 10).etag());
+    }
+
+    /**
+     * A page which is read all the time stays cached while more pages than the cache holds are rendered
+     */
+    @Test
+    public void keepsARecentlyUsedPage() {
+        ListController.add("lru", "line");
+        ListController.Page page = ListController.page("lru", 1);
+        for (int limit = 2; limit <= 3000; limit++) {
+            ListController.page("lru", limit);
+            assertSame(page, ListController.page("lru", 1));
+        }
+    }
+
+    private static class Counter implements Runnable {
+        final AtomicInteger runs = new AtomicInteger();
+
+        public void run() {
+            runs.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ListFormatTest {
+
+    @Test
+    public void negotiatesByQuality() {
+        assertEquals(ListFormat.HTML, ListFormat.negotiate(null));
+        assertEquals(ListFormat.HTML, ListFormat.negotiate("text/html,application/json"));
+        assertEquals(ListFormat.JSON, ListFormat.negotiate("text/html;q=0.5, application/json"));
+        assertEquals(ListFormat.BINARY, ListFormat.negotiate("application/octet-stream"));
+        assertEquals(ListFormat.HTML, ListFormat.negotiate("image/png"));
+        assertEquals(ListFormat.HTML, ListFormat.negotiate("application/json;q=0, */*;q=0.1"));
+        assertEquals(ListFormat.JSON, ListFormat.negotiate("application/json;q=oops, text/html;q=0.1, application/json"));
+    }
+
+    @Test
+    public void escapesMarkup() {
+        assertEquals("&lt;a href=&quot;x&quot;&gt;&amp;&#39;", ListFormat.escapeHtml("<a href=\"x\">&'"));
+        assertEquals("plain", ListFormat.escapeHtml("plain"));
+        assertNull(ListFormat.escapeHtml(null));
+        assertEquals("<h1><pre>&lt;b&gt;\nnull\n</pre></h1>", write(ListFormat.HTML, "<b>", null));
+    }
+
+    @Test
+    public void writesJson() {
+        assertEquals("{\"lines\":[{\"sequence\":1,\"expiresAt\":100,\"line\":\"a\\\"b\\\\\\n\\u0001\"},"
+                        + "{\"sequence\":2,\"expiresAt\":100,\"line\":null}],\"cursor\":\"2\",\"next\":null}",
+                write(ListFormat.JSON, "a\"b\\\n\u0001", null));
+    }
+
+    @Test
+    public void writesLengthPrefixedRecords() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        ListFormat.BINARY.begin(buffer);
+        ListFormat.BINARY.line(buffer, "\u00e9".getBytes(StandardCharsets.UTF_8), 7, 100, true);
+        ListFormat.BINARY.line(buffer, null, 8, 200, false);
+        ListFormat.BINARY.end(buffer, "8", "9");
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        byte[] magic = new byte[5];
+        in.readFully(magic);
+        assertArrayEquals(new byte[]{'E', 'X', 'P', 'L', 1}, magic);
+        assertEquals(7, in.readLong());
+        assertEquals(100, in.readLong());
+        assertEquals(2, in.readInt());
+        byte[] line = new byte[2];
+        in.readFully(line);
+        assertEquals("\u00e9", new String(line, StandardCharsets.UTF_8));
+        assertEquals(8, in.readLong());
+        assertEquals(200, in.readLong());
+        assertEquals(-1, in.readInt());
+        assertEquals(0, in.readLong());
+        assertEquals(8, in.readLong());
+        assertEquals(9, in.readLong());
+        assertEquals(-1, in.read());
+    }
+
+    /**
+     * Pages of a channel continue each other through their cursors
+     */
+    @Test
+    public void pagesThroughAChannel() throws IOException {
+        for (int i = 0; i < 5; i++)
+            ListController.add("format-pages", "line " + i);
+        StringBuilder all = new StringBuilder();
+        String cursor = null;
+        int pages = 0;
+        do {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            cursor = ListController.write("format-pages", out, ListFormat.HTML, 2, cursor);
+            all.append(out.toString("UTF-8").replace("<h1><pre>", "").replace("</pre></h1>", ""));
+            pages++;
+        } while (cursor != null);
+        assertEquals(3, pages);
+        assertEquals("line 0\nline 1\nline 2\nline 3\nline 4\n", all.toString());
+    }
+
+    /**
+     * Writes the lines with sequence numbers 1, 2, ... which all expire at 100
+     */
+    private static String write(ListFormat format, String... lines) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            format.begin(out);
+            for (int i = 0; i < lines.length; i++)
+                format.line(out, lines[i] == null ? null : lines[i].getBytes(StandardCharsets.UTF_8), i + 1, 100, i == 0);
+            format.end(out, Integer.toString(lines.length), null);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
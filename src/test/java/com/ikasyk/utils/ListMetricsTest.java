@@ -0,0 +1,77 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ListMetricsTest {
+
+    /**
+     * A percentile is the upper bound of its bucket, at most an eighth above the value
+     */
+    @Test
+    public void histogramBoundsThePercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(0.5));
+        for (long v = 1; v <= 1000000; v++)
+            histogram.record(v);
+        assertEquals(1000000, histogram.count());
+        assertEquals(500000.5, histogram.mean(), 0.001);
+        assertWithin(500000, histogram.percentile(0.5));
+        assertWithin(990000, histogram.percentile(0.99));
+        assertWithin(1000000, histogram.max());
+    }
+
+    @Test
+    public void histogramKeepsSmallValuesExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(3);
+        assertEquals(0, histogram.percentile(0.5));
+        assertEquals(3, histogram.max());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void histogramRefusesAFractionAboveOne() {
+        new LatencyHistogram().percentile(1.5);
+    }
+
+    @Test
+    public void listCountsAddsExpirationsAndSweeps() {
+        VirtualClock clock = new VirtualClock();
+        ConcurrentExpirableList<String> list = new ConcurrentExpirableList<String>(10, ExpiryPolicy.lazy(), clock);
+        list.add("a");
+        list.addAll(new String[]{"b", "c"});
+        list.add("d", 100);
+        clock.advance(11);
+        list.sweep();
+        ListMetrics metrics = list.metrics();
+        assertEquals(4, metrics.getAdds());
+        assertEquals(3, metrics.getExpirations());
+        assertTrue(metrics.getSweeps() >= 1);
+        assertTrue(metrics.getScanned() >= 3);
+        assertTrue(metrics.getSweepNanos().count() >= 1);
+    }
+
+    @Test
+    public void registersTheBean() throws Exception {
+        ListController.size();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(ExpirableMetrics.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+        long adds = (Long) server.getAttribute(name, "Adds");
+        ListController.add("line");
+        assertEquals(adds + 1, ((Long) server.getAttribute(name, "Adds")).longValue());
+        assertEquals(ListController.size(), ((Integer) server.getAttribute(name, "Size")).intValue());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(expected + " vs " + actual, actual >= expected && actual <= expected + expected / 8);
+    }
+}
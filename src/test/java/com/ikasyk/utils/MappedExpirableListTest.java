@@ -0,0 +1,103 @@
+package com.ikasyk.utils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.ikasyk.utils.ExpirableList.Iterator;
+import com.ikasyk.utils.SequencedExpirableList.SequencedIterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappedExpirableListTest {
+
+    private final VirtualClock clock = new VirtualClock();
+
+    // A log smaller than a few records, so the tests wrap it around and grow it
+    private final MappedExpirableList list = new MappedExpirableList(100, ExpiryPolicy.lazy(), clock, null, 64);
+
+    @After
+    public void close() throws IOException {
+        list.close();
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() {
+        list.add("plain");
+        list.add("\u00e9t\u00e9 \u65e5\u672c");
+        list.add("");
+        list.add(null);
+        assertEquals(Arrays.asList("plain", "\u00e9t\u00e9 \u65e5\u672c", "", null), elements());
+        assertTrue(list.contains(null));
+        assertTrue(list.contains("plain"));
+        assertNull(list.get(3));
+    }
+
+    @Test
+    public void growsTheLogForRecordsWhichDoNotFit() {
+        for (int i = 0; i < 100; i++)
+            list.add("element number " + i);
+        assertEquals(100, list.size());
+        for (int i = 0; i < 100; i++)
+            assertEquals("element number " + i, list.get(i));
+    }
+
+    /**
+     * Expired records give their space back, so the log is reused around its end
+     */
+    @Test
+    public void reusesTheSpaceOfExpiredRecords() {
+        for (int round = 0; round < 50; round++) {
+            list.add("a" + round);
+            list.add("b" + round);
+            clock.advance(101);
+            list.sweep();
+            assertTrue(list.isEmpty());
+            assertEquals(0, list.usedBytes());
+        }
+        list.add("last");
+        assertEquals(Arrays.asList("last"), elements());
+    }
+
+    @Test
+    public void cursorSurvivesExpiryOfThePreviousElements() {
+        list.add("first");
+        clock.advance(50);
+        list.add("second");
+        SequencedIterator<String> it = list.iteratorAfter(0);
+        assertEquals("first", it.next());
+        long cursor = it.sequence();
+        clock.advance(51);
+        list.add("third");
+        it = list.iteratorAfter(cursor);
+        assertEquals("second", it.next());
+        assertEquals("third", it.next());
+        assertFalse(it.hasNext());
+        assertEquals(it.sequence(), list.lastSequence());
+    }
+
+    @Test
+    public void removesByIndexAndByValue() {
+        list.add("a");
+        list.add("b");
+        list.add("c");
+        assertEquals("b", list.remove(1));
+        list.remove("a");
+        assertEquals(Arrays.asList("c"), elements());
+    }
+
+    private List<String> elements() {
+        List<String> result = new ArrayList<String>();
+        Iterator<String> it = list.iterator();
+        while (it.hasNext())
+            result.add(it.next());
+        return result;
+    }
+}
@@ -0,0 +1,99 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.ikasyk.utils.ExpirableList.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PackedArrayExpirableListTest {
+
+    @Test
+    public void expiresEachElementByItsOwnTime() {
+        VirtualClock clock = new VirtualClock();
+        PackedArrayExpirableList<String> list = new PackedArrayExpirableList<String>(100, ExpiryPolicy.lazy(), clock);
+        for (int i = 0; i < 100; i++)
+            list.add("e" + i, i % 3 == 0 ? 10 : 100);
+        clock.advance(11);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            if (i % 3 != 0)
+                expected.add("e" + i);
+        }
+        assertEquals(expected, elements(list));
+        assertEquals(expected.size(), list.size());
+        clock.advance(90);
+        list.sweep();
+        assertTrue(list.isEmpty());
+    }
+
+    /**
+     * Inserts and removals shift the expiry times together with the elements
+     */
+    @Test
+    public void keepsTheExpiryWithItsElementWhenShifting() {
+        VirtualClock clock = new VirtualClock();
+        PackedArrayExpirableList<String> list = new PackedArrayExpirableList<String>(100, ExpiryPolicy.lazy(), clock);
+        list.add("short", 10);
+        list.add("long");
+        clock.advance(5);
+        list.add(0, "inserted");
+        assertEquals(Arrays.asList("inserted", "short", "long"), elements(list));
+        assertEquals("inserted", list.remove(0));
+        clock.advance(6);
+        assertEquals(Arrays.asList("long"), elements(list));
+        assertEquals("long", list.get(0));
+    }
+
+    @Test
+    public void growsPastItsInitialCapacity() {
+        PackedArrayExpirableList<Integer> list = new PackedArrayExpirableList<Integer>(1000, ExpiryPolicy.lazy(), new VirtualClock());
+        Integer[] batch = new Integer[500];
+        for (int i = 0; i < batch.length; i++)
+            batch[i] = i;
+        list.addAll(batch);
+        for (int i = 500; i < 1000; i++)
+            list.add(i);
+        assertEquals(1000, list.size());
+        for (int i = 0; i < 1000; i++)
+            assertEquals(Integer.valueOf(i), list.get(i));
+    }
+
+    @Test
+    public void findsAndRemovesNull() {
+        PackedArrayExpirableList<String> list = new PackedArrayExpirableList<String>(1000, ExpiryPolicy.lazy(), new VirtualClock());
+        list.add("a");
+        list.add(null);
+        list.add("b");
+        assertTrue(list.contains(null));
+        assertNull(list.get(1));
+        list.remove((Object) null);
+        assertFalse(list.contains(null));
+        assertEquals(Arrays.asList("a", "b"), elements(list));
+    }
+
+    @Test
+    public void snapshotDoesNotSeeLaterAdds() {
+        PackedArrayExpirableList<String> list = new PackedArrayExpirableList<String>(1000, ExpiryPolicy.lazy(), new VirtualClock());
+        list.add("a");
+        Iterator<String> it = list.iterator(IterationMode.SNAPSHOT);
+        list.add("b");
+        assertEquals("a", it.next());
+        assertFalse(it.hasNext());
+    }
+
+    private static <T> List<T> elements(ExpirableList<T> list) {
+        List<T> result = new ArrayList<T>();
+        Iterator<T> it = list.iterator();
+        while (it.hasNext())
+            result.add(it.next());
+        return result;
+    }
+}
@@ -0,0 +1,132 @@
+package com.ikasyk.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.ikasyk.utils.ExpirableList.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentExpirableListTest {
+
+    // Snapshots are taken by the tests, never by the reaper
+    private static final long SNAPSHOT_INTERVAL = 3600000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final VirtualClock clock = new VirtualClock(1000);
+
+    @Test
+    public void replaysTheAliveElementsAfterARestart() throws IOException {
+        File dir = folder.newFolder();
+        PersistentExpirableList list = open(dir);
+        list.add("a");
+        list.add("short", 10);
+        list.addAll(Arrays.asList("b", null, "c"));
+        list.close();
+
+        clock.advance(11);
+        PersistentExpirableList reopened = open(dir);
+        assertEquals(Arrays.asList("a", "b", null, "c"), elements(reopened));
+        reopened.add("d");
+        reopened.close();
+
+        PersistentExpirableList again = open(dir);
+        assertEquals(Arrays.asList("a", "b", null, "c", "d"), elements(again));
+        again.close();
+    }
+
+    /**
+     * A restart reads the snapshot and only the records after its mark
+     */
+    @Test
+    public void restartsFromTheSnapshot() throws IOException {
+        File dir = folder.newFolder();
+        PersistentExpirableList list = open(dir);
+        list.add("a");
+        list.add("b", 10);
+        clock.advance(11);
+        list.sweep();
+        list.add("c");
+        list.close();
+
+        assertTrue(new File(dir, "snapshot").isFile());
+        PersistentExpirableList reopened = open(dir);
+        assertEquals(Arrays.asList("a", "c"), elements(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void expiresElementsReplayedFromTheLog() throws IOException {
+        File dir = folder.newFolder();
+        PersistentExpirableList list = open(dir);
+        list.add("a", 100);
+        list.close();
+
+        clock.advance(50);
+        PersistentExpirableList reopened = open(dir);
+        assertEquals(Arrays.asList("a"), elements(reopened));
+        clock.advance(51);
+        assertTrue(elements(reopened).isEmpty());
+        reopened.close();
+    }
+
+    /**
+     * Sealed segments are deleted as a whole once their latest record has expired
+     */
+    @Test
+    public void deletesExpiredSegments() throws IOException {
+        File dir = folder.newFolder();
+        ExpirableLog log = new ExpirableLog(dir, 256, clock, null);
+        for (int i = 0; i < 100; i++)
+            log.commit(log.append(clock.millis() + 10, "record " + i));
+        int segments = segments(dir);
+        assertTrue(segments > 1);
+        clock.advance(11);
+        log.sweep();
+        assertEquals(1, segments(dir));
+        log.close();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void refusesToRemove() throws IOException {
+        PersistentExpirableList list = open(folder.newFolder());
+        try {
+            list.add("a");
+            list.remove(0);
+        } finally {
+            list.close();
+        }
+    }
+
+    private PersistentExpirableList open(File dir) throws IOException {
+        return new PersistentExpirableList(new ConcurrentExpirableList<String>(1000, ExpiryPolicy.lazy(), clock),
+                1000, dir, SNAPSHOT_INTERVAL, clock);
+    }
+
+    private static int segments(File dir) {
+        int count = 0;
+        for (String name : dir.list()) {
+            if (name.startsWith("segment-"))
+                count++;
+        }
+        return count;
+    }
+
+    private static List<String> elements(ExpirableList<String> list) {
+        List<String> result = new ArrayList<String>();
+        Iterator<String> it = list.iterator();
+        while (it.hasNext())
+            result.add(it.next());
+        return result;
+    }
+}
@@ -0,0 +1,149 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import com.ikasyk.utils.ExpirableList.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RingBufferExpirableListTest {
+
+    // Time of life of the elements which must outlive the test
+    private static final long LONG_TTL = 1000000;
+
+    /**
+     * Adds and removes at both ends and in the middle, so the head goes around the array and
+     * the array grows with the elements wrapped around its end
+     */
+    @Test
+    public void answersLikeAListWhileWrappingAround() {
+        RingBufferExpirableList<String> list = new RingBufferExpirableList<String>(LONG_TTL);
+        List<String> expected = new LinkedList<String>();
+        Random random = new Random(42);
+        for (int step = 0; step < 5000; step++) {
+            int size = expected.size();
+            switch (random.nextInt(5)) {
+                case 0:
+                case 1:
+                    list.add("e" + step);
+                    expected.add("e" + step);
+                    break;
+                case 2:
+                    int index = random.nextInt(size + 1);
+                    list.add(index, "e" + step);
+                    expected.add(index, "e" + step);
+                    break;
+                case 3:
+                    if (size > 0) {
+                        int i = random.nextInt(size);
+                        assertEquals(expected.remove(i), list.remove(i));
+                    }
+                    break;
+                default:
+                    if (size > 0) {
+                        String value = expected.get(random.nextInt(size));
+                        list.remove(value);
+                        expected.remove(value);
+                    }
+                    break;
+            }
+            assertEquals(expected.size(), list.size());
+        }
+        assertEquals(expected, elements(list));
+        for (int i = 0; i < expected.size(); i++)
+            assertEquals(expected.get(i), list.get(i));
+    }
+
+    @Test
+    public void dropsTheExpiredHead() throws InterruptedException {
+        RingBufferExpirableList<String> list = new RingBufferExpirableList<String>(50);
+        for (int i = 0; i < 20; i++)
+            list.add("old" + i);
+        Thread.sleep(100);
+        list.add("new");
+        assertEquals(1, list.size());
+        assertEquals("new", list.get(0));
+        assertFalse(list.contains("old0"));
+    }
+
+    /**
+     * An element inserted before older ones breaks the order of expiry times, the list must
+     * still drop exactly the expired ones
+     */
+    @Test
+    public void expiresOutOfOrderInserts() throws InterruptedException {
+        RingBufferExpirableList<String> list = new RingBufferExpirableList<String>(200);
+        list.add("a");
+        list.add("b");
+        Thread.sleep(120);
+        list.add(0, "inserted");
+        list.add(2, "middle");
+        Thread.sleep(120);
+        List<String> alive = elements(list);
+        assertTrue(alive.toString(), alive.contains("inserted"));
+        assertTrue(alive.toString(), alive.contains("middle"));
+        assertFalse(alive.toString(), alive.contains("a"));
+        assertFalse(alive.toString(), alive.contains("b"));
+        Thread.sleep(120);
+        assertTrue(elements(list).isEmpty());
+    }
+
+    /**
+     * Out of order, every element goes at the moment its own time of life is over, also after
+     * the element with the earliest expiry has been removed by hand
+     */
+    @Test
+    public void expiresEachOutOfOrderElementAtItsTime() {
+        VirtualClock clock = new VirtualClock();
+        RingBufferExpirableList<String> list = new RingBufferExpirableList<String>(100, clock);
+        list.add("a");
+        list.add("b", 10);
+        list.add("c", 30);
+        list.add("d", 20);
+        list.remove("b");
+        clock.advance(20);
+        assertEquals(Arrays.asList("a", "c", "d"), elements(list));
+        clock.advance(1);
+        assertEquals(Arrays.asList("a", "c"), elements(list));
+        clock.advance(10);
+        assertEquals(Arrays.asList("a"), elements(list));
+        clock.advance(70);
+        assertTrue(elements(list).isEmpty());
+    }
+
+    /**
+     * Once the order is broken the operations do not pass over the whole list while nothing can
+     * have expired yet
+     */
+    @Test(timeout = 10000)
+    public void keepsTheOperationsConstantOutOfOrder() {
+        VirtualClock clock = new VirtualClock();
+        RingBufferExpirableList<String> list = new RingBufferExpirableList<String>(LONG_TTL, clock);
+        for (int i = 0; i < 200000; i++)
+            list.add("e" + i);
+        list.add("short", 10);
+        for (int i = 0; i < 200000; i++)
+            assertEquals("e" + (i % 1000), list.get(i % 1000));
+        assertTrue(list.contains("short"));
+        clock.advance(11);
+        assertFalse(list.contains("short"));
+        for (int i = 0; i < 200000; i++)
+            assertEquals("e" + (i % 1000), list.get(i % 1000));
+    }
+
+    private static <T> List<T> elements(ExpirableList<T> list) {
+        List<T> result = new ArrayList<T>();
+        Iterator<T> it = list.iterator();
+        while (it.hasNext())
+            result.add(it.next());
+        return result;
+    }
+}
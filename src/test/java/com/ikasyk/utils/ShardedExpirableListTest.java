@@ -0,0 +1,281 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.ikasyk.utils.ExpirableList.Iterator;
+import com.ikasyk.utils.SequencedExpirableList.SequencedIterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedExpirableListTest {
+
+    private static final int WRITERS = 8;
+
+    private static final int PER_WRITER = 10000;
+
+    private final ActionClock clock = new ActionClock();
+
+    /**
+     * Writers on their own shards while readers follow with cursors: a cursor must never pass
+     * an element which is linked later, so every reader sees every element once
+     */
+    @Test
+    public void cursorsLoseNothingWhileShardsAreWritten() throws InterruptedException {
+        final ShardedExpirableList<String> list = new ShardedExpirableList<String>(1000000, 4,
+                ShardedExpirableList.Routing.THREAD, ExpiryPolicy.lazy(), clock);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        Thread[] writers = new Thread[WRITERS];
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            writers[w] = new Thread() {
+                public void run() {
+                    await(start);
+                    for (int i = 0; i < PER_WRITER; i++)
+                        list.add(writer + ":" + i);
+                }
+            };
+        }
+        final List<List<String>> seen = new ArrayList<List<String>>();
+        final List<String> failures = new ArrayList<String>();
+        Thread[] readers = new Thread[2];
+        for (int r = 0; r < readers.length; r++) {
+            final List<String> lines = new ArrayList<String>();
+            seen.add(lines);
+            readers[r] = new Thread() {
+                public void run() {
+                    await(start);
+                    long cursor = 0;
+                    boolean last;
+                    do {
+                        last = !writing.get();
+                        SequencedIterator<String> it = list.iteratorAfter(cursor);
+                        while (it.hasNext()) {
+                            lines.add(it.next());
+                            if (it.sequence() <= cursor) {
+                                synchronized (failures) {
+                                    failures.add("Sequence " + it.sequence() + " after " + cursor);
+                                }
+                            }
+                            cursor = it.sequence();
+                        }
+                    } while (!last);
+                }
+            };
+        }
+        for (Thread t : writers)
+            t.start();
+        for (Thread t : readers)
+            t.start();
+        start.countDown();
+        for (Thread t : writers)
+            t.join();
+        writing.set(false);
+        for (Thread t : readers)
+            t.join();
+        assertTrue(failures.toString(), failures.isEmpty());
+        for (List<String> lines : seen)
+            assertWritten(lines);
+        assertWritten(elements(list));
+        assertEquals(WRITERS * PER_WRITER, list.size());
+    }
+
+    @Test
+    public void numbersAreUniqueAndFollowTheAdds() {
+        ShardedExpirableList<Integer> list = new ShardedExpirableList<Integer>(1000, 4,
+                ShardedExpirableList.Routing.KEY, ExpiryPolicy.lazy(), clock);
+        assertEquals(0, list.lastSequence());
+        for (int i = 0; i < 100; i++)
+            list.add(i);
+        Set<Long> numbers = new HashSet<Long>();
+        SequencedIterator<Integer> it = list.iteratorAfter(0);
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            assertTrue(numbers.add(it.sequence()));
+            count++;
+        }
+        assertEquals(100, count);
+        assertEquals(it.sequence(), list.lastSequence());
+    }
+
+    /**
+     * remove(int) takes the element get(int) sees at that index, not an equal one of another shard
+     */
+    @Test
+    public void removesTheElementAtTheIndex() {
+        ShardedExpirableList<String> list = new ShardedExpirableList<String>(1000, 4,
+                ShardedExpirableList.Routing.THREAD, ExpiryPolicy.lazy(), clock);
+        for (int i = 0; i < 20; i++)
+            list.add(i % 2 == 0 ? "even" : "odd" + i);
+        List<String> before = elements(list);
+        assertEquals(before.get(5), list.remove(5));
+        before.remove(5);
+        assertEquals(before, elements(list));
+        list.remove("even");
+        before.remove("even");
+        assertEquals(before, elements(list));
+    }
+
+    /**
+     * Another removal lands at one of the clock reads of remove(Object): the removed element must
+     * be the one which was asked for, not the one which has moved to its position
+     */
+    @Test
+    public void removesTheEqualElementWhileOthersAreRemoved() {
+        for (int read = 1; ; read++) {
+            final ShardedExpirableList<String> list = new ShardedExpirableList<String>(1000, 4,
+                    ShardedExpirableList.Routing.THREAD, ExpiryPolicy.lazy(), clock);
+            list.add("x");
+            list.add("y");
+            list.add("z");
+            clock.onRead(read, new Runnable() {
+                public void run() {
+                    list.remove("x");
+                }
+            });
+            list.remove("y");
+            if (!clock.ran())
+                break;
+            assertEquals("Removal at read " + read, Arrays.asList("z"), elements(list));
+        }
+    }
+
+    @Test
+    public void keyRoutingKeepsEqualElementsTogether() {
+        ShardedExpirableList<String> list = new ShardedExpirableList<String>(1000, 4,
+                ShardedExpirableList.Routing.KEY, ExpiryPolicy.lazy(), clock);
+        list.add("a");
+        list.add("b");
+        list.add("a");
+        assertTrue(list.contains("a"));
+        list.remove("a");
+        assertTrue(list.contains("a"));
+        list.remove("a");
+        assertFalse(list.contains("a"));
+        assertEquals(1, list.size());
+    }
+
+    @Test
+    public void expiresInEveryShard() {
+        ShardedExpirableList<Integer> list = new ShardedExpirableList<Integer>(10, 4,
+                ShardedExpirableList.Routing.KEY, ExpiryPolicy.lazy(), clock);
+        for (int i = 0; i < 40; i++)
+            list.add(i);
+        list.add(Integer.valueOf(100), 50L);
+        clock.advance(11);
+        list.sweep();
+        assertEquals(1, list.size());
+        assertEquals(Integer.valueOf(100), list.get(0));
+    }
+
+    /**
+     * Inserts at the start, the end and between elements of different shards land at their
+     * index of the merged order, and removals by index take the element at it
+     */
+    @Test
+    public void insertsAtAnIndexOfTheMergedOrder() {
+        ShardedExpirableList<String> list = new ShardedExpirableList<String>(1000, 4,
+                ShardedExpirableList.Routing.KEY, ExpiryPolicy.lazy(), clock);
+        List<String> expected = new ArrayList<String>();
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            int index = random.nextInt(expected.size() + 1);
+            if (i % 5 == 4) {
+                index = Math.min(index, expected.size() - 1);
+                assertEquals(expected.remove(index), list.remove(index));
+            } else {
+                list.add(index, "e" + i);
+                expected.add(index, "e" + i);
+            }
+        }
+        List<String> actual = new ArrayList<String>();
+        for (Iterator<String> it = list.iterator(); it.hasNext(); )
+            actual.add(it.next());
+        assertEquals(expected, actual);
+        assertEquals(expected.size(), list.size());
+        assertEquals(expected.get(expected.size() / 2), list.get(expected.size() / 2));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void refusesToInsertPastTheEnd() {
+        ShardedExpirableList<String> list = new ShardedExpirableList<String>(1000, 4);
+        list.add("a");
+        list.add(2, "b");
+    }
+
+    /**
+     * A virtual clock which runs an action at one of its reads
+     */
+    private static class ActionClock extends VirtualClock {
+        // Reads left until the action, the action runs when it reaches zero
+        private int countdown;
+
+        private Runnable action;
+
+        void onRead(int read, Runnable action) {
+            this.countdown = read;
+            this.action = action;
+        }
+
+        /**
+         * @return true if the action has run, false if there were fewer reads
+         */
+        boolean ran() {
+            boolean ran = action == null;
+            action = null;
+            return ran;
+        }
+
+        @Override
+        public long millis() {
+            if (action != null && --countdown == 0) {
+                Runnable run = action;
+                action = null;
+                run.run();
+            }
+            return super.millis();
+        }
+    }
+
+    /**
+     * Checks that the lines hold every line of every writer once, in the order of the writer
+     */
+    private static void assertWritten(List<String> lines) {
+        int[] next = new int[WRITERS];
+        for (String line : lines) {
+            int colon = line.indexOf(':');
+            int writer = Integer.parseInt(line.substring(0, colon));
+            assertEquals("Line of writer " + writer, next[writer]++, Integer.parseInt(line.substring(colon + 1)));
+        }
+        for (int w = 0; w < WRITERS; w++)
+            assertEquals("Lines of writer " + w, PER_WRITER, next[w]);
+    }
+
+    private static <T> List<T> elements(ExpirableList<T> list) {
+        List<T> result = new ArrayList<T>();
+        Iterator<T> it = list.iterator();
+        while (it.hasNext())
+            result.add(it.next());
+        return result;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.ikasyk.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.ikasyk.utils.ExpirableList.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelExpirableListTest {
+
+    /**
+     * Elements expire by their own time of life, not in the order they were added
+     */
+    @Test
+    public void expiresEachElementByItsOwnTime() throws InterruptedException {
+        TimingWheelExpirableList<String> list = new TimingWheelExpirableList<String>(1000);
+        list.add("long");
+        list.add("short", 50);
+        list.add("default");
+        list.add(1, "inserted");
+        list.add("shorter", 20);
+        assertEquals(Arrays.asList("long", "inserted", "short", "default", "shorter"), elements(list));
+        Thread.sleep(100);
+        assertEquals(Arrays.asList("long", "inserted", "default"), elements(list));
+        assertEquals(3, list.size());
+        assertFalse(list.contains("short"));
+        assertEquals("default", list.get(2));
+    }
+
+    @Test
+    public void cancelsTheExpiryOfRemovedElements() throws InterruptedException {
+        TimingWheelExpirableList<String> list = new TimingWheelExpirableList<String>(1000);
+        list.add("a", 30);
+        list.add("b", 30);
+        list.add("c");
+        list.remove("a");
+        assertEquals("b", list.remove(0));
+        Thread.sleep(60);
+        assertEquals(Arrays.asList("c"), elements(list));
+        assertEquals(1, list.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesANegativeTimeOfLife() {
+        new TimingWheelExpirableList<String>(1000).add("a", -1);
+    }
+
+    /**
+     * Every implementation keeps an element with a short time of life only until it expires
+     */
+    @Test
+    public void everyListHonoursThePerElementTime() throws InterruptedException {
+        List<ExpirableList<String>> lists = new ArrayList<ExpirableList<String>>();
+        lists.add(new ArrayExpirableList<String>(1000));
+        lists.add(new LinkedExpirableList<String>(1000));
+        lists.add(new RingBufferExpirableList<String>(1000));
+        lists.add(new ConcurrentExpirableList<String>(1000));
+        lists.add(new TimingWheelExpirableList<String>(1000));
+        for (ExpirableList<String> list : lists) {
+            list.add("short", 30);
+            list.add("long");
+        }
+        Thread.sleep(60);
+        for (ExpirableList<String> list : lists) {
+            assertFalse(list.getClass().getSimpleName(), list.contains("short"));
+            assertTrue(list.getClass().getSimpleName(), list.contains("long"));
+        }
+    }
+
+    /**
+     * An insert at the end advances the wheel once, like an append
+     */
+    @Test
+    public void insertsAtTheEndWithOneExpiry() {
+        final int[] reads = new int[1];
+        VirtualClock clock = new VirtualClock() {
+            @Override
+            public long millis() {
+                reads[0]++;
+                return super.millis();
+            }
+        };
+        TimingWheelExpirableList<String> list = new TimingWheelExpirableList<String>(1000, clock);
+        list.add("a");
+        reads[0] = 0;
+        list.add(1, "b");
+        int insert = reads[0];
+        reads[0] = 0;
+        list.add("c");
+        assertEquals(reads[0], insert);
+        assertEquals(Arrays.asList("a", "b", "c"), elements(list));
+    }
+
+    private static <T> List<T> elements(ExpirableList<T> list) {
+        List<T> result = new ArrayList<T>();
+        Iterator<T> it = list.iterator();
+        while (it.hasNext())
+            result.add(it.next());
+        return result;
+    }
+}